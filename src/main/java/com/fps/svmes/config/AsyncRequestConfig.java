@@ -0,0 +1,36 @@
+package com.fps.svmes.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Per-request async timeouts. spring.mvc.async.request-timeout stays short for the Callable endpoints; a handler
+ * that needs longer (the streaming exports) sets {@link #TIMEOUT_ATTRIBUTE} on the request before returning.
+ */
+@Configuration
+public class AsyncRequestConfig implements WebMvcConfigurer {
+
+    /** Request attribute holding the async timeout in milliseconds for this request only. */
+    public static final String TIMEOUT_ATTRIBUTE = AsyncRequestConfig.class.getName() + ".timeout";
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+            // Runs before the servlet async context is started, so the new timeout still applies
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+                Object timeout = request.getAttribute(TIMEOUT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+                if (timeout instanceof Long millis && request instanceof AsyncWebRequest asyncRequest) {
+                    asyncRequest.setTimeout(millis);
+                }
+            }
+        });
+    }
+}
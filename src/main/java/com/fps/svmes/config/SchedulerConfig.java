@@ -1,5 +1,6 @@
 package com.fps.svmes.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
@@ -13,10 +14,11 @@ import org.springframework.web.client.RestTemplate;
 @EnableScheduling
 public class SchedulerConfig {
 
+    // Runs the @Scheduled jobs; dispatches themselves run on DispatchScheduler's worker pool
     @Bean
-    public ThreadPoolTaskScheduler taskScheduler() {
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${scheduler.pool-size:4}") int poolSize) {
         ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
-        scheduler.setPoolSize(1);
+        scheduler.setPoolSize(poolSize);
         scheduler.setThreadNamePrefix("QuartzTaskScheduler-");
         return scheduler;
     }
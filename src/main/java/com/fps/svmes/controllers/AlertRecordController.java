@@ -9,16 +9,20 @@ import com.fps.svmes.models.sql.alert.AlertRecord;
 import com.fps.svmes.models.sql.alert.AlertStatus;
 import com.fps.svmes.models.sql.alert.RiskLevel;
 import com.fps.svmes.services.AlertRecordService;
+import com.fps.svmes.services.AlertStreamService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import com.fps.svmes.repositories.jpaRepo.alert.RiskLevelRepository;
 import com.fps.svmes.repositories.jpaRepo.alert.AlertStatusRepository;
 
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +35,7 @@ import java.util.stream.Collectors;
 public class AlertRecordController {
 
     private final AlertRecordService alertRecordService;
+    private final AlertStreamService alertStreamService;
 
     @Autowired
     private ModelMapper modelMapper;
@@ -100,19 +105,46 @@ public class AlertRecordController {
     /**
      * Retrieves a summary of alert records.
      *
+     * @param startDateTime optional ISO-8601 lower bound of alert_time (e.g. 2025-01-01T00:00:00+08:00)
+     * @param endDateTime   optional ISO-8601 upper bound of alert_time
      * @return An AlertSummaryDTO containing summary information
      */
     @GetMapping("/summary")
-    public ResponseEntity<?> getAlertSummary() {
+    public ResponseEntity<?> getAlertSummary(@RequestParam(required = false) String startDateTime,
+                                             @RequestParam(required = false) String endDateTime) {
         try {
-            AlertSummaryDTO summary = alertRecordService.getAlertSummary();
+            OffsetDateTime from = startDateTime != null ? OffsetDateTime.parse(startDateTime) : null;
+            OffsetDateTime to = endDateTime != null ? OffsetDateTime.parse(endDateTime) : null;
+            AlertSummaryDTO summary = alertRecordService.getAlertSummary(from, to);
             return ResponseEntity.ok(summary);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("Invalid date time: " + e.getParsedString());
         } catch (Exception e) {
             log.error("Failed to get alert summary", e);
             return ResponseEntity.status(500).body("Error fetching summary: " + e.getMessage());
         }
     }
 
+    /**
+     * Server-sent events for created ("created") and updated ("updated") alerts, each carrying the alert as a
+     * /filter row. A "resync" event means events were dropped and the list should be reloaded.
+     *
+     * @param templateId  only alerts of this form template
+     * @param riskLevelId only alerts of this risk level
+     * @param productId   only alerts linked to this product
+     * @return the event stream
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> streamAlerts(@RequestParam(required = false) Long templateId,
+                                          @RequestParam(required = false) Integer riskLevelId,
+                                          @RequestParam(required = false) Long productId) {
+        try {
+            return ResponseEntity.ok(alertStreamService.subscribe(templateId, riskLevelId, productId));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(e.getMessage());
+        }
+    }
+
     /**
      * Filters alert records based on various criteria.
      *
@@ -133,7 +133,7 @@ public class DispatchController {
             Optional<Dispatch> dispatch = dispatchRepository.findByIdAndStatus(id, 1);
             if (dispatch.isPresent()){
                 Long dispatch_id = dispatch.get().getId();
-                dispatchService.initializeDispatch(dispatch_id, () -> dispatchService.executeDispatch(dispatch_id));
+                dispatchService.initializeDispatch(dispatch_id);
                 return ResponseResult.success("Task scheduled successfully for Dispatch ID: " + id);
             } else {
                 return ResponseResult.fail("Failed to schedule a dispatch's task, dispatch not found with ID: " + id);
@@ -1,14 +1,19 @@
 package com.fps.svmes.controllers;
 
 import com.fps.svmes.dto.dtos.alert.ExceededFieldInfoDTO;
-import com.fps.svmes.dto.dtos.qcForm.QcApprovalAssignmentDTO;
 import com.fps.svmes.dto.dtos.qcForm.QcFormTemplateDTO;
+import com.fps.svmes.dto.requests.FormSubmissionRequest;
 import com.fps.svmes.services.*;
+import com.fps.svmes.utils.FormCollectionCatalog;
+import com.fps.svmes.utils.MongoFormDataQueryUtils;
+import com.fps.svmes.utils.SubmissionDirectory;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -44,10 +49,22 @@ public class QcFormDataController {
     private ApprovalInfoGeneratorService approvalInfoGeneratorService;
 
     @Autowired
-    private QcApprovalAssignmentService qcApprovalAssignmentService;
+    private MongoFormDataQueryUtils mongoFormDataQueryUtils;
 
     @Autowired
-    private QcSnapshotSubmissionService qcSnapshotSubmissionService;
+    private FormCollectionCatalog formCollectionCatalog;
+
+    @Autowired
+    private SubmissionDirectory submissionDirectory;
+
+    @Autowired
+    private QcFormDataIngestService qcFormDataIngestService;
+
+    @Autowired
+    private SubmissionOutboxService submissionOutboxService;
+
+    @Value("${qc-form-data.batch.max-size:1000}")
+    private int maxBatchSize;
 
     @PostMapping("/insert-form/{userId}/{collectionName}")
     public ResponseEntity<?> insertFormData(
@@ -68,8 +85,8 @@ public class QcFormDataController {
                 return ResponseEntity.status(400).body("Invalid form template ID in collection name: " + collectionName);
             }
 
-            // Check if the collection exists
-            if (!mongoTemplate.collectionExists(collectionName)) {
+            // Check if the collection exists (the catalog answers for known partitions without a round trip)
+            if (!formCollectionCatalog.contains(collectionName) && !mongoTemplate.collectionExists(collectionName)) {
                 // Check if the template exists using QcFormTemplateService
                 QcFormTemplateDTO template = qcFormTemplateService.getTemplateById(formTemplateId);
                 if (template == null) {
@@ -78,13 +95,16 @@ public class QcFormDataController {
 
                 // Create the collection dynamically
                 mongoTemplate.createCollection(collectionName);
+                mongoFormDataQueryUtils.ensureIndexes(mongoTemplate.getCollection(collectionName));
                 log.info("Created new collection: {}", collectionName);
             }
+            formCollectionCatalog.register(collectionName);
 
             // Insert the form data
             Map<String, Object> document = new HashMap<>(formData);
             document.put("created_at", new Date());
             document.put("created_by", userId);
+            document.put(MongoFormDataQueryUtils.LATEST_FIELD, true);
 
             Map<String, ExceededFieldInfoDTO> exceededInfoMap = controlLimitEvaluationService.evaluateExceededInfo(formTemplateId, formData);
             document.put("exceeded_info", exceededInfoMap);
@@ -93,30 +113,21 @@ public class QcFormDataController {
             List<Map<String, Object>> approvalInfo = approvalInfoGeneratorService.generateApprovalInfo(approvalType, userId);
             document.put("approval_info", approvalInfo);
 
-            // 👉 Insert the document into MongoDB
-            Document insertedDocument = mongoTemplate.insert(new Document(document), collectionName);
-
-            // ✅ Approval snapshot logic comes AFTER insertedDocument is available
-            QcApprovalAssignmentDTO assignmentDTO = new QcApprovalAssignmentDTO();
-            assignmentDTO.setSubmissionId(insertedDocument.getObjectId("_id").toString());
-            assignmentDTO.setQcFormTemplateId(formTemplateId);
-            assignmentDTO.setQcFormTemplateName(qcFormTemplateService.getTemplateById(formTemplateId).getName());
-            assignmentDTO.setMongoCollection(collectionName);
-            assignmentDTO.setApprovalType(approvalType);
-
-            // Hardcoded flow initial state for now
-            if ("flow_1".equals(approvalType)) {
-                assignmentDTO.setState("fully_approved");
-            } else if ("flow_3".equals(approvalType)) {
-                assignmentDTO.setState("pending_supervisor");
-            } else {
-                assignmentDTO.setState("pending_leader");
+            // 👉 Record the follow-up work (approval assignment, alerts, rollups), then insert the document into MongoDB
+            ObjectId submissionId = new ObjectId();
+            document.put("_id", submissionId);
+            submissionOutboxService.recordCreated(submissionId, collectionName, formTemplateId, userId);
+            Document insertedDocument;
+            try {
+                insertedDocument = mongoTemplate.insert(new Document(document), collectionName);
+            } catch (Exception e) {
+                submissionOutboxService.discard(submissionId);
+                throw e;
             }
+            submissionDirectory.register(collectionName, insertedDocument);
 
-            qcApprovalAssignmentService.insertIfNotExists(assignmentDTO);
-
-            // Evaluate control limits and trigger alerts if needed
-            controlLimitEvaluationService.evaluateAndTriggerAlerts(formTemplateId, userId, formData, insertedDocument.getObjectId("_id").toString());
+            // ✅ Approval assignment and alerts are created by the outbox workers once the document is stored
+            submissionOutboxService.publish(submissionId);
 
             // Prepare response
             Map<String, Object> response = new HashMap<>();
@@ -130,6 +141,31 @@ public class QcFormDataController {
         }
     }
 
+    /**
+     * Insert many submissions in one call, e.g. readings a line terminal buffered while offline.
+     * Each item is reported separately; a failed item doesn't fail the others.
+     */
+    @PostMapping("/insert-forms/{userId}")
+    public ResponseEntity<?> insertFormsData(
+            @PathVariable Long userId,
+            @RequestBody List<FormSubmissionRequest> forms) {
+        if (forms == null || forms.isEmpty()) {
+            return ResponseEntity.status(400).body("No form data to insert");
+        }
+        if (forms.size() > maxBatchSize) {
+            return ResponseEntity.status(400).body("Too many forms in one batch: " + forms.size() + " (max " + maxBatchSize + ")");
+        }
+
+        List<Map<String, Object>> results = qcFormDataIngestService.insertForms(userId, forms);
+        long inserted = results.stream().filter(r -> "inserted".equals(r.get("status"))).count();
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("inserted", inserted);
+        response.put("failed", results.size() - inserted);
+        response.put("results", results);
+        return ResponseEntity.ok(response);
+    }
+
     @PostMapping("/edit-form/{userId}/{collectionName}")
     public ResponseEntity<?> editFormData(
             @PathVariable String collectionName,
@@ -160,6 +196,7 @@ public class QcFormDataController {
                 parent.put("version_group_id", versionGroupId);
                 parent.put("version", parentVersion);
                 mongoTemplate.save(parent, collectionName);  // update parent with version info
+                submissionDirectory.register(collectionName, parent);
             }
 
             // Set version info for the new version
@@ -167,22 +204,30 @@ public class QcFormDataController {
             newDoc.put("version", parentVersion + 1);
             newDoc.put("created_at", new Date());
             newDoc.put("created_by", userId);
+            newDoc.put(MongoFormDataQueryUtils.LATEST_FIELD, true);
 
             Map<String, ExceededFieldInfoDTO> exceededInfoMap =
                     controlLimitEvaluationService.evaluateExceededInfo(formTemplateId, updatedData);
             newDoc.put("exceeded_info", exceededInfoMap);
 
-            Document inserted = mongoTemplate.insert(new Document(newDoc), collectionName);
-            String newSubmissionId = inserted.getObjectId("_id").toString();
-
-            // Update the approval assignment to point to the new submission id
-            qcApprovalAssignmentService.updateSubmissionId(parentSubmissionId, newSubmissionId);
+            ObjectId newId = new ObjectId();
+            newDoc.put("_id", newId);
+            submissionOutboxService.recordEdited(newId, parentSubmissionId, collectionName, formTemplateId, userId);
+            Document inserted;
+            try {
+                inserted = mongoTemplate.insert(new Document(newDoc), collectionName);
+            } catch (Exception e) {
+                submissionOutboxService.discard(newId);
+                throw e;
+            }
+            String newSubmissionId = newId.toString();
+            submissionDirectory.register(collectionName, inserted);
 
-            // Delete the old snapshot submission to prevent duplication (the new one will be picked up by the next snapshot run)
-            qcSnapshotSubmissionService.deleteBySubmissionId(parentSubmissionId);
+            // The new version is in place, now demote the previous ones
+            MongoFormDataQueryUtils.markSuperseded(mongoTemplate.getCollection(collectionName), versionGroupId, newId);
 
-            // 3. Trigger alerts if needed
-            controlLimitEvaluationService.evaluateAndTriggerAlerts(formTemplateId, userId, newDoc, newSubmissionId);
+            // 3. Rollups, approval assignment, snapshot cleanup and alerts are handled by the outbox workers
+            submissionOutboxService.publish(newId);
 
             // 4. Return response
             Map<String, Object> res = new HashMap<>();
@@ -1,24 +1,42 @@
 package com.fps.svmes.controllers;
 
+import com.fps.svmes.config.AsyncRequestConfig;
+import com.fps.svmes.dto.CursorPageDTO;
 import com.fps.svmes.dto.PagedResultDTO;
 import com.fps.svmes.dto.dtos.reporting.WidgetDataDTO;
+import com.fps.svmes.services.FormRollupService;
 import com.fps.svmes.services.ReportingService;
 import org.bson.Document;
+import com.fps.svmes.utils.QcRecordExportWriter;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/reporting")
 public class ReportingController {
 
     private final ReportingService reportingService;
+    private final FormRollupService formRollupService;
+
+    // Streaming exports of long ranges outlive spring.mvc.async.request-timeout, so they get their own
+    @Value("${reporting.export.async-timeout-ms:1800000}")
+    private long exportTimeoutMillis;
 
     @Autowired
-    public ReportingController(ReportingService reportingService) {
+    public ReportingController(ReportingService reportingService, FormRollupService formRollupService) {
         this.reportingService = reportingService;
+        this.formRollupService = formRollupService;
     }
 
     @PostMapping("/extract")
@@ -26,13 +44,17 @@ public class ReportingController {
         return reportingService.extractWidgetData(jsonInput);
     }
 
+    /**
+     * Runs as an async Callable so that when spring.mvc.async.request-timeout expires the handler is interrupted
+     * and the per-collection queries still in flight are cancelled.
+     */
     @PostMapping("/extract-with-counts")
-    public List<WidgetDataDTO> extractWidgetDataWithCounts(
+    public Callable<List<WidgetDataDTO>> extractWidgetDataWithCounts(
             @RequestParam Long formTemplateId,
             @RequestParam(required = false) String startDateTime,
             @RequestParam(required = false) String endDateTime
     ) {
-        return reportingService.extractWidgetDataWithCounts(formTemplateId, startDateTime, endDateTime);
+        return () -> reportingService.extractWidgetDataWithCounts(formTemplateId, startDateTime, endDateTime);
     }
 
     /**
@@ -59,20 +81,88 @@ public class ReportingController {
         );
     }
 
+    /**
+     * Fetch QC records with cursor (keyset) pagination, sorted by created_at.
+     * Cost per page no longer depends on how deep the page is or how long the range is.
+     */
+    @GetMapping("/qc-records/cursor")
+    public CursorPageDTO<Document> getQcRecordsByCursor(
+            @RequestParam Long formTemplateId,
+            @RequestParam String startDateTime,
+            @RequestParam String endDateTime,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "15") int size,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) String search,
+            @RequestParam(defaultValue = "false") boolean includeTotal
+    ) {
+        return reportingService.fetchQcRecordsByCursor(
+                formTemplateId,
+                startDateTime,
+                endDateTime,
+                cursor,
+                size,
+                sort,
+                search,
+                includeTotal
+        );
+    }
+
+    /**
+     * Export QC records. Without a format the whole result is returned as a JSON array (kept for existing
+     * clients); with format=ndjson|csv|xlsx the records are streamed row by row in created_at order.
+     */
     @GetMapping("/qc-records/export")
-    public ResponseEntity<List<Document>> exportQcRecords(
+    public ResponseEntity<?> exportQcRecords(
             @RequestParam Long   formTemplateId,
             @RequestParam String startDateTime,
             @RequestParam String endDateTime,
             @RequestParam(required = false) String search,
-            @RequestParam(required = false) String sort) {
-
-        List<Document> allRecords = reportingService.fetchAllRecordsWithoutPagination(
-                formTemplateId, startDateTime, endDateTime, search, sort);
-
-        return ResponseEntity.ok(allRecords);
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request) {
+
+        if (format == null || format.isEmpty() || "json".equalsIgnoreCase(format)) {
+            List<Document> allRecords = reportingService.fetchAllRecordsWithoutPagination(
+                    formTemplateId, startDateTime, endDateTime, search, sort);
+
+            return ResponseEntity.ok(allRecords);
+        }
+
+        String normalizedFormat = QcRecordExportWriter.normalizeFormat(format);
+        if (!QcRecordExportWriter.isSupported(normalizedFormat)) {
+            return ResponseEntity.badRequest().body("Unsupported export format: " + format);
+        }
+        // Checked here: once the body streams the headers are sent and an error can no longer be a 400
+        try {
+            reportingService.validateExportRequest(startDateTime, endDateTime, sort);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        StreamingResponseBody body = outputStream -> reportingService.exportQcRecords(
+                formTemplateId, startDateTime, endDateTime, search, sort, normalizedFormat, outputStream);
+        request.setAttribute(AsyncRequestConfig.TIMEOUT_ATTRIBUTE, exportTimeoutMillis);
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=qc_records_" + formTemplateId + "." + normalizedFormat)
+                .contentType(MediaType.parseMediaType(QcRecordExportWriter.contentType(normalizedFormat)))
+                .body(body);
     }
 
+    /**
+     * Rebuild the reporting rollups of a template from its raw collections. Until the first rebuild (or after a
+     * failed incremental update) the dashboard counts are computed from the raw submissions.
+     */
+    @PostMapping("/rollups/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildRollups(@RequestParam Long formTemplateId) {
+        long rows = formRollupService.rebuild(formTemplateId);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("formTemplateId", formTemplateId);
+        response.put("rows", rows);
+        return ResponseEntity.ok(response);
+    }
 
     /**
      * Fetch QC records filtered by created_by ID, with pagination.
@@ -14,6 +14,7 @@ import org.springframework.web.bind.annotation.*;
 import java.sql.Timestamp;
 import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/spc")
@@ -26,15 +27,21 @@ public class SPCController {
         this.spcService = spcService;
     }
 
+    /**
+     * Runs as an async Callable: when spring.mvc.async.request-timeout expires the handler thread is interrupted
+     * and the partition queries still in flight are cancelled.
+     */
     @GetMapping("")
-    public ResponseResult<List<SPCDTO>> getSPCData(
+    public Callable<ResponseResult<List<SPCDTO>>> getSPCData(
             @Valid @RequestBody SPCRequest request
             ) throws IllegalArgumentException {
-        try {
-            List<SPCDTO> results = spcService.getSPCData(request);
-            return ResponseResult.success(results);
-        } catch (Exception e) {
-            return ResponseResult.fail("Error fetching SPC data: " + e);
-        }
+        return () -> {
+            try {
+                List<SPCDTO> results = spcService.getSPCData(request);
+                return ResponseResult.success(results);
+            } catch (Exception e) {
+                return ResponseResult.fail("Error fetching SPC data: " + e);
+            }
+        };
     }
 }
@@ -0,0 +1,22 @@
+package com.fps.svmes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 游标分页结果 DTO：nextCursor 为不透明字符串，传回即可获取下一页
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageDTO<T> {
+    private List<T> content;
+    private String nextCursor;
+    private boolean hasMore;
+    private int pageSize;
+    // Only filled when requested; counts every version in range, so it is an upper bound
+    private Long estimatedTotalElements;
+}
@@ -64,7 +64,10 @@ public class AlertRecordDTO extends CommonDTO {
     private Integer alertStatus;
 
     @JsonProperty("alert_type")
-    private String alertType; // "number" or "options"
+    private String alertType; // "number", "options" or "rule"
+
+    @JsonProperty("rule")
+    private String rule; // run rule of a "rule" alert, e.g. NELSON_2
 
     @JsonProperty("option_items")
     private List<String> optionItems;
@@ -86,4 +89,10 @@ public class AlertRecordDTO extends CommonDTO {
 
     @JsonProperty("submission_id")
     private String submissionId;
+
+    @JsonProperty("occurrence_count")
+    private Integer occurrenceCount;
+
+    @JsonProperty("last_seen_at")
+    private OffsetDateTime lastSeenAt;
 }
@@ -70,6 +70,9 @@ public class DetailedAlertRecordDTO extends CommonDTO {
     @JsonProperty("alert_type")
     private String alertType;
 
+    @JsonProperty("rule")
+    private String rule;
+
     @JsonProperty("option_items")
     private List<String> optionItems;
 
@@ -91,4 +94,10 @@ public class DetailedAlertRecordDTO extends CommonDTO {
     @JsonProperty("submission_id")
     private String submissionId;
 
+    @JsonProperty("occurrence_count")
+    private Integer occurrenceCount;
+
+    @JsonProperty("last_seen_at")
+    private OffsetDateTime lastSeenAt;
+
 }
@@ -7,6 +7,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fps.svmes.dto.dtos.CommonDTO;
 import com.fps.svmes.dto.dtos.user.UserDTO;
+import com.fps.svmes.models.sql.taskSchedule.MisfirePolicy;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
@@ -50,6 +51,15 @@ public class DispatchDTO extends CommonDTO {
     @JsonProperty("due_date_offset_minute")
     private Integer dueDateOffsetMinute;
 
+    @JsonProperty("next_fire_at")
+    private OffsetDateTime nextFireAt;
+
+    @JsonProperty("misfire_policy")
+    private MisfirePolicy misfirePolicy;
+
+    @JsonProperty("misfire_catch_up_limit")
+    private Integer misfireCatchUpLimit;
+
     @JsonProperty("user_ids")
     private List<Integer> userIds;
 
@@ -0,0 +1,24 @@
+package com.fps.svmes.dto.dtos.notification;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationDTO {
+
+    @JsonProperty("channel")
+    private String channel; // Channel name, e.g. "wecom" or "email"
+
+    @JsonProperty("recipient")
+    private String recipient; // WeCom user id or email address, depending on the channel
+
+    @JsonProperty("subject")
+    private String subject;
+
+    @JsonProperty("content")
+    private String content; // Plain text, one item per line; the channel does the formatting
+}
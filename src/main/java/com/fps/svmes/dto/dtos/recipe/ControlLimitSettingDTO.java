@@ -34,6 +34,9 @@ public class ControlLimitSettingDTO {
         @JsonProperty("optionItems")
         private java.util.List<OptionItem> optionItems;
 
+        @JsonProperty("suppression_window_minutes")
+        private Integer suppressionWindowMinutes;
+
         @Data
         public static class OptionItem {
             private String label;
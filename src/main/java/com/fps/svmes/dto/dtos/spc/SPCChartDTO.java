@@ -0,0 +1,38 @@
+package com.fps.svmes.dto.dtos.spc;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * I-MR (individuals and moving range) or XBAR-R (subgroup mean and range) chart with computed control limits.
+ * Chart-level limits are null when subgroup sizes vary (time buckets); each point then carries its own.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SPCChartDTO {
+    private String type;
+
+    private Integer subgroupSize;
+
+    private Integer subgroupCount;
+
+    private Double sigma;
+
+    private Double centerLine;
+
+    private Double lcl;
+
+    private Double ucl;
+
+    private Double rangeCenterLine;
+
+    private Double rangeLcl;
+
+    private Double rangeUcl;
+
+    private List<SPCChartPointDTO> points;
+}
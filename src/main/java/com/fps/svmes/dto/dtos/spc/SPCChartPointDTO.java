@@ -0,0 +1,34 @@
+package com.fps.svmes.dto.dtos.spc;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+
+/**
+ * An individual (I-MR) or a subgroup (XBAR-R, timestamp of its first point). Limits are only set on points of
+ * charts whose subgroup sizes vary.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SPCChartPointDTO {
+    private Timestamp timestamp;
+
+    private Double value;
+
+    private Double range;
+
+    private Integer n;
+
+    private Double lcl;
+
+    private Double ucl;
+
+    private Double rangeLcl;
+
+    private Double rangeUcl;
+}
@@ -19,4 +19,8 @@ public class SPCDTO {
     private LimitDTO limits;
 
     private List<TimeSeriesDTO> timeSeries;
+
+    private SPCSummaryDTO summary;
+
+    private SPCChartDTO chart;
 }
@@ -0,0 +1,37 @@
+package com.fps.svmes.dto.dtos.spc;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Statistics over every point of a field in the requested range, whatever the downsampling.
+ * Capability indices are against the field's control limit setting (lower/upper as LSL/USL); Cp/Cpk use the
+ * within sigma (pooled for subgroups, moving range for individuals), Pp/Ppk the overall standard deviation.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SPCSummaryDTO {
+    private Integer count;
+
+    private Double mean;
+
+    private Double min;
+
+    private Double max;
+
+    private Double stdDev;
+
+    private Double sigmaMovingRange;
+
+    private Double sigmaPooled;
+
+    private Double cp;
+
+    private Double cpk;
+
+    private Double pp;
+
+    private Double ppk;
+}
@@ -0,0 +1,20 @@
+package com.fps.svmes.dto.requests;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FormSubmissionRequest {
+
+    @Schema(description = "Target collection, form_template_{id}_{yyyyMM}", example = "form_template_604_202601")
+    private String collectionName;
+
+    @Schema(description = "Submitted form fields, same body as /insert-form")
+    private Map<String, Object> formData;
+}
@@ -1,6 +1,8 @@
 package com.fps.svmes.dto.requests;
 
 import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
 import lombok.AllArgsConstructor;
@@ -31,4 +33,20 @@ public class SPCRequest {
 
     @Schema(description = "List of Fields", example = "['field_1', 'field_2']")
     private ArrayList<String> fields;
+
+    @Min(1)
+    @Max(25)
+    @Schema(description = "Points per subgroup for an XBAR-R chart; 1 or empty gives an I-MR chart", example = "5")
+    private Integer subgroupSize;
+
+    @Positive
+    @Schema(description = "Group points into subgroups by time bucket of this many minutes (takes precedence over subgroupSize)", example = "60")
+    private Integer subgroupMinutes;
+
+    @Min(2)
+    @Schema(description = "Downsample timeSeries and chart points to about this many points, keeping each bucket's min and max", example = "2000")
+    private Integer maxPoints;
+
+    @Schema(description = "Return timeSeries and chart points; false returns only limits, summary and chart limits", example = "true")
+    private Boolean includePoints = true;
 }
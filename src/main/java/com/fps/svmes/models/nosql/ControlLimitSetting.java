@@ -40,6 +40,10 @@ public class ControlLimitSetting {
         @Field("optionItems")
         private java.util.List<OptionItem> optionItems;
 
+        // Repeat alerts within this many minutes of the open alert are merged into it; null uses the default, 0 disables
+        @Field("suppression_window_minutes")
+        private Integer suppressionWindowMinutes;
+
         @Data
         public static class OptionItem {
             private String label;
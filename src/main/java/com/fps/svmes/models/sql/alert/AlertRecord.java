@@ -5,6 +5,8 @@ import com.fps.svmes.models.sql.Common;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.hibernate.annotations.BatchSize;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
@@ -17,8 +19,13 @@ import java.util.List;
 @EqualsAndHashCode(callSuper = true)
 public class AlertRecord extends Common {
 
+    // At least the largest page size of the alert list views
+    public static final int ASSOCIATION_BATCH_SIZE = 100;
+
+    // Pooled sequence ids keep inserts batchable; the sequence must INCREMENT BY 50 to match allocationSize
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "qc_alert_record_seq")
+    @SequenceGenerator(name = "qc_alert_record_seq", sequenceName = "quality_management.qc_alert_record_id_seq", allocationSize = 50)
     @Column(name = "id")
     @JsonProperty("id")
     private Long id;
@@ -67,20 +74,38 @@ public class AlertRecord extends Common {
     @JsonProperty("alert_status")
     private Integer alertStatus;
 
-    @OneToMany(mappedBy = "alert", fetch = FetchType.EAGER, cascade = CascadeType.ALL, orphanRemoval = true)
+    // Loaded on access, batch-fetched by IN queries of up to ASSOCIATION_BATCH_SIZE alerts (see getDetailedList)
+    @OneToMany(mappedBy = "alert", fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+    @BatchSize(size = ASSOCIATION_BATCH_SIZE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private List<AlertProduct> alertProducts = new ArrayList<>();
 
-    @OneToMany(mappedBy = "alert", fetch = FetchType.EAGER, cascade = CascadeType.ALL, orphanRemoval = true)
+    @OneToMany(mappedBy = "alert", fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+    @BatchSize(size = ASSOCIATION_BATCH_SIZE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private List<AlertBatch> alertBatches = new ArrayList<>();
 
-    @OneToMany(mappedBy = "alert", fetch = FetchType.EAGER, cascade = CascadeType.ALL, orphanRemoval = true)
+    @OneToMany(mappedBy = "alert", fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+    @BatchSize(size = ASSOCIATION_BATCH_SIZE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private List<AlertInspector> alertInspectors = new ArrayList<>();
 
-    @OneToMany(mappedBy = "alert", fetch = FetchType.EAGER, cascade = CascadeType.ALL, orphanRemoval = true)
+    @OneToMany(mappedBy = "alert", fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+    @BatchSize(size = ASSOCIATION_BATCH_SIZE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private List<AlertReviewer> alertReviewers = new ArrayList<>();
 
     @JsonProperty("alert_type")
-    private String alertType; // "number" or "options"
+    private String alertType; // "number", "options" or "rule"
+
+    // Run rule that raised a "rule" alert, e.g. NELSON_2
+    @Column(name = "rule")
+    @JsonProperty("rule")
+    private String rule;
 
     @JsonProperty("option_items")
     private List<String> optionItems;
@@ -103,4 +128,13 @@ public class AlertRecord extends Common {
     @JsonProperty("submission_id")
     private String submissionId;
 
+    // Repeats of the same template field within its suppression window are counted here instead of inserted
+    @Column(name = "occurrence_count")
+    @JsonProperty("occurrence_count")
+    private Integer occurrenceCount;
+
+    @Column(name = "last_seen_at")
+    @JsonProperty("last_seen_at")
+    private OffsetDateTime lastSeenAt;
+
 }
@@ -14,7 +14,8 @@ import java.util.Map;
 @Data
 public class AlertRecordLog {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "qc_alert_record_log_seq")
+    @SequenceGenerator(name = "qc_alert_record_log_seq", sequenceName = "quality_management.qc_alert_record_log_id_seq", allocationSize = 50)
     private Long id;
 
     private Long alertRecordId;
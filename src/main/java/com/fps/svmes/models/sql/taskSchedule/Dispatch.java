@@ -54,6 +54,22 @@ public class Dispatch extends Common {
     @Column(name = "due_date_offset_minute")
     private Integer dueDateOffsetMinute; // Total offset in minutes, default to 1 hour
 
+    @Column(name = "next_fire_at")
+    private OffsetDateTime nextFireAt; // Next due execution, null when nothing is scheduled
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "misfire_policy")
+    private MisfirePolicy misfirePolicy; // For regular type dispatch only, null means FIRE_ONCE
+
+    @Column(name = "misfire_catch_up_limit")
+    private Integer misfireCatchUpLimit; // For CATCH_UP misfire policy only
+
+    @Column(name = "fire_failures", nullable = false)
+    private Integer fireFailures = 0; // Failed fires in a row, reset by a successful one
+
+    @Column(name = "retry_at")
+    private OffsetDateTime retryAt; // After a failed fire, not retried before this; next_fire_at keeps the missed time
+
     @OneToMany(mappedBy = "dispatch", cascade = CascadeType.ALL, orphanRemoval = true)
     @JsonManagedReference
     private List<DispatchUser> dispatchUsers;
@@ -0,0 +1,14 @@
+package com.fps.svmes.models.sql.taskSchedule;
+
+/**
+ * What a regular dispatch does when its fire time was missed (server down, workers busy) by more than the
+ * scheduler's misfire threshold.
+ */
+public enum MisfirePolicy {
+    // Run once now, then continue with the next cron time after now
+    FIRE_ONCE,
+    // Don't run, continue with the next cron time after now
+    SKIP,
+    // Run once for every missed cron time, up to misfire_catch_up_limit
+    CATCH_UP
+}
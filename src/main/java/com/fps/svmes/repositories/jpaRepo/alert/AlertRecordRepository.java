@@ -1,10 +1,15 @@
 package com.fps.svmes.repositories.jpaRepo.alert;
 
 import com.fps.svmes.models.sql.alert.AlertRecord;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 
 @Repository
@@ -12,5 +17,40 @@ public interface AlertRecordRepository extends JpaRepository<AlertRecord, Long>,
     List<AlertRecord> findByStatus(Integer status);
     void deleteBySubmissionId(String submissionId);
     void deleteBySubmissionIdIn(List<String> submissionIds);
+    boolean existsBySubmissionId(String submissionId);
+
+    @Modifying
+    @Query("UPDATE AlertRecord a SET a.occurrenceCount = COALESCE(a.occurrenceCount, 1) + :count, a.lastSeenAt = :lastSeen " +
+            "WHERE a.id = :id AND a.status = 1 AND a.alertStatus = 1")
+    int addOccurrences(@Param("id") Long id, @Param("count") int count, @Param("lastSeen") OffsetDateTime lastSeen);
+
+    // Open alerts of a template field (and run rule, null for limit alerts) last seen since, newest first
+    @Query("SELECT a.id FROM AlertRecord a WHERE a.qcFormTemplateId = :templateId AND a.inspectionItemKey = :itemKey " +
+            "AND ((:rule IS NULL AND a.rule IS NULL) OR a.rule = :rule) " +
+            "AND a.status = 1 AND a.alertStatus = 1 AND a.lastSeenAt >= :since ORDER BY a.lastSeenAt DESC")
+    List<Long> findOpenIdsSeenSince(@Param("templateId") Long templateId, @Param("itemKey") String itemKey,
+                                    @Param("rule") String rule, @Param("since") OffsetDateTime since,
+                                    Pageable pageable);
+
+    // Summary counts over active alerts; from/to bound alert_time and may be null, in which case every active
+    // alert is scanned. A range is served by the (status, alert_time) index on qc_alert_record
+
+    @Query("SELECT a.alertStatus, COUNT(a) FROM AlertRecord a WHERE a.status = 1 AND a.alertStatus IS NOT NULL " +
+            "AND (:from IS NULL OR a.alertTime >= :from) AND (:to IS NULL OR a.alertTime <= :to) GROUP BY a.alertStatus")
+    List<Object[]> countByAlertStatus(@Param("from") OffsetDateTime from, @Param("to") OffsetDateTime to);
+
+    @Query("SELECT a.riskLevelId, COUNT(a) FROM AlertRecord a WHERE a.status = 1 AND a.riskLevelId IS NOT NULL " +
+            "AND (:from IS NULL OR a.alertTime >= :from) AND (:to IS NULL OR a.alertTime <= :to) GROUP BY a.riskLevelId")
+    List<Object[]> countByRiskLevel(@Param("from") OffsetDateTime from, @Param("to") OffsetDateTime to);
+
+    @Query("SELECT p.productId, COUNT(p) FROM AlertProduct p JOIN p.alert a WHERE a.status = 1 " +
+            "AND (:from IS NULL OR a.alertTime >= :from) AND (:to IS NULL OR a.alertTime <= :to) GROUP BY p.productId")
+    List<Object[]> countByProduct(@Param("from") OffsetDateTime from, @Param("to") OffsetDateTime to);
+
+    // key, a label of the key, count
+    @Query("SELECT a.inspectionItemKey, MIN(a.inspectionItemLabel), COUNT(a) FROM AlertRecord a " +
+            "WHERE a.status = 1 AND a.inspectionItemKey IS NOT NULL " +
+            "AND (:from IS NULL OR a.alertTime >= :from) AND (:to IS NULL OR a.alertTime <= :to) GROUP BY a.inspectionItemKey")
+    List<Object[]> countByInspectionItem(@Param("from") OffsetDateTime from, @Param("to") OffsetDateTime to);
 }
 
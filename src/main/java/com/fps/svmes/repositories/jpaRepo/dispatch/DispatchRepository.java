@@ -1,9 +1,16 @@
 package com.fps.svmes.repositories.jpaRepo.dispatch;
+import java.time.OffsetDateTime;
 import java.util.List;
 import com.fps.svmes.models.sql.taskSchedule.Dispatch;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.QueryHints;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
 import java.util.Optional;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -20,4 +27,32 @@ public interface DispatchRepository extends JpaRepository<Dispatch, Long> {
 
     @Query("SELECT d FROM Dispatch d LEFT JOIN FETCH d.dispatchUsers WHERE d.id = :id")
     Optional<Dispatch> findWithUsersById(@Param("id") Long id);
+
+    // Due dispatches not backing off, oldest fire time first; served by the partial index on next_fire_at
+    @Query("SELECT d.id FROM Dispatch d WHERE d.status = 1 AND d.state = :state AND d.nextFireAt <= :now " +
+            "AND (d.retryAt IS NULL OR d.retryAt <= :now) ORDER BY d.nextFireAt")
+    List<Long> findDueIds(@Param("state") Short state, @Param("now") OffsetDateTime now, Pageable pageable);
+
+    @Query("SELECT d.id FROM Dispatch d WHERE d.status = 1 AND d.state = :state AND d.nextFireAt IS NULL")
+    List<Long> findUnscheduledIds(@Param("state") Short state);
+
+    // Claims a due dispatch for this transaction (FOR UPDATE SKIP LOCKED): empty when another instance is firing it
+    // or it is no longer due
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT d FROM Dispatch d WHERE d.id = :id AND d.status = 1 AND d.state = :state AND d.nextFireAt <= :now " +
+            "AND (d.retryAt IS NULL OR d.retryAt <= :now)")
+    Optional<Dispatch> lockDue(@Param("id") Long id, @Param("state") Short state, @Param("now") OffsetDateTime now);
+
+    boolean existsByIdAndStatusAndNextFireAtIsNotNull(Long id, int status);
+
+    // id, type, next_fire_at
+    @Query("SELECT d.id, d.type, d.nextFireAt FROM Dispatch d WHERE d.status = 1 AND d.nextFireAt IS NOT NULL")
+    List<Object[]> findScheduled();
+
+    @Modifying
+    @Query("UPDATE Dispatch d SET d.nextFireAt = NULL, d.state = :inactive, d.updatedAt = :now " +
+            "WHERE d.status = 1 AND d.type = 'regular' AND d.state = :active AND d.endTime < :now")
+    int deactivateExpired(@Param("active") Short active, @Param("inactive") Short inactive,
+                          @Param("now") OffsetDateTime now);
 }
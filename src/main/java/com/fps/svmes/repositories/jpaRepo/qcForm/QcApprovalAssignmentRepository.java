@@ -3,8 +3,12 @@ package com.fps.svmes.repositories.jpaRepo.qcForm;
 import com.fps.svmes.models.sql.qcForm.QcApprovalAssignment;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -13,4 +17,7 @@ public interface QcApprovalAssignmentRepository extends
         JpaSpecificationExecutor<QcApprovalAssignment> {
     Optional<QcApprovalAssignment> findBySubmissionId(String submissionId);
     void deleteBySubmissionId(String submissionId);
+
+    @Query("SELECT a.submissionId FROM QcApprovalAssignment a WHERE a.submissionId IN :submissionIds")
+    List<String> findExistingSubmissionIds(@Param("submissionIds") Collection<String> submissionIds);
 }
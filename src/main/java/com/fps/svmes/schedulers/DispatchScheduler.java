@@ -0,0 +1,147 @@
+package com.fps.svmes.schedulers;
+
+import com.fps.svmes.services.DispatchService;
+import com.fps.svmes.services.TaskScheduleService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls dispatches whose next_fire_at is due and fires them on a worker pool, so a slow dispatch doesn't hold up
+ * the others. Memory is bounded by the poll limit whatever the number of active dispatches. Every instance polls;
+ * fireDispatch claims the dispatch row, so the instances share the due dispatches and each fire runs once. A fire
+ * left uncommitted by a dead instance is rolled back by the database and polled again. A fire still running after
+ * fire-timeout-seconds is interrupted by the next poll, so a hung one fails instead of holding its worker; its
+ * transaction deadline bounds the database work the same way.
+ */
+@Slf4j
+@Component
+public class DispatchScheduler implements DisposableBean {
+
+    private final TaskScheduleService taskScheduleService;
+    private final DispatchService dispatchService;
+    private final int pollLimit;
+    private final long fireTimeoutNanos;
+    private final ThreadPoolExecutor executor;
+
+    // Dispatches queued or running on this instance, so a slow one isn't submitted again by the next poll
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    // Fires running on this instance, checked against the fire timeout on each poll
+    private final Map<Long, RunningFire> running = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DispatchScheduler(TaskScheduleService taskScheduleService,
+                             DispatchService dispatchService,
+                             @Value("${dispatch.scheduler.worker-threads:4}") int workerThreads,
+                             @Value("${dispatch.scheduler.poll-limit:200}") int pollLimit,
+                             @Value("${dispatch.scheduler.fire-timeout-seconds:300}") long fireTimeoutSeconds) {
+        this.taskScheduleService = taskScheduleService;
+        this.dispatchService = dispatchService;
+        this.pollLimit = pollLimit;
+        this.fireTimeoutNanos = TimeUnit.SECONDS.toNanos(fireTimeoutSeconds);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workerThreads, workerThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(pollLimit),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "dispatch-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Scheduled(fixedDelayString = "${dispatch.scheduler.poll-interval-ms:1000}")
+    public void pollDueDispatches() {
+        interruptOverdueFires();
+
+        List<Long> due;
+        try {
+            due = taskScheduleService.findDueDispatchIds(pollLimit);
+        } catch (Exception e) {
+            log.warn("Failed to poll due dispatches: {}", e.getMessage());
+            return;
+        }
+
+        for (Long dispatchId : due) {
+            if (!inFlight.add(dispatchId)) {
+                continue;
+            }
+            try {
+                executor.execute(() -> fire(dispatchId));
+            } catch (RejectedExecutionException e) {
+                // Workers saturated; the rest stay due and are picked up by a later poll
+                inFlight.remove(dispatchId);
+                break;
+            }
+        }
+    }
+
+    private void fire(Long dispatchId) {
+        RunningFire fire = new RunningFire(Thread.currentThread(), System.nanoTime());
+        running.put(dispatchId, fire);
+        try {
+            taskScheduleService.fireDispatch(dispatchId, dispatchService::executeDispatch);
+        } catch (Exception e) {
+            log.error("Failed to fire Dispatch ID: {}", dispatchId, e);
+        } finally {
+            running.remove(dispatchId);
+            fire.finish();
+            inFlight.remove(dispatchId);
+        }
+    }
+
+    private void interruptOverdueFires() {
+        long now = System.nanoTime();
+        running.forEach((dispatchId, fire) -> {
+            if (now - fire.startedAt > fireTimeoutNanos && fire.interrupt()) {
+                log.warn("Dispatch ID {} still running after the fire timeout, interrupting it", dispatchId);
+            }
+        });
+    }
+
+    /**
+     * A fire on a worker thread. The interrupt never reaches the thread once the fire has finished, and the worker
+     * clears it before taking the next fire.
+     */
+    private static final class RunningFire {
+        private final Thread thread;
+        private final long startedAt;
+        private boolean finished;
+        private boolean interrupted;
+
+        private RunningFire(Thread thread, long startedAt) {
+            this.thread = thread;
+            this.startedAt = startedAt;
+        }
+
+        private synchronized boolean interrupt() {
+            if (finished || interrupted) {
+                return false;
+            }
+            interrupted = true;
+            thread.interrupt();
+            return true;
+        }
+
+        private synchronized void finish() {
+            finished = true;
+            Thread.interrupted();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,96 @@
+package com.fps.svmes.schedulers;
+
+import com.fps.svmes.services.DispatchedTaskService;
+import com.fps.svmes.utils.ClusterLease;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flags unfinished dispatched tasks past their due date as overdue, in batches of batch-size, at most max-batches
+ * per run so one run stays short however large the backlog; the rest is taken by the next run. Runs on the
+ * instance holding the lease.
+ */
+@Slf4j
+@Component
+public class OverdueTaskSweeper {
+
+    private final DispatchedTaskService dispatchedTaskService;
+    private final ClusterLease clusterLease;
+
+    @Value("${dispatched-tasks.overdue-sweep.enabled:true}")
+    private boolean enabled;
+
+    @Value("${dispatched-tasks.overdue-sweep.batch-size:500}")
+    private int batchSize;
+
+    @Value("${dispatched-tasks.overdue-sweep.max-batches:20}")
+    private int maxBatches;
+
+    private final AtomicLong lagSeconds = new AtomicLong();
+    private final Timer batchTimer;
+    private final DistributionSummary batchSizeSummary;
+    private final Counter markedCounter;
+
+    @Autowired
+    public OverdueTaskSweeper(DispatchedTaskService dispatchedTaskService, ClusterLease clusterLease,
+                              MeterRegistry meterRegistry) {
+        this.dispatchedTaskService = dispatchedTaskService;
+        this.clusterLease = clusterLease;
+
+        Gauge.builder("dispatched_task.overdue.sweep.lag", lagSeconds, AtomicLong::get)
+                .description("Seconds since the due date of the oldest task past due and not flagged overdue yet")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("dispatched_task.overdue.sweep.batch")
+                .description("Time spent flagging one batch of overdue tasks")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("dispatched_task.overdue.sweep.batch.size")
+                .description("Tasks flagged overdue per batch")
+                .register(meterRegistry);
+        this.markedCounter = Counter.builder("dispatched_task.overdue.marked")
+                .description("Tasks flagged overdue")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${dispatched-tasks.overdue-sweep.interval-ms:60000}",
+            initialDelayString = "${dispatched-tasks.overdue-sweep.interval-ms:60000}")
+    public void sweep() {
+        if (!enabled || !clusterLease.tryAcquire("overdue-task-sweep", Duration.ofMinutes(5))) {
+            return;
+        }
+        try {
+            int total = 0;
+            for (int i = 0; i < maxBatches; i++) {
+                long start = System.nanoTime();
+                int marked = dispatchedTaskService.markOverdueTasks(batchSize);
+                batchTimer.record(Duration.ofNanos(System.nanoTime() - start));
+                batchSizeSummary.record(marked);
+                markedCounter.increment(marked);
+                total += marked;
+                if (marked < batchSize) {
+                    break;
+                }
+            }
+            if (total > 0) {
+                log.info("Flagged {} dispatched tasks as overdue", total);
+            }
+
+            OffsetDateTime oldest = dispatchedTaskService.getOldestUnmarkedOverdueDueDate();
+            lagSeconds.set(oldest == null ? 0 : Duration.between(oldest, OffsetDateTime.now()).toSeconds());
+        } catch (Exception e) {
+            log.warn("Overdue task sweep failed: {}", e.getMessage());
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.fps.svmes.models.sql.subscription.WeeklyReportSubscription;
 import com.fps.svmes.repositories.jpaRepo.subscription.WeeklyReportSubscriptionRepository;
 import com.fps.svmes.services.EmailService;
 import com.fps.svmes.services.WeeklyReportSubscriptionService;
+import com.fps.svmes.utils.ClusterLease;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,6 +13,7 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.Collections;
@@ -29,6 +31,7 @@ public class WeeklyReportScheduler {
     private final WeeklyReportSubscriptionRepository subscriptionRepository; // Needed for direct access to check language if not in DTO or just to fetch by ID
     private final EmailService emailService;
     private final RestTemplate restTemplate;
+    private final ClusterLease clusterLease;
 
     @Value("${qc.snapshot.api.url:http://localhost:8081}")
     private String qcSnapshotApiUrl;
@@ -39,6 +42,11 @@ public class WeeklyReportScheduler {
      */
     @Scheduled(cron = "0 0 8 * * MON")
     public void sendWeeklyReports() {
+        // Every instance fires at the same time; only the one that takes the lease sends the mails
+        if (!clusterLease.tryAcquire("weekly-report", Duration.ofHours(1))) {
+            log.info("Weekly report is sent by another instance");
+            return;
+        }
         // Pass null to use per-subscriber language preference
         sendWeeklyReports(null);
     }
@@ -7,14 +7,32 @@ import com.fps.svmes.dto.requests.alert.AlertRecordFilterRequest;
 import com.fps.svmes.models.sql.alert.AlertRecord;
 import org.springframework.data.domain.Page;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 
 public interface AlertRecordService {
     AlertRecordDTO create(AlertRecordDTO dto);
+    /**
+     * Saves the alerts, their product/batch/inspector/reviewer rows and create logs in one transaction, using
+     * sequence ids so each table is written in JDBC batches. Repeats of a field within its suppression window are
+     * counted on the open alert instead; only the inserted alerts are returned.
+     */
+    List<AlertRecordDTO> createAll(List<AlertRecordDTO> dtos);
+
+    /**
+     * createAll for the alerts raised by one submission, at most once per submission: a marker row in
+     * quality_management.alert_submission is inserted in the same transaction, and a submission that already has
+     * one is skipped. Suppressed repeats, which insert no alert row, are covered too.
+     */
+    List<AlertRecordDTO> createAllForSubmission(String submissionId, List<AlertRecordDTO> dtos);
     Page<DetailedAlertRecordDTO> getDetailedList(int page, int size);
     AlertRecordDTO updateRecord(Long alertId, Integer newRpn, Integer userId);
     AlertRecordDTO deleteRecord(Long alertId, Integer userId);
-    AlertSummaryDTO getAlertSummary();
+    /**
+     * Counts of active alerts by status, risk level, product and inspection item; from/to bound alert_time and
+     * may be null.
+     */
+    AlertSummaryDTO getAlertSummary(OffsetDateTime from, OffsetDateTime to);
     Page<DetailedAlertRecordDTO> filterAlertRecords(AlertRecordFilterRequest request);
     void deleteBySubmissionIds(List<String> submissionIds);
 
@@ -0,0 +1,27 @@
+package com.fps.svmes.services;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Collection;
+
+/**
+ * Server push for the alert board: created and updated alerts are sent to subscribers as
+ * DetailedAlertRecordDTO, the same rows /alert-records/filter returns.
+ */
+public interface AlertStreamService {
+
+    String EVENT_CREATED = "created";
+    String EVENT_UPDATED = "updated";
+
+    /**
+     * Subscribe to alerts, optionally only those of a template, risk level or product (null matches all).
+     *
+     * @throws IllegalStateException when the subscriber limit is reached
+     */
+    SseEmitter subscribe(Long templateId, Integer riskLevelId, Long productId);
+
+    /**
+     * Push the alerts once the current transaction commits (immediately when there is none).
+     */
+    void publish(String eventType, Collection<Long> alertIds);
+}
@@ -1,10 +1,28 @@
 package com.fps.svmes.services;
 
+import com.fps.svmes.dto.dtos.alert.AlertRecordDTO;
 import com.fps.svmes.dto.dtos.alert.ExceededFieldInfoDTO;
+import com.fps.svmes.utils.CompiledControlLimits;
+import org.bson.Document;
 
+import java.util.List;
 import java.util.Map;
 
 public interface ControlLimitEvaluationService {
-    void evaluateAndTriggerAlerts(Long templateId, Long userId, Map<String, Object> formData, String submissionId);
     Map<String, ExceededFieldInfoDTO> evaluateExceededInfo(Long templateId, Map<String, Object> formData);
-}
\ No newline at end of file
+
+    /**
+     * exceeded_info and alerts (not saved) of a submission in one pass, against the template's cached limits.
+     */
+    CompiledControlLimits.Evaluation evaluate(Long templateId, Long userId, Map<String, Object> formData, String submissionId);
+
+    /**
+     * Run rule (Nelson 2-8) alerts (not saved) completed by a stored submission; call once the document is inserted.
+     */
+    List<AlertRecordDTO> evaluateRules(Long templateId, Long userId, Document submission);
+
+    /**
+     * Record a stored submission in the run rule windows; call once the alerts of evaluateRules are saved.
+     */
+    void recordRules(Long templateId, Document submission);
+}
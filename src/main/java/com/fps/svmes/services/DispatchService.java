@@ -20,7 +20,7 @@ public interface DispatchService {
     void pauseDispatch(Long dispatchId, Integer userId);
     void resumeDispatch(Long dispatchId, Integer userId);
     void deleteDispatch(Long id, Integer userId);
-    void initializeDispatch(Long dispatchId, Runnable task);
+    void initializeDispatch(Long dispatchId);
     void cancelDispatchTask(Long dispatchId);
     DispatchDTO convertToDispatchDTO(Dispatch dispatch);
     String parseSpringCronToChinese(String cronExpression);
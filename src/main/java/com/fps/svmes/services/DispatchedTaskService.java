@@ -5,6 +5,7 @@ import com.fps.svmes.dto.dtos.task.QuarterlyTaskStatisticsDTO;
 import com.fps.svmes.dto.dtos.task.TaskStateStatisticsDTO;
 import org.springframework.data.domain.Page;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 
 public interface DispatchedTaskService {
@@ -13,6 +14,11 @@ public interface DispatchedTaskService {
     List<DispatchedTaskDTO> getHistoricalTasks(Long userId);
     List<DispatchedTaskDTO> getOverdueTasks(Long userId);
     void insertDispatchedTasks(DispatchedTaskDTO dispatchedTaskDTO, List<Integer> userIds);
+
+    /**
+     * Bulk fan-out: one task per form and user, all other fields from the template. Returns the number created.
+     */
+    int insertDispatchedTasks(DispatchedTaskDTO template, List<String> qcFormTreeNodeIds, List<Integer> userIds);
     void updateDispatchedTask(Long id, DispatchedTaskDTO dispatchedTaskDTO);
     DispatchedTaskDTO getDispatchedTaskById(Long id);
     void deleteDispatchedTask(Long id);
@@ -20,4 +26,15 @@ public interface DispatchedTaskService {
     Page<DispatchedTaskDTO> getDispatchedTasksByDispatchId(Long dispatchId, int page, int size, String sort, String search);
     QuarterlyTaskStatisticsDTO getQuarterlyTaskStatistics(Long userId);
     TaskStateStatisticsDTO getTaskStateStatistics(Long userId);
+
+    /**
+     * Flag up to limit unfinished tasks whose due date has passed as overdue and notify their users.
+     * Returns the number flagged.
+     */
+    int markOverdueTasks(int limit);
+
+    /**
+     * Due date of the oldest unfinished task past due and not flagged yet, or null when there is none.
+     */
+    OffsetDateTime getOldestUnmarkedOverdueDueDate();
 }
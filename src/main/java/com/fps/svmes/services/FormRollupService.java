@@ -0,0 +1,51 @@
+package com.fps.svmes.services;
+
+import org.bson.Document;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Pre-aggregated option counts per (field, option value, hour) for each form template, kept in
+ * form_rollup_{templateId} and updated alongside the raw submissions.
+ */
+public interface FormRollupService {
+
+    /**
+     * Count a newly inserted submission.
+     */
+    void applySubmission(Long formTemplateId, Document submission);
+
+    /**
+     * Count newly inserted submissions with a single rollup write.
+     */
+    void applySubmissions(Long formTemplateId, List<Document> submissions);
+
+    /**
+     * Move the counts of an edited submission from the superseded version to the new one.
+     */
+    void applyEdit(Long formTemplateId, Document superseded, Document replacement);
+
+    /**
+     * Remove the counts of a deleted submission (its latest version).
+     */
+    void applyDeletion(Long formTemplateId, Document latestVersion);
+
+    /**
+     * Whether the template's rollups were rebuilt and no update has failed since.
+     */
+    boolean isReady(Long formTemplateId);
+
+    /**
+     * Rollup rows (f, v, h, count) of the given fields with hour in [fromHour, toHour).
+     */
+    List<Document> findCounts(Long formTemplateId, Collection<String> fields, Instant fromHour, Instant toHour);
+
+    /**
+     * Recompute the template's rollups from its raw collections and mark them ready.
+     *
+     * @return number of rollup rows written
+     */
+    long rebuild(Long formTemplateId);
+}
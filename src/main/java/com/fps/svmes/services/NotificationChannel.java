@@ -0,0 +1,40 @@
+package com.fps.svmes.services;
+
+import com.fps.svmes.dto.dtos.notification.NotificationDTO;
+
+import java.util.List;
+
+/**
+ * A way of delivering notifications (WeCom, email, ...). NotificationService picks the channel by name and hands it
+ * the pending messages of one recipient at a time.
+ */
+public interface NotificationChannel {
+
+    String getName();
+
+    /**
+     * False when the channel isn't configured; messages for it are dropped when enqueued.
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Most messages merged into one delivery.
+     */
+    default int getMaxBatchSize() {
+        return 20;
+    }
+
+    /**
+     * Deliveries per second the provider accepts from this application.
+     */
+    default double getRatePerSecond() {
+        return 10;
+    }
+
+    /**
+     * Deliver the messages to the recipient as one message; throws when the provider rejected or didn't answer.
+     */
+    void send(String recipient, List<NotificationDTO> messages) throws Exception;
+}
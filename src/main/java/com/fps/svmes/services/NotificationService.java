@@ -0,0 +1,18 @@
+package com.fps.svmes.services;
+
+import com.fps.svmes.dto.dtos.notification.NotificationDTO;
+
+import java.util.List;
+
+/**
+ * Queue for user notifications, so callers never wait on a messaging provider. Messages are stored in the
+ * notification_outbox collection and delivered by a worker pool, merged per recipient, rate limited per channel and
+ * retried with backoff.
+ */
+public interface NotificationService {
+
+    /**
+     * Queue the messages; inside a transaction they are queued only once it commits.
+     */
+    void enqueue(List<NotificationDTO> notifications);
+}
@@ -8,8 +8,23 @@ import org.springframework.data.domain.Pageable;
 import java.util.List;
 
 public interface QcApprovalAssignmentService {
+
+    /**
+     * Initial state of a new submission's assignment, hardcoded per flow for now.
+     */
+    static String initialState(String approvalType) {
+        if ("flow_1".equals(approvalType)) {
+            return "fully_approved";
+        } else if ("flow_3".equals(approvalType)) {
+            return "pending_supervisor";
+        }
+        return "pending_leader";
+    }
+
     void insertIfNotExists(QcApprovalAssignmentDTO dto);
 
+    void insertAllIfNotExists(List<QcApprovalAssignmentDTO> dtos);
+
     Page<QcApprovalAssignmentDTO> getAllAssignments(Pageable pageable);
 
     Page<QcApprovalAssignmentDTO> getFilteredAssignments(
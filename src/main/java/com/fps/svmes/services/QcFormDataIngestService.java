@@ -0,0 +1,20 @@
+package com.fps.svmes.services;
+
+import com.fps.svmes.dto.requests.FormSubmissionRequest;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batch ingest of QC form submissions, e.g. readings a line terminal buffered while offline.
+ */
+public interface QcFormDataIngestService {
+
+    /**
+     * Insert every submission with the same side effects as /qc-form-data/insert-form (approval assignment,
+     * control-limit alerts, rollups), grouped per collection and template instead of one item at a time.
+     *
+     * @return one result per submission, in request order: index, status (inserted / failed), object_id or message
+     */
+    List<Map<String, Object>> insertForms(Long userId, List<FormSubmissionRequest> forms);
+}
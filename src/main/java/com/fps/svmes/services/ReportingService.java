@@ -1,9 +1,12 @@
 package com.fps.svmes.services;
 
+import com.fps.svmes.dto.CursorPageDTO;
 import com.fps.svmes.dto.PagedResultDTO;
 import com.fps.svmes.dto.dtos.reporting.WidgetDataDTO;
 import org.bson.Document;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.security.Timestamp;
 import java.util.List;
 
@@ -30,12 +33,54 @@ public interface ReportingService {
             String search
     );
 
+    /**
+     * Keyset-paginated QC records (latest versions only), merged across the monthly collections in
+     * created_at order. Pass the returned nextCursor to get the following page.
+     *
+     * @param cursor opaque cursor from the previous page, null for the first page
+     * @param sort "created_at,asc" or "created_at,desc" (default)
+     * @param includeTotal whether to compute estimatedTotalElements
+     */
+    CursorPageDTO<Document> fetchQcRecordsByCursor(
+            Long formTemplateId,
+            String startDateTime,
+            String endDateTime,
+            String cursor,
+            Integer size,
+            String sort,
+            String search,
+            boolean includeTotal
+    );
+
     List<Document> fetchAllRecordsWithoutPagination(Long formTemplateId,
                                                            String startDateTime,
                                                            String endDateTime,
                                                            String search,
                                                            String sort);
 
+    /**
+     * Check the parameters of a streaming export before the response is committed.
+     *
+     * @throws IllegalArgumentException when the range can't be parsed or the sort isn't created_at
+     */
+    void validateExportRequest(String startDateTime, String endDateTime, String sort);
+
+    /**
+     * Write the latest-version QC records of the range to the output stream as they are read from Mongo,
+     * in created_at order, without materializing the result. When the export fails part way the writer is
+     * aborted (no complete-looking file is produced) and the exception is rethrown.
+     *
+     * @param sort "created_at,asc" or "created_at,desc" (default)
+     * @param format ndjson (default), csv or xlsx
+     */
+    void exportQcRecords(Long formTemplateId,
+                         String startDateTime,
+                         String endDateTime,
+                         String search,
+                         String sort,
+                         String format,
+                         OutputStream outputStream) throws IOException;
+
     /**
      * Fetch drill-down records filtered by a specific field value.
      * Used for chart drill-down (pie chart slices, trend chart data points).
@@ -0,0 +1,31 @@
+package com.fps.svmes.services;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Outbox for the work that follows a form submission (approval assignment, control-limit alerts, reporting rollups,
+ * snapshot cleanup), so the submit request only waits for the Mongo write.
+ * The event is recorded before the document is inserted and processed by a worker pool afterwards, with retries.
+ */
+public interface SubmissionOutboxService {
+
+    /**
+     * Record the event for a submission that is about to be inserted with the given _id.
+     */
+    void recordCreated(ObjectId submissionId, String collectionName, Long formTemplateId, Long userId);
+
+    /**
+     * Record the event for a new version (submissionId) of parentSubmissionId that is about to be inserted.
+     */
+    void recordEdited(ObjectId submissionId, String parentSubmissionId, String collectionName, Long formTemplateId, Long userId);
+
+    /**
+     * The submission was inserted: hand its event to the workers (or process it inline when async is off).
+     */
+    void publish(ObjectId submissionId);
+
+    /**
+     * The insert failed: drop the event so it is not retried.
+     */
+    void discard(ObjectId submissionId);
+}
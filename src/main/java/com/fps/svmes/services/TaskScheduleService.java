@@ -4,18 +4,18 @@ import com.fps.svmes.models.sql.taskSchedule.Dispatch;
 import com.fps.svmes.models.sql.taskSchedule.TaskType;
 
 import java.time.OffsetDateTime;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface TaskScheduleService {
 
-    void scheduleDispatch(Dispatch dispatch, Runnable task);
-    void setupCronTask(Dispatch dispatch, Runnable task);
-    void setupCancelTask(Dispatch dispatch);
-    void scheduleFutureDispatch(Dispatch dispatch, Runnable task);
-    void scheduleCustomDispatch(Dispatch dispatch, Runnable task);
+    void scheduleDispatch(Dispatch dispatch);
+    boolean unscheduleDispatch(Long dispatchId);
+    List<Long> findDueDispatchIds(int limit);
+    void fireDispatch(Long dispatchId, Consumer<Long> execution);
+    int deactivateExpiredDispatches();
     boolean isScheduled(Long dispatchId);
     OffsetDateTime getNextExecutionTime(Long dispatchId, TaskType type);
     Map<Long, Map<TaskType, OffsetDateTime>> getAllScheduledTasks();
-    boolean removeTask(long dispatchId, TaskType type);
-    boolean removeAllTasks(long dispatchId);
-}
\ No newline at end of file
+}
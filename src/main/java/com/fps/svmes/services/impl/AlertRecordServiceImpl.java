@@ -8,28 +8,31 @@ import com.fps.svmes.dto.dtos.user.UserDTO;
 import com.fps.svmes.dto.requests.alert.AlertRecordFilterRequest;
 import com.fps.svmes.models.sql.alert.*;
 import com.fps.svmes.models.sql.production.SuggestedProduct;
-import com.fps.svmes.models.sql.qcForm.QcFormTemplate;
 import com.fps.svmes.repositories.jpaRepo.alert.AlertRecordLogRepository;
 import com.fps.svmes.repositories.jpaRepo.alert.AlertRecordRepository;
 import com.fps.svmes.repositories.jpaRepo.alert.AlertStatusRepository;
 import com.fps.svmes.repositories.jpaRepo.alert.RiskLevelRepository;
-import com.fps.svmes.repositories.jpaRepo.production.SuggestedBatchRepository;
 import com.fps.svmes.repositories.jpaRepo.production.SuggestedProductRepository;
-import com.fps.svmes.repositories.jpaRepo.qcForm.QcFormTemplateRepository;
-import com.fps.svmes.repositories.jpaRepo.user.UserRepository;
 import com.fps.svmes.services.AlertRecordService;
+import com.fps.svmes.services.AlertStreamService;
 import com.fps.svmes.utils.AlertDiffBuilder;
+import com.fps.svmes.utils.ControlLimitEvaluatorCache;
+import com.fps.svmes.utils.DetailedAlertRecordMapper;
+import com.fps.svmes.utils.OpenAlertIndex;
 import jakarta.persistence.criteria.Join;
 import jakarta.persistence.criteria.JoinType;
 import jakarta.persistence.criteria.Predicate;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.*;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
@@ -41,26 +44,151 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class AlertRecordServiceImpl implements AlertRecordService {
 
+    private static final String MARK_SUBMISSION_SQL =
+            "INSERT INTO quality_management.alert_submission (submission_id) VALUES (?) ON CONFLICT DO NOTHING";
+
     private final AlertRecordRepository alertRecordRepository;
     private final ModelMapper modelMapper;
     private final AlertRecordLogRepository alertRecordLogRepository;
     private final AlertStatusRepository alertStatusRepository;
     private final RiskLevelRepository riskLevelRepository;
-    private final UserRepository userRepository;
     private final SuggestedProductRepository suggestedProductRepository;
-    private final SuggestedBatchRepository suggestedBatchRepository;
-    private final QcFormTemplateRepository qcFormTemplateRepository;
+    private final ControlLimitEvaluatorCache controlLimitEvaluatorCache;
+    private final OpenAlertIndex openAlertIndex;
+    private final DetailedAlertRecordMapper detailedAlertRecordMapper;
+    private final JdbcTemplate jdbcTemplate;
+    private final AlertStreamService alertStreamService;
+
+    // Window for fields whose control limit setting has no suppression_window_minutes; 0 leaves them unsuppressed
+    @Value("${alerts.suppression.default-window-minutes:0}")
+    private int defaultSuppressionWindowMinutes;
 
     @Override
     @Transactional
     public AlertRecordDTO create(AlertRecordDTO dto) {
+        AlertRecord saved = alertRecordRepository.save(toEntity(dto));
+
+        AlertRecordLog log = createLog(dto, saved);
+        if (log != null) {
+            alertRecordLogRepository.save(log);
+        }
+        alertStreamService.publish(AlertStreamService.EVENT_CREATED, List.of(saved.getId()));
+
+        return modelMapper.map(saved, AlertRecordDTO.class);
+    }
+
+    @Override
+    @Transactional
+    public List<AlertRecordDTO> createAll(List<AlertRecordDTO> dtos) {
+        if (dtos.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Alerts of fields with a suppression window are grouped per field; a group whose field has an open alert
+        // seen within the window only bumps that alert's occurrence_count and last_seen_at. Sorted, so the field
+        // locks of index misses are always taken in the same order
+        Map<String, List<AlertRecordDTO>> byField = new TreeMap<>();
+        List<Long> repeatedIds = new ArrayList<>();
+        List<AlertRecord> entities = new ArrayList<>();
+        List<AlertRecordDTO> sources = new ArrayList<>();
+        List<String> indexKeys = new ArrayList<>();
+        for (AlertRecordDTO dto : dtos) {
+            if (suppressionWindowMillis(dto) > 0) {
+                byField.computeIfAbsent(OpenAlertIndex.key(dto.getQcFormTemplateId(), dto.getInspectionItemKey(),
+                        dto.getRule()), k -> new ArrayList<>()).add(dto);
+            } else {
+                entities.add(toEntity(dto));
+                sources.add(dto);
+                indexKeys.add(null);
+            }
+        }
+
+        for (Map.Entry<String, List<AlertRecordDTO>> field : byField.entrySet()) {
+            List<AlertRecordDTO> group = field.getValue();
+            AlertRecordDTO first = group.get(0);
+            OffsetDateTime lastSeen = seenAt(group.get(group.size() - 1));
+            OffsetDateTime since = seenAt(first).minus(Duration.ofMillis(suppressionWindowMillis(first)));
+
+            Long openId = openAlertIndex.find(field.getKey(), toMillis(since));
+            if (openId == null || alertRecordRepository.addOccurrences(openId, group.size(), lastSeen) == 0) {
+                // Miss, or the indexed alert was closed: agree on the open alert through the database
+                openAlertIndex.remove(field.getKey());
+                openId = openAlertIndex.lockAndFind(first.getQcFormTemplateId(), first.getInspectionItemKey(),
+                        first.getRule(), since);
+                if (openId != null && alertRecordRepository.addOccurrences(openId, group.size(), lastSeen) == 0) {
+                    openId = null;
+                }
+            }
+            if (openId != null) {
+                openAlertIndex.put(field.getKey(), openId, toMillis(lastSeen));
+                repeatedIds.add(openId);
+                continue;
+            }
+            AlertRecord entity = toEntity(first);
+            entity.setOccurrenceCount(group.size());
+            entity.setLastSeenAt(lastSeen);
+            entities.add(entity);
+            sources.add(first);
+            indexKeys.add(field.getKey());
+        }
+
+        List<AlertRecord> saved = alertRecordRepository.saveAll(entities);
+
+        List<AlertRecordLog> logs = new ArrayList<>();
+        for (int i = 0; i < saved.size(); i++) {
+            if (indexKeys.get(i) != null) {
+                openAlertIndex.put(indexKeys.get(i), saved.get(i).getId(), toMillis(saved.get(i).getLastSeenAt()));
+            }
+            AlertRecordLog log = createLog(sources.get(i), saved.get(i));
+            if (log != null) {
+                logs.add(log);
+            }
+        }
+        alertRecordLogRepository.saveAll(logs);
+
+        alertStreamService.publish(AlertStreamService.EVENT_CREATED, saved.stream().map(AlertRecord::getId).toList());
+        alertStreamService.publish(AlertStreamService.EVENT_UPDATED, repeatedIds);
+
+        return saved.stream().map(entity -> modelMapper.map(entity, AlertRecordDTO.class)).toList();
+    }
+
+    @Override
+    @Transactional
+    public List<AlertRecordDTO> createAllForSubmission(String submissionId, List<AlertRecordDTO> dtos) {
+        if (dtos.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (jdbcTemplate.update(MARK_SUBMISSION_SQL, submissionId) == 0) {
+            return new ArrayList<>();
+        }
+        return createAll(dtos);
+    }
+
+    private long suppressionWindowMillis(AlertRecordDTO dto) {
+        int minutes = controlLimitEvaluatorCache.get(dto.getQcFormTemplateId())
+                .suppressionWindowMinutes(dto.getInspectionItemKey(), defaultSuppressionWindowMinutes);
+        return minutes * 60_000L;
+    }
+
+    private static OffsetDateTime seenAt(AlertRecordDTO dto) {
+        return dto.getAlertTime() != null ? dto.getAlertTime() : OffsetDateTime.now();
+    }
+
+    private static long toMillis(OffsetDateTime time) {
+        return time.toInstant().toEpochMilli();
+    }
+
+    private AlertRecord toEntity(AlertRecordDTO dto) {
         AlertRecord entity = modelMapper.map(dto, AlertRecord.class);
+        entity.setOccurrenceCount(1);
+        entity.setLastSeenAt(seenAt(dto));
         entity.setCreatedAt(dto.getCreatedAt());
         entity.setUpdatedAt(dto.getUpdatedAt());
         entity.setAlertTime(dto.getAlertTime());
         entity.setInspectionItemKey(dto.getInspectionItemKey());
         entity.setInspectionItemLabel(dto.getInspectionItemLabel());
         entity.setAlertType(dto.getAlertType());
+        entity.setRule(dto.getRule());
         entity.setOptionItems(dto.getOptionItems());
         entity.setOptionLabels(dto.getOptionLabels());
         entity.setInvalidOptionItems(dto.getInvalidOptionItems());
@@ -117,10 +245,13 @@ public class AlertRecordServiceImpl implements AlertRecordService {
                     }).toList();
             entity.setAlertReviewers(reviewers);
         }
+        return entity;
+    }
 
-        AlertRecord saved = alertRecordRepository.save(entity);
-
-        // Create full snapshot diff for create operation
+    /**
+     * Full snapshot diff for a create operation, null when there is nothing to log.
+     */
+    private AlertRecordLog createLog(AlertRecordDTO dto, AlertRecord saved) {
         Map<String, List<String>> diff = new HashMap<>();
         if (dto.getRpn() != null) {
             diff.put("rpn", List.of("-", String.valueOf(dto.getRpn())));
@@ -138,148 +269,20 @@ public class AlertRecordServiceImpl implements AlertRecordService {
             log.setUpdatedBy(dto.getCreatedBy());
             log.setCreatedAt(dto.getCreatedAt());
             log.setUpdatedAt(dto.getUpdatedAt());
-            alertRecordLogRepository.save(log);
+            return log;
         }
-
-        return modelMapper.map(saved, AlertRecordDTO.class);
+        return null;
     }
 
     @Override
+    @Transactional
     public Page<DetailedAlertRecordDTO> getDetailedList(int page, int size) {
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
         Page<AlertRecord> entityPage = alertRecordRepository.findAll(pageable);
 
         List<AlertRecord> alertList = entityPage.getContent();
 
-        // Collect IDs for batch fetching
-        Set<Long> templateIds = new HashSet<>();
-        Set<Long> productIds = new HashSet<>();
-        Set<Long> batchIds = new HashSet<>();
-        Set<Integer> userIds = new HashSet<>();
-        Set<Integer> statusIds = new HashSet<>();
-        Set<Integer> riskLevelIds = new HashSet<>();
-
-        for (AlertRecord alert : alertList) {
-            templateIds.add(alert.getQcFormTemplateId());
-            if (alert.getAlertStatus() != null) statusIds.add(alert.getAlertStatus());
-            if (alert.getRiskLevelId() != null) riskLevelIds.add(alert.getRiskLevelId());
-
-            alert.getAlertProducts().forEach(p -> productIds.add(p.getProductId()));
-            alert.getAlertBatches().forEach(b -> batchIds.add(b.getBatchId()));
-            alert.getAlertInspectors().forEach(i -> userIds.add(i.getInspectorId().intValue()));
-            alert.getAlertReviewers().forEach(r -> userIds.add(r.getReviewerId().intValue()));
-        }
-
-        // Batch fetch all referenced data
-        Map<Long, QcFormTemplate> templateMap = qcFormTemplateRepository.findAllById(templateIds)
-                .stream().collect(Collectors.toMap(QcFormTemplate::getId, t -> t));
-
-        Map<Long, SuggestedProductDTO> productMap = suggestedProductRepository.findAllById(productIds)
-                .stream().collect(Collectors.toMap(
-                        p -> p.getId(),
-                        p -> modelMapper.map(p, SuggestedProductDTO.class)));
-
-        Map<Long, SuggestedBatchDTO> batchMap = suggestedBatchRepository.findAllById(batchIds)
-                .stream().collect(Collectors.toMap(
-                        b -> b.getId(),
-                        b -> modelMapper.map(b, SuggestedBatchDTO.class)));
-
-        Map<Integer, UserDTO> userMap = userRepository.findAllById(userIds)
-                .stream().collect(Collectors.toMap(
-                        u -> u.getId(),
-                        u -> modelMapper.map(u, UserDTO.class)));
-
-        Map<Integer, AlertStatusDTO> statusMap = alertStatusRepository.findAllById(statusIds)
-                .stream().collect(Collectors.toMap(
-                        s -> s.getId(),
-                        s -> modelMapper.map(s, AlertStatusDTO.class)));
-
-        Map<Integer, RiskLevelDTO> riskMap = riskLevelRepository.findAllById(riskLevelIds)
-                .stream().collect(Collectors.toMap(
-                        r -> r.getId(),
-                        r -> modelMapper.map(r, RiskLevelDTO.class)));
-
-        // Map results
-        List<DetailedAlertRecordDTO> dtos = alertList.stream().map(alert -> {
-            DetailedAlertRecordDTO dto = new DetailedAlertRecordDTO();
-
-            dto.setId(alert.getId());
-            dto.setAlertCode(alert.getAlertCode());
-            dto.setAlertTime(alert.getAlertTime());
-            dto.setInspectionValue(alert.getInspectionValue());
-            dto.setRpn(alert.getRpn());
-            dto.setCreatedAt(alert.getCreatedAt());
-            dto.setStatus(alert.getStatus());
-            dto.setUpperControlLimit(alert.getUpperControlLimit());
-            dto.setLowerControlLimit(alert.getLowerControlLimit());
-
-            dto.setAlertType(alert.getAlertType());
-            dto.setOptionItems(alert.getOptionItems());
-            dto.setOptionLabels(alert.getOptionLabels());
-            dto.setInvalidOptionItems(alert.getInvalidOptionItems());
-            dto.setInvalidOptionItemsLabels(alert.getInvalidOptionLabels());
-
-            if ("options".equals(alert.getAlertType())) {
-                dto.setControlRange(
-                        alert.getOptionLabels() != null ? String.join(", ", alert.getOptionLabels()) : null
-                );
-            } else if ("number".equals(alert.getAlertType()) &&
-                    alert.getLowerControlLimit() != null && alert.getUpperControlLimit() != null) {
-                dto.setControlRange(alert.getLowerControlLimit() + " - " + alert.getUpperControlLimit());
-            }
-
-            // Template
-            QcFormTemplate template = templateMap.get(alert.getQcFormTemplateId());
-            if (template != null) {
-                QcFormTemplateDTO formDto = new QcFormTemplateDTO();
-                formDto.setId(template.getId());
-                formDto.setName(template.getName());
-                formDto.setFormTemplateJson(null);
-                dto.setQcFormTemplate(formDto);
-            }
-
-            // Inspection item
-            InspectionItemDTO item = new InspectionItemDTO();
-            item.setKey(alert.getInspectionItemKey());
-            item.setLabel(alert.getInspectionItemLabel());
-            dto.setInspectionItem(item);
-
-            // Products
-            dto.setProducts(alert.getAlertProducts().stream()
-                    .map(p -> productMap.get(p.getProductId()))
-                    .filter(Objects::nonNull)
-                    .toList());
-
-            // Batches
-            dto.setBatches(alert.getAlertBatches().stream()
-                    .map(b -> batchMap.get(b.getBatchId()))
-                    .filter(Objects::nonNull)
-                    .toList());
-
-            // Inspectors
-            dto.setInspectors(alert.getAlertInspectors().stream()
-                    .map(i -> userMap.get(i.getInspectorId().intValue()))
-                    .filter(Objects::nonNull)
-                    .toList());
-
-            // Reviewers
-            dto.setReviewers(alert.getAlertReviewers().stream()
-                    .map(r -> userMap.get(r.getReviewerId().intValue()))
-                    .filter(Objects::nonNull)
-                    .toList());
-
-            // Alert status
-            if (alert.getAlertStatus() != null) {
-                dto.setAlertStatus(statusMap.get(alert.getAlertStatus()));
-            }
-
-            // Risk level
-            if (alert.getRiskLevelId() != null) {
-                dto.setRiskLevel(riskMap.get(alert.getRiskLevelId()));
-            }
-
-            return dto;
-        }).toList();
+        List<DetailedAlertRecordDTO> dtos = detailedAlertRecordMapper.toDetailed(alertList);
 
         return new PageImpl<>(dtos, pageable, entityPage.getTotalElements());
     }
@@ -303,6 +306,7 @@ public class AlertRecordServiceImpl implements AlertRecordService {
         entity.setUpdatedAt(OffsetDateTime.now());
 
         alertRecordRepository.save(entity);
+        alertStreamService.publish(AlertStreamService.EVENT_UPDATED, List.of(alertId));
 
         AlertRecordDTO newDto = modelMapper.map(entity, AlertRecordDTO.class);
         Map<String, List<String>> diff = AlertDiffBuilder.buildDiff(oldDto, newDto);
@@ -336,6 +340,7 @@ public class AlertRecordServiceImpl implements AlertRecordService {
         entity.setUpdatedAt(OffsetDateTime.now());
 
         alertRecordRepository.save(entity);
+        alertStreamService.publish(AlertStreamService.EVENT_UPDATED, List.of(alertId));
 
         // Logging
         Map<String, List<String>> diff = new HashMap<>();
@@ -356,33 +361,27 @@ public class AlertRecordServiceImpl implements AlertRecordService {
     }
 
     @Override
-    public AlertSummaryDTO getAlertSummary() {
-//        List<AlertRecord> allRecords = alertRecordRepository.findAll();
-        List<AlertRecord> allRecords = alertRecordRepository.findByStatus(1);
+    public AlertSummaryDTO getAlertSummary(OffsetDateTime from, OffsetDateTime to) {
+        // Counts are grouped in the database, only the distinct ids come back
 
-        // 1. 告警状态统计（按 alertStatus 外键聚合，展示名称）s
-        Map<Integer, Long> alertStatusRaw = allRecords.stream()
-                .filter(r -> r.getAlertStatus() != null)
-                .collect(Collectors.groupingBy(AlertRecord::getAlertStatus, Collectors.counting()));
+        // 1. 告警状态统计（按 alertStatus 外键聚合，展示名称）
+        Map<Integer, Long> alertStatusRaw = toCountMap(alertRecordRepository.countByAlertStatus(from, to));
 
-            // 加载 ID 对应的 AlertStatus 实体
         Map<Integer, AlertStatus> alertStatusMap = alertStatusRepository.findAllById(alertStatusRaw.keySet())
                 .stream()
                 .collect(Collectors.toMap(AlertStatus::getId, a -> a));
 
-            // 映射为 <name, count>
         Map<String, Long> alertStatusCounts = alertStatusRaw.entrySet().stream()
                 .collect(Collectors.toMap(
                         e -> Optional.ofNullable(alertStatusMap.get(e.getKey()))
                                 .map(AlertStatus::getName)
                                 .orElse("未知"),
-                        Map.Entry::getValue
+                        Map.Entry::getValue,
+                        Long::sum
                 ));
 
         // 2. 风险等级统计（用 id 聚合，显示 label）
-        Map<Integer, Long> riskRaw = allRecords.stream()
-                .filter(r -> r.getRiskLevelId() != null)
-                .collect(Collectors.groupingBy(AlertRecord::getRiskLevelId, Collectors.counting()));
+        Map<Integer, Long> riskRaw = toCountMap(alertRecordRepository.countByRiskLevel(from, to));
 
         Map<Integer, RiskLevel> riskMap = riskLevelRepository.findAllById(riskRaw.keySet()).stream()
                 .collect(Collectors.toMap(RiskLevel::getId, r -> r));
@@ -392,13 +391,12 @@ public class AlertRecordServiceImpl implements AlertRecordService {
                         e -> Optional.ofNullable(riskMap.get(e.getKey()))
                                 .map(RiskLevel::getName)
                                 .orElse("未知"),
-                        Map.Entry::getValue
+                        Map.Entry::getValue,
+                        Long::sum
                 ));
 
         // 3. 产品统计（用 productId 聚合，显示名称）
-        Map<Long, Long> productRaw = allRecords.stream()
-                .flatMap(r -> r.getAlertProducts().stream())
-                .collect(Collectors.groupingBy(AlertProduct::getProductId, Collectors.counting()));
+        Map<Long, Long> productRaw = toCountMap(alertRecordRepository.countByProduct(from, to));
 
         Map<Long, SuggestedProduct> productMap = suggestedProductRepository.findAllById(productRaw.keySet()).stream()
                 .collect(Collectors.toMap(SuggestedProduct::getId, p -> p));
@@ -413,20 +411,11 @@ public class AlertRecordServiceImpl implements AlertRecordService {
                 ));
 
         // 4. 检测项统计（key 聚合，label 展示）
-        Map<String, Long> inspectionRaw = allRecords.stream()
-                .filter(r -> r.getInspectionItemKey() != null)
-                .collect(Collectors.groupingBy(AlertRecord::getInspectionItemKey, Collectors.counting()));
-
-        Map<String, String> keyToLabel = allRecords.stream()
-                .filter(r -> r.getInspectionItemKey() != null && r.getInspectionItemLabel() != null)
-                .collect(Collectors.toMap(AlertRecord::getInspectionItemKey, AlertRecord::getInspectionItemLabel, (a, b) -> a)); // 去重保留第一个
-
-        Map<String, Long> inspectionItemCounts = inspectionRaw.entrySet().stream()
-                .collect(Collectors.toMap(
-                        e -> Optional.ofNullable(keyToLabel.get(e.getKey())).orElse("[未知检测项]"),
-                        Map.Entry::getValue,
-                        Long::sum
-                ));
+        Map<String, Long> inspectionItemCounts = new HashMap<>();
+        for (Object[] row : alertRecordRepository.countByInspectionItem(from, to)) {
+            String label = row[1] != null ? (String) row[1] : "[未知检测项]";
+            inspectionItemCounts.merge(label, (Long) row[2], Long::sum);
+        }
 
         // 封装结果
         AlertSummaryDTO summary = new AlertSummaryDTO();
@@ -438,7 +427,17 @@ public class AlertRecordServiceImpl implements AlertRecordService {
         return summary;
     }
 
+    @SuppressWarnings("unchecked")
+    private static <K> Map<K, Long> toCountMap(List<Object[]> rows) {
+        Map<K, Long> counts = new HashMap<>();
+        for (Object[] row : rows) {
+            counts.put((K) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+
     @Override
+    @Transactional
     public Page<DetailedAlertRecordDTO> filterAlertRecords(AlertRecordFilterRequest request) {
         Pageable pageable;
         if (request.getSort() != null && StringUtils.hasText(request.getSort().getProp())) {
@@ -502,116 +501,7 @@ public class AlertRecordServiceImpl implements AlertRecordService {
         Page<AlertRecord> entityPage = alertRecordRepository.findAll(spec, pageable);
         List<AlertRecord> alertList = entityPage.getContent();
 
-        // 以下逻辑复制自 getDetailedList() 没时间refactor
-        Set<Long> templateIds = new HashSet<>();
-        Set<Long> productIds = new HashSet<>();
-        Set<Long> batchIds = new HashSet<>();
-        Set<Integer> userIds = new HashSet<>();
-        Set<Integer> statusIds = new HashSet<>();
-        Set<Integer> riskLevelIds = new HashSet<>();
-
-        for (AlertRecord alert : alertList) {
-            templateIds.add(alert.getQcFormTemplateId());
-            if (alert.getAlertStatus() != null) statusIds.add(alert.getAlertStatus());
-            if (alert.getRiskLevelId() != null) riskLevelIds.add(alert.getRiskLevelId());
-            alert.getAlertProducts().forEach(p -> productIds.add(p.getProductId()));
-            alert.getAlertBatches().forEach(b -> batchIds.add(b.getBatchId()));
-            alert.getAlertInspectors().forEach(i -> userIds.add(i.getInspectorId().intValue()));
-            alert.getAlertReviewers().forEach(r -> userIds.add(r.getReviewerId().intValue()));
-        }
-
-        Map<Long, QcFormTemplate> templateMap = qcFormTemplateRepository.findAllById(templateIds)
-                .stream().collect(Collectors.toMap(QcFormTemplate::getId, t -> t));
-
-        Map<Long, SuggestedProductDTO> productMap = suggestedProductRepository.findAllById(productIds)
-                .stream().collect(Collectors.toMap(p -> p.getId(), p -> modelMapper.map(p, SuggestedProductDTO.class)));
-
-        Map<Long, SuggestedBatchDTO> batchMap = suggestedBatchRepository.findAllById(batchIds)
-                .stream().collect(Collectors.toMap(b -> b.getId(), b -> modelMapper.map(b, SuggestedBatchDTO.class)));
-
-        Map<Integer, UserDTO> userMap = userRepository.findAllById(userIds)
-                .stream().collect(Collectors.toMap(u -> u.getId(), u -> modelMapper.map(u, UserDTO.class)));
-
-        Map<Integer, AlertStatusDTO> statusMap = alertStatusRepository.findAllById(statusIds)
-                .stream().collect(Collectors.toMap(s -> s.getId(), s -> modelMapper.map(s, AlertStatusDTO.class)));
-
-        Map<Integer, RiskLevelDTO> riskMap = riskLevelRepository.findAllById(riskLevelIds)
-                .stream().collect(Collectors.toMap(r -> r.getId(), r -> modelMapper.map(r, RiskLevelDTO.class)));
-
-        List<DetailedAlertRecordDTO> dtos = alertList.stream().map(alert -> {
-            DetailedAlertRecordDTO dto = new DetailedAlertRecordDTO();
-
-            dto.setId(alert.getId());
-            dto.setAlertCode(alert.getAlertCode());
-            dto.setAlertTime(alert.getAlertTime());
-            dto.setInspectionValue(alert.getInspectionValue());
-            dto.setRpn(alert.getRpn());
-            dto.setCreatedAt(alert.getCreatedAt());
-            dto.setStatus(alert.getStatus());
-            dto.setUpperControlLimit(alert.getUpperControlLimit());
-            dto.setLowerControlLimit(alert.getLowerControlLimit());
-
-            dto.setAlertType(alert.getAlertType());
-            dto.setOptionItems(alert.getOptionItems());
-            dto.setOptionLabels(alert.getOptionLabels());
-            dto.setInvalidOptionItems(alert.getInvalidOptionItems());
-            dto.setInvalidOptionItemsLabels(alert.getInvalidOptionLabels());
-            dto.setInputOptionItems(alert.getInputOptionItems());
-            dto.setInputOptionItemsLabels(alert.getInputOptionItemsLabels());
-            dto.setSubmissionId(alert.getSubmissionId());
-
-            if ("options".equals(alert.getAlertType()) && alert.getOptionLabels() != null) {
-                List<String> validLabels = new ArrayList<>(alert.getOptionLabels());
-                if (alert.getInvalidOptionLabels() != null) {
-                    validLabels.removeAll(alert.getInvalidOptionLabels());
-                }
-                dto.setControlRange(String.join(", ", validLabels));
-            } else if ("number".equals(alert.getAlertType()) &&
-                    alert.getLowerControlLimit() != null &&
-                    alert.getUpperControlLimit() != null) {
-                dto.setControlRange(alert.getLowerControlLimit() + " - " + alert.getUpperControlLimit());
-            }
-
-            QcFormTemplate template = templateMap.get(alert.getQcFormTemplateId());
-            if (template != null) {
-                QcFormTemplateDTO formDto = new QcFormTemplateDTO();
-                formDto.setId(template.getId());
-                formDto.setName(template.getName());
-                formDto.setFormTemplateJson(null);
-                dto.setQcFormTemplate(formDto);
-            }
-
-            InspectionItemDTO item = new InspectionItemDTO();
-            item.setKey(alert.getInspectionItemKey());
-            item.setLabel(alert.getInspectionItemLabel());
-            dto.setInspectionItem(item);
-
-            dto.setProducts(alert.getAlertProducts().stream()
-                    .map(p -> productMap.get(p.getProductId()))
-                    .filter(Objects::nonNull).toList());
-
-            dto.setBatches(alert.getAlertBatches().stream()
-                    .map(b -> batchMap.get(b.getBatchId()))
-                    .filter(Objects::nonNull).toList());
-
-            dto.setInspectors(alert.getAlertInspectors().stream()
-                    .map(i -> userMap.get(i.getInspectorId().intValue()))
-                    .filter(Objects::nonNull).toList());
-
-            dto.setReviewers(alert.getAlertReviewers().stream()
-                    .map(r -> userMap.get(r.getReviewerId().intValue()))
-                    .filter(Objects::nonNull).toList());
-
-            if (alert.getAlertStatus() != null) {
-                dto.setAlertStatus(statusMap.get(alert.getAlertStatus()));
-            }
-
-            if (alert.getRiskLevelId() != null) {
-                dto.setRiskLevel(riskMap.get(alert.getRiskLevelId()));
-            }
-
-            return dto;
-        }).toList();
+        List<DetailedAlertRecordDTO> dtos = detailedAlertRecordMapper.toDetailed(alertList);
 
         return new PageImpl<>(dtos, pageable, entityPage.getTotalElements());
     }
@@ -0,0 +1,260 @@
+package com.fps.svmes.services.impl;
+
+import com.fps.svmes.dto.dtos.alert.DetailedAlertRecordDTO;
+import com.fps.svmes.models.sql.alert.AlertProduct;
+import com.fps.svmes.models.sql.alert.AlertRecord;
+import com.fps.svmes.repositories.jpaRepo.alert.AlertRecordRepository;
+import com.fps.svmes.services.AlertStreamService;
+import com.fps.svmes.utils.DetailedAlertRecordMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Alerts are loaded and enriched once per publish on a single dispatcher thread, then copied into each matching
+ * subscriber's bounded buffer. A sender pool drains the buffers, so a slow client only delays itself. When a
+ * buffer overflows its pending events are dropped and the client gets a "resync" event telling it to reload.
+ */
+@Slf4j
+@Service
+public class AlertStreamServiceImpl implements AlertStreamService, DisposableBean {
+
+    private static final String EVENT_RESYNC = "resync";
+    private static final int DISPATCH_QUEUE_CAPACITY = 1000;
+
+    private final AlertRecordRepository alertRecordRepository;
+    private final DetailedAlertRecordMapper detailedAlertRecordMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    private final long timeoutMillis;
+    private final int maxSubscribers;
+    private final int bufferSize;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor dispatcher;
+    private final ExecutorService senders;
+
+    @Autowired
+    public AlertStreamServiceImpl(AlertRecordRepository alertRecordRepository,
+                                  DetailedAlertRecordMapper detailedAlertRecordMapper,
+                                  TransactionTemplate transactionTemplate,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${alerts.stream.timeout-ms:1800000}") long timeoutMillis,
+                                  @Value("${alerts.stream.max-subscribers:500}") int maxSubscribers,
+                                  @Value("${alerts.stream.buffer-size:256}") int bufferSize,
+                                  @Value("${alerts.stream.sender-threads:4}") int senderThreads) {
+        this.alertRecordRepository = alertRecordRepository;
+        this.detailedAlertRecordMapper = detailedAlertRecordMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.timeoutMillis = timeoutMillis;
+        this.maxSubscribers = maxSubscribers;
+        this.bufferSize = Math.max(1, bufferSize);
+
+        this.dispatcher = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(DISPATCH_QUEUE_CAPACITY),
+                runnable -> daemon(runnable, "alert-stream-dispatch"),
+                // Backed up: every subscriber reloads instead of receiving this batch
+                (runnable, executor) -> subscribers.forEach(Subscriber::overflow));
+        this.dispatcher.allowCoreThreadTimeOut(true);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(Math.max(1, senderThreads),
+                runnable -> daemon(runnable, "alert-stream-sender-" + threadCount.incrementAndGet()));
+
+        Gauge.builder("alerts.stream.subscribers", subscribers, Set::size)
+                .description("Open alert stream connections")
+                .register(meterRegistry);
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @Override
+    public SseEmitter subscribe(Long templateId, Integer riskLevelId, Long productId) {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new IllegalStateException("Too many alert stream subscribers");
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter, templateId, riskLevelId, productId);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+
+        // Flushes the response headers so the client sees the stream open right away
+        subscriber.enqueue(SseEmitter.event().comment("connected"));
+        return emitter;
+    }
+
+    @Override
+    public void publish(String eventType, Collection<Long> alertIds) {
+        if (alertIds.isEmpty() || subscribers.isEmpty()) {
+            return;
+        }
+        List<Long> ids = List.copyOf(alertIds);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dispatcher.execute(() -> broadcast(eventType, ids));
+                }
+            });
+        } else {
+            dispatcher.execute(() -> broadcast(eventType, ids));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${alerts.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        // Keeps proxies from closing idle connections and finds clients that went away
+        for (Subscriber subscriber : subscribers) {
+            subscriber.enqueue(SseEmitter.event().comment("heartbeat"));
+        }
+    }
+
+    private void broadcast(String eventType, List<Long> alertIds) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        try {
+            List<AlertEvent> events = transactionTemplate.execute(status -> {
+                List<AlertRecord> alerts = alertRecordRepository.findAllById(alertIds);
+                List<DetailedAlertRecordDTO> rows = detailedAlertRecordMapper.toDetailed(alerts);
+                List<AlertEvent> loaded = new ArrayList<>(alerts.size());
+                for (int i = 0; i < alerts.size(); i++) {
+                    loaded.add(new AlertEvent(alerts.get(i), rows.get(i)));
+                }
+                return loaded;
+            });
+            for (AlertEvent event : events) {
+                for (Subscriber subscriber : subscribers) {
+                    if (subscriber.matches(event)) {
+                        subscriber.enqueue(SseEmitter.event()
+                                .id(String.valueOf(event.row.getId()))
+                                .name(eventType)
+                                .data(event.row, MediaType.APPLICATION_JSON));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to push alerts {}", alertIds, e);
+            subscribers.forEach(Subscriber::overflow);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        dispatcher.shutdown();
+        senders.shutdown();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    private static class AlertEvent {
+        private final DetailedAlertRecordDTO row;
+        private final Long templateId;
+        private final Integer riskLevelId;
+        private final Set<Long> productIds = new HashSet<>();
+
+        private AlertEvent(AlertRecord alert, DetailedAlertRecordDTO row) {
+            this.row = row;
+            this.templateId = alert.getQcFormTemplateId();
+            this.riskLevelId = alert.getRiskLevelId();
+            for (AlertProduct product : alert.getAlertProducts()) {
+                productIds.add(product.getProductId());
+            }
+        }
+    }
+
+    private class Subscriber {
+        private final SseEmitter emitter;
+        private final Long templateId;
+        private final Integer riskLevelId;
+        private final Long productId;
+
+        private final BlockingQueue<SseEmitter.SseEventBuilder> buffer;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean overflowed;
+
+        private Subscriber(SseEmitter emitter, Long templateId, Integer riskLevelId, Long productId) {
+            this.emitter = emitter;
+            this.templateId = templateId;
+            this.riskLevelId = riskLevelId;
+            this.productId = productId;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        private boolean matches(AlertEvent event) {
+            return (templateId == null || templateId.equals(event.templateId))
+                    && (riskLevelId == null || riskLevelId.equals(event.riskLevelId))
+                    && (productId == null || event.productIds.contains(productId));
+        }
+
+        private void enqueue(SseEmitter.SseEventBuilder event) {
+            if (!buffer.offer(event)) {
+                overflowed = true;
+            }
+            schedule();
+        }
+
+        private void overflow() {
+            overflowed = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    if (overflowed) {
+                        overflowed = false;
+                        buffer.clear();
+                        emitter.send(SseEmitter.event().name(EVENT_RESYNC).data(""));
+                    }
+                    SseEmitter.SseEventBuilder event = buffer.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    emitter.send(event);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Client went away; the emitter callbacks may not fire for a broken connection
+                subscribers.remove(this);
+                buffer.clear();
+                return;
+            } finally {
+                draining.set(false);
+            }
+            if ((!buffer.isEmpty() || overflowed) && subscribers.contains(this)) {
+                schedule();
+            }
+        }
+    }
+}
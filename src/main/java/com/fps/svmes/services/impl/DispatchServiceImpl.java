@@ -18,6 +18,7 @@ import com.fps.svmes.repositories.jpaRepo.production.RawMaterialRepository;
 import com.fps.svmes.repositories.jpaRepo.user.UserRepository;
 import com.fps.svmes.repositories.mongoRepo.FormNodeRepository;
 import com.fps.svmes.services.*;
+import com.fps.svmes.utils.ClusterLease;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.constraints.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,10 +28,12 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.modelmapper.ModelMapper;
+import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.OffsetDateTime;
 import java.util.*;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.function.Predicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -95,8 +98,15 @@ public class DispatchServiceImpl implements DispatchService {
     @Autowired
     private ModelMapper modelMapper;
 
+    @Autowired
+    private ClusterLease clusterLease;
+
     private static final Logger logger = LoggerFactory.getLogger(DispatchServiceImpl.class);
 
+    // Held by the instance running the startup initialization / the expiry cleanup (every 10 minutes)
+    private static final Duration INITIALIZE_LEASE = Duration.ofMinutes(5);
+    private static final Duration CLEANUP_LEASE = Duration.ofMinutes(15);
+
     // ------------- Dispatch CRUD -----------------------------------------------------------------------
 
     // Map dispatch request to a dispatch object,
@@ -106,6 +116,8 @@ public class DispatchServiceImpl implements DispatchService {
 
         // TODO: Not sure if model mapper will map super class fields? if yes this line is redundant
         dispatch.setCreationDetails(request.getCreatedBy(), 1);
+        // Set by the scheduler only
+        dispatch.setNextFireAt(null);
 
         // Initialize mutable collections
         List<DispatchForm> mutableDispatchForms = new ArrayList<>();
@@ -185,7 +197,7 @@ public class DispatchServiceImpl implements DispatchService {
 
         // Insert rows to dispatched task table
         try {
-            this.initializeDispatch(savedDispatch.getId(), () -> executeDispatch(savedDispatch.getId()));
+            this.initializeDispatch(savedDispatch.getId());
 
         } catch (IllegalStateException e) {
             logger.warn("Dispatch created but not immediately scheduled: {}", e.getMessage());
@@ -259,6 +271,14 @@ public class DispatchServiceImpl implements DispatchService {
             dispatch.setDueDateOffsetMinute(request.getDueDateOffsetMinute());
         }
 
+        if (request.getMisfirePolicy() != null) {
+            dispatch.setMisfirePolicy(request.getMisfirePolicy());
+        }
+
+        if (request.getMisfireCatchUpLimit() != null) {
+            dispatch.setMisfireCatchUpLimit(request.getMisfireCatchUpLimit());
+        }
+
         // Clear and update associations with proper handling
         updateDispatchUsers(dispatch, request.getUserIds());
         updateDispatchForms(dispatch, request.getFormIds());
@@ -274,8 +294,8 @@ public class DispatchServiceImpl implements DispatchService {
         Dispatch updatedDispatch = dispatchRepo.save(dispatch);
 
         if (updatedDispatch.getStatus() == 1) {
-            taskScheduleService.removeAllTasks(dispatch.getId());
-            initializeDispatch(id, () -> executeDispatch(updatedDispatch.getId()));
+            taskScheduleService.unscheduleDispatch(dispatch.getId());
+            initializeDispatch(id);
         }
 
         return updatedDispatch;
@@ -288,7 +308,7 @@ public class DispatchServiceImpl implements DispatchService {
                 .orElseThrow(() -> new EntityNotFoundException("Dispatch not found"));
 
         // Cancel any scheduled task of this dispatch if scheduled
-        boolean taskCancelled = taskScheduleService.removeAllTasks(id);
+        boolean taskCancelled = taskScheduleService.unscheduleDispatch(id);
         if (taskCancelled) {
             logger.info("Cancelled all scheduled task for Dispatch ID: {}", id);
         }
@@ -379,27 +399,29 @@ public class DispatchServiceImpl implements DispatchService {
 
     // ------------- SCHEDULING LOGIC -----------------------------------------------------------------------
 
-    // Runs on server start up
+    // Runs on server start up, on one instance of a cluster
     @EventListener(ApplicationReadyEvent.class)
     public void initializeSchedules() {
+        if (!clusterLease.tryAcquire("dispatch-initialize", INITIALIZE_LEASE)) {
+            logger.info("Dispatch schedules are initialized by another instance");
+            return;
+        }
         logger.info("Initializing scheduled tasks...");
         scheduleDispatches();
         logger.info("Done initializing scheduling dispatches...");
 
     }
 
-    // Go through all existing dispatch to initialize scheduling
+    // Schedules survive restarts in next_fire_at; only active dispatches without one (scheduled before next_fire_at
+    // existed) need initializing
     @Override
     public void scheduleDispatches() {
-        dispatchRepo.findByStatus(1).stream()
-                .filter(dispatch -> "regular".equals(dispatch.getType()) &&
-                        dispatch.getStatus() == 1 &&
-                        !taskScheduleService.isScheduled(dispatch.getId()))
-                .forEach(dispatch -> {
+        dispatchRepo.findUnscheduledIds(DispatchState.Active.getState())
+                .forEach(dispatchId -> {
                     try {
-                        initializeDispatch(dispatch.getId(), () -> executeDispatch(dispatch.getId()));
+                        initializeDispatch(dispatchId);
                     } catch (Exception e) {
-                        logger.error("Failed to schedule task for Dispatch ID: {}", dispatch.getId(), e);
+                        logger.error("Failed to schedule task for Dispatch ID: {}", dispatchId, e);
                     }
                 });
     }
@@ -407,20 +429,18 @@ public class DispatchServiceImpl implements DispatchService {
     // Runs every 10 minutes (600000 ms)
     @Scheduled(fixedRate = 600000)
     public void periodicCleanupExpiredTasks() {
-        dispatchRepo.findByStatus(1).stream()
-                .filter(dispatch -> "regular".equals(dispatch.getType()) &&
-                        dispatch.getState().equals(DispatchState.Active.getState()))
-                .forEach(dispatch -> {
-                    if (dispatch.getEndTime().isBefore(OffsetDateTime.now())) {
-                        logger.info("Dispatch ID {} has expired. Canceling task...", dispatch.getId());
-                        cancelDispatchTask(dispatch.getId());
-                    }
-                });
+        if (!clusterLease.tryAcquire("dispatch-cleanup", CLEANUP_LEASE)) {
+            return;
+        }
+        int expired = taskScheduleService.deactivateExpiredDispatches();
+        if (expired > 0) {
+            logger.info("Deactivated {} expired dispatches", expired);
+        }
     }
 
     // called by create dispatch, update dispatch, initialization upon server restart , schedule by id
-    // This function setup task(CRON, FUTURE, CANCEL) based on the start/end time of dispatch
-    public void initializeDispatch(Long dispatchId, Runnable task) {
+    // This function sets the first fire time (next_fire_at) based on the start/end time of dispatch
+    public void initializeDispatch(Long dispatchId) {
         Dispatch dispatch = dispatchRepo.findById(dispatchId)
                 .orElseThrow(() -> new EntityNotFoundException("Dispatch not found"));
 
@@ -430,7 +450,7 @@ public class DispatchServiceImpl implements DispatchService {
         if (dispatch.getType().equals("regular")) {
 
             // Dispatch is already scheduled
-            if (taskScheduleService.isScheduled(dispatchId)){
+            if (dispatch.getNextFireAt() != null) {
                 logger.info("Dispatch ID {} is already scheduled.", dispatchId);
                 return;
             }
@@ -446,15 +466,11 @@ public class DispatchServiceImpl implements DispatchService {
                 return;
             }
 
-            if (dispatch.getStartTime().isAfter(now)) {
-                taskScheduleService.scheduleFutureDispatch(dispatch, task);
-            } else {
-                taskScheduleService.scheduleDispatch(dispatch, task);
-            }
+            taskScheduleService.scheduleDispatch(dispatch);
         } else {
             // Set up custom type dispatch (Only dispatch once at custom time. start time, end time, dispatch limit,
             // and cron expression are all ignored)
-            taskScheduleService.scheduleCustomDispatch(dispatch, task);
+            taskScheduleService.scheduleDispatch(dispatch);
         }
     }
 
@@ -470,56 +486,52 @@ public class DispatchServiceImpl implements DispatchService {
         // expired (set during initialization based on now vs endtime, does not scheduled so wont trigger executeDispatch)
         // exhausted (set in executeDispatch)
         // paused (set when calling pause)
-        // invalid (set when executeDispatch gone wrong)
-
-        try {
-            // Load dispatchForms separately
-            Dispatch dispatchWithForms = dispatchRepo.findWithFormsById(dispatchId)
-                    .orElseThrow(() -> new EntityNotFoundException("Dispatch forms not found"));
-            dispatch.setDispatchForms(dispatchWithForms.getDispatchForms());
-
-            // Load dispatchUsers separately
-            Dispatch dispatchWithUsers = dispatchRepo.findWithUsersById(dispatchId)
-                    .orElseThrow(() -> new EntityNotFoundException("Dispatch users not found"));
-            dispatch.setDispatchUsers(dispatchWithUsers.getDispatchUsers());
-
-            // Ensure collections are fully initialized before processing
-            dispatch.getDispatchForms().size();
-            dispatch.getDispatchUsers().size();
-
-            // Update dispatchForms based on referenced entity status
-            dispatch.getDispatchForms().forEach(dispatchForm -> {
-                String qcFormTreeNodeId = dispatchForm.getQcFormTreeNodeId();
-                Optional<FormNode> formNode = formNodeService.getNodeByIdOrUuid(qcFormTreeNodeId);
-                dispatchForm.setStatus(formNode.isPresent() ? 1 : 0);
-            });
-
-            // Update dispatchUsers based on referenced user status
-            dispatch.getDispatchUsers().forEach(dispatchUser -> {
-                Optional<User> user = userRepository.findById(dispatchUser.getUser().getId());
-                dispatchUser.setStatus(user.isPresent() && user.get().getStatus() == 1 ? 1 : 0);
-            });
-
-            // Check and cancel dispatch if it has a execution limit
-            if ((Objects.equals(dispatch.getType(), "regular")) && (dispatch.getDispatchLimit() != -1) && (dispatch.getExecutedCount() >= dispatch.getDispatchLimit())) {
-                if(taskScheduleService.isScheduled(dispatch.getId())) {
-                    taskScheduleService.removeAllTasks(dispatch.getId());
-                }
-                dispatch.setState(DispatchState.Exhausted.getState());
-                dispatchRepo.save(dispatch);
-                return;
-            }
+        // invalid (set by TaskScheduleService.fireDispatch when executeDispatch keeps throwing; each failure rolls back with its fire)
+
+        // Load dispatchForms separately
+        Dispatch dispatchWithForms = dispatchRepo.findWithFormsById(dispatchId)
+                .orElseThrow(() -> new EntityNotFoundException("Dispatch forms not found"));
+        dispatch.setDispatchForms(dispatchWithForms.getDispatchForms());
+
+        // Load dispatchUsers separately
+        Dispatch dispatchWithUsers = dispatchRepo.findWithUsersById(dispatchId)
+                .orElseThrow(() -> new EntityNotFoundException("Dispatch users not found"));
+        dispatch.setDispatchUsers(dispatchWithUsers.getDispatchUsers());
+
+        // Ensure collections are fully initialized before processing
+        dispatch.getDispatchForms().size();
+        dispatch.getDispatchUsers().size();
+
+        // Update dispatchForms based on referenced entity status
+        dispatch.getDispatchForms().forEach(dispatchForm -> {
+            String qcFormTreeNodeId = dispatchForm.getQcFormTreeNodeId();
+            Optional<FormNode> formNode = formNodeService.getNodeByIdOrUuid(qcFormTreeNodeId);
+            dispatchForm.setStatus(formNode.isPresent() ? 1 : 0);
+        });
 
-            // insert dispatched task rows and increase executed count
-            processDispatch(dispatch);
-            dispatch.setUpdatedAt(OffsetDateTime.now());
-            dispatchRepo.save(dispatch);
-        } catch (Exception e) {
-            dispatch.setState(DispatchState.Invalid.getState());
-            taskScheduleService.removeAllTasks(dispatch.getId());
+        // Update dispatchUsers based on referenced user status, with one query for all users
+        Set<Integer> activeUserIds = userRepository.findAllById(dispatch.getDispatchUsers().stream()
+                        .map(dispatchUser -> dispatchUser.getUser().getId())
+                        .collect(Collectors.toSet()))
+                .stream()
+                .filter(user -> user.getStatus() == 1)
+                .map(User::getId)
+                .collect(Collectors.toSet());
+        dispatch.getDispatchUsers().forEach(dispatchUser ->
+                dispatchUser.setStatus(activeUserIds.contains(dispatchUser.getUser().getId()) ? 1 : 0));
+
+        // Check and cancel dispatch if it has a execution limit
+        if ((Objects.equals(dispatch.getType(), "regular")) && (dispatch.getDispatchLimit() != -1) && (dispatch.getExecutedCount() >= dispatch.getDispatchLimit())) {
+            taskScheduleService.unscheduleDispatch(dispatch.getId());
+            dispatch.setState(DispatchState.Exhausted.getState());
             dispatchRepo.save(dispatch);
-            logger.error("Error executing Dispatch ID: {}, set dispatch to invalid", dispatchId, e);
+            return;
         }
+
+        // insert dispatched task rows and increase executed count
+        processDispatch(dispatch);
+        dispatch.setUpdatedAt(OffsetDateTime.now());
+        dispatchRepo.save(dispatch);
     }
 
     // This function cancels all tasks of a dispatch
@@ -528,7 +540,7 @@ public class DispatchServiceImpl implements DispatchService {
         Dispatch dispatch = dispatchRepo.findById(dispatchId)
                 .orElseThrow(() -> new EntityNotFoundException("Dispatch not found"));
 
-        if (taskScheduleService.removeAllTasks(dispatchId)) {
+        if (taskScheduleService.unscheduleDispatch(dispatchId)) {
             // Update status after cancellation
             dispatch.setUpdatedAt(OffsetDateTime.now());
             dispatch.setState(DispatchState.Inactive.getState());
@@ -544,7 +556,7 @@ public class DispatchServiceImpl implements DispatchService {
         Dispatch dispatch = dispatchRepo.findById(dispatchId)
                 .orElseThrow(() -> new EntityNotFoundException("Dispatch not found"));
 
-        if (taskScheduleService.removeTask(dispatchId, TaskType.CRON)) {
+        if (taskScheduleService.unscheduleDispatch(dispatchId)) {
             // Update status after cancellation
             dispatch.setUpdateDetails(userId, 1);
             dispatch.setState(DispatchState.Paused.getState());
@@ -558,10 +570,9 @@ public class DispatchServiceImpl implements DispatchService {
         Dispatch dispatch = dispatchRepo.findById(dispatchId)
                 .orElseThrow(() -> new EntityNotFoundException("Dispatch not found"));
 
-        taskScheduleService.setupCronTask(dispatch,() -> executeDispatch(dispatch.getId()));
+        // Resumes from the next cron time after now, the paused period is not caught up
         dispatch.setUpdateDetails(userId, 1);
-        dispatch.setState(DispatchState.Active.getState());
-        dispatchRepo.save(dispatch);
+        taskScheduleService.scheduleDispatch(dispatch);
     }
 
     // // ------------- Helper Function  -----------------------------------------------------------------------
@@ -679,15 +690,11 @@ public class DispatchServiceImpl implements DispatchService {
                 .map(user -> user.getUser().getId())
                 .toList();
 
-        // Loop through active forms and create tasks for active users
-        for (DispatchForm form : activeForms) {
-            taskDTO.setQcFormTreeNodeId(form.getQcFormTreeNodeId());
-
-            // Use the service to insert tasks
-            dispatchedTaskService.insertDispatchedTasks(taskDTO, activeUserIds);
-        }
+        // One task per active form and active user, inserted in bulk
+        List<String> activeFormIds = activeForms.stream().map(DispatchForm::getQcFormTreeNodeId).toList();
+        int created = dispatchedTaskService.insertDispatchedTasks(taskDTO, activeFormIds, activeUserIds);
 
-        logger.info("Executed Dispatch ID: {}, Created {} tasks.", dispatch.getId(), dispatch.getDispatchForms().size());
+        logger.info("Executed Dispatch ID: {}, Created {} tasks.", dispatch.getId(), created);
     }
 
     private OffsetDateTime calculateDueDate(OffsetDateTime dispatchTime, int dueDateOffsetMinute) {
@@ -1,6 +1,7 @@
 package com.fps.svmes.services.impl;
 
 import com.fps.svmes.dto.dtos.dispatch.DispatchedTaskDTO;
+import com.fps.svmes.dto.dtos.notification.NotificationDTO;
 import com.fps.svmes.dto.dtos.task.QuarterlyTaskStatisticsDTO;
 import com.fps.svmes.dto.dtos.task.TaskStateStatisticsDTO;
 import com.fps.svmes.models.sql.taskSchedule.DispatchedTask;
@@ -9,29 +10,31 @@ import com.fps.svmes.models.nosql.FormNode;
 import com.fps.svmes.repositories.jpaRepo.dispatch.DispatchedTaskRepository;
 import com.fps.svmes.services.DispatchedTaskService;
 import com.fps.svmes.services.FormNodeService;
+import com.fps.svmes.services.NotificationService;
 import com.fps.svmes.repositories.specifications.DispatchedTaskSpecification;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import com.fps.svmes.repositories.jpaRepo.user.UserRepository;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.sql.Types;
 import java.time.OffsetDateTime;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -51,6 +54,44 @@ public class DispatchedTaskServiceImpl implements DispatchedTaskService {
     @Autowired
     private ModelMapper modelMapper;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Value("${notifications.dispatched-tasks.enabled:true}")
+    private boolean notifyOnDispatch;
+
+    @Value("${notifications.overdue-tasks.enabled:true}")
+    private boolean notifyOnOverdue;
+
+    // Linked from task notifications
+    @Value("${notifications.app-url:}")
+    private String appUrl;
+
+    // Rows per JDBC batch of the bulk task insert
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    // Unfinished tasks past due and not flagged yet; must match the predicate of the partial index
+    // idx_dispatched_task_overdue_sweep (dispatched_task_state_id, due_date) for the planner to use it
+    private static final String UNMARKED_OVERDUE_CONDITION =
+            "dispatched_task_state_id IN (1, 2) AND is_overdue = false AND status = 1 AND due_date < now()";
+
+    private static final String MARK_OVERDUE_SQL =
+            "WITH due AS (SELECT id FROM quality_management.dispatched_task WHERE " + UNMARKED_OVERDUE_CONDITION +
+            " LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "UPDATE quality_management.dispatched_task t SET is_overdue = true, updated_at = now() " +
+            "FROM due WHERE t.id = due.id RETURNING t.user_id, t.name, t.due_date";
+
+    private static final String OLDEST_UNMARKED_OVERDUE_SQL =
+            "SELECT min(due_date) FROM quality_management.dispatched_task WHERE " + UNMARKED_OVERDUE_CONDITION;
+
+    // Tasks listed in one overdue notification, the rest are counted
+    private static final int OVERDUE_NOTIFICATION_TASKS = 10;
+
+    private static final DateTimeFormatter NOTIFICATION_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
     @Override
     public List<DispatchedTaskDTO> getCurrentTasks(Long userId) {
         ZoneId chinaZone = ZoneId.of("Asia/Shanghai"); // Set timezone to China (UTC+8)
@@ -83,57 +124,155 @@ public class DispatchedTaskServiceImpl implements DispatchedTaskService {
 
     @Override
     public void insertDispatchedTasks(DispatchedTaskDTO dispatchedTaskDTO, List<Integer> userIds) {
+        insertDispatchedTasks(dispatchedTaskDTO, Collections.singletonList(dispatchedTaskDTO.getQcFormTreeNodeId()),
+                userIds);
+    }
+
+    /**
+     * One task per form and user from the template's fields. The users are loaded with one query and the rows
+     * written with JDBC batches of INSERT_BATCH_SIZE, instead of a lookup and an insert per task.
+     *
+     * @return the number of tasks created
+     */
+    @Override
+    @Transactional
+    public int insertDispatchedTasks(DispatchedTaskDTO template, List<String> qcFormTreeNodeIds, List<Integer> userIds) {
+        if (qcFormTreeNodeIds.isEmpty() || userIds.isEmpty()) {
+            return 0;
+        }
+        Map<Integer, User> users = userRepository.findAllById(new HashSet<>(userIds)).stream()
+                .collect(Collectors.toMap(User::getId, user -> user));
         for (Integer userId : userIds) {
-            DispatchedTask task = modelMapper.map(dispatchedTaskDTO, DispatchedTask.class);
-            User user = userRepository.findById(userId)
-                    .orElseThrow(() -> new IllegalArgumentException("User not found with ID: " + userId));
-            task.setUser(user);
-            dispatchedTaskRepository.save(task);
+            if (!users.containsKey(userId)) {
+                throw new IllegalArgumentException("User not found with ID: " + userId);
+            }
         }
-        sendWeComNotification(dispatchedTaskDTO);
+
+        List<Object[]> rows = new ArrayList<>(qcFormTreeNodeIds.size() * userIds.size());
+        for (String qcFormTreeNodeId : qcFormTreeNodeIds) {
+            for (Integer userId : userIds) {
+                rows.add(new Object[]{qcFormTreeNodeId, userId});
+            }
+        }
+
+        OffsetDateTime now = OffsetDateTime.now();
+        OffsetDateTime dispatchTime = template.getDispatchTime() != null ? template.getDispatchTime() : now;
+        OffsetDateTime createdAt = template.getCreatedAt() != null ? template.getCreatedAt() : now;
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO quality_management.dispatched_task " +
+                        "(dispatch_id, user_id, qc_form_tree_node_id, dispatch_time, name, description, due_date, " +
+                        "is_overdue, dispatched_task_state_id, notes, created_at, created_by, status) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                rows, INSERT_BATCH_SIZE,
+                (ps, row) -> {
+                    ps.setObject(1, template.getDispatchId());
+                    ps.setObject(2, row[1]);
+                    ps.setString(3, (String) row[0]);
+                    ps.setObject(4, dispatchTime);
+                    ps.setString(5, template.getName());
+                    ps.setString(6, template.getDescription());
+                    ps.setObject(7, template.getDueDate());
+                    ps.setBoolean(8, Boolean.TRUE.equals(template.getIsOverdue()));
+                    ps.setObject(9, template.getStateId());
+                    ps.setString(10, template.getNotes());
+                    ps.setObject(11, createdAt);
+                    ps.setObject(12, template.getCreatedBy());
+                    ps.setObject(13, template.getStatus() != null ? template.getStatus() : 1, Types.SMALLINT);
+                });
+
+        notifyAssignees(template, dispatchTime, qcFormTreeNodeIds, users);
+        return rows.size();
     }
 
-    private void sendWeComNotification(DispatchedTaskDTO task) { // only test for now
-        String url = "https://qyapi.weixin.qq.com/cgi-bin/message/send?access_token=npSmdfRWezU7zMHXBXNEG0M-9p1BVp_Y_qPGuoRxY54NIsYJZKcNhwSsYkQgLagOTxHMPQA-JlHljpvUj2lM7OmOs-8gx1NSG3beRrK4LVfoR098FmHOx7A0dw-oV6hGcD9bSEjhMLiUzJ0IA2KlkP9oR1Mp2srRv4YwW-X5UQBj5WCmmkaG_2P8E7EWo7B2_VnpXXO_VbfL8ZPXeKxSkg";
-
-        String payload = "{\n" +
-                "  \"touser\" : \"erik\",\n" +
-                "  \"msgtype\": \"markdown\",\n" +
-                "  \"agentid\" : 1000002,\n" +
-                "  \"markdown\": {\n" +
-                "       \"content\": \"您有一个新的QC派遣单：\\n>\\n>**任务详情**  \\n>\\n>任务单号：<font color=\\\"info\\\">" + task.getId() + "</font>  \\n>任务名称：<font color=\\\"info\\\">" + task.getName() + "</font>  \\n>负责人：<font color=\\\"info\\\">" + "Erik Yu" + "</font>  \\n>开始日期：<font color=\\\"info\\\">" + task.getDispatchTime() + "</font>  \\n>截止日期：<font color=\\\"warning\\\">" + task.getDueDate() + "</font>  \\n>  \\n> \\n>请点击：[QC质检任务](http://10.10.12.68:3000/form-display/29?usable=true&switchDisplayed=false&dispatchedTaskId=7208) 开始做任务：\"\n" +
-                "  },\n" +
-                "  \"enable_duplicate_check\": 0,\n" +
-                "  \"duplicate_check_interval\": 1800\n" +
-                "}";
-
-        try {
-            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true);
-
-            try (OutputStream os = connection.getOutputStream()) {
-                os.write(payload.getBytes(StandardCharsets.UTF_8));
-                os.flush();
+    /**
+     * Queue one notification per user for the new tasks, over WeCom for users with a wecom_id and email otherwise.
+     * They are sent after the dispatch commits, merged with the user's other pending notifications.
+     */
+    private void notifyAssignees(DispatchedTaskDTO template, OffsetDateTime dispatchTime,
+                                 List<String> qcFormTreeNodeIds, Map<Integer, User> users) {
+        if (!notifyOnDispatch) {
+            return;
+        }
+        StringBuilder content = new StringBuilder()
+                .append("任务名称：").append(template.getName())
+                .append("\n开始日期：").append(dispatchTime.format(NOTIFICATION_TIME_FORMAT));
+        if (qcFormTreeNodeIds.size() > 1) {
+            content.append("\n表单数量：").append(qcFormTreeNodeIds.size());
+        }
+        if (template.getDueDate() != null) {
+            content.append("\n截止日期：").append(template.getDueDate().format(NOTIFICATION_TIME_FORMAT));
+        }
+        if (!appUrl.isBlank()) {
+            content.append("\n请登录 ").append(appUrl).append(" 开始做任务");
+        }
+
+        List<NotificationDTO> notifications = new ArrayList<>();
+        for (User user : users.values()) {
+            NotificationDTO notification = notificationFor(user, "您有新的QC派遣单", content.toString());
+            if (notification != null) {
+                notifications.add(notification);
             }
+        }
+        notificationService.enqueue(notifications);
+    }
 
-            int responseCode = connection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                // System.out.println("Notification sent successfully.");
-            } else {
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        response.append(line);
-                    }
-                    throw new RuntimeException("Failed to send notification. Response: " + response.toString());
+    /**
+     * WeCom for users with a wecom_id, email for users with only an email address, null for neither.
+     */
+    private static NotificationDTO notificationFor(User user, String subject, String content) {
+        if (user.getWecomId() != null && !user.getWecomId().isBlank()) {
+            return new NotificationDTO(WeComNotificationChannel.NAME, user.getWecomId(), subject, content);
+        }
+        if (user.getEmail() != null && !user.getEmail().isBlank()) {
+            return new NotificationDTO(EmailNotificationChannel.NAME, user.getEmail(), subject, content);
+        }
+        return null;
+    }
+
+    /**
+     * One UPDATE ... RETURNING over a batch of ids taken with SKIP LOCKED, so it never waits on a task being edited
+     * and concurrent sweeps take different rows. Finds the rows through the partial index on unflagged unfinished
+     * tasks, so the cost doesn't grow with the finished history.
+     */
+    @Override
+    @Transactional
+    public int markOverdueTasks(int limit) {
+        List<Object[]> marked = jdbcTemplate.query(MARK_OVERDUE_SQL,
+                (rs, rowNum) -> new Object[]{rs.getInt("user_id"), rs.getString("name"),
+                        rs.getObject("due_date", OffsetDateTime.class)},
+                limit);
+        if (marked.isEmpty() || !notifyOnOverdue) {
+            return marked.size();
+        }
+
+        Map<Integer, List<Object[]>> tasksByUser = marked.stream()
+                .collect(Collectors.groupingBy(row -> (Integer) row[0], LinkedHashMap::new, Collectors.toList()));
+        List<NotificationDTO> notifications = new ArrayList<>();
+        for (User user : userRepository.findAllById(tasksByUser.keySet())) {
+            List<Object[]> tasks = tasksByUser.get(user.getId());
+            StringBuilder content = new StringBuilder();
+            for (Object[] task : tasks.subList(0, Math.min(tasks.size(), OVERDUE_NOTIFICATION_TASKS))) {
+                if (content.length() > 0) {
+                    content.append("\n");
                 }
+                content.append(task[1]).append("，截止日期：").append(((OffsetDateTime) task[2])
+                        .atZoneSameInstant(ZoneId.systemDefault()).format(NOTIFICATION_TIME_FORMAT));
+            }
+            if (tasks.size() > OVERDUE_NOTIFICATION_TASKS) {
+                content.append("\n等").append(tasks.size()).append("个任务");
+            }
+            NotificationDTO notification = notificationFor(user, "您有QC任务已逾期", content.toString());
+            if (notification != null) {
+                notifications.add(notification);
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Error while sending WeCom notification: " + e.getMessage(), e);
         }
+        notificationService.enqueue(notifications);
+        return marked.size();
+    }
+
+    @Override
+    public OffsetDateTime getOldestUnmarkedOverdueDueDate() {
+        return jdbcTemplate.queryForObject(OLDEST_UNMARKED_OVERDUE_SQL, OffsetDateTime.class);
     }
 
     @Override
@@ -150,6 +289,10 @@ public class DispatchedTaskServiceImpl implements DispatchedTaskService {
         }
         if (dispatchedTaskDTO.getDueDate() != null) {
             existingTask.setDueDate(dispatchedTaskDTO.getDueDate());
+            // A postponed task is no longer overdue; an earlier due date is left to the sweeper
+            if (dispatchedTaskDTO.getDueDate().isAfter(OffsetDateTime.now())) {
+                existingTask.setIsOverdue(false);
+            }
         }
         if (dispatchedTaskDTO.getStateId() != null) {
             existingTask.setStateId(dispatchedTaskDTO.getStateId());
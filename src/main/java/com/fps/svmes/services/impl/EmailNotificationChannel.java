@@ -0,0 +1,58 @@
+package com.fps.svmes.services.impl;
+
+import com.fps.svmes.dto.dtos.notification.NotificationDTO;
+import com.fps.svmes.services.EmailService;
+import com.fps.svmes.services.NotificationChannel;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.HtmlUtils;
+
+import java.util.List;
+
+/**
+ * Notifications as one HTML email per recipient address, through EmailService.
+ */
+@Service
+@RequiredArgsConstructor
+public class EmailNotificationChannel implements NotificationChannel {
+
+    public static final String NAME = "email";
+
+    private final EmailService emailService;
+
+    @Value("${notifications.email.enabled:true}")
+    private boolean enabled;
+
+    @Value("${notifications.email.rate-per-second:2}")
+    private double ratePerSecond;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    @Override
+    public void send(String recipient, List<NotificationDTO> messages) {
+        String subject = messages.size() == 1
+                ? messages.get(0).getSubject()
+                : messages.get(0).getSubject() + " (" + messages.size() + ")";
+        StringBuilder html = new StringBuilder();
+        for (NotificationDTO message : messages) {
+            html.append("<h3>").append(HtmlUtils.htmlEscape(message.getSubject())).append("</h3><p>")
+                    .append(HtmlUtils.htmlEscape(message.getContent()).replace("\n", "<br>"))
+                    .append("</p>");
+        }
+        emailService.sendHtmlEmail(recipient, subject, html.toString());
+    }
+}
@@ -0,0 +1,333 @@
+package com.fps.svmes.services.impl;
+
+import com.fps.svmes.services.FormRollupService;
+import com.fps.svmes.utils.CompiledFormSchema;
+import com.fps.svmes.utils.FormCollectionCatalog;
+import com.fps.svmes.utils.FormTemplateSchemaCache;
+import com.fps.svmes.utils.MongoFormDataQueryUtils;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.*;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+
+import static com.mongodb.client.model.Filters.*;
+
+/**
+ * Rollup rows are {f: field, v: option value, h: hour start, count, ops: recent operations}. Counts follow the same rules as the raw
+ * reporting path: the latest version of each submission counts once, in the hour of its created_at.
+ * A failed incremental update marks the template stale, so reporting falls back to raw scans until the next rebuild.
+ */
+@Slf4j
+@Service
+public class FormRollupServiceImpl implements FormRollupService {
+
+    private static final String ROLLUP_PREFIX = "form_rollup_";
+    private static final String STATE_COLLECTION = "form_rollup_state";
+    private static final String ROLLUP_INDEX = "idx_field_hour_value";
+    private static final long HOUR_MILLIS = 3_600_000L;
+    private static final int WRITE_BATCH_SIZE = 1000;
+    private static final int DUPLICATE_KEY = 11000;
+
+    // Operations applied to a rollup row, newest last; enough to cover any outbox retry of a busy hour
+    private static final String OPS_FIELD = "ops";
+    private static final int OPS_KEPT = 500;
+    private static final String OP_ADD = ":add";
+    private static final String OP_EDIT = ":edit";
+    private static final String OP_DELETE = ":delete";
+
+    private static final String STATUS_READY = "ready";
+    private static final String STATUS_REBUILDING = "rebuilding";
+    private static final String STATUS_STALE = "stale";
+
+    private final MongoClient mongoClient;
+    private final FormTemplateSchemaCache formTemplateSchemaCache;
+    private final FormCollectionCatalog formCollectionCatalog;
+    private final MongoFormDataQueryUtils mongoFormDataQueryUtils;
+
+    @Value("${spring.data.mongodb.database}")
+    private String mongoDatabaseName;
+
+    @Autowired
+    public FormRollupServiceImpl(MongoClient mongoClient,
+                                 FormTemplateSchemaCache formTemplateSchemaCache,
+                                 FormCollectionCatalog formCollectionCatalog,
+                                 MongoFormDataQueryUtils mongoFormDataQueryUtils) {
+        this.mongoClient = mongoClient;
+        this.formTemplateSchemaCache = formTemplateSchemaCache;
+        this.formCollectionCatalog = formCollectionCatalog;
+        this.mongoFormDataQueryUtils = mongoFormDataQueryUtils;
+    }
+
+    @Override
+    public void applySubmission(Long formTemplateId, Document submission) {
+        Map<Document, Integer> deltas = new HashMap<>();
+        collectDeltas(formTemplateId, submission, 1, deltas);
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        addUpdates(updates, deltas, operationKey(submission, OP_ADD));
+        writeUpdates(formTemplateId, updates);
+    }
+
+    @Override
+    public void applySubmissions(Long formTemplateId, List<Document> submissions) {
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (Document submission : submissions) {
+            Map<Document, Integer> deltas = new HashMap<>();
+            collectDeltas(formTemplateId, submission, 1, deltas);
+            addUpdates(updates, deltas, operationKey(submission, OP_ADD));
+        }
+        writeUpdates(formTemplateId, updates);
+    }
+
+    @Override
+    public void applyEdit(Long formTemplateId, Document superseded, Document replacement) {
+        Map<Document, Integer> deltas = new HashMap<>();
+        collectDeltas(formTemplateId, superseded, -1, deltas);
+        collectDeltas(formTemplateId, replacement, 1, deltas);
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        addUpdates(updates, deltas, operationKey(replacement, OP_EDIT));
+        writeUpdates(formTemplateId, updates);
+    }
+
+    @Override
+    public void applyDeletion(Long formTemplateId, Document latestVersion) {
+        Map<Document, Integer> deltas = new HashMap<>();
+        collectDeltas(formTemplateId, latestVersion, -1, deltas);
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        addUpdates(updates, deltas, operationKey(latestVersion, OP_DELETE));
+        writeUpdates(formTemplateId, updates);
+    }
+
+    @Override
+    public boolean isReady(Long formTemplateId) {
+        Document state = getDatabase().getCollection(STATE_COLLECTION).find(eq("_id", formTemplateId)).first();
+        return state != null && STATUS_READY.equals(state.getString("status"));
+    }
+
+    @Override
+    public List<Document> findCounts(Long formTemplateId, Collection<String> fields, Instant fromHour, Instant toHour) {
+        if (fields.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return getDatabase().getCollection(rollupCollectionName(formTemplateId))
+                .find(and(in("f", fields), gte("h", Date.from(fromHour)), lt("h", Date.from(toHour))))
+                .projection(Projections.exclude(OPS_FIELD))
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Builds into a staging collection and swaps it in, so readers never see a half-built rollup. An incremental
+     * update arriving while the rebuild runs would be lost in the swap (or counted twice), so it marks the rebuild
+     * dirty; a dirty rebuild is still swapped in but leaves the template stale, and reporting keeps scanning the
+     * raw submissions until a rebuild completes undisturbed.
+     */
+    @Override
+    public long rebuild(Long formTemplateId) {
+        CompiledFormSchema schema = formTemplateSchemaCache.get(formTemplateId);
+        List<String> fields = new ArrayList<>(schema.getOptionLabelsByField().keySet());
+
+        MongoDatabase database = getDatabase();
+        String target = rollupCollectionName(formTemplateId);
+        MongoCollection<Document> staging = database.getCollection(target + "_rebuild");
+        staging.drop();
+        createRollupIndex(staging);
+        String rebuildId = UUID.randomUUID().toString();
+        database.getCollection(STATE_COLLECTION).updateOne(eq("_id", formTemplateId), Updates.combine(
+                Updates.set("status", STATUS_REBUILDING),
+                Updates.set("rebuild_id", rebuildId),
+                Updates.set("updated_at", new Date()),
+                Updates.unset("dirty"),
+                Updates.unset("reason")), new UpdateOptions().upsert(true));
+
+        long rows = 0;
+        try {
+            if (!fields.isEmpty()) {
+                List<WriteModel<Document>> batch = new ArrayList<>();
+                for (String collectionName : formCollectionCatalog.getCollectionNames(formTemplateId)) {
+                    MongoCollection<Document> collection = database.getCollection(collectionName);
+                    mongoFormDataQueryUtils.ensureLatestMarkers(collection);
+                    for (Document row : collection
+                            .aggregate(buildRebuildPipeline(fields)).allowDiskUse(true)) {
+                        Document key = row.get("_id", Document.class);
+                        batch.add(upsertIncrement(key.getString("f"), key.getDate("h"),
+                                ((Number) key.get("v")).intValue(), ((Number) row.get("count")).intValue()));
+                        rows++;
+                        if (batch.size() >= WRITE_BATCH_SIZE) {
+                            staging.bulkWrite(batch, new BulkWriteOptions().ordered(false));
+                            batch.clear();
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    staging.bulkWrite(batch, new BulkWriteOptions().ordered(false));
+                }
+            }
+
+            staging.renameCollection(new MongoNamespace(mongoDatabaseName, target),
+                    new RenameCollectionOptions().dropTarget(true));
+            Date now = new Date();
+            long ready = database.getCollection(STATE_COLLECTION).updateOne(
+                    and(eq("_id", formTemplateId), eq("rebuild_id", rebuildId), ne("dirty", true)),
+                    Updates.combine(Updates.set("status", STATUS_READY), Updates.set("updated_at", now),
+                            Updates.set("rebuilt_at", now), Updates.unset("reason"))).getModifiedCount();
+            if (ready == 0) {
+                setState(formTemplateId, STATUS_STALE, "updated while rebuilding, rebuild again");
+                log.warn("Reporting rollups of form template {} were updated during the rebuild, left stale", formTemplateId);
+            } else {
+                log.info("Rebuilt reporting rollups for form template {}: {} rows", formTemplateId, rows);
+            }
+            return rows;
+        } catch (RuntimeException e) {
+            setState(formTemplateId, STATUS_STALE, "rebuild failed: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Per collection: one row per (field, option value, created_at hour) over the latest versions.
+     */
+    private List<Bson> buildRebuildPipeline(List<String> fields) {
+        Document projection = new Document("created_at", 1);
+        List<Document> pairs = new ArrayList<>();
+        for (String field : fields) {
+            projection.append(field, 1);
+            pairs.add(new Document("f", new Document("$literal", field)).append("v", "$" + field));
+        }
+
+        return Arrays.asList(
+                new Document("$match", new Document("created_at", new Document("$type", "date"))
+                        .append(MongoFormDataQueryUtils.LATEST_FIELD, true)),
+                new Document("$project", projection),
+                new Document("$project", new Document("pairs", pairs)
+                        .append("h", new Document("$subtract", Arrays.asList("$created_at",
+                                new Document("$mod", Arrays.asList(new Document("$toLong", "$created_at"), HOUR_MILLIS)))))),
+                new Document("$unwind", "$pairs"),
+                new Document("$project", new Document("h", 1).append("f", "$pairs.f")
+                        .append("vals", MongoFormDataQueryUtils.optionValuesExpression("$pairs.v"))),
+                new Document("$unwind", "$vals"),
+                new Document("$match", new Document("vals", new Document("$ne", null))),
+                new Document("$group", new Document("_id", new Document("f", "$f").append("v", "$vals").append("h", "$h"))
+                        .append("count", new Document("$sum", 1)))
+        );
+    }
+
+    private void collectDeltas(Long formTemplateId, Document submission, int sign, Map<Document, Integer> deltas) {
+        if (submission == null || !(submission.get("created_at") instanceof Date)) {
+            return;
+        }
+        Optional<CompiledFormSchema> schema = formTemplateSchemaCache.find(formTemplateId);
+        if (schema.isEmpty()) {
+            return;
+        }
+
+        long createdAt = submission.getDate("created_at").getTime();
+        Date hour = new Date(createdAt - Math.floorMod(createdAt, HOUR_MILLIS));
+        for (String field : schema.get().getOptionLabelsByField().keySet()) {
+            for (Integer value : MongoFormDataQueryUtils.optionValues(submission.get(field))) {
+                deltas.merge(new Document("f", field).append("h", hour).append("v", value), sign, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Operation key recorded on every row an update touches: the submission id and what happened to it.
+     */
+    private static String operationKey(Document submission, String operation) {
+        Object id = submission == null ? null : submission.get("_id");
+        return id == null ? null : id + operation;
+    }
+
+    /**
+     * Each row's $inc only applies if the row doesn't list the operation yet, and lists it in the same update,
+     * so a retried operation (outbox retry after a crash between the write and its done_steps mark) never
+     * counts twice. Rows keep the last OPS_KEPT operations.
+     */
+    private static void addUpdates(List<WriteModel<Document>> updates, Map<Document, Integer> deltas, String operation) {
+        deltas.forEach((key, delta) -> {
+            if (delta == 0) {
+                return;
+            }
+            if (operation == null) {
+                updates.add(upsertIncrement(key.getString("f"), key.getDate("h"), key.getInteger("v"), delta));
+                return;
+            }
+            updates.add(new UpdateOneModel<>(
+                    and(eq("f", key.getString("f")), eq("h", key.getDate("h")), eq("v", key.getInteger("v")),
+                            ne(OPS_FIELD, operation)),
+                    Updates.combine(Updates.inc("count", delta),
+                            Updates.pushEach(OPS_FIELD, List.of(operation), new PushOptions().slice(-OPS_KEPT))),
+                    new UpdateOptions().upsert(true)));
+        });
+    }
+
+    private void writeUpdates(Long formTemplateId, List<WriteModel<Document>> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        try {
+            // Fence against a running rebuild before writing, so the write can't slip in unnoticed
+            getDatabase().getCollection(STATE_COLLECTION).updateOne(
+                    and(eq("_id", formTemplateId), eq("status", STATUS_REBUILDING)), Updates.set("dirty", true));
+            MongoCollection<Document> rollups = getDatabase().getCollection(rollupCollectionName(formTemplateId));
+            try {
+                rollups.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                // A row that already lists the operation doesn't match its filter, and the upsert then collides
+                // with the row on the unique index: that part was applied before
+                if (e.getWriteErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY)
+                        || e.getWriteConcernError() != null) {
+                    throw e;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to update reporting rollups for form template {}: {}", formTemplateId, e.getMessage());
+            try {
+                setState(formTemplateId, STATUS_STALE, e.getMessage());
+            } catch (Exception stateError) {
+                log.error("Failed to mark reporting rollups of form template {} stale", formTemplateId, stateError);
+            }
+        }
+    }
+
+    private static WriteModel<Document> upsertIncrement(String field, Date hour, int value, int delta) {
+        return new UpdateOneModel<>(
+                and(eq("f", field), eq("h", hour), eq("v", value)),
+                Updates.inc("count", delta),
+                new UpdateOptions().upsert(true));
+    }
+
+    private void createRollupIndex(MongoCollection<Document> collection) {
+        collection.createIndex(Indexes.ascending("f", "h", "v"), new IndexOptions().name(ROLLUP_INDEX).unique(true));
+    }
+
+    private void setState(Long formTemplateId, String status, String reason) {
+        List<Bson> updates = new ArrayList<>();
+        updates.add(Updates.set("status", status));
+        updates.add(Updates.set("updated_at", new Date()));
+        updates.add(reason == null ? Updates.unset("reason") : Updates.set("reason", reason));
+        if (STATUS_READY.equals(status)) {
+            updates.add(Updates.set("rebuilt_at", new Date()));
+        }
+        getDatabase().getCollection(STATE_COLLECTION)
+                .updateOne(eq("_id", formTemplateId), Updates.combine(updates), new UpdateOptions().upsert(true));
+    }
+
+    private static String rollupCollectionName(Long formTemplateId) {
+        return ROLLUP_PREFIX + formTemplateId;
+    }
+
+    private MongoDatabase getDatabase() {
+        return mongoClient.getDatabase(mongoDatabaseName);
+    }
+}
@@ -1,6 +1,8 @@
 package com.fps.svmes.services.impl;
 
 import com.fps.svmes.services.MongoService;
+import com.fps.svmes.utils.FormCollectionCatalog;
+import com.fps.svmes.utils.MongoFormDataQueryUtils;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
@@ -21,6 +23,12 @@ public class MongoServiceImpl implements MongoService {
     @Autowired
     private MongoClient mongoClient;
 
+    @Autowired
+    private MongoFormDataQueryUtils mongoFormDataQueryUtils;
+
+    @Autowired
+    private FormCollectionCatalog formCollectionCatalog;
+
     @Value("${spring.data.mongodb.database}")
     private String mongoDatabaseName;
 
@@ -29,6 +37,10 @@ public class MongoServiceImpl implements MongoService {
         if (!mongoTemplate.collectionExists(collectionName)) {
             mongoTemplate.createCollection(collectionName);
         }
+        if (collectionName.startsWith("form_template_")) {
+            mongoFormDataQueryUtils.ensureIndexes(mongoTemplate.getCollection(collectionName));
+            formCollectionCatalog.register(collectionName);
+        }
     }
 
     @Override
@@ -0,0 +1,430 @@
+package com.fps.svmes.services.impl;
+
+import com.fps.svmes.dto.dtos.notification.NotificationDTO;
+import com.fps.svmes.services.NotificationChannel;
+import com.fps.svmes.services.NotificationService;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mongodb.client.model.Filters.*;
+
+/**
+ * Messages live in the notification_outbox collection until delivered. The poller groups the due ones by channel
+ * and recipient and hands each group to a worker, which claims up to the channel's batch size (so several instances
+ * never send the same message), waits for the channel's rate limit and sends them as one message. A failed delivery
+ * is retried with exponential backoff; consecutive failures open the channel's circuit breaker, and its messages
+ * wait, without using up attempts, until the breaker lets a trial delivery through.
+ */
+@Slf4j
+@Service
+public class NotificationServiceImpl implements NotificationService, DisposableBean {
+
+    private static final String COLLECTION = "notification_outbox";
+
+    private static final String STATUS_PENDING = "pending";
+    private static final String STATUS_PROCESSING = "processing";
+    private static final String STATUS_DONE = "done";
+    private static final String STATUS_FAILED = "failed";
+
+    // A claimed message whose worker died is retried after this
+    private static final long LEASE_MILLIS = 120_000L;
+    private static final long RETRY_BASE_MILLIS = 5_000L;
+    private static final long RETRY_MAX_MILLIS = 1_800_000L;
+    private static final int POLL_LIMIT = 500;
+
+    private final MongoTemplate mongoTemplate;
+    private final Map<String, NotificationChannel> channels = new HashMap<>();
+    // Set in stub mode: every channel delivers here
+    private final NotificationChannel stubChannel;
+
+    private final ThreadPoolExecutor executor;
+    private final int maxAttempts;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    // Channel and recipient groups handed to a worker and not finished yet
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong lagSeconds = new AtomicLong();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final Timer deliveryTimer;
+    private final Counter sentCounter;
+    private final Counter retryCounter;
+    private final Counter failedCounter;
+
+    @Autowired
+    public NotificationServiceImpl(MongoTemplate mongoTemplate,
+                                   List<NotificationChannel> channelList,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${notifications.stub:false}") boolean stub,
+                                   @Value("${notifications.worker-threads:2}") int workerThreads,
+                                   @Value("${notifications.queue-capacity:100}") int queueCapacity,
+                                   @Value("${notifications.max-attempts:8}") int maxAttempts,
+                                   @Value("${notifications.circuit-breaker.failure-threshold:5}") int failureThreshold,
+                                   @Value("${notifications.circuit-breaker.open-ms:60000}") long openMillis) {
+        this.mongoTemplate = mongoTemplate;
+        for (NotificationChannel channel : channelList) {
+            channels.put(channel.getName(), channel);
+        }
+        this.stubChannel = stub ? channels.get(StubNotificationChannel.NAME) : null;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workerThreads, workerThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "notification-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("notifications.outbox.lag", lagSeconds, AtomicLong::get)
+                .description("Age in seconds of the oldest undelivered notification")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("notifications.outbox.pending", pendingCount, AtomicLong::get)
+                .description("Notifications waiting to be delivered")
+                .register(meterRegistry);
+        this.deliveryTimer = Timer.builder("notifications.outbox.delivery")
+                .description("Time spent delivering one batch of notifications")
+                .register(meterRegistry);
+        this.sentCounter = Counter.builder("notifications.outbox.messages").tag("outcome", "sent").register(meterRegistry);
+        this.retryCounter = Counter.builder("notifications.outbox.messages").tag("outcome", "retry").register(meterRegistry);
+        this.failedCounter = Counter.builder("notifications.outbox.messages").tag("outcome", "failed").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        try {
+            MongoCollection<Document> collection = getCollection();
+            collection.createIndex(Indexes.ascending("status", "next_attempt_at"),
+                    new IndexOptions().name("idx_status_next_attempt_at"));
+            collection.createIndex(Indexes.ascending("claim"), new IndexOptions().name("idx_claim").sparse(true));
+            // Delivered messages are kept a week for troubleshooting, failed ones until someone looks at them
+            collection.createIndex(Indexes.ascending("completed_at"),
+                    new IndexOptions().name("idx_completed_at_ttl").expireAfter(7L, TimeUnit.DAYS));
+        } catch (Exception e) {
+            log.warn("Failed to ensure indexes on {}: {}", COLLECTION, e.getMessage());
+        }
+    }
+
+    /**
+     * Messages without a recipient, or for a channel that isn't configured, are dropped. A message queued after the
+     * commit is lost if the insert fails; the caller's transaction is never held up or rolled back by it.
+     */
+    @Override
+    public void enqueue(List<NotificationDTO> notifications) {
+        Date now = new Date();
+        List<Document> messages = new ArrayList<>();
+        for (NotificationDTO notification : notifications) {
+            NotificationChannel channel = channels.get(notification.getChannel());
+            if (channel == null) {
+                throw new IllegalArgumentException("Unknown notification channel: " + notification.getChannel());
+            }
+            if (notification.getRecipient() == null || notification.getRecipient().isBlank()
+                    || (stubChannel == null && !channel.isEnabled())) {
+                continue;
+            }
+            messages.add(new Document("channel", notification.getChannel())
+                    .append("recipient", notification.getRecipient())
+                    .append("subject", notification.getSubject())
+                    .append("content", notification.getContent())
+                    .append("status", STATUS_PENDING)
+                    .append("attempts", 0)
+                    .append("created_at", now)
+                    .append("next_attempt_at", now));
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    insert(messages);
+                }
+            });
+        } else {
+            insert(messages);
+        }
+    }
+
+    private void insert(List<Document> messages) {
+        try {
+            getCollection().insertMany(messages, new InsertManyOptions().ordered(false));
+        } catch (Exception e) {
+            log.error("Failed to queue {} notification(s): {}", messages.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Hands the due messages, grouped by channel and recipient, to the workers, skipping channels whose breaker is
+     * open, and refreshes the lag metrics.
+     */
+    @Scheduled(fixedDelayString = "${notifications.poll-interval-ms:1000}",
+            initialDelayString = "${notifications.poll-interval-ms:1000}")
+    public void poll() {
+        try {
+            MongoCollection<Document> collection = getCollection();
+            Document oldest = collection.find(in("status", STATUS_PENDING, STATUS_PROCESSING))
+                    .sort(Sorts.ascending("created_at"))
+                    .projection(Projections.include("created_at"))
+                    .first();
+            lagSeconds.set(oldest == null ? 0 : (System.currentTimeMillis() - oldest.getDate("created_at").getTime()) / 1000);
+            pendingCount.set(oldest == null ? 0 : collection.countDocuments(in("status", STATUS_PENDING, STATUS_PROCESSING)));
+            if (oldest == null) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            Map<String, List<ObjectId>> groups = new LinkedHashMap<>();
+            for (Document due : collection.find(claimable(new Date(now)))
+                    .sort(Sorts.ascending("next_attempt_at"))
+                    .projection(Projections.include("_id", "channel", "recipient"))
+                    .limit(POLL_LIMIT)) {
+                String channelName = due.getString("channel");
+                if (!circuitBreaker(channelName).allowsRequests(now)) {
+                    continue;
+                }
+                groups.computeIfAbsent(channelName + "\n" + due.getString("recipient"), key -> new ArrayList<>())
+                        .add(due.getObjectId("_id"));
+            }
+
+            for (Map.Entry<String, List<ObjectId>> group : groups.entrySet()) {
+                String key = group.getKey();
+                if (!inFlight.add(key)) {
+                    continue;
+                }
+                int split = key.indexOf('\n');
+                String channelName = key.substring(0, split);
+                String recipient = key.substring(split + 1);
+                try {
+                    executor.execute(() -> {
+                        try {
+                            deliver(channelName, recipient, group.getValue());
+                        } finally {
+                            inFlight.remove(key);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Workers are busy; the rest stays pending for the next poll
+                    inFlight.remove(key);
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Notification outbox poll failed: {}", e.getMessage());
+        }
+    }
+
+    private void deliver(String channelName, String recipient, List<ObjectId> ids) {
+        NotificationChannel channel = stubChannel != null ? stubChannel : channels.get(channelName);
+        if (channel == null) {
+            log.error("No notification channel {}, dropping {} message(s) to {}", channelName, ids.size(), recipient);
+            getCollection().updateMany(in("_id", ids), Updates.combine(
+                    Updates.set("status", STATUS_FAILED), Updates.set("last_error", "Unknown channel")));
+            return;
+        }
+        CircuitBreaker circuitBreaker = circuitBreaker(channelName);
+        RateLimiter rateLimiter = rateLimiters.computeIfAbsent(channelName,
+                name -> new RateLimiter(channel.getRatePerSecond()));
+        int batchSize = Math.max(1, channel.getMaxBatchSize());
+
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            if (!circuitBreaker.allowsRequests(System.currentTimeMillis())) {
+                return;
+            }
+            try {
+                rateLimiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            List<Document> claimed = claim(ids.subList(from, Math.min(from + batchSize, ids.size())));
+            if (claimed.isEmpty()) {
+                continue;
+            }
+            List<NotificationDTO> messages = new ArrayList<>(claimed.size());
+            for (Document message : claimed) {
+                messages.add(new NotificationDTO(message.getString("channel"), message.getString("recipient"),
+                        message.getString("subject"), message.getString("content")));
+            }
+
+            long start = System.nanoTime();
+            try {
+                channel.send(recipient, messages);
+                circuitBreaker.onSuccess();
+                getCollection().updateMany(eq("claim", claimed.get(0).getString("claim")), Updates.combine(
+                        Updates.set("status", STATUS_DONE),
+                        Updates.set("completed_at", new Date()),
+                        Updates.unset("locked_until"),
+                        Updates.unset("claim")));
+                sentCounter.increment(claimed.size());
+            } catch (Exception e) {
+                if (circuitBreaker.onFailure(System.currentTimeMillis())) {
+                    log.warn("Notification channel {} failed {} times in a row, pausing it for {} ms",
+                            channelName, failureThreshold, openMillis);
+                }
+                for (Document message : claimed) {
+                    retryOrFail(message, e.getMessage());
+                }
+            } finally {
+                deliveryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Claim the given messages that are still due under a fresh token and return those this worker got.
+     */
+    private List<Document> claim(List<ObjectId> ids) {
+        String claim = UUID.randomUUID().toString();
+        Date now = new Date();
+        MongoCollection<Document> collection = getCollection();
+        collection.updateMany(and(in("_id", ids), claimable(now)), Updates.combine(
+                Updates.set("status", STATUS_PROCESSING),
+                Updates.set("locked_until", new Date(now.getTime() + LEASE_MILLIS)),
+                Updates.set("claim", claim),
+                Updates.inc("attempts", 1)));
+        return collection.find(eq("claim", claim)).sort(Sorts.ascending("created_at")).into(new ArrayList<>());
+    }
+
+    private Bson claimable(Date now) {
+        return or(and(eq("status", STATUS_PENDING), lte("next_attempt_at", now)),
+                and(eq("status", STATUS_PROCESSING), lt("locked_until", now)));
+    }
+
+    private void retryOrFail(Document message, String reason) {
+        ObjectId id = message.getObjectId("_id");
+        int attempts = message.getInteger("attempts", 1);
+        try {
+            if (attempts >= maxAttempts) {
+                log.error("Notification {} to {} failed after {} attempts: {}", id, message.getString("recipient"),
+                        attempts, reason);
+                getCollection().updateOne(eq("_id", id), Updates.combine(
+                        Updates.set("status", STATUS_FAILED),
+                        Updates.set("last_error", reason),
+                        Updates.unset("locked_until"),
+                        Updates.unset("claim")));
+                failedCounter.increment();
+                return;
+            }
+            long delay = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempts - 1, 20));
+            log.warn("Notification {} attempt {} failed, retrying in {} ms: {}", id, attempts, delay, reason);
+            getCollection().updateOne(eq("_id", id), Updates.combine(
+                    Updates.set("status", STATUS_PENDING),
+                    Updates.set("next_attempt_at", new Date(System.currentTimeMillis() + delay)),
+                    Updates.set("last_error", reason),
+                    Updates.unset("locked_until"),
+                    Updates.unset("claim")));
+            retryCounter.increment();
+        } catch (Exception e) {
+            // The lease expires and the poller picks the message up again
+            log.error("Failed to reschedule notification {}", id, e);
+        }
+    }
+
+    private CircuitBreaker circuitBreaker(String channelName) {
+        return circuitBreakers.computeIfAbsent(channelName, name -> new CircuitBreaker(failureThreshold, openMillis));
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoTemplate.getCollection(COLLECTION);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * Spaces deliveries of one channel evenly; callers wait for their slot.
+     */
+    private static final class RateLimiter {
+        private final long intervalNanos;
+        private long nextSlot = System.nanoTime();
+
+        private RateLimiter(double perSecond) {
+            this.intervalNanos = (long) (1_000_000_000L / Math.max(perSecond, 0.001));
+        }
+
+        private void acquire() throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(now, nextSlot);
+                nextSlot = slot + intervalNanos;
+                wait = slot - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    /**
+     * Open after failureThreshold consecutive failures. Once openMillis have passed deliveries go through again
+     * (half-open): a success closes the breaker, a failure opens it for another openMillis.
+     */
+    private static final class CircuitBreaker {
+        private final int failureThreshold;
+        private final long openMillis;
+        private int failures;
+        private long openUntil;
+
+        private CircuitBreaker(int failureThreshold, long openMillis) {
+            this.failureThreshold = failureThreshold;
+            this.openMillis = openMillis;
+        }
+
+        private synchronized boolean allowsRequests(long now) {
+            return failures < failureThreshold || now >= openUntil;
+        }
+
+        private synchronized void onSuccess() {
+            failures = 0;
+        }
+
+        /**
+         * true when this failure opened the breaker.
+         */
+        private synchronized boolean onFailure(long now) {
+            failures++;
+            if (failures >= failureThreshold) {
+                openUntil = now + openMillis;
+                return true;
+            }
+            return false;
+        }
+    }
+}
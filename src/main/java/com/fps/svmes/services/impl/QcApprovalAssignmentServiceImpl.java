@@ -21,6 +21,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
@@ -29,8 +30,11 @@ import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
@@ -42,6 +46,7 @@ public class QcApprovalAssignmentServiceImpl implements QcApprovalAssignmentServ
     private final ModelMapper modelMapper;
     private final QcApprovalAssignmentRepository qcApprovalAssignmentRepository;
     private final MongoClient mongoClient;
+    private final JdbcTemplate jdbcTemplate;
 
     @Autowired
     MongoFormTemplateUtils mongoUtils;
@@ -61,6 +66,42 @@ public class QcApprovalAssignmentServiceImpl implements QcApprovalAssignmentServ
         }
     }
 
+    /**
+     * Batch version of insertIfNotExists: one query for the existing submission ids, then one batched INSERT.
+     */
+    @Override
+    @Transactional
+    public void insertAllIfNotExists(List<QcApprovalAssignmentDTO> dtos) {
+        if (dtos.isEmpty()) {
+            return;
+        }
+        Set<String> existing = new HashSet<>(repository.findExistingSubmissionIds(
+                dtos.stream().map(QcApprovalAssignmentDTO::getSubmissionId).toList()));
+        List<QcApprovalAssignmentDTO> toInsert = dtos.stream()
+                .filter(dto -> existing.add(dto.getSubmissionId()))
+                .toList();
+        if (toInsert.isEmpty()) {
+            return;
+        }
+
+        OffsetDateTime now = OffsetDateTime.now();
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO quality_management.qc_approval_assignment " +
+                        "(submission_id, qc_form_template_id, qc_form_template_name, mongo_collection, approval_type, state, created_at, updated_at) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                toInsert, toInsert.size(),
+                (ps, dto) -> {
+                    ps.setString(1, dto.getSubmissionId());
+                    ps.setObject(2, dto.getQcFormTemplateId());
+                    ps.setString(3, dto.getQcFormTemplateName());
+                    ps.setString(4, dto.getMongoCollection());
+                    ps.setString(5, dto.getApprovalType());
+                    ps.setString(6, dto.getState());
+                    ps.setObject(7, now);
+                    ps.setObject(8, now);
+                });
+    }
+
     @Override
     public Page<QcApprovalAssignmentDTO> getAllAssignments(Pageable pageable) {
         return repository.findAll(pageable)
@@ -131,12 +172,11 @@ public class QcApprovalAssignmentServiceImpl implements QcApprovalAssignmentServ
         if (parts.length < 3) throw new IllegalArgumentException("Invalid collection name format");
         Long formTemplateId = Long.parseLong(parts[2]);
 
+        Map<String, Map<String, String>> optionItemsKeyValueMap = mongoUtils.getOptionItemsKeyValueMapping(formTemplateId);
+        Map<String, String> keyValueMap = mongoUtils.getFormTemplateKeyValueMapping(formTemplateId);
+
         return rawVersions.stream()
-                .map(doc -> mongoUtils.formatRecord(
-                        doc,
-                        mongoUtils.getOptionItemsKeyValueMapping(formTemplateId),
-                        mongoUtils.getFormTemplateKeyValueMapping(formTemplateId)
-                ))
+                .map(doc -> mongoUtils.formatRecord(doc, optionItemsKeyValueMap, keyValueMap))
                 .collect(Collectors.toList());
 
     }
@@ -0,0 +1,248 @@
+package com.fps.svmes.services.impl;
+
+import com.fps.svmes.dto.dtos.alert.AlertRecordDTO;
+import com.fps.svmes.dto.dtos.qcForm.QcApprovalAssignmentDTO;
+import com.fps.svmes.dto.requests.FormSubmissionRequest;
+import com.fps.svmes.services.*;
+import com.fps.svmes.utils.CompiledControlLimits;
+import com.fps.svmes.utils.FormCollectionCatalog;
+import com.fps.svmes.utils.MongoFormDataQueryUtils;
+import com.fps.svmes.utils.SubmissionDirectory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class QcFormDataIngestServiceImpl implements QcFormDataIngestService {
+
+    // Documents per insertMany round trip
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    private static final String STATUS_INSERTED = "inserted";
+    private static final String STATUS_FAILED = "failed";
+
+    private final MongoTemplate mongoTemplate;
+    private final QcFormTemplateService qcFormTemplateService;
+    private final AlertRecordService alertRecordService;
+    private final ControlLimitEvaluationService controlLimitEvaluationService;
+    private final ApprovalInfoGeneratorService approvalInfoGeneratorService;
+    private final QcApprovalAssignmentService qcApprovalAssignmentService;
+    private final MongoFormDataQueryUtils mongoFormDataQueryUtils;
+    private final FormCollectionCatalog formCollectionCatalog;
+    private final FormRollupService formRollupService;
+    private final SubmissionDirectory submissionDirectory;
+
+    @Override
+    public List<Map<String, Object>> insertForms(Long userId, List<FormSubmissionRequest> forms) {
+        List<Map<String, Object>> results = new ArrayList<>(Collections.nCopies(forms.size(), null));
+
+        // Group by collection, keeping request order inside each group
+        Map<String, List<Integer>> indexesByCollection = new LinkedHashMap<>();
+        for (int i = 0; i < forms.size(); i++) {
+            FormSubmissionRequest form = forms.get(i);
+            String collectionName = form == null ? null : form.getCollectionName();
+            if (collectionName == null || FormCollectionCatalog.templateIdOf(collectionName) == null) {
+                results.set(i, failed(i, collectionName, "Invalid collection name format: " + collectionName));
+            } else if (form.getFormData() == null) {
+                results.set(i, failed(i, collectionName, "Missing formData"));
+            } else {
+                indexesByCollection.computeIfAbsent(collectionName, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        Map<Long, TemplateContext> contexts = new HashMap<>();
+        indexesByCollection.forEach((collectionName, indexes) -> {
+            try {
+                insertCollection(userId, collectionName, indexes, forms, contexts, results);
+            } catch (Exception e) {
+                log.error("Error inserting {} submissions into {}", indexes.size(), collectionName, e);
+                for (Integer index : indexes) {
+                    if (results.get(index) == null) {
+                        results.set(index, failed(index, collectionName, "Error inserting form data: " + e.getMessage()));
+                    }
+                }
+            }
+        });
+        return results;
+    }
+
+    private void insertCollection(Long userId, String collectionName, List<Integer> indexes,
+                                  List<FormSubmissionRequest> forms, Map<Long, TemplateContext> contexts,
+                                  List<Map<String, Object>> results) {
+        Long formTemplateId = FormCollectionCatalog.templateIdOf(collectionName);
+        TemplateContext context = contexts.get(formTemplateId);
+        if (context == null) {
+            context = loadTemplateContext(formTemplateId);
+            contexts.put(formTemplateId, context);
+        }
+        ensureCollection(collectionName);
+
+        // Built once per collection, each document gets its own copy; control limits come from the evaluator cache
+        List<Map<String, Object>> approvalInfo = approvalInfoGeneratorService.generateApprovalInfo(context.approvalType, userId);
+        Date createdAt = new Date();
+
+        Map<ObjectId, Integer> indexById = new LinkedHashMap<>();
+        Map<ObjectId, List<AlertRecordDTO>> alertsById = new HashMap<>();
+        List<Document> documents = new ArrayList<>(indexes.size());
+        for (Integer index : indexes) {
+            Map<String, Object> formData = forms.get(index).getFormData();
+            ObjectId id = new ObjectId();
+            Document document = new Document(formData);
+            document.put("_id", id);
+            document.put("created_at", createdAt);
+            document.put("created_by", userId);
+            document.put(MongoFormDataQueryUtils.LATEST_FIELD, true);
+            // exceeded_info and the alerts (saved once the document is stored) in one pass
+            CompiledControlLimits.Evaluation evaluation =
+                    controlLimitEvaluationService.evaluate(formTemplateId, userId, formData, id.toString());
+            document.put("exceeded_info", evaluation.getExceededInfo());
+            alertsById.put(id, evaluation.getAlerts());
+            document.put("approval_info", approvalInfo.stream().map(HashMap::new).collect(Collectors.toList()));
+            documents.add(document);
+            indexById.put(id, index);
+        }
+
+        List<Document> inserted = new ArrayList<>(documents.size());
+        for (int from = 0; from < documents.size(); from += INSERT_BATCH_SIZE) {
+            List<Document> chunk = documents.subList(from, Math.min(from + INSERT_BATCH_SIZE, documents.size()));
+            inserted.addAll(insertChunk(collectionName, chunk, indexById, results));
+        }
+        if (inserted.isEmpty()) {
+            return;
+        }
+
+        List<String> warnings = applySideEffects(userId, formTemplateId, collectionName, context, inserted, alertsById);
+        String warning = warnings.isEmpty() ? null : String.join("; ", warnings);
+        for (Document document : inserted) {
+            Integer index = indexById.get(document.getObjectId("_id"));
+            Map<String, Object> result = result(index, collectionName, STATUS_INSERTED);
+            result.put("object_id", document.getObjectId("_id").toString());
+            if (warning != null) {
+                result.put("message", warning);
+            }
+            results.set(index, result);
+        }
+    }
+
+    /**
+     * Insert one chunk with a single insertMany. When it fails part way, the ids that made it are looked up,
+     * so every item is still reported exactly.
+     */
+    private List<Document> insertChunk(String collectionName, List<Document> chunk, Map<ObjectId, Integer> indexById,
+                                       List<Map<String, Object>> results) {
+        try {
+            mongoTemplate.insert(chunk, collectionName);
+            return chunk;
+        } catch (Exception e) {
+            log.error("Batch insert into {} failed, checking which of {} documents were stored", collectionName, chunk.size(), e);
+            List<ObjectId> ids = chunk.stream().map(d -> d.getObjectId("_id")).toList();
+            Query storedQuery = new Query(Criteria.where("_id").in(ids));
+            storedQuery.fields().include("_id");
+            Set<ObjectId> stored = mongoTemplate.find(storedQuery, Document.class, collectionName).stream()
+                    .map(d -> d.getObjectId("_id"))
+                    .collect(Collectors.toSet());
+
+            List<Document> inserted = new ArrayList<>();
+            for (Document document : chunk) {
+                ObjectId id = document.getObjectId("_id");
+                if (stored.contains(id)) {
+                    inserted.add(document);
+                } else {
+                    Integer index = indexById.get(id);
+                    results.set(index, failed(index, collectionName, "Error inserting form data: " + e.getMessage()));
+                }
+            }
+            return inserted;
+        }
+    }
+
+    /**
+     * Directory, rollups, approval assignments and alerts for the stored documents, each as one bulk write.
+     * The documents are already stored, so a failure here is reported as a warning on the items, not as a failure.
+     */
+    private List<String> applySideEffects(Long userId, Long formTemplateId, String collectionName,
+                                          TemplateContext context, List<Document> inserted,
+                                          Map<ObjectId, List<AlertRecordDTO>> alertsById) {
+        List<String> warnings = new ArrayList<>();
+
+        submissionDirectory.registerAll(collectionName, inserted);
+        formRollupService.applySubmissions(formTemplateId, inserted);
+
+        try {
+            List<QcApprovalAssignmentDTO> assignments = new ArrayList<>(inserted.size());
+            for (Document document : inserted) {
+                QcApprovalAssignmentDTO assignmentDTO = new QcApprovalAssignmentDTO();
+                assignmentDTO.setSubmissionId(document.getObjectId("_id").toString());
+                assignmentDTO.setQcFormTemplateId(formTemplateId);
+                assignmentDTO.setQcFormTemplateName(context.templateName);
+                assignmentDTO.setMongoCollection(collectionName);
+                assignmentDTO.setApprovalType(context.approvalType);
+                assignmentDTO.setState(QcApprovalAssignmentService.initialState(context.approvalType));
+                assignments.add(assignmentDTO);
+            }
+            qcApprovalAssignmentService.insertAllIfNotExists(assignments);
+        } catch (Exception e) {
+            log.error("Failed to create approval assignments for {} submissions of {}", inserted.size(), collectionName, e);
+            warnings.add("approval assignments not created: " + e.getMessage());
+        }
+
+        try {
+            List<AlertRecordDTO> alerts = new ArrayList<>();
+            for (Document document : inserted) {
+                alerts.addAll(alertsById.get(document.getObjectId("_id")));
+                alerts.addAll(controlLimitEvaluationService.evaluateRules(formTemplateId, userId, document));
+            }
+            alertRecordService.createAll(alerts);
+        } catch (Exception e) {
+            log.error("Failed to create alerts for {} submissions of {}", inserted.size(), collectionName, e);
+            warnings.add("alerts not created: " + e.getMessage());
+        }
+        return warnings;
+    }
+
+    private TemplateContext loadTemplateContext(Long formTemplateId) {
+        TemplateContext context = new TemplateContext();
+        // Throws when the template doesn't exist, failing every item of the collection
+        context.templateName = qcFormTemplateService.getTemplateById(formTemplateId).getName();
+        context.approvalType = qcFormTemplateService.getApprovalTypeByFormId(formTemplateId);
+        return context;
+    }
+
+    private void ensureCollection(String collectionName) {
+        if (!formCollectionCatalog.contains(collectionName) && !mongoTemplate.collectionExists(collectionName)) {
+            mongoTemplate.createCollection(collectionName);
+            mongoFormDataQueryUtils.ensureIndexes(mongoTemplate.getCollection(collectionName));
+            log.info("Created new collection: {}", collectionName);
+        }
+        formCollectionCatalog.register(collectionName);
+    }
+
+    private static Map<String, Object> result(int index, String collectionName, String status) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("index", index);
+        result.put("collection_name", collectionName);
+        result.put("status", status);
+        return result;
+    }
+
+    private static Map<String, Object> failed(int index, String collectionName, String message) {
+        Map<String, Object> result = result(index, collectionName, STATUS_FAILED);
+        result.put("message", message);
+        return result;
+    }
+
+    private static class TemplateContext {
+        private String templateName;
+        private String approvalType;
+    }
+}
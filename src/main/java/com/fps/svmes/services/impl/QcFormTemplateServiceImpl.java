@@ -8,6 +8,8 @@ import com.fps.svmes.models.sql.qcForm.QcFormTemplate;
 import com.fps.svmes.repositories.jpaRepo.qcForm.QcFormTemplateRepository;
 import com.fps.svmes.services.MongoService;
 import com.fps.svmes.services.QcFormTemplateService;
+import com.fps.svmes.utils.ControlLimitEvaluatorCache;
+import com.fps.svmes.utils.FormTemplateSchemaCache;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
@@ -41,6 +43,12 @@ public class QcFormTemplateServiceImpl implements QcFormTemplateService {
     @Autowired
     private MongoClient mongoClient;
 
+    @Autowired
+    private FormTemplateSchemaCache formTemplateSchemaCache;
+
+    @Autowired
+    private ControlLimitEvaluatorCache controlLimitEvaluatorCache;
+
     @Override
     public List<QcFormTemplateDTO> getAllActiveTemplates() {
         return qcFormTemplateRepository.findAllByStatus(1).stream()
@@ -85,6 +93,7 @@ public class QcFormTemplateServiceImpl implements QcFormTemplateService {
         template.setUpdatedBy(dto.getUpdatedBy());
 
         QcFormTemplateDTO updatedTemplate = modelMapper.map(qcFormTemplateRepository.save(template), QcFormTemplateDTO.class);
+        formTemplateSchemaCache.evict(id);
 
         // If form structure changed, update MongoDB documents
         if (formStructureChanged) {
@@ -109,6 +118,7 @@ public class QcFormTemplateServiceImpl implements QcFormTemplateService {
         QcFormTemplate template = qcFormTemplateRepository.findById(id).orElseThrow(() -> new RuntimeException("Template not found"));
         template.setStatus(0);
         qcFormTemplateRepository.save(template);
+        formTemplateSchemaCache.evict(id);
     }
 
     @Override
@@ -193,6 +203,8 @@ public class QcFormTemplateServiceImpl implements QcFormTemplateService {
             mongoService.insertOne("control_limit_setting", mongoDoc);
         } catch (Exception e) {
             throw new RuntimeException("Failed to create control limit setting", e);
+        } finally {
+            controlLimitEvaluatorCache.evict(template.getId());
         }
     }
 
@@ -15,6 +15,7 @@ import com.fps.svmes.repositories.jpaRepo.production.RawMaterialRepository;
 import com.fps.svmes.repositories.jpaRepo.user.UserRepository;
 import com.fps.svmes.services.DispatchService;
 import com.fps.svmes.services.QcOrderService;
+import com.fps.svmes.utils.ClusterLease;
 import jakarta.persistence.EntityNotFoundException;
 import org.modelmapper.ModelMapper;
 import org.slf4j.Logger;
@@ -23,6 +24,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -34,6 +36,7 @@ public class QcOrderServiceImpl implements QcOrderService {
     @Autowired private QcOrderRepository qcOrderRepo;
     @Autowired private QcOrderDispatchRepository qcOrderDispatchRepo;
     @Autowired private DispatchRepository dispatchRepo;
+    @Autowired private ClusterLease clusterLease;
     @Autowired private DispatchedTaskRepository dispatchedTaskRepository;
     @Autowired private UserRepository userRepository;
     @Autowired private ProductRepository productRepository;
@@ -200,9 +203,12 @@ public class QcOrderServiceImpl implements QcOrderService {
         return qcOrderDTO;
     }
 
-    @Scheduled(fixedRate = 600000) // Runs every 10 minutes
+    @Scheduled(fixedRate = 600000) // Runs every 10 minutes, on the instance holding the lease
     @Transactional
     public void updateQcOrderStates() {
+        if (!clusterLease.tryAcquire("qc-order-states", Duration.ofMinutes(15))) {
+            return;
+        }
         List<QcOrder> qcOrders = qcOrderRepo.findAll();
         qcOrders.forEach(qcOrder -> {
             List<Dispatch> dispatches = qcOrder.getQcOrderDispatches().stream()
@@ -6,9 +6,15 @@ import com.fps.svmes.repositories.jpaRepo.qcForm.QcFormTemplateRepository;
 import com.fps.svmes.repositories.jpaRepo.qcForm.QcTaskSubmissionLogsRepository;
 import com.fps.svmes.repositories.jpaRepo.qcForm.QcApprovalAssignmentRepository;
 import com.fps.svmes.services.AlertRecordService;
+import com.fps.svmes.services.FormRollupService;
 import com.fps.svmes.services.QcTaskSubmissionLogsService;
 import com.fps.svmes.services.UserService;
 import com.fps.svmes.services.QcSnapshotSubmissionService;
+import com.fps.svmes.utils.CompiledFormSchema;
+import com.fps.svmes.utils.FormCollectionCatalog;
+import com.fps.svmes.utils.FormTemplateSchemaCache;
+import com.fps.svmes.utils.MongoFormDataQueryUtils;
+import com.fps.svmes.utils.SubmissionDirectory;
 import com.itextpdf.text.Paragraph;
 
 import com.itextpdf.text.pdf.BaseFont;
@@ -74,6 +80,15 @@ public class QcTaskSubmissionLogsServiceImpl implements QcTaskSubmissionLogsServ
     @Autowired
     private QcApprovalAssignmentRepository qcApprovalAssignmentRepository;
 
+    @Autowired
+    private FormTemplateSchemaCache formTemplateSchemaCache;
+
+    @Autowired
+    private FormRollupService formRollupService;
+
+    @Autowired
+    private SubmissionDirectory submissionDirectory;
+
     @Override
     public QcTaskSubmissionLogsDTO insertLog(QcTaskSubmissionLogsDTO dto) {
         // Map the DTO to the entity
@@ -109,16 +124,19 @@ public class QcTaskSubmissionLogsServiceImpl implements QcTaskSubmissionLogsServ
                 throw new IllegalArgumentException("Invalid submissionId format");
             }
 
-            // Determine collection name
-            String collectionName = inputCollectionName.orElseGet(() -> {
+            // Determine collection name: the directory knows every submission saved since it was introduced,
+            // older ones are still looked up in the current month
+            Optional<String> directoryCollection = inputCollectionName.isPresent()
+                    ? Optional.empty() : submissionDirectory.findCollection(submissionId);
+            String collectionName = inputCollectionName.or(() -> directoryCollection).orElseGet(() -> {
                 String yearMonth = OffsetDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMM"));
                 return "form_template_" + formId + "_" + yearMonth;
             });
 
             logger.info("Looking in collection: {}", collectionName);
 
-            // Check if collection exists
-            if (!mongoTemplate.collectionExists(collectionName)) {
+            // Check if collection exists (a directory entry implies it does)
+            if (directoryCollection.isEmpty() && !mongoTemplate.collectionExists(collectionName)) {
                 logger.error("Collection does not exist: {}", collectionName);
                 throw new RuntimeException("Collection not found: " + collectionName);
             }
@@ -138,6 +156,10 @@ public class QcTaskSubmissionLogsServiceImpl implements QcTaskSubmissionLogsServ
                 return null;
             }
 
+            if (directoryCollection.isEmpty()) {
+                submissionDirectory.register(collectionName, document);
+            }
+
             logger.info("Document retrieved successfully: {}", document);
             return formattedResult(document, formId);
 
@@ -148,171 +170,29 @@ public class QcTaskSubmissionLogsServiceImpl implements QcTaskSubmissionLogsServ
     }
 
 
-    public HashMap<String, String> getFormTemplateKeyValueMapping(Long formId) {
-        String formTemplateJson = qcFormTemplateRepository.findFormTemplateJsonById(formId); // get only that single result for now
-
-        if (formTemplateJson == null || formTemplateJson.isEmpty()) {
-            throw new RuntimeException("Form template JSON not found for formId: " + formId);
-        }
-
-        HashMap<String, String> keyValueMap = new HashMap<>();
-
-        try {
-            Document formTemplate = Document.parse(formTemplateJson);
-            List<Document> widgetList = (List<Document>) formTemplate.get("widgetList");
-
-            if (widgetList != null) {
-                extractKeyValuePairs(widgetList, keyValueMap); // Start recursive extraction
-            }
-        } catch (Exception e) {
-            logger.error("Error parsing form template JSON for formId: {}", formId, e);
-            throw new RuntimeException("Error parsing form template JSON", e);
-        }
-
-        return keyValueMap;
-    }
-
-    private HashMap<String, Object> QcFormTemplateOptionItemsKeyValueMapping(Long formId) {
-        String formTemplateJson = qcFormTemplateRepository.findFormTemplateJsonById(formId);
-
-        if (formTemplateJson == null || formTemplateJson.isEmpty()) {
-            throw new RuntimeException("Form template JSON not found for formId: " + formId);
-        }
-
-        HashMap<String, Object> optionItemsKeyValueMap = new HashMap<>();
-
-        try {
-            Document formTemplate = Document.parse(formTemplateJson);
-            List<Document> widgetList = (List<Document>) formTemplate.get("widgetList");
-
-            if (widgetList != null) {
-                extractOptionItems(widgetList, optionItemsKeyValueMap); // Start recursive extraction
-            }
-        } catch (Exception e) {
-            logger.error("Error parsing form template JSON for formId: {}", formId, e);
-            throw new RuntimeException("Error parsing form template JSON", e);
-        }
-
-        return optionItemsKeyValueMap;
-    }
-
-    private void extractOptionItems(List<Document> widgetList, HashMap<String, Object> optionItemsKeyValueMap) {
-        for (Document widget : widgetList) {
-            // Extract options with optionItems
-            Document options = (Document) widget.get("options");
-            if (options != null) {
-                String label = options.getString("label");
-                List<Document> optionItems = (List<Document>) options.get("optionItems");
-                if (label != null && optionItems != null) {
-                    HashMap<String, String> valueToLabelMap = new HashMap<>();
-                    for (Document option : optionItems) {
-                        Object value = option.get("value");
-                        String optionLabel = option.getString("label");
-                        if (value != null && optionLabel != null) {
-                            valueToLabelMap.put(value.toString(), optionLabel);
-                        }
-                    }
-                    optionItemsKeyValueMap.put(label, valueToLabelMap);
-                }
-            }
-
-            // Recursively process nested widgetList
-            List<Document> nestedWidgetList = (List<Document>) widget.get("widgetList");
-            if (nestedWidgetList != null) {
-                extractOptionItems(nestedWidgetList, optionItemsKeyValueMap);
-            }
-
-            // Check for widget lists inside grid columns
-            List<Document> cols = (List<Document>) widget.get("cols");
-            if (cols != null) {
-                for (Document col : cols) {
-                    List<Document> colWidgetList = (List<Document>) col.get("widgetList");
-                    if (colWidgetList != null) {
-                        extractOptionItems(colWidgetList, optionItemsKeyValueMap);
-                    }
-                }
-            }
-        }
-    }
-
-    private void extractKeyValuePairs(List<Document> widgetList, HashMap<String, String> keyValueMap) {
-        for (Document widget : widgetList) {
-            // Extract options and add name-label pairs to the map
-            Document options = (Document) widget.get("options");
-            if (options != null) {
-                String name = options.getString("name");
-                String label = options.getString("label");
-                if (name != null && label != null) {
-                    keyValueMap.put(name, label);
-                }
-            }
-
-            // Recursively process nested widgetList
-            List<Document> nestedWidgetList = (List<Document>) widget.get("widgetList");
-            if (nestedWidgetList != null) {
-                extractKeyValuePairs(nestedWidgetList, keyValueMap);
-            }
-
-            // Check for widget lists inside grid columns
-            List<Document> cols = (List<Document>) widget.get("cols");
-            if (cols != null) {
-                for (Document col : cols) {
-                    List<Document> colWidgetList = (List<Document>) col.get("widgetList");
-                    if (colWidgetList != null) {
-                        extractKeyValuePairs(colWidgetList, keyValueMap);
-                    }
-                }
-            }
-        }
+    public Map<String, String> getFormTemplateKeyValueMapping(Long formId) {
+        return formTemplateSchemaCache.get(formId).getFieldLabels();
     }
 
     public Document formattedResult(Document document, Long formId) {
-        // 获取表单的字段映射（字段 name -> label）
-        HashMap<String, String> keyValueMap = getFormTemplateKeyValueMapping(formId);
-        HashMap<String, Object> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formId);
-
-        // 解析表单模板，构建 divider 层级映射
-        HashMap<String, String> fieldToDividerMap = new HashMap<>();
-        List<Document> widgetList = getWidgetListFromTemplate(formId);
-
-        // Step 1: 解析表单模板，构建字段归属的 `divider`
-        String currentDivider = "uncategorized"; // 默认归类
-        for (Document widget : widgetList) {
-            String type = widget.getString("type");
-            Document options = (Document) widget.get("options");
-
-            if ("divider".equals(type) && options != null) {
-                // **遇到新的 `divider`，更新当前分组名称**
-                currentDivider = options.getString("label");
-            } else if ("grid".equals(type)) {
-                // **如果当前 `divider` 下的第一个元素是 `grid`，那么 `grid` 内部的 `cols` 也归属于该 `divider`**
-                List<Document> cols = (List<Document>) widget.get("cols");
-                if (cols != null) {
-                    for (Document col : cols) {
-                        List<Document> colWidgetList = (List<Document>) col.get("widgetList");
-                        if (colWidgetList != null) {
-                            for (Document colWidget : colWidgetList) {
-                                Document colOptions = (Document) colWidget.get("options");
-                                if (colOptions != null && colOptions.containsKey("name")) {
-                                    fieldToDividerMap.put(colOptions.getString("name"), currentDivider);
-                                }
-                            }
-                        }
-                    }
-                }
-            } else if (options != null && options.containsKey("name")) {
-                // 记录字段属于哪个分组
-                fieldToDividerMap.put(options.getString("name"), currentDivider);
-            }
-        }
+        // 字段映射（name -> label）、选项映射（label -> value -> label）和 divider 归属都来自编译好的表单模板
+        CompiledFormSchema schema = formTemplateSchemaCache.get(formId);
+        Map<String, String> keyValueMap = schema.getFieldLabels();
+        Map<String, Map<String, String>> optionItemsKeyValueMap = schema.getOptionLabelsByFieldLabel();
+        Map<String, String> fieldToDividerMap = schema.getFieldDividers();
 
-        // Step 2: 重新格式化 MongoDB 取出的数据
+        // Step 1: 重新格式化 MongoDB 取出的数据
         Document formattedDocument = new Document();
         Document groupedData = new Document();
 
         for (String key : document.keySet()) {
             Object value = document.get(key);
 
+            // 版本标记只用于查询，不展示
+            if (MongoFormDataQueryUtils.LATEST_FIELD.equals(key)) {
+                continue;
+            }
+
             // 获取格式化后的字段名
             String formattedKey = keyValueMap.getOrDefault(key, key);
             String dividerLabel = fieldToDividerMap.get(key); // 获取字段归属的 `divider`
@@ -325,13 +205,13 @@ public class QcTaskSubmissionLogsServiceImpl implements QcTaskSubmissionLogsServ
             // 处理 optionItems 转换
             if (optionItemsKeyValueMap.containsKey(formattedKey) && value instanceof List) {
                 List<?> valueList = (List<?>) value;
-                HashMap<String, String> valueToLabelMap = (HashMap<String, String>) optionItemsKeyValueMap.get(formattedKey);
+                Map<String, String> valueToLabelMap = optionItemsKeyValueMap.get(formattedKey);
                 List<String> resolvedLabels = valueList.stream()
                         .map(val -> valueToLabelMap.getOrDefault(val.toString(), val.toString()))
                         .collect(Collectors.toList());
                 value = resolvedLabels;
             } else if (optionItemsKeyValueMap.containsKey(formattedKey) && (value instanceof String || value instanceof Integer)) {
-                HashMap<String, String> valueToLabelMap = (HashMap<String, String>) optionItemsKeyValueMap.get(formattedKey);
+                Map<String, String> valueToLabelMap = optionItemsKeyValueMap.get(formattedKey);
                 value = valueToLabelMap.getOrDefault(value.toString(), value.toString());
             }
 
@@ -345,7 +225,7 @@ public class QcTaskSubmissionLogsServiceImpl implements QcTaskSubmissionLogsServ
             }
         }
 
-        // 🔧 Step 3: Remap exceeded_info keys from name → label
+        // 🔧 Step 2: Remap exceeded_info keys from name → label
         if (document.containsKey("exceeded_info")) {
             Document exceededInfo = (Document) document.get("exceeded_info");
             Document labeledExceededInfo = new Document();
@@ -365,16 +245,6 @@ public class QcTaskSubmissionLogsServiceImpl implements QcTaskSubmissionLogsServ
         return formattedDocument;
     }
 
-    // **解析 widgetList**
-    private List<Document> getWidgetListFromTemplate(Long formId) {
-        String formTemplateJson = qcFormTemplateRepository.findFormTemplateJsonById(formId);
-        if (formTemplateJson == null || formTemplateJson.isEmpty()) {
-            throw new RuntimeException("Form template JSON not found for formId: " + formId);
-        }
-        Document formTemplate = Document.parse(formTemplateJson);
-        return (List<Document>) formTemplate.get("widgetList");
-    }
-
     @Override
     public List<Document> getDocumentsByQcFormTemplateIdAndCreatedBy(Long qcFormTemplateId, Integer createdBy) {
         try {
@@ -561,7 +431,6 @@ public class QcTaskSubmissionLogsServiceImpl implements QcTaskSubmissionLogsServ
         if (versionGroupId != null) {
             // Find all submission IDs in this group to delete from snapshot service
             Query groupQuery = new Query(Criteria.where("version_group_id").is(versionGroupId));
-            groupQuery.fields().include("_id");
             List<Document> docs = mongoTemplate.find(groupQuery, Document.class, collectionName);
 
             List<String> idsToDelete = docs.stream()
@@ -582,6 +451,12 @@ public class QcTaskSubmissionLogsServiceImpl implements QcTaskSubmissionLogsServ
             // Delete all documents with the same version_group_id
             Query deleteGroupQuery = new Query(Criteria.where("version_group_id").is(versionGroupId));
             mongoTemplate.remove(deleteGroupQuery, collectionName);
+            submissionDirectory.removeAll(idsToDelete);
+
+            // Only the latest version of the group is counted in the reporting rollups
+            docs.stream()
+                    .max(Comparator.comparing(d -> d.getInteger("version", 0)))
+                    .ifPresent(latest -> formRollupService.applyDeletion(FormCollectionCatalog.templateIdOf(collectionName), latest));
         } else {
             // Delete from snapshot service
             qcSnapshotSubmissionService.deleteBySubmissionId(submissionId);
@@ -594,6 +469,8 @@ public class QcTaskSubmissionLogsServiceImpl implements QcTaskSubmissionLogsServ
 
             // Delete only this document
             mongoTemplate.remove(idQuery, collectionName);
+            submissionDirectory.removeAll(Collections.singletonList(submissionId));
+            formRollupService.applyDeletion(FormCollectionCatalog.templateIdOf(collectionName), document);
         }
     }
 
@@ -4,6 +4,7 @@ import com.fps.svmes.dto.dtos.recipe.ControlLimitSettingDTO;
 import com.fps.svmes.models.nosql.ControlLimitSetting;
 import com.fps.svmes.repositories.mongoRepo.ControlLimitSettingRepository;
 import com.fps.svmes.services.RecipeService;
+import com.fps.svmes.utils.ControlLimitEvaluatorCache;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -20,6 +21,9 @@ public class RecipeServiceImpl implements RecipeService {
     @Autowired
     private ModelMapper modelMapper;
 
+    @Autowired
+    private ControlLimitEvaluatorCache controlLimitEvaluatorCache;
+
     @Override
     public ControlLimitSettingDTO getByQcFormTemplateId(Long templateId) {
         return repository.findByQcFormTemplateId(templateId)
@@ -34,6 +38,7 @@ public class RecipeServiceImpl implements RecipeService {
                         entry.setLowerControlLimit(raw.getLowerControlLimit());
                         entry.setUpperControlLimit(raw.getUpperControlLimit());
                         entry.setValidKeys(raw.getValidKeys());
+                        entry.setSuppressionWindowMinutes(raw.getSuppressionWindowMinutes());
                         entry.setOptionItems(
                                 raw.getOptionItems() != null
                                         ? raw.getOptionItems().stream()
@@ -65,6 +70,7 @@ public class RecipeServiceImpl implements RecipeService {
             entry.setUpperControlLimit(sourceEntry.getUpperControlLimit());
             entry.setLowerControlLimit(sourceEntry.getLowerControlLimit());
             entry.setValidKeys(sourceEntry.getValidKeys());
+            entry.setSuppressionWindowMinutes(sourceEntry.getSuppressionWindowMinutes());
             entry.setOptionItems(sourceEntry.getOptionItems() != null
                     ? sourceEntry.getOptionItems().stream()
                     .map(item -> modelMapper.map(item, ControlLimitSetting.ControlLimitEntry.OptionItem.class))
@@ -78,6 +84,7 @@ public class RecipeServiceImpl implements RecipeService {
         setting.setControlLimits(mappedLimits);
 
         repository.save(setting);
+        controlLimitEvaluatorCache.evict(dto.getQcFormTemplateId());
     }
 
 }
\ No newline at end of file
@@ -1,16 +1,25 @@
 package com.fps.svmes.services.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fps.svmes.dto.CursorPageDTO;
 import com.fps.svmes.dto.PagedResultDTO;
 import com.fps.svmes.dto.dtos.reporting.OptionItemDTO;
 import com.fps.svmes.dto.dtos.reporting.TimeBucketedOptionDTO;
 import com.fps.svmes.dto.dtos.reporting.WidgetDataDTO;
-import com.fps.svmes.repositories.jpaRepo.qcForm.QcFormTemplateRepository;
+import com.fps.svmes.services.FormRollupService;
 import com.fps.svmes.services.ReportingService;
 import com.fps.svmes.services.UserService;
+import com.fps.svmes.utils.CompiledFormSchema;
+import com.fps.svmes.utils.FormCollectionCatalog;
+import com.fps.svmes.utils.FormTemplateSchemaCache;
+import com.fps.svmes.utils.MongoFormDataQueryUtils;
+import com.fps.svmes.utils.PartitionQueryExecutor;
+import com.fps.svmes.utils.QcRecordExportWriter;
+import com.fps.svmes.utils.SubmissionDirectory;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -19,6 +28,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
@@ -44,20 +56,51 @@ import java.util.stream.Stream;
 
 @Service
 public class ReportingServiceImpl implements ReportingService {
-    private final ObjectMapper objectMapper = new ObjectMapper();
     private final MongoClient mongoClient;
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private static final DateTimeFormatter MONGO_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSS");
+    // Records read and formatted per round trip during a streaming export
+    private static final int EXPORT_BATCH_SIZE = 500;
 
     @Autowired
-    QcFormTemplateRepository qcFormTemplateRepository;
+    UserService userService;
 
     @Autowired
-    UserService userService;
+    MongoFormDataQueryUtils mongoFormDataQueryUtils;
+
+    @Autowired
+    FormCollectionCatalog formCollectionCatalog;
+
+    @Autowired
+    FormTemplateSchemaCache formTemplateSchemaCache;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    FormRollupService formRollupService;
+
+    @Autowired
+    PartitionQueryExecutor partitionQueryExecutor;
+
+    @Autowired
+    SubmissionDirectory submissionDirectory;
 
     @Value("${spring.data.mongodb.database}")
     private String mongoDatabaseName;
 
+    // Count option widgets with one Mongo aggregation per collection instead of Java passes per widget
+    @Value("${reporting.widget-counts.aggregation-enabled:true}")
+    private boolean widgetCountsAggregationEnabled;
+
+    // Answer option widgets from the incrementally maintained rollups once they have been built
+    @Value("${reporting.rollups.enabled:true}")
+    private boolean rollupsEnabled;
+
+    // Largest page a cursor request may ask for; bigger sizes are clamped
+    @Value("${reporting.cursor.max-page-size:500}")
+    private int maxCursorPageSize;
+
     @Autowired
     public ReportingServiceImpl(MongoClient mongoClient) {
         this.mongoClient = mongoClient;
@@ -65,9 +108,7 @@ public class ReportingServiceImpl implements ReportingService {
 
     @Override
     public List<WidgetDataDTO> extractWidgetData(String jsonInput) {
-        List<WidgetDataDTO> extractedData = new ArrayList<>();
-        parseJsonToWidgetList(jsonInput, extractedData);
-        return extractedData;
+        return CompiledFormSchema.extractWidgetData(jsonInput);
     }
 
     @Override
@@ -77,22 +118,48 @@ public class ReportingServiceImpl implements ReportingService {
         Timestamp defaultStart = Timestamp.from(LocalDateTime.parse(startDateTime, formatter).atZone(ZoneOffset.UTC).toInstant());
         Timestamp defaultEnd = Timestamp.from(LocalDateTime.parse(endDateTime, formatter).atZone(ZoneOffset.UTC).toInstant());
 
-        String jsonInput = qcFormTemplateRepository.findFormTemplateJsonById(formTemplateId);
-        List<WidgetDataDTO> widgetDataList = extractWidgetData(jsonInput);
+        List<WidgetDataDTO> widgetDataList = formTemplateSchemaCache.find(formTemplateId)
+                .map(CompiledFormSchema::newWidgetDataList)
+                .orElseGet(ArrayList::new);
         MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
 
         // Use updated generateCollectionNames with default timestamps
         List<String> collectionNames = generateCollectionNames(formTemplateId, defaultStart, defaultEnd);
 
-        // Apply updates step by step
-        for (String collectionName : collectionNames) {
-            List<WidgetDataDTO> newData = processCollection(database, collectionName, widgetDataList, defaultStart, defaultEnd);
+        if (rollupsEnabled && !collectionNames.isEmpty()
+                && extractWidgetDataFromRollups(formTemplateId, database, collectionNames, widgetDataList, defaultStart, defaultEnd)) {
+            return widgetDataList;
+        }
+
+        // Process the collections in parallel against an untouched copy of the widgets, then merge in month order
+        List<WidgetDataDTO> widgetTemplates = copyWidgetDataList(widgetDataList);
+        List<List<WidgetDataDTO>> partitionResults = partitionQueryExecutor.map(collectionNames, collectionName ->
+                widgetCountsAggregationEnabled
+                        ? processCollectionAggregated(database, collectionName, widgetTemplates, defaultStart, defaultEnd)
+                        : processCollection(database, collectionName, widgetTemplates, defaultStart, defaultEnd));
+        for (List<WidgetDataDTO> newData : partitionResults) {
             mergeWidgetDataLists(widgetDataList, newData); // Merge instead of overwriting
         }
 
         return widgetDataList;
     }
 
+    /**
+     * Copy of the widgets (name, label, type, option items) that the partition tasks can read while the
+     * original list is being merged into.
+     */
+    private List<WidgetDataDTO> copyWidgetDataList(List<WidgetDataDTO> widgets) {
+        List<WidgetDataDTO> copy = new ArrayList<>(widgets.size());
+        for (WidgetDataDTO widget : widgets) {
+            List<OptionItemDTO> options = new ArrayList<>();
+            for (OptionItemDTO item : widget.getOptionItems()) {
+                options.add(new OptionItemDTO(item.getLabel(), item.getValue(), item.getCount()));
+            }
+            copy.add(new WidgetDataDTO(widget.getName(), widget.getLabel(), widget.getType(), options, null, null));
+        }
+        return copy;
+    }
+
     private void mergeWidgetDataLists(List<WidgetDataDTO> originalList, List<WidgetDataDTO> newList) {
         Map<String, WidgetDataDTO> widgetMap = originalList.stream()
                 .collect(Collectors.toMap(WidgetDataDTO::getName, w -> w, (w1, w2) -> w1));
@@ -183,85 +250,61 @@ public class ReportingServiceImpl implements ReportingService {
         }
     }
 
-    private void parseJsonToWidgetList(String jsonInput, List<WidgetDataDTO> extractedData) {
-        try {
-            JsonNode rootNode = objectMapper.readTree(jsonInput);
-            JsonNode widgetList = rootNode.path("widgetList");
+    private List<String> generateCollectionNames(Long formTemplateId, Timestamp utcStartDateTime, Timestamp utcEndDateTime) {
+        // Convert timestamps to YYYYMM format
+        SimpleDateFormat yearMonthFormat = new SimpleDateFormat("yyyyMM");
+        int startYearMonth = Integer.parseInt(yearMonthFormat.format(utcStartDateTime));
+        int endYearMonth = Integer.parseInt(yearMonthFormat.format(utcEndDateTime));
 
-            if (widgetList.isArray()) {
-                for (JsonNode widgetNode : widgetList) {
-                    extractWidgetRecursive(widgetNode, extractedData);
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        return formCollectionCatalog.getCollectionNames(formTemplateId, startYearMonth, endYearMonth);
     }
 
-    private void extractWidgetRecursive(JsonNode widgetNode, List<WidgetDataDTO> extractedData) {
-        String type = widgetNode.path("type").asText();
-
-        JsonNode options = widgetNode.path("options");
-        if (!options.isMissingNode()) {
-            String name = options.path("name").asText();
-            String label = options.path("label").asText();
-            JsonNode optionItems = options.path("optionItems");
-
-            List<OptionItemDTO> optionList = new ArrayList<>();
-            if (optionItems.isArray()) {
-                for (JsonNode item : optionItems) {
-                    optionList.add(new OptionItemDTO(
-                            item.path("label").asText(),
-                            item.path("value").asInt(),
-                            0
-                    ));
-                }
-            }
+    private List<WidgetDataDTO> processCollection(
+            MongoDatabase database,
+            String collectionName,
+            List<WidgetDataDTO> widgetDataList,
+            Timestamp startDateTime,
+            Timestamp endDateTime
+    ) {
+        MongoCollection<Document> collection = database.getCollection(collectionName);
+        List<WidgetDataDTO> updatedWidgets = new ArrayList<>();
 
-            extractedData.add(new WidgetDataDTO(name, label, type, optionList, null, null));
-        }
+        // Fetch only documents in range (filtered server-side) and keep the latest versions
+        List<Document> validDocs = findLatestVersionsInRange(collection, startDateTime, endDateTime, null);
 
-        JsonNode cols = widgetNode.path("cols");
-        if (cols.isArray()) {
-            for (JsonNode col : cols) {
-                JsonNode widgetList = col.path("widgetList");
-                if (widgetList.isArray()) {
-                    for (JsonNode nestedWidget : widgetList) {
-                        extractWidgetRecursive(nestedWidget, extractedData);
-                    }
-                }
+        for (WidgetDataDTO widget : widgetDataList) {
+            if (widget.getOptionItems().isEmpty() && !widget.getType().equals("number")) {
+                updatedWidgets.add(widget);
+                continue;
             }
-        }
-    }
 
-    private List<String> generateCollectionNames(Long formTemplateId, Timestamp utcStartDateTime, Timestamp utcEndDateTime) {
-        List<String> collectionNames = new ArrayList<>();
-        MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
+            if (widget.getType().equals("number")) {
+                updatedWidgets.add(buildNumberWidget(widget, validDocs));
+            }
 
-        // Convert timestamps to YYYYMM format
-        SimpleDateFormat yearMonthFormat = new SimpleDateFormat("yyyyMM");
-        int startYearMonth = Integer.parseInt(yearMonthFormat.format(utcStartDateTime));
-        int endYearMonth = Integer.parseInt(yearMonthFormat.format(utcEndDateTime));
+            if (!widget.getOptionItems().isEmpty()) {
+                Map<Integer, Integer> optionCounts = countOptionOccurrences(validDocs, widget.getName(), widget.getOptionItems());
 
-        for (String collectionName : database.listCollectionNames()) {
-            // Extract YYYYMM from collection name
-            String pattern = "form_template_" + formTemplateId + "_(\\d{6})";
-            java.util.regex.Matcher matcher = java.util.regex.Pattern.compile(pattern).matcher(collectionName);
+                String bucketType = determineBucketType(startDateTime, endDateTime);
+                List<String> bucketLabels = generateBucketLabels(startDateTime, endDateTime, bucketType);
 
-            if (matcher.matches()) {
-                int collectionYearMonth = Integer.parseInt(matcher.group(1));
+                Map<Integer, List<Integer>> timeBucketedCounts = countOptionOccurrencesByTimeBucket(
+                        validDocs, widget.getName(), widget.getOptionItems(),
+                        startDateTime, bucketType, bucketLabels.size()
+                );
 
-                // Check if collection is within the time range
-                if (collectionYearMonth >= startYearMonth && collectionYearMonth <= endYearMonth) {
-                    collectionNames.add(collectionName);
-                }
+                updatedWidgets.add(buildOptionWidget(widget, optionCounts, timeBucketedCounts, bucketType, bucketLabels));
             }
         }
 
-        return collectionNames;
+        return updatedWidgets;
     }
 
-    private List<WidgetDataDTO> processCollection(
+    /**
+     * Same output as processCollection, but option widgets are counted by a single aggregation per collection
+     * instead of one pass over every document per widget. Number widgets still read the (projected) documents.
+     */
+    private List<WidgetDataDTO> processCollectionAggregated(
             MongoDatabase database,
             String collectionName,
             List<WidgetDataDTO> widgetDataList,
@@ -271,35 +314,32 @@ public class ReportingServiceImpl implements ReportingService {
         MongoCollection<Document> collection = database.getCollection(collectionName);
         List<WidgetDataDTO> updatedWidgets = new ArrayList<>();
 
-        // Fetch all documents in range and filter for latest versions
-        List<Document> allDocs = collection.find().into(new ArrayList<>());
-        Map<String, Document> latestVersionMap = new HashMap<>();
+        List<String> numberFields = new ArrayList<>();
+        List<String> optionFields = new ArrayList<>();
+        for (WidgetDataDTO widget : widgetDataList) {
+            if (widget.getType().equals("number")) {
+                numberFields.add(widget.getName());
+            }
+            if (!widget.getOptionItems().isEmpty()) {
+                optionFields.add(widget.getName());
+            }
+        }
 
-        for (Document doc : allDocs) {
-             Date rawDate = doc.getDate("created_at");
-             Instant createdAt = rawDate != null ? rawDate.toInstant() : null;
+        List<Document> validDocs = numberFields.isEmpty()
+                ? Collections.emptyList()
+                : findLatestVersionsInRange(collection, startDateTime, endDateTime, numberFields);
 
-             if (createdAt == null ||
-                 createdAt.isBefore(startDateTime.toInstant()) ||
-                 createdAt.isAfter(endDateTime.toInstant())) {
-                 continue;
-             }
+        String bucketType = determineBucketType(startDateTime, endDateTime);
+        List<String> bucketLabels = generateBucketLabels(startDateTime, endDateTime, bucketType);
 
-             String groupId = doc.getString("version_group_id");
-             Integer version = doc.getInteger("version", 0);
+        // field -> option value -> total count, field -> option value -> counts per bucket
+        Map<String, Map<Integer, Integer>> optionCountsByField = new HashMap<>();
+        Map<String, Map<Integer, int[]>> bucketCountsByField = new HashMap<>();
 
-             if (groupId != null) {
-                Document existing = latestVersionMap.get(groupId);
-                if (existing == null || version > existing.getInteger("version", 0)) {
-                    latestVersionMap.put(groupId, doc);
-                }
-             } else {
-                latestVersionMap.put(doc.getObjectId("_id").toString(), doc);
-             }
+        if (!optionFields.isEmpty()) {
+            accumulateOptionCounts(collection, optionFields, startDateTime, endDateTime, startDateTime, bucketType,
+                    bucketLabels.size(), optionCountsByField, bucketCountsByField);
         }
-        
-        List<Document> validDocs = new ArrayList<>(latestVersionMap.values());
-        validDocs.sort(Comparator.comparing(d -> d.getDate("created_at")));
 
         for (WidgetDataDTO widget : widgetDataList) {
             if (widget.getOptionItems().isEmpty() && !widget.getType().equals("number")) {
@@ -308,68 +348,260 @@ public class ReportingServiceImpl implements ReportingService {
             }
 
             if (widget.getType().equals("number")) {
-                List<Double> chartData = new ArrayList<>();
-                List<String> xaxisData = new ArrayList<>();
-
-                for (Document doc : validDocs) {
-                    if (doc.containsKey(widget.getName())) {
-                        Object value = doc.get(widget.getName());
-                        if (value instanceof Integer) {
-                            chartData.add(((Integer) value).doubleValue());
-                        } else if (value instanceof Double) {
-                            chartData.add((Double) value);
-                        }
-                        
-                        Date rawDate = doc.getDate("created_at");
-                        if (rawDate != null) {
-                             String formattedDate = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
-                                     .withZone(ZoneId.systemDefault())
-                                     .format(rawDate.toInstant());
-                             xaxisData.add(formattedDate);
-                        }
-                    }
-                }
-                updatedWidgets.add(new WidgetDataDTO(widget.getName(), widget.getLabel(), widget.getType(),
-                        new ArrayList<>(), chartData, xaxisData));
+                updatedWidgets.add(buildNumberWidget(widget, validDocs));
             }
 
             if (!widget.getOptionItems().isEmpty()) {
-                Map<Integer, Integer> optionCounts = countOptionOccurrences(validDocs, widget.getName(), widget.getOptionItems());
+                updatedWidgets.add(buildOptionWidgetFromCounts(widget, optionCountsByField, bucketCountsByField, bucketType, bucketLabels));
+            }
+        }
 
-                String bucketType = determineBucketType(startDateTime, endDateTime);
-                List<String> bucketLabels = generateBucketLabels(startDateTime, endDateTime, bucketType);
+        return updatedWidgets;
+    }
 
-                Map<Integer, List<Integer>> timeBucketedCounts = countOptionOccurrencesByTimeBucket(
-                        validDocs, widget.getName(), widget.getOptionItems(),
-                        startDateTime, bucketType, bucketLabels.size()
-                );
+    /**
+     * Answer option widgets from the rollup store: complete hours come from form_rollup_{id}, only the hour in
+     * progress is aggregated from the raw collection. Number widgets keep reading their raw values.
+     * Returns false (and leaves widgetDataList untouched) when rollups can't answer the range: not built or stale,
+     * a start that isn't on the hour (buckets would split rollup hours), or no complete hour in the range.
+     */
+    private boolean extractWidgetDataFromRollups(Long formTemplateId, MongoDatabase database, List<String> collectionNames,
+                                                 List<WidgetDataDTO> widgetDataList, Timestamp startDateTime,
+                                                 Timestamp endDateTime) {
+        long hourMillis = ChronoUnit.HOURS.getDuration().toMillis();
+        long startMillis = startDateTime.getTime();
+        long currentHour = System.currentTimeMillis() / hourMillis * hourMillis;
+        // Exclusive end of the complete hours that can be read from the rollups
+        long rollupEnd = Math.min((endDateTime.getTime() + 1) / hourMillis * hourMillis, currentHour);
+        if (startMillis % hourMillis != 0 || rollupEnd <= startMillis || !formRollupService.isReady(formTemplateId)) {
+            return false;
+        }
 
-                List<TimeBucketedOptionDTO> timeBucketedData = widget.getOptionItems().stream()
-                        .map(option -> new TimeBucketedOptionDTO(
-                                option.getLabel(),
-                                option.getValue(),
-                                timeBucketedCounts.getOrDefault(option.getValue(), Collections.emptyList())
-                        ))
-                        .collect(Collectors.toList());
+        List<String> numberFields = new ArrayList<>();
+        List<String> optionFields = new ArrayList<>();
+        for (WidgetDataDTO widget : widgetDataList) {
+            if (widget.getType().equals("number")) {
+                numberFields.add(widget.getName());
+            }
+            if (!widget.getOptionItems().isEmpty()) {
+                optionFields.add(widget.getName());
+            }
+        }
+
+        String bucketType = determineBucketType(startDateTime, endDateTime);
+        List<String> bucketLabels = generateBucketLabels(startDateTime, endDateTime, bucketType);
+        long bucketMillis = bucketMillis(bucketType);
+
+        Map<String, Map<Integer, Integer>> optionCountsByField = new HashMap<>();
+        Map<String, Map<Integer, int[]>> bucketCountsByField = new HashMap<>();
+
+        for (Document row : formRollupService.findCounts(formTemplateId, optionFields,
+                Instant.ofEpochMilli(startMillis), Instant.ofEpochMilli(rollupEnd))) {
+            int bucketIndex = (int) ((row.getDate("h").getTime() - startMillis) / bucketMillis);
+            addOptionCount(row.getString("f"), ((Number) row.get("v")).intValue(), bucketIndex,
+                    ((Number) row.get("count")).intValue(), bucketLabels.size(), optionCountsByField, bucketCountsByField);
+        }
 
-                List<OptionItemDTO> updatedOptions = widget.getOptionItems().stream()
-                        .map(option -> new OptionItemDTO(
-                                option.getLabel(),
-                                option.getValue(),
-                                optionCounts.getOrDefault(option.getValue(), 0))) 
+        // The rest of the range (the current hour) straight from the raw collections
+        if (!optionFields.isEmpty() && rollupEnd <= endDateTime.getTime()) {
+            Timestamp tailStart = new Timestamp(rollupEnd);
+            for (String collectionName : generateCollectionNames(formTemplateId, tailStart, endDateTime)) {
+                accumulateOptionCounts(database.getCollection(collectionName), optionFields, tailStart, endDateTime,
+                        startDateTime, bucketType, bucketLabels.size(), optionCountsByField, bucketCountsByField);
+            }
+        }
+
+        if (!numberFields.isEmpty()) {
+            List<WidgetDataDTO> numberWidgets = copyWidgetDataList(widgetDataList).stream()
+                    .filter(widget -> widget.getType().equals("number"))
+                    .collect(Collectors.toList());
+            List<List<WidgetDataDTO>> partitionResults = partitionQueryExecutor.map(collectionNames, collectionName -> {
+                List<Document> validDocs = findLatestVersionsInRange(database.getCollection(collectionName),
+                        startDateTime, endDateTime, numberFields);
+                return numberWidgets.stream()
+                        .map(widget -> buildNumberWidget(widget, validDocs))
                         .collect(Collectors.toList());
+            });
+            for (List<WidgetDataDTO> newData : partitionResults) {
+                mergeWidgetDataLists(widgetDataList, newData);
+            }
+        }
 
-                WidgetDataDTO newWidget = new WidgetDataDTO(widget.getName(), widget.getLabel(), widget.getType(),
-                        updatedOptions, null, null);
-                newWidget.setTimeBucketedData(timeBucketedData);
-                newWidget.setBucketLabels(bucketLabels);
-                newWidget.setBucketType(bucketType);
+        mergeWidgetDataLists(widgetDataList, widgetDataList.stream()
+                .filter(widget -> !widget.getOptionItems().isEmpty())
+                .map(widget -> buildOptionWidgetFromCounts(widget, optionCountsByField, bucketCountsByField, bucketType, bucketLabels))
+                .collect(Collectors.toList()));
+        return true;
+    }
 
-                updatedWidgets.add(newWidget); 
+    /**
+     * Run the option count aggregation over [matchStart, matchEnd] of a collection, bucketing from bucketStart,
+     * and add the results to the accumulators.
+     */
+    private void accumulateOptionCounts(MongoCollection<Document> collection, List<String> optionFields,
+                                        Timestamp matchStart, Timestamp matchEnd, Timestamp bucketStart,
+                                        String bucketType, int bucketCount,
+                                        Map<String, Map<Integer, Integer>> optionCountsByField,
+                                        Map<String, Map<Integer, int[]>> bucketCountsByField) {
+        mongoFormDataQueryUtils.ensureLatestMarkers(collection);
+        List<Bson> pipeline = buildOptionCountPipeline(optionFields, matchStart, matchEnd, bucketStart, bucketType);
+        for (Document row : collection.aggregate(pipeline).allowDiskUse(true)) {
+            Document key = row.get("_id", Document.class);
+            addOptionCount(key.getString("f"), ((Number) key.get("v")).intValue(), ((Number) key.get("b")).intValue(),
+                    ((Number) row.get("count")).intValue(), bucketCount, optionCountsByField, bucketCountsByField);
+        }
+    }
+
+    private void addOptionCount(String field, int value, int bucketIndex, int count, int bucketCount,
+                                Map<String, Map<Integer, Integer>> optionCountsByField,
+                                Map<String, Map<Integer, int[]>> bucketCountsByField) {
+        optionCountsByField.computeIfAbsent(field, k -> new HashMap<>()).merge(value, count, Integer::sum);
+        if (bucketIndex >= 0 && bucketIndex < bucketCount) {
+            bucketCountsByField.computeIfAbsent(field, k -> new HashMap<>())
+                    .computeIfAbsent(value, k -> new int[bucketCount])[bucketIndex] += count;
+        }
+    }
+
+    private long bucketMillis(String bucketType) {
+        return switch (bucketType) {
+            case "hourly" -> ChronoUnit.HOURS.getDuration().toMillis();
+            case "weekly" -> ChronoUnit.WEEKS.getDuration().toMillis();
+            default -> ChronoUnit.DAYS.getDuration().toMillis();
+        };
+    }
+
+    /**
+     * $match the latest versions in range, then count every option value per field and
+     * per time bucket. Buckets are fixed-width offsets from bucketStart (the range start), the same indexes
+     * calculateBucketIndex produces, so they line up with generateBucketLabels.
+     */
+    private List<Bson> buildOptionCountPipeline(List<String> optionFields, Timestamp startDateTime,
+                                                Timestamp endDateTime, Timestamp bucketStart, String bucketType) {
+        Document projection = new Document("created_at", 1);
+        List<Document> pairs = new ArrayList<>();
+        for (String field : optionFields) {
+            projection.append(field, 1);
+            pairs.add(new Document("f", new Document("$literal", field)).append("v", "$" + field));
+        }
+
+        long bucketMillis = bucketMillis(bucketType);
+
+        return Arrays.asList(
+                new Document("$match", and(
+                        MongoFormDataQueryUtils.createdAtBetween(startDateTime.toInstant(), endDateTime.toInstant()),
+                        MongoFormDataQueryUtils.isLatest())),
+                new Document("$project", projection),
+                new Document("$project", new Document("pairs", pairs)
+                        .append("b", new Document("$floor", new Document("$divide", Arrays.asList(
+                                new Document("$subtract", Arrays.asList("$created_at", new Date(bucketStart.getTime()))),
+                                bucketMillis))))),
+                new Document("$unwind", "$pairs"),
+                new Document("$project", new Document("b", 1).append("f", "$pairs.f")
+                        .append("vals", MongoFormDataQueryUtils.optionValuesExpression("$pairs.v"))),
+                new Document("$unwind", "$vals"),
+                new Document("$match", new Document("vals", new Document("$ne", null))),
+                new Document("$group", new Document("_id", new Document("f", "$f").append("v", "$vals").append("b", "$b"))
+                        .append("count", new Document("$sum", 1)))
+        );
+    }
+
+    /**
+     * Latest versions (is_latest) with created_at in range, sorted by created_at.
+     * When fields is not null only those fields (plus the version metadata) are fetched.
+     */
+    private List<Document> findLatestVersionsInRange(MongoCollection<Document> collection, Timestamp startDateTime,
+                                                     Timestamp endDateTime, List<String> fields) {
+        mongoFormDataQueryUtils.ensureLatestMarkers(collection);
+        Bson filter = and(
+                MongoFormDataQueryUtils.createdAtBetween(startDateTime.toInstant(), endDateTime.toInstant()),
+                MongoFormDataQueryUtils.isLatest());
+        FindIterable<Document> docs = collection.find(filter).sort(ascending("created_at"));
+        if (fields != null) {
+            Document projection = new Document("created_at", 1).append("version", 1).append("version_group_id", 1);
+            fields.forEach(field -> projection.append(field, 1));
+            docs = docs.projection(projection);
+        }
+        return docs.into(new ArrayList<>());
+    }
+
+    private WidgetDataDTO buildNumberWidget(WidgetDataDTO widget, List<Document> validDocs) {
+        List<Double> chartData = new ArrayList<>();
+        List<String> xaxisData = new ArrayList<>();
+
+        for (Document doc : validDocs) {
+            if (doc.containsKey(widget.getName())) {
+                Object value = doc.get(widget.getName());
+                if (value instanceof Integer) {
+                    chartData.add(((Integer) value).doubleValue());
+                } else if (value instanceof Double) {
+                    chartData.add((Double) value);
+                }
+
+                Date rawDate = doc.getDate("created_at");
+                if (rawDate != null) {
+                     String formattedDate = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+                             .withZone(ZoneId.systemDefault())
+                             .format(rawDate.toInstant());
+                     xaxisData.add(formattedDate);
+                }
             }
         }
+        return new WidgetDataDTO(widget.getName(), widget.getLabel(), widget.getType(),
+                new ArrayList<>(), chartData, xaxisData);
+    }
 
-        return updatedWidgets;
+    private WidgetDataDTO buildOptionWidget(WidgetDataDTO widget,
+                                            Map<Integer, Integer> optionCounts,
+                                            Map<Integer, List<Integer>> timeBucketedCounts,
+                                            String bucketType,
+                                            List<String> bucketLabels) {
+        List<TimeBucketedOptionDTO> timeBucketedData = widget.getOptionItems().stream()
+                .map(option -> new TimeBucketedOptionDTO(
+                        option.getLabel(),
+                        option.getValue(),
+                        timeBucketedCounts.getOrDefault(option.getValue(), Collections.emptyList())
+                ))
+                .collect(Collectors.toList());
+
+        List<OptionItemDTO> updatedOptions = widget.getOptionItems().stream()
+                .map(option -> new OptionItemDTO(
+                        option.getLabel(),
+                        option.getValue(),
+                        optionCounts.getOrDefault(option.getValue(), 0)))
+                .collect(Collectors.toList());
+
+        WidgetDataDTO newWidget = new WidgetDataDTO(widget.getName(), widget.getLabel(), widget.getType(),
+                updatedOptions, null, null);
+        newWidget.setTimeBucketedData(timeBucketedData);
+        newWidget.setBucketLabels(bucketLabels);
+        newWidget.setBucketType(bucketType);
+        return newWidget;
+    }
+
+    /**
+     * buildOptionWidget from the per-field accumulators filled by accumulateOptionCounts.
+     */
+    private WidgetDataDTO buildOptionWidgetFromCounts(WidgetDataDTO widget,
+                                                      Map<String, Map<Integer, Integer>> optionCountsByField,
+                                                      Map<String, Map<Integer, int[]>> bucketCountsByField,
+                                                      String bucketType,
+                                                      List<String> bucketLabels) {
+        Map<Integer, int[]> bucketCounts = bucketCountsByField.getOrDefault(widget.getName(), Collections.emptyMap());
+        Map<Integer, List<Integer>> timeBucketedCounts = new HashMap<>();
+        for (OptionItemDTO option : widget.getOptionItems()) {
+            int[] counts = bucketCounts.get(option.getValue());
+            List<Integer> countList = new ArrayList<>(Collections.nCopies(bucketLabels.size(), 0));
+            if (counts != null) {
+                for (int i = 0; i < counts.length; i++) {
+                    countList.set(i, counts[i]);
+                }
+            }
+            timeBucketedCounts.put(option.getValue(), countList);
+        }
+
+        return buildOptionWidget(widget,
+                optionCountsByField.getOrDefault(widget.getName(), Collections.emptyMap()),
+                timeBucketedCounts, bucketType, bucketLabels);
     }
 
     private Map<String, List<Object>> extractNumberFieldData(
@@ -441,13 +673,13 @@ public class ReportingServiceImpl implements ReportingService {
         MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
 
         // Get label mappings for formTemplateId
-        HashMap<String, Object> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
-        HashMap<String, String> keyValueMap = getFormTemplateKeyValueMapping(formTemplateId);
+        Map<String, Map<String, String>> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
+        Map<String, String> keyValueMap = getFormTemplateKeyValueMapping(formTemplateId);
 
         // Get target collections based on the date range
         List<String> collectionNames = getRelevantCollections(database, formTemplateId, startDateTime, endDateTime);
 
-        Map<String, Document> latestVersionMap = new HashMap<>();
+        List<Document> latestDocs = new ArrayList<>();
         Set<Integer> userIds = new HashSet<>();
 
         for (String collectionName : collectionNames) {
@@ -455,22 +687,11 @@ public class ReportingServiceImpl implements ReportingService {
             List<Document> collectionRecords = queryRecords(collection, startDateTime, endDateTime, page, size);
 
             for (Document doc : collectionRecords) {
-                String groupId = doc.getString("version_group_id");
-                Integer version = doc.getInteger("version", 0);
-
                 if (doc.containsKey("created_by") && doc.get("created_by") instanceof Number) {
                     userIds.add(((Number) doc.get("created_by")).intValue());
                 }
 
-                if (groupId != null) {
-                    Document existing = latestVersionMap.get(groupId);
-                    if (existing == null || version > existing.getInteger("version", 0)) {
-                        latestVersionMap.put(groupId, doc);
-                    }
-                } else {
-                    // No versioning info, treat as standalone record
-                    latestVersionMap.put(doc.getObjectId("_id").toString(), doc);
-                }
+                latestDocs.add(doc);
             }
         }
 
@@ -479,7 +700,7 @@ public class ReportingServiceImpl implements ReportingService {
                 .collect(Collectors.toMap(u -> u.getId(), u -> u.getName()));
 
         // Convert and return only the latest versions
-        return latestVersionMap.values().stream()
+        return latestDocs.stream()
                 .map(doc -> formattedResult(doc, optionItemsKeyValueMap, keyValueMap, userNameMap))
                 .collect(Collectors.toList());
     }
@@ -518,35 +739,25 @@ public class ReportingServiceImpl implements ReportingService {
         MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
 
         // Get label mappings
-        HashMap<String, Object> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
-        HashMap<String, String> keyValueMap = getFormTemplateKeyValueMapping(formTemplateId);
+        Map<String, Map<String, String>> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
+        Map<String, String> keyValueMap = getFormTemplateKeyValueMapping(formTemplateId);
 
         // Identify relevant collections
         List<String> collectionNames = getRelevantCollections(database, formTemplateId, startDateTime, endDateTime);
 
-        Map<String, Document> latestVersionMap = new HashMap<>();
+        List<Document> latestDocs = new ArrayList<>();
         Set<Integer> userIds = new HashSet<>();
 
-        for (String collectionName : collectionNames) {
-            MongoCollection<Document> collection = database.getCollection(collectionName);
+        List<List<Document>> partitionDocs = partitionQueryExecutor.map(collectionNames, collectionName ->
+                queryRecords(database.getCollection(collectionName), startDateTime, endDateTime, 0, Integer.MAX_VALUE));
 
-            List<Document> allDocs = queryRecords(collection, startDateTime, endDateTime, 0, Integer.MAX_VALUE);
+        for (List<Document> allDocs : partitionDocs) {
             for (Document doc : allDocs) {
-                String groupId = doc.getString("version_group_id");
-                Integer version = doc.getInteger("version", 0);
-
                 if (doc.containsKey("created_by") && doc.get("created_by") instanceof Number) {
                     userIds.add(((Number) doc.get("created_by")).intValue());
                 }
 
-                if (groupId != null) {
-                    Document existing = latestVersionMap.get(groupId);
-                    if (existing == null || version > existing.getInteger("version", 0)) {
-                        latestVersionMap.put(groupId, doc);
-                    }
-                } else {
-                    latestVersionMap.put(doc.getObjectId("_id").toString(), doc);
-                }
+                latestDocs.add(doc);
             }
         }
 
@@ -555,7 +766,7 @@ public class ReportingServiceImpl implements ReportingService {
                 .collect(Collectors.toMap(u -> u.getId(), u -> u.getName()));
 
         // Stream Pipeline: Format -> Filter -> Sort
-        Stream<Document> stream = latestVersionMap.values().parallelStream()
+        Stream<Document> stream = latestDocs.parallelStream()
                 .map(doc -> formattedResult(doc, optionItemsKeyValueMap, keyValueMap, userNameMap));
 
         // 2. Filter (search) on visible field values only (excluding metadata fields)
@@ -600,6 +811,246 @@ public class ReportingServiceImpl implements ReportingService {
     }
 
 
+    @Override
+    public CursorPageDTO<Document> fetchQcRecordsByCursor(
+            Long formTemplateId,
+            String startDateTime,
+            String endDateTime,
+            String cursor,
+            Integer size,
+            String sort,
+            String search,
+            boolean includeTotal
+    ) {
+        size = Math.max(1, Math.min(size == null ? 15 : size, maxCursorPageSize));
+        String effectiveSort = (sort == null || sort.isEmpty()) ? "created_at,desc" : sort;
+        String[] sortParts = effectiveSort.split(",", 2);
+        if (!"created_at".equals(sortParts[0])) {
+            throw new IllegalArgumentException("Cursor pagination only supports sorting by created_at, got: " + effectiveSort);
+        }
+        boolean desc = sortParts.length < 2 || "desc".equalsIgnoreCase(sortParts[1]);
+
+        MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
+        Map<String, Map<String, String>> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
+        Map<String, String> keyValueMap = getFormTemplateKeyValueMapping(formTemplateId);
+
+        List<String> collectionNames = getRelevantCollections(database, formTemplateId, startDateTime, endDateTime);
+        Bson rangeFilter = and(MongoFormDataQueryUtils.createdAtBetween(
+                convertStringToInstant(startDateTime), convertStringToInstant(endDateTime)), MongoFormDataQueryUtils.isLatest());
+        Bson filter = rangeFilter;
+        if (cursor != null && !cursor.isEmpty()) {
+            Document position = decodeCursor(cursor);
+            filter = and(rangeFilter, MongoFormDataQueryUtils.after(
+                    position.getDate("created_at"), position.getObjectId("_id"), desc));
+        }
+        String lowerSearch = (search == null || search.isEmpty()) ? null : search.toLowerCase();
+
+        try (PartitionMerge merge = new PartitionMerge(database, collectionNames, filter, desc, size)) {
+            List<Document> pageContent = new ArrayList<>();
+            Document lastConsumed = null;
+
+            while (pageContent.size() < size && merge.hasNext()) {
+                // Take the next candidates in global order, then drop search misses
+                List<Document> batch = new ArrayList<>();
+                while (batch.size() < size - pageContent.size() && merge.hasNext()) {
+                    batch.add(merge.next());
+                }
+                lastConsumed = batch.get(batch.size() - 1);
+
+                Map<Integer, String> userNameMap = getUserNameMap(batch);
+                for (Document doc : batch) {
+                    Document formatted = formattedResult(doc, optionItemsKeyValueMap, keyValueMap, userNameMap);
+                    if (lowerSearch == null || containsSearchInVisibleFields(formatted, lowerSearch)) {
+                        pageContent.add(formatted);
+                    }
+                }
+            }
+
+            boolean hasMore = merge.hasNext();
+            Long estimatedTotal = null;
+            if (includeTotal) {
+                long total = 0;
+                for (String collectionName : collectionNames) {
+                    total += database.getCollection(collectionName).countDocuments(rangeFilter);
+                }
+                estimatedTotal = total;
+            }
+
+            return new CursorPageDTO<>(
+                    pageContent,
+                    hasMore && lastConsumed != null ? encodeCursor(lastConsumed) : null,
+                    hasMore,
+                    size,
+                    estimatedTotal
+            );
+        }
+    }
+
+    @Override
+    public void exportQcRecords(Long formTemplateId,
+                                String startDateTime,
+                                String endDateTime,
+                                String search,
+                                String sort,
+                                String format,
+                                OutputStream outputStream) throws IOException {
+        validateExportRequest(startDateTime, endDateTime, sort);
+        String effectiveSort = (sort == null || sort.isEmpty()) ? "created_at,desc" : sort;
+        String[] sortParts = effectiveSort.split(",", 2);
+        boolean desc = sortParts.length < 2 || "desc".equalsIgnoreCase(sortParts[1]);
+
+        MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
+        Map<String, Map<String, String>> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
+        Map<String, String> keyValueMap = getFormTemplateKeyValueMapping(formTemplateId);
+
+        List<String> collectionNames = getRelevantCollections(database, formTemplateId, startDateTime, endDateTime);
+        Bson rangeFilter = and(MongoFormDataQueryUtils.createdAtBetween(
+                convertStringToInstant(startDateTime), convertStringToInstant(endDateTime)), MongoFormDataQueryUtils.isLatest());
+        String lowerSearch = (search == null || search.isEmpty()) ? null : search.toLowerCase();
+
+        // Fixed columns first, then the template's field labels in form order
+        List<String> columns = new ArrayList<>(List.of("_id", "created_at", "提交人"));
+        keyValueMap.values().stream().distinct().filter(label -> !columns.contains(label)).forEach(columns::add);
+
+        try (PartitionMerge merge = new PartitionMerge(database, collectionNames, rangeFilter, desc, EXPORT_BATCH_SIZE);
+             QcRecordExportWriter writer = QcRecordExportWriter.create(format, outputStream, columns, objectMapper)) {
+            try {
+                List<Document> batch = new ArrayList<>(EXPORT_BATCH_SIZE);
+                while (merge.hasNext()) {
+                    batch.add(merge.next());
+                    if (batch.size() < EXPORT_BATCH_SIZE && merge.hasNext()) {
+                        continue;
+                    }
+
+                    Map<Integer, String> userNameMap = getUserNameMap(batch);
+                    for (Document doc : batch) {
+                        Document formatted = formattedResult(doc, optionItemsKeyValueMap, keyValueMap, userNameMap);
+                        if (lowerSearch == null || containsSearchInVisibleFields(formatted, lowerSearch)) {
+                            writer.write(formatted);
+                        }
+                    }
+                    // Blocks while the client is slow to read, which in turn holds back the Mongo cursors
+                    writer.flush();
+                    batch.clear();
+                }
+            } catch (IOException | RuntimeException e) {
+                writer.abort(e);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void validateExportRequest(String startDateTime, String endDateTime, String sort) {
+        String effectiveSort = (sort == null || sort.isEmpty()) ? "created_at,desc" : sort;
+        String[] sortParts = effectiveSort.split(",", 2);
+        if (!"created_at".equals(sortParts[0])
+                || (sortParts.length > 1 && !"asc".equalsIgnoreCase(sortParts[1]) && !"desc".equalsIgnoreCase(sortParts[1]))) {
+            throw new IllegalArgumentException("Streaming export only supports sorting by created_at, got: " + effectiveSort);
+        }
+        try {
+            convertStringToInstant(startDateTime);
+            convertStringToInstant(endDateTime);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date range: " + startDateTime + " - " + endDateTime, e);
+        }
+    }
+
+    /**
+     * k-way merge over the monthly collections, each read in (created_at, _id) order through its index,
+     * yielding raw documents in global order with one buffered document per collection.
+     */
+    private class PartitionMerge implements Iterator<Document>, AutoCloseable {
+        private final PriorityQueue<PartitionHead> heads;
+        private final List<MongoCursor<Document>> openCursors = new ArrayList<>();
+
+        private PartitionMerge(MongoDatabase database, List<String> collectionNames, Bson filter,
+                               boolean desc, int batchSize) {
+            Comparator<Document> cmp = Comparator.<Document, Date>comparing(d -> d.getDate("created_at"))
+                    .thenComparing(d -> d.getObjectId("_id"));
+            Comparator<Document> headCmp = desc ? cmp.reversed() : cmp;
+            this.heads = new PriorityQueue<>((a, b) -> headCmp.compare(a.head, b.head));
+
+            Bson order = desc ? descending("created_at", "_id") : ascending("created_at", "_id");
+            try {
+                for (String collectionName : collectionNames) {
+                    MongoCollection<Document> collection = database.getCollection(collectionName);
+                    mongoFormDataQueryUtils.ensureLatestMarkers(collection);
+                    MongoCursor<Document> partitionCursor = collection.find(filter).sort(order).batchSize(batchSize).iterator();
+                    openCursors.add(partitionCursor);
+                    if (partitionCursor.hasNext()) {
+                        heads.add(new PartitionHead(partitionCursor.next(), partitionCursor));
+                    }
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Document next() {
+            PartitionHead next = heads.poll();
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            if (next.cursor.hasNext()) {
+                heads.add(new PartitionHead(next.cursor.next(), next.cursor));
+            }
+            return next.head;
+        }
+
+        @Override
+        public void close() {
+            openCursors.forEach(MongoCursor::close);
+        }
+    }
+
+    private static class PartitionHead {
+        private final Document head;
+        private final MongoCursor<Document> cursor;
+
+        private PartitionHead(Document head, MongoCursor<Document> cursor) {
+            this.head = head;
+            this.cursor = cursor;
+        }
+    }
+
+    private Map<Integer, String> getUserNameMap(List<Document> docs) {
+        Set<Integer> userIds = new HashSet<>();
+        for (Document doc : docs) {
+            if (doc.containsKey("created_by") && doc.get("created_by") instanceof Number) {
+                userIds.add(((Number) doc.get("created_by")).intValue());
+            }
+        }
+        if (userIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return userService.getUsersByIds(new ArrayList<>(userIds)).stream()
+                .collect(Collectors.toMap(u -> u.getId(), u -> u.getName()));
+    }
+
+    private String encodeCursor(Document doc) {
+        String raw = doc.getDate("created_at").getTime() + ":" + doc.getObjectId("_id").toHexString();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Document decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 2);
+            return new Document("created_at", new Date(Long.parseLong(parts[0])))
+                    .append("_id", new ObjectId(parts[1]));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
     /**
      * 将 "field,asc|desc" 转换为 MongoDB 排序 Bson
      */
@@ -623,39 +1074,29 @@ public class ReportingServiceImpl implements ReportingService {
         MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
 
         // label / optionItems 映射
-        HashMap<String, Object> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
-        HashMap<String, String> keyValueMap            = getFormTemplateKeyValueMapping(formTemplateId);
+        Map<String, Map<String, String>> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
+        Map<String, String> keyValueMap            = getFormTemplateKeyValueMapping(formTemplateId);
 
         // 找到时间范围内相关集合
         List<String> collectionNames = getRelevantCollections(database, formTemplateId,
                 startDateTime, endDateTime);
 
         /** ---------- 1. 取最新版本 ---------- */
-        Map<String, Document> latestVersionMap = new HashMap<>();
+        List<Document> latestDocs = new ArrayList<>();
         Set<Integer> userIds = new HashSet<>();
 
-        for (String colName : collectionNames) {
-            MongoCollection<Document> col = database.getCollection(colName);
+        // **0, Integer.MAX_VALUE** ：一次性取完 (collections read in parallel, merged in month order)
+        List<List<Document>> partitionDocs = partitionQueryExecutor.map(collectionNames, colName ->
+                queryRecords(database.getCollection(colName), startDateTime, endDateTime, 0, Integer.MAX_VALUE));
 
-            // **0, Integer.MAX_VALUE** ：一次性取完
-            List<Document> docs = queryRecords(col, startDateTime, endDateTime, 0, Integer.MAX_VALUE);
+        for (List<Document> docs : partitionDocs) {
 
             for (Document d : docs) {
-                String gid      = d.getString("version_group_id");
-                Integer version = d.getInteger("version", 0);
-
                 if (d.containsKey("created_by") && d.get("created_by") instanceof Number) {
                     userIds.add(((Number) d.get("created_by")).intValue());
                 }
 
-                if (gid != null) {
-                    Document existing = latestVersionMap.get(gid);
-                    if (existing == null || version > existing.getInteger("version", 0)) {
-                        latestVersionMap.put(gid, d);
-                    }
-                } else {
-                    latestVersionMap.put(d.getObjectId("_id").toString(), d);
-                }
+                latestDocs.add(d);
             }
         }
 
@@ -664,7 +1105,7 @@ public class ReportingServiceImpl implements ReportingService {
                 .collect(Collectors.toMap(u -> u.getId(), u -> u.getName()));
 
         /** ---------- 2. Pipeline: Format -> Filter -> Sort ---------- */
-        Stream<Document> stream = latestVersionMap.values().parallelStream()
+        Stream<Document> stream = latestDocs.parallelStream()
                 .map(doc -> formattedResult(doc, optionItemsKeyValueMap, keyValueMap, userNameMap));
 
         if (search != null && !search.isEmpty()) {
@@ -699,16 +1140,20 @@ public class ReportingServiceImpl implements ReportingService {
     public List<Document> fetchAllVersionsByGroupId(Long formTemplateId, String versionGroupId) {
         MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
 
-        HashMap<String, Object> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
-        HashMap<String, String> keyValueMap = getFormTemplateKeyValueMapping(formTemplateId);
+        Map<String, Map<String, String>> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
+        Map<String, String> keyValueMap = getFormTemplateKeyValueMapping(formTemplateId);
 
         List<Document> versionedDocs = new ArrayList<>();
         Set<Integer> userIds = new HashSet<>();
 
-        // Loop over all relevant collections in here
-        for (String collectionName : database.listCollectionNames()) {
-            if (!collectionName.startsWith("form_template_" + formTemplateId + "_")) continue;
+        // The directory names the collection(s) of the group; groups it doesn't know yet are searched in every partition
+        List<String> collectionNames = submissionDirectory.findGroupCollections(versionGroupId);
+        boolean fromDirectory = !collectionNames.isEmpty();
+        if (!fromDirectory) {
+            collectionNames = formCollectionCatalog.getCollectionNames(formTemplateId);
+        }
 
+        for (String collectionName : collectionNames) {
             MongoCollection<Document> collection = database.getCollection(collectionName);
 
             List<Document> matches = collection.find(eq("version_group_id", versionGroupId)).into(new ArrayList<>());
@@ -718,6 +1163,9 @@ public class ReportingServiceImpl implements ReportingService {
                 }
             }
             versionedDocs.addAll(matches);
+            if (!fromDirectory && !matches.isEmpty()) {
+                submissionDirectory.registerAll(collectionName, matches);
+            }
         }
 
         versionedDocs.sort((a, b) -> {
@@ -735,68 +1183,21 @@ public class ReportingServiceImpl implements ReportingService {
                 .collect(Collectors.toList());
     }
 
-    // TODO: use MongoFormTemplateUtils
-    public HashMap<String, String> getFormTemplateKeyValueMapping(Long formId) {
-        String formTemplateJson = qcFormTemplateRepository.findFormTemplateJsonById(formId);
-
-        if (formTemplateJson == null || formTemplateJson.isEmpty()) {
-            throw new RuntimeException("Form template JSON not found for formId: " + formId);
-        }
-
-        HashMap<String, String> keyValueMap = new HashMap<>();
-
-        try {
-            Document formTemplate = Document.parse(formTemplateJson);
-            List<Document> widgetList = (List<Document>) formTemplate.get("widgetList");
-
-            if (widgetList != null) {
-                extractKeyValuePairs(widgetList, keyValueMap); // Extract key-label mappings
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("Error parsing form template JSON", e);
-        }
-
-        return keyValueMap;
-    }
-
-    private void extractKeyValuePairs(List<Document> widgetList, HashMap<String, String> keyValueMap) {
-        for (Document widget : widgetList) {
-            // Extract options and add name-label pairs to the map
-            Document options = (Document) widget.get("options");
-            if (options != null) {
-                String name = options.getString("name");
-                String label = options.getString("label");
-                if (name != null && label != null) {
-                    keyValueMap.put(name, label);
-                }
-            }
-
-            // Recursively process nested widgetList
-            List<Document> nestedWidgetList = (List<Document>) widget.get("widgetList");
-            if (nestedWidgetList != null) {
-                extractKeyValuePairs(nestedWidgetList, keyValueMap);
-            }
-
-            // Check for widget lists inside grid columns
-            List<Document> cols = (List<Document>) widget.get("cols");
-            if (cols != null) {
-                for (Document col : cols) {
-                    List<Document> colWidgetList = (List<Document>) col.get("widgetList");
-                    if (colWidgetList != null) {
-                        extractKeyValuePairs(colWidgetList, keyValueMap);
-                    }
-                }
-            }
-        }
+    public Map<String, String> getFormTemplateKeyValueMapping(Long formId) {
+        return formTemplateSchemaCache.get(formId).getFieldLabels();
     }
 
-    // TODO: use MongoFormTemplateUtils
-    private Document formattedResult(Document document, HashMap<String, Object> optionItemsKeyValueMap, HashMap<String, String> keyValueMap, Map<Integer, String> userNameMap) {
+    private Document formattedResult(Document document, Map<String, Map<String, String>> optionItemsKeyValueMap, Map<String, String> keyValueMap, Map<Integer, String> userNameMap) {
         Document formattedDocument = new Document();
 
         for (String key : document.keySet()) {
             Object value = document.get(key);
 
+            // is_latest 只用于查询，不返回给前端
+            if (MongoFormDataQueryUtils.LATEST_FIELD.equals(key)) {
+                continue;
+            }
+
             // 确保 `_id` 仍然是 ObjectId 而不是 timestamp + date 结构
             if ("_id".equals(key) && value instanceof ObjectId) {
                 formattedDocument.put("_id", value.toString()); // 转换成字符串
@@ -809,7 +1210,7 @@ public class ReportingServiceImpl implements ReportingService {
             // 如果 value 是选项列表，则转换成对应的 label
             if (optionItemsKeyValueMap.containsKey(key) && value instanceof List) {
                 List<?> valueList = (List<?>) value;
-                HashMap<String, String> valueToLabelMap = (HashMap<String, String>) optionItemsKeyValueMap.get(key);
+                Map<String, String> valueToLabelMap = optionItemsKeyValueMap.get(key);
 
                 List<String> resolvedLabels = valueList.stream()
                         .map(val -> valueToLabelMap.getOrDefault(val.toString(), val.toString()))
@@ -818,7 +1219,7 @@ public class ReportingServiceImpl implements ReportingService {
             }
             // 如果 value 是单个数值并且有 label 映射，则转换
             else if (optionItemsKeyValueMap.containsKey(key) && (value instanceof Integer || value instanceof String)) {
-                HashMap<String, String> valueToLabelMap = (HashMap<String, String>) optionItemsKeyValueMap.get(key);
+                Map<String, String> valueToLabelMap = optionItemsKeyValueMap.get(key);
                 formattedDocument.put(formattedKey, valueToLabelMap.getOrDefault(value.toString(), value.toString()));
             } else {
                 formattedDocument.put(formattedKey, value);
@@ -858,7 +1259,7 @@ public class ReportingServiceImpl implements ReportingService {
     private boolean containsSearchInVisibleFields(Document doc, String searchLower) {
         Set<String> excludedFields = Set.of(
                 "created_by", "created_at", "exceeded_info", "approval_info", "e-signature",
-                "version", "version_group_id", "approver_updated_at"
+                "version", "version_group_id", "approver_updated_at", MongoFormDataQueryUtils.LATEST_FIELD
         );
 
         for (String key : doc.keySet()) {
@@ -894,68 +1295,8 @@ public class ReportingServiceImpl implements ReportingService {
         return false;
     }
 
-    // TODO: use MongoFormTemplateUtils
-    private HashMap<String, Object> QcFormTemplateOptionItemsKeyValueMapping(Long formId) {
-        String formTemplateJson = qcFormTemplateRepository.findFormTemplateJsonById(formId);
-
-        if (formTemplateJson == null || formTemplateJson.isEmpty()) {
-            throw new RuntimeException("Form template JSON not found for formId: " + formId);
-        }
-
-        HashMap<String, Object> optionItemsKeyValueMap = new HashMap<>();
-
-        try {
-            Document formTemplate = Document.parse(formTemplateJson);
-            List<Document> widgetList = (List<Document>) formTemplate.get("widgetList");
-
-            if (widgetList != null) {
-                extractOptionItems(widgetList, optionItemsKeyValueMap);
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("Error parsing form template JSON", e);
-        }
-
-        return optionItemsKeyValueMap;
-    }
-
-    private void extractOptionItems(List<Document> widgetList, HashMap<String, Object> optionItemsKeyValueMap) {
-        for (Document widget : widgetList) {
-            // Extract options with optionItems
-            Document options = (Document) widget.get("options");
-            if (options != null) {
-                String name = options.getString("name");
-                List<Document> optionItems = (List<Document>) options.get("optionItems");
-
-                if (name != null && optionItems != null) {
-                    HashMap<String, String> valueToLabelMap = new HashMap<>();
-                    for (Document option : optionItems) {
-                        Object value = option.get("value");
-                        String optionLabel = option.getString("label");
-                        if (value != null && optionLabel != null) {
-                            valueToLabelMap.put(value.toString(), optionLabel);
-                        }
-                    }
-                    optionItemsKeyValueMap.put(name, valueToLabelMap);
-                }
-            }
-
-            // Recursively process nested widgetList
-            List<Document> nestedWidgetList = (List<Document>) widget.get("widgetList");
-            if (nestedWidgetList != null) {
-                extractOptionItems(nestedWidgetList, optionItemsKeyValueMap);
-            }
-
-            // Check for widget lists inside grid columns
-            List<Document> cols = (List<Document>) widget.get("cols");
-            if (cols != null) {
-                for (Document col : cols) {
-                    List<Document> colWidgetList = (List<Document>) col.get("widgetList");
-                    if (colWidgetList != null) {
-                        extractOptionItems(colWidgetList, optionItemsKeyValueMap);
-                    }
-                }
-            }
-        }
+    private Map<String, Map<String, String>> QcFormTemplateOptionItemsKeyValueMapping(Long formId) {
+        return formTemplateSchemaCache.get(formId).getOptionLabelsByField();
     }
 
     /**
@@ -970,7 +1311,7 @@ public class ReportingServiceImpl implements ReportingService {
 
         while (!start.isAfter(end)) {
             String collectionName = "form_template_" + formTemplateId + "_" + sdf.format(java.sql.Timestamp.valueOf(start));
-            if (database.listCollectionNames().into(new ArrayList<>()).contains(collectionName)) {
+            if (formCollectionCatalog.contains(collectionName)) {
                 targetCollections.add(collectionName);
             }
             start = start.plusMonths(1); // Move to next month
@@ -1089,22 +1430,18 @@ public class ReportingServiceImpl implements ReportingService {
 
 //
         System.out.println("Querying records with range: " + startInstant + " to " + endInstant);
-        List<Document> allRecords = collection.find().into(new ArrayList<>());
-        List<Document> filtered = new ArrayList<>();
-
-        for (Document doc : allRecords) {
-            Date rawDate = doc.getDate("created_at");
-            Instant createdAt = rawDate != null ? rawDate.toInstant() : null;
-
-            if (createdAt != null && !createdAt.isBefore(startInstant) && !createdAt.isAfter(endInstant)) {
-                filtered.add(doc);
-            }
+        mongoFormDataQueryUtils.ensureLatestMarkers(collection);
+        FindIterable<Document> records = collection.find(and(
+                MongoFormDataQueryUtils.createdAtBetween(startInstant, endInstant), MongoFormDataQueryUtils.isLatest()));
+
+        // Only page server-side when a real page is requested; _id keeps the insertion order the in-memory paging used
+        if (size != Integer.MAX_VALUE) {
+            records = records.sort(ascending("_id"))
+                    .skip((int) Math.min((long) page * size, Integer.MAX_VALUE))
+                    .limit(size);
         }
 
-        return filtered.stream()
-                .skip(page * size)
-                .limit(size)
-                .collect(Collectors.toList());
+        return records.into(new ArrayList<>());
     }
 
     private Instant convertStringToInstant(String dateTime) {
@@ -1250,8 +1587,8 @@ public class ReportingServiceImpl implements ReportingService {
         MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
 
         // Get label mappings
-        HashMap<String, Object> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
-        HashMap<String, String> keyValueMap = getFormTemplateKeyValueMapping(formTemplateId);
+        Map<String, Map<String, String>> optionItemsKeyValueMap = QcFormTemplateOptionItemsKeyValueMapping(formTemplateId);
+        Map<String, String> keyValueMap = getFormTemplateKeyValueMapping(formTemplateId);
 
         // Determine the effective time range for filtering
         String effectiveStartDateTime = (bucketStart != null && !bucketStart.isEmpty()) ? bucketStart : startDateTime;
@@ -1260,7 +1597,7 @@ public class ReportingServiceImpl implements ReportingService {
         // Identify relevant collections
         List<String> collectionNames = getRelevantCollections(database, formTemplateId, startDateTime, endDateTime);
 
-        Map<String, Document> latestVersionMap = new HashMap<>();
+        List<Document> latestDocs = new ArrayList<>();
         Set<Integer> userIds = new HashSet<>();
 
         Instant filterStart = convertStringToInstant(effectiveStartDateTime);
@@ -1269,19 +1606,14 @@ public class ReportingServiceImpl implements ReportingService {
         for (String collectionName : collectionNames) {
             MongoCollection<Document> collection = database.getCollection(collectionName);
 
-            // Get all documents and filter by date range and field value
-            List<Document> allDocs = collection.find().into(new ArrayList<>());
-            for (Document doc : allDocs) {
-                Date rawDate = doc.getDate("created_at");
-                if (rawDate == null) continue;
-
-                Instant createdAt = rawDate.toInstant();
-
-                // Filter by effective time range
-                if (createdAt.isBefore(filterStart) || createdAt.isAfter(filterEnd)) {
-                    continue;
-                }
+            // Date range and option value are matched server-side, the exact value check below stays as before
+            mongoFormDataQueryUtils.ensureLatestMarkers(collection);
+            Bson filter = and(MongoFormDataQueryUtils.createdAtBetween(filterStart, filterEnd), MongoFormDataQueryUtils.isLatest());
+            if (optionValue != null && fieldName != null && !fieldName.isEmpty()) {
+                filter = and(filter, MongoFormDataQueryUtils.optionValueMatches(fieldName, optionValue));
+            }
 
+            for (Document doc : collection.find(filter)) {
                 // Filter by field value if optionValue is provided
                 if (optionValue != null && fieldName != null && !fieldName.isEmpty()) {
                     Object fieldValue = doc.get(fieldName);
@@ -1311,18 +1643,7 @@ public class ReportingServiceImpl implements ReportingService {
                     userIds.add(((Number) doc.get("created_by")).intValue());
                 }
 
-                // Keep only latest version
-                String groupId = doc.getString("version_group_id");
-                Integer version = doc.getInteger("version", 0);
-
-                if (groupId != null) {
-                    Document existing = latestVersionMap.get(groupId);
-                    if (existing == null || version > existing.getInteger("version", 0)) {
-                        latestVersionMap.put(groupId, doc);
-                    }
-                } else {
-                    latestVersionMap.put(doc.getObjectId("_id").toString(), doc);
-                }
+                latestDocs.add(doc);
             }
         }
 
@@ -1331,7 +1652,7 @@ public class ReportingServiceImpl implements ReportingService {
                 .collect(Collectors.toMap(u -> u.getId(), u -> u.getName()));
 
         // Stream Pipeline: Format -> Filter -> Sort
-        Stream<Document> stream = latestVersionMap.values().parallelStream()
+        Stream<Document> stream = latestDocs.parallelStream()
                 .map(doc -> formattedResult(doc, optionItemsKeyValueMap, keyValueMap, userNameMap));
 
         // Apply search filter on visible fields
@@ -2,16 +2,19 @@ package com.fps.svmes.services.impl;
 
 import com.fps.svmes.dto.dtos.spc.LimitDTO;
 import com.fps.svmes.dto.dtos.spc.SPCDTO;
-import com.fps.svmes.dto.dtos.spc.TimeSeriesDTO;
 import com.fps.svmes.dto.requests.SPCRequest;
 import com.fps.svmes.models.nosql.ControlLimitSetting;
 import com.fps.svmes.repositories.mongoRepo.ControlLimitSettingRepository;
 import com.fps.svmes.services.SPCService;
+import com.fps.svmes.utils.FormCollectionCatalog;
+import com.fps.svmes.utils.PartitionQueryExecutor;
+import com.fps.svmes.utils.SpcEngine;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 import org.apache.commons.math3.exception.NoDataException;
 import org.apache.coyote.BadRequestException;
 import org.bson.Document;
@@ -33,13 +36,20 @@ public class SPCServiceImpl implements SPCService {
 
     private final ControlLimitSettingRepository controlLimitSettingRepository;
 
+    private final FormCollectionCatalog formCollectionCatalog;
+
+    private final PartitionQueryExecutor partitionQueryExecutor;
+
     @Value("${spring.data.mongodb.database}")
     private String mongoDatabaseName;
 
     @Autowired
-    public SPCServiceImpl(MongoClient mongoClient, ControlLimitSettingRepository controlLimitSettingRepository) {
+    public SPCServiceImpl(MongoClient mongoClient, ControlLimitSettingRepository controlLimitSettingRepository,
+                          FormCollectionCatalog formCollectionCatalog, PartitionQueryExecutor partitionQueryExecutor) {
         this.mongoClient = mongoClient;
         this.controlLimitSettingRepository = controlLimitSettingRepository;
+        this.formCollectionCatalog = formCollectionCatalog;
+        this.partitionQueryExecutor = partitionQueryExecutor;
     }
 
     @Override
@@ -87,9 +97,9 @@ public class SPCServiceImpl implements SPCService {
             return spcList;
         }
 
-        Map<String, List<TimeSeriesDTO>> timeSeriesMap = new HashMap<>();
+        Map<String, SpcEngine.Series> seriesMap = new HashMap<>();
         for (String fieldName : wantedLimits) {
-            timeSeriesMap.put(fieldName, new ArrayList<>());
+            seriesMap.put(fieldName, new SpcEngine.Series());
         }
 
         // Mongo filter
@@ -98,24 +108,18 @@ public class SPCServiceImpl implements SPCService {
                 Filters.lte("created_at", end)
         );
 
-        // build time series map using field as keys
-        for (String collectionName : collectionNames) {
-            MongoCollection<Document> collection = database.getCollection(collectionName);
-            for (Document doc : collection.find(filter)) {
-                Timestamp createdAt = Timestamp.from(doc.getDate("created_at").toInstant());
-                for (String wantedField : wantedLimits) {
-                    if (doc.get(wantedField) != null) {
-                        Double value = ((Number) doc.get(wantedField)).doubleValue();
-                        TimeSeriesDTO timeSeriesDTO = new TimeSeriesDTO();
-                        timeSeriesDTO.setTimestamp(createdAt);
-                        timeSeriesDTO.setValue(value);
-
-                        timeSeriesMap.get(wantedField).add(timeSeriesDTO);
-                    }
-                }
-            }
+        // build time series per collection in parallel, then append them in month order
+        List<String> fields = wantedLimits;
+        List<Map<String, SpcEngine.Series>> partitionSeries = partitionQueryExecutor.map(collectionNames,
+                collectionName -> readSeries(database.getCollection(collectionName), filter, fields));
+        for (Map<String, SpcEngine.Series> series : partitionSeries) {
+            series.forEach((fieldName, points) -> seriesMap.get(fieldName).addAll(points));
         }
 
+        boolean includePoints = !Boolean.FALSE.equals(request.getIncludePoints());
+        int subgroupSize = request.getSubgroupSize() != null ? request.getSubgroupSize() : 1;
+        long bucketMillis = request.getSubgroupMinutes() != null ? request.getSubgroupMinutes() * 60_000L : 0L;
+
         // build SPCDTO to append to return list
         for (String fieldName : wantedLimits) {
             SPCDTO spcdto = new SPCDTO();
@@ -128,39 +132,51 @@ public class SPCServiceImpl implements SPCService {
             );
             spcdto.setLimits(limits);
 
-            List<TimeSeriesDTO> timeSeriesList = timeSeriesMap.get(fieldName);
-            spcdto.setTimeSeries(timeSeriesList);
-            spcdto.setTimeSeriesCount(timeSeriesList.size());
+            SpcEngine.Series series = seriesMap.get(fieldName);
+            spcdto.setTimeSeriesCount(series.size());
+            if (includePoints) {
+                spcdto.setTimeSeries(SpcEngine.toTimeSeries(series, request.getMaxPoints()));
+            }
+
+            SpcEngine.Result result = SpcEngine.compute(series, new SpcEngine.Options(subgroupSize, bucketMillis,
+                    start.getTime(), limits.getLowLimit(), limits.getMaxLimit(), request.getMaxPoints(), includePoints));
+            spcdto.setSummary(result.getSummary());
+            spcdto.setChart(result.getChart());
 
             spcList.add(spcdto);
         }
         return spcList;
     }
 
-    private List<String> generateCollectionNames(Long formTemplateId, Timestamp startDateTime, Timestamp endDateTime) {
-        List<String> collectionNames = new ArrayList<>();
-        MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
+    private Map<String, SpcEngine.Series> readSeries(MongoCollection<Document> collection, Bson filter,
+                                                     List<String> wantedFields) {
+        Map<String, SpcEngine.Series> seriesMap = new HashMap<>();
+        for (String fieldName : wantedFields) {
+            seriesMap.put(fieldName, new SpcEngine.Series());
+        }
+
+        // Only the wanted fields, in time order (served by the created_at index) so moving ranges are meaningful
+        List<String> projected = new ArrayList<>(wantedFields);
+        projected.add("created_at");
+        for (Document doc : collection.find(filter)
+                .projection(Projections.include(projected))
+                .sort(Sorts.ascending("created_at", "_id"))) {
+            long createdAt = doc.getDate("created_at").getTime();
+            for (String wantedField : wantedFields) {
+                if (doc.get(wantedField) instanceof Number value) {
+                    seriesMap.get(wantedField).add(createdAt, value.doubleValue());
+                }
+            }
+        }
+        return seriesMap;
+    }
 
+    private List<String> generateCollectionNames(Long formTemplateId, Timestamp startDateTime, Timestamp endDateTime) {
         // Convert timestamps to YYYYMM format
         SimpleDateFormat yearMonthFormat = new SimpleDateFormat("yyyyMM");
         int startYearMonth = Integer.parseInt(yearMonthFormat.format(startDateTime));
         int endYearMonth = Integer.parseInt(yearMonthFormat.format(endDateTime));
 
-        for (String collectionName : database.listCollectionNames()) {
-            // Extract YYYYMM from collection name
-            String pattern = "form_template_" + formTemplateId + "_(\\d{6})";
-            java.util.regex.Matcher matcher = java.util.regex.Pattern.compile(pattern).matcher(collectionName);
-
-            if (matcher.matches()) {
-                int collectionYearMonth = Integer.parseInt(matcher.group(1));
-
-                // Check if collection is within the time range
-                if (collectionYearMonth >= startYearMonth && collectionYearMonth <= endYearMonth) {
-                    collectionNames.add(collectionName);
-                }
-            }
-        }
-
-        return collectionNames;
+        return formCollectionCatalog.getCollectionNames(formTemplateId, startYearMonth, endYearMonth);
     }
 }
@@ -0,0 +1,64 @@
+package com.fps.svmes.services.impl;
+
+import com.fps.svmes.dto.dtos.notification.NotificationDTO;
+import com.fps.svmes.services.NotificationChannel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Logs deliveries and keeps the last few in memory instead of sending them. With notifications.stub set, every
+ * channel delivers here, for tests and local runs.
+ */
+@Slf4j
+@Service
+public class StubNotificationChannel implements NotificationChannel {
+
+    public static final String NAME = "stub";
+
+    private static final int MAX_KEPT = 1000;
+
+    private final LinkedList<NotificationDTO> sent = new LinkedList<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return 100;
+    }
+
+    @Override
+    public double getRatePerSecond() {
+        return 1000;
+    }
+
+    @Override
+    public void send(String recipient, List<NotificationDTO> messages) {
+        log.info("Notification to {} via {}: {} message(s), first: {}", recipient, messages.get(0).getChannel(),
+                messages.size(), messages.get(0).getSubject());
+        synchronized (sent) {
+            sent.addAll(messages);
+            while (sent.size() > MAX_KEPT) {
+                sent.removeFirst();
+            }
+        }
+    }
+
+    public List<NotificationDTO> getSent() {
+        synchronized (sent) {
+            return new ArrayList<>(sent);
+        }
+    }
+
+    public void clear() {
+        synchronized (sent) {
+            sent.clear();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.fps.svmes.services.impl;
+
+import com.fps.svmes.dto.dtos.alert.AlertRecordDTO;
+import com.fps.svmes.dto.dtos.qcForm.QcApprovalAssignmentDTO;
+import com.fps.svmes.services.*;
+import com.fps.svmes.utils.MongoFormDataQueryUtils;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mongodb.client.model.Filters.*;
+
+/**
+ * Events live in the submission_outbox collection, keyed by the submission _id, so each submission has exactly one.
+ * Every side effect is a step recorded in done_steps once it succeeded, and the steps themselves are idempotent
+ * on the submission id (an existing assignment is kept, rollup rows record the submission's operation, alerts are
+ * marked per submission), so a step retried after a crash before its done_steps mark never repeats its work.
+ */
+@Slf4j
+@Service
+public class SubmissionOutboxServiceImpl implements SubmissionOutboxService, DisposableBean {
+
+    private static final String COLLECTION = "submission_outbox";
+
+    private static final String TYPE_CREATED = "created";
+    private static final String TYPE_EDITED = "edited";
+
+    private static final String STATUS_PENDING = "pending";
+    private static final String STATUS_PROCESSING = "processing";
+    private static final String STATUS_DONE = "done";
+    private static final String STATUS_FAILED = "failed";
+
+    private static final String STEP_LATEST = "latest";
+    private static final String STEP_ROLLUP = "rollup";
+    private static final String STEP_APPROVAL = "approval";
+    private static final String STEP_SNAPSHOT = "snapshot";
+    private static final String STEP_ALERTS = "alerts";
+
+    // The poller leaves fresh events to publish(), it only picks up what a crashed request never published
+    private static final long PUBLISH_GRACE_MILLIS = 30_000L;
+    // A claimed event whose worker died is retried after this
+    private static final long LEASE_MILLIS = 300_000L;
+    // An event whose submission never appeared (the insert failed) is given up after this
+    private static final long ORPHAN_MILLIS = 600_000L;
+    private static final long RETRY_BASE_MILLIS = 2_000L;
+    private static final long RETRY_MAX_MILLIS = 600_000L;
+    private static final int POLL_LIMIT = 100;
+
+    private final MongoTemplate mongoTemplate;
+    private final FormRollupService formRollupService;
+    private final QcApprovalAssignmentService qcApprovalAssignmentService;
+    private final QcFormTemplateService qcFormTemplateService;
+    private final QcSnapshotSubmissionService qcSnapshotSubmissionService;
+    private final ControlLimitEvaluationService controlLimitEvaluationService;
+    private final AlertRecordService alertRecordService;
+
+    private final ThreadPoolExecutor executor;
+    private final boolean async;
+    private final int maxAttempts;
+
+    private final AtomicLong lagSeconds = new AtomicLong();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final Timer processTimer;
+    private final Counter doneCounter;
+    private final Counter retryCounter;
+    private final Counter failedCounter;
+
+    @Autowired
+    public SubmissionOutboxServiceImpl(MongoTemplate mongoTemplate,
+                                       FormRollupService formRollupService,
+                                       QcApprovalAssignmentService qcApprovalAssignmentService,
+                                       QcFormTemplateService qcFormTemplateService,
+                                       QcSnapshotSubmissionService qcSnapshotSubmissionService,
+                                       ControlLimitEvaluationService controlLimitEvaluationService,
+                                       AlertRecordService alertRecordService,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${submission.outbox.async:true}") boolean async,
+                                       @Value("${submission.outbox.worker-threads:4}") int workerThreads,
+                                       @Value("${submission.outbox.queue-capacity:1000}") int queueCapacity,
+                                       @Value("${submission.outbox.max-attempts:10}") int maxAttempts) {
+        this.mongoTemplate = mongoTemplate;
+        this.formRollupService = formRollupService;
+        this.qcApprovalAssignmentService = qcApprovalAssignmentService;
+        this.qcFormTemplateService = qcFormTemplateService;
+        this.qcSnapshotSubmissionService = qcSnapshotSubmissionService;
+        this.controlLimitEvaluationService = controlLimitEvaluationService;
+        this.alertRecordService = alertRecordService;
+        this.async = async;
+        this.maxAttempts = Math.max(1, maxAttempts);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workerThreads, workerThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "submission-outbox-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                // Full queue: the event stays pending and the poller submits it later
+                new ThreadPoolExecutor.DiscardPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("submission.outbox.lag", lagSeconds, AtomicLong::get)
+                .description("Age in seconds of the oldest unprocessed submission event")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("submission.outbox.pending", pendingCount, AtomicLong::get)
+                .description("Submission events waiting to be processed")
+                .register(meterRegistry);
+        this.processTimer = Timer.builder("submission.outbox.process")
+                .description("Time spent processing one submission event")
+                .register(meterRegistry);
+        this.doneCounter = Counter.builder("submission.outbox.events").tag("outcome", "done").register(meterRegistry);
+        this.retryCounter = Counter.builder("submission.outbox.events").tag("outcome", "retry").register(meterRegistry);
+        this.failedCounter = Counter.builder("submission.outbox.events").tag("outcome", "failed").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        try {
+            MongoCollection<Document> collection = getCollection();
+            collection.createIndex(Indexes.ascending("status", "next_attempt_at"),
+                    new IndexOptions().name("idx_status_next_attempt_at"));
+            // Finished events are kept a week for troubleshooting, failed ones until someone looks at them
+            collection.createIndex(Indexes.ascending("completed_at"),
+                    new IndexOptions().name("idx_completed_at_ttl").expireAfter(7L, TimeUnit.DAYS));
+        } catch (Exception e) {
+            log.warn("Failed to ensure indexes on {}: {}", COLLECTION, e.getMessage());
+        }
+    }
+
+    @Override
+    public void recordCreated(ObjectId submissionId, String collectionName, Long formTemplateId, Long userId) {
+        record(submissionId, TYPE_CREATED, collectionName, formTemplateId, userId, null);
+    }
+
+    @Override
+    public void recordEdited(ObjectId submissionId, String parentSubmissionId, String collectionName,
+                             Long formTemplateId, Long userId) {
+        record(submissionId, TYPE_EDITED, collectionName, formTemplateId, userId, parentSubmissionId);
+    }
+
+    private void record(ObjectId submissionId, String type, String collectionName, Long formTemplateId,
+                        Long userId, String parentSubmissionId) {
+        Date now = new Date();
+        Document event = new Document("_id", submissionId)
+                .append("type", type)
+                .append("collection", collectionName)
+                .append("template_id", formTemplateId)
+                .append("user_id", userId)
+                .append("parent_id", parentSubmissionId)
+                .append("status", STATUS_PENDING)
+                .append("attempts", 0)
+                .append("done_steps", new ArrayList<String>())
+                .append("created_at", now)
+                .append("next_attempt_at", new Date(now.getTime() + PUBLISH_GRACE_MILLIS));
+        getCollection().insertOne(event);
+    }
+
+    @Override
+    public void publish(ObjectId submissionId) {
+        if (!async) {
+            claimAndProcess(submissionId, true);
+            return;
+        }
+        executor.execute(() -> claimAndProcess(submissionId, true));
+    }
+
+    @Override
+    public void discard(ObjectId submissionId) {
+        try {
+            getCollection().deleteOne(and(eq("_id", submissionId), eq("status", STATUS_PENDING)));
+        } catch (Exception e) {
+            log.warn("Failed to discard submission event {}: {}", submissionId, e.getMessage());
+        }
+    }
+
+    /**
+     * Picks up events that are due for a retry, were never published, or whose worker died, and refreshes the
+     * lag metrics.
+     */
+    @Scheduled(fixedDelayString = "${submission.outbox.poll-interval-ms:1000}",
+            initialDelayString = "${submission.outbox.poll-interval-ms:1000}")
+    public void poll() {
+        try {
+            MongoCollection<Document> collection = getCollection();
+            Document oldest = collection.find(in("status", STATUS_PENDING, STATUS_PROCESSING))
+                    .sort(Sorts.ascending("created_at"))
+                    .projection(Projections.include("created_at"))
+                    .first();
+            lagSeconds.set(oldest == null ? 0 : (System.currentTimeMillis() - oldest.getDate("created_at").getTime()) / 1000);
+            pendingCount.set(oldest == null ? 0 : collection.countDocuments(in("status", STATUS_PENDING, STATUS_PROCESSING)));
+            if (oldest == null) {
+                return;
+            }
+
+            int limit = Math.min(POLL_LIMIT, executor.getQueue().remainingCapacity());
+            if (limit <= 0) {
+                return;
+            }
+            for (Document due : collection.find(claimable(new Date(), false))
+                    .sort(Sorts.ascending("next_attempt_at"))
+                    .projection(Projections.include("_id"))
+                    .limit(limit)) {
+                ObjectId id = due.getObjectId("_id");
+                executor.execute(() -> claimAndProcess(id, false));
+            }
+        } catch (Exception e) {
+            log.warn("Submission outbox poll failed: {}", e.getMessage());
+        }
+    }
+
+    private Bson claimable(Date now, boolean ignoreSchedule) {
+        Bson pending = ignoreSchedule
+                ? eq("status", STATUS_PENDING)
+                : and(eq("status", STATUS_PENDING), lte("next_attempt_at", now));
+        return or(pending, and(eq("status", STATUS_PROCESSING), lt("locked_until", now)));
+    }
+
+    private void claimAndProcess(ObjectId submissionId, boolean ignoreSchedule) {
+        Date now = new Date();
+        Document event;
+        try {
+            event = getCollection().findOneAndUpdate(
+                    and(eq("_id", submissionId), claimable(now, ignoreSchedule)),
+                    Updates.combine(
+                            Updates.set("status", STATUS_PROCESSING),
+                            Updates.set("locked_until", new Date(now.getTime() + LEASE_MILLIS)),
+                            Updates.inc("attempts", 1)),
+                    new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        } catch (Exception e) {
+            log.warn("Failed to claim submission event {}: {}", submissionId, e.getMessage());
+            return;
+        }
+        if (event == null) {
+            // Already processed, or claimed by another worker or instance
+            return;
+        }
+
+        processTimer.record(() -> {
+            try {
+                process(event);
+            } catch (Exception e) {
+                retryOrFail(event, e.getMessage());
+            }
+        });
+    }
+
+    private void process(Document event) {
+        ObjectId submissionId = event.getObjectId("_id");
+        String collectionName = event.getString("collection");
+        Document submission = mongoTemplate.findById(submissionId, Document.class, collectionName);
+        if (submission == null) {
+            if (System.currentTimeMillis() - event.getDate("created_at").getTime() > ORPHAN_MILLIS) {
+                finish(submissionId, STATUS_FAILED, "submission not found in " + collectionName);
+                failedCounter.increment();
+            } else {
+                // The insert may not have completed yet
+                retryOrFail(event, "submission not found yet");
+            }
+            return;
+        }
+
+        Long formTemplateId = ((Number) event.get("template_id")).longValue();
+        Long userId = ((Number) event.get("user_id")).longValue();
+        String parentId = event.getString("parent_id");
+        Set<String> doneSteps = new HashSet<>(event.getList("done_steps", String.class, Collections.emptyList()));
+
+        if (TYPE_EDITED.equals(event.getString("type"))) {
+            // The edit demotes the previous versions after its insert; redo it in case that write was lost
+            runStep(submissionId, doneSteps, STEP_LATEST, () -> {
+                String versionGroupId = submission.getString("version_group_id");
+                if (versionGroupId != null) {
+                    MongoFormDataQueryUtils.reconcileLatest(mongoTemplate.getCollection(collectionName), versionGroupId);
+                }
+            });
+            runStep(submissionId, doneSteps, STEP_ROLLUP, () -> {
+                Document parent = mongoTemplate.findById(new ObjectId(parentId), Document.class, collectionName);
+                if (parent != null) {
+                    formRollupService.applyEdit(formTemplateId, parent, submission);
+                } else {
+                    formRollupService.applySubmission(formTemplateId, submission);
+                }
+            });
+            // Point the approval assignment to the new submission id
+            runStep(submissionId, doneSteps, STEP_APPROVAL,
+                    () -> qcApprovalAssignmentService.updateSubmissionId(parentId, submissionId.toString()));
+            // The new version is picked up by the next snapshot run
+            runStep(submissionId, doneSteps, STEP_SNAPSHOT,
+                    () -> qcSnapshotSubmissionService.deleteBySubmissionId(parentId));
+        } else {
+            runStep(submissionId, doneSteps, STEP_ROLLUP,
+                    () -> formRollupService.applySubmission(formTemplateId, submission));
+            runStep(submissionId, doneSteps, STEP_APPROVAL,
+                    () -> createApprovalAssignment(submissionId.toString(), formTemplateId, collectionName));
+        }
+        runStep(submissionId, doneSteps, STEP_ALERTS,
+                () -> createAlerts(submissionId.toString(), formTemplateId, userId, submission));
+
+        finish(submissionId, STATUS_DONE, null);
+        doneCounter.increment();
+    }
+
+    private void runStep(ObjectId submissionId, Set<String> doneSteps, String step, Runnable action) {
+        if (doneSteps.contains(step)) {
+            return;
+        }
+        action.run();
+        getCollection().updateOne(eq("_id", submissionId), Updates.addToSet("done_steps", step));
+        doneSteps.add(step);
+    }
+
+    private void createApprovalAssignment(String submissionId, Long formTemplateId, String collectionName) {
+        String approvalType = qcFormTemplateService.getApprovalTypeByFormId(formTemplateId);
+
+        QcApprovalAssignmentDTO assignmentDTO = new QcApprovalAssignmentDTO();
+        assignmentDTO.setSubmissionId(submissionId);
+        assignmentDTO.setQcFormTemplateId(formTemplateId);
+        assignmentDTO.setQcFormTemplateName(qcFormTemplateService.getTemplateById(formTemplateId).getName());
+        assignmentDTO.setMongoCollection(collectionName);
+        assignmentDTO.setApprovalType(approvalType);
+        assignmentDTO.setState(QcApprovalAssignmentService.initialState(approvalType));
+        qcApprovalAssignmentService.insertIfNotExists(assignmentDTO);
+    }
+
+    /**
+     * createAllForSubmission saves the submission's alerts at most once, whether they were inserted or counted on
+     * an open alert, so a retry of this step doesn't repeat them.
+     */
+    private void createAlerts(String submissionId, Long formTemplateId, Long userId, Document submission) {
+        List<AlertRecordDTO> alerts = new ArrayList<>(controlLimitEvaluationService
+                .evaluate(formTemplateId, userId, submission, submissionId)
+                .getAlerts());
+        alerts.addAll(controlLimitEvaluationService.evaluateRules(formTemplateId, userId, submission));
+        alertRecordService.createAllForSubmission(submissionId, alerts);
+        // Only once saved, so a failed save is evaluated again on retry
+        controlLimitEvaluationService.recordRules(formTemplateId, submission);
+    }
+
+    private void retryOrFail(Document event, String reason) {
+        ObjectId submissionId = event.getObjectId("_id");
+        int attempts = event.getInteger("attempts", 1);
+        try {
+            if (attempts >= maxAttempts) {
+                log.error("Submission event {} failed after {} attempts: {}", submissionId, attempts, reason);
+                finish(submissionId, STATUS_FAILED, reason);
+                failedCounter.increment();
+                return;
+            }
+            long delay = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempts - 1, 20));
+            log.warn("Submission event {} attempt {} failed, retrying in {} ms: {}", submissionId, attempts, delay, reason);
+            getCollection().updateOne(eq("_id", submissionId), Updates.combine(
+                    Updates.set("status", STATUS_PENDING),
+                    Updates.set("next_attempt_at", new Date(System.currentTimeMillis() + delay)),
+                    Updates.set("last_error", reason),
+                    Updates.unset("locked_until")));
+            retryCounter.increment();
+        } catch (Exception e) {
+            // The lease expires and the poller picks the event up again
+            log.error("Failed to reschedule submission event {}", submissionId, e);
+        }
+    }
+
+    private void finish(ObjectId submissionId, String status, String reason) {
+        List<Bson> updates = new ArrayList<>();
+        updates.add(Updates.set("status", status));
+        updates.add(Updates.unset("locked_until"));
+        if (STATUS_DONE.equals(status)) {
+            updates.add(Updates.set("completed_at", new Date()));
+        } else {
+            updates.add(Updates.set("last_error", reason));
+        }
+        getCollection().updateOne(eq("_id", submissionId), Updates.combine(updates));
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoTemplate.getCollection(COLLECTION);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
@@ -1,283 +1,333 @@
 package com.fps.svmes.services.impl;
 
+import com.cronutils.model.CronType;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.model.time.ExecutionTime;
+import com.cronutils.parser.CronParser;
 import com.fps.svmes.models.sql.taskSchedule.DispatchState;
+import com.fps.svmes.models.sql.taskSchedule.MisfirePolicy;
 import com.fps.svmes.models.sql.taskSchedule.TaskType;
 
 import com.fps.svmes.models.sql.taskSchedule.Dispatch;
 import com.fps.svmes.repositories.jpaRepo.dispatch.DispatchRepository;
 import com.fps.svmes.services.TaskScheduleService;
-import jakarta.persistence.EntityNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.TaskScheduler;
-import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Dispatch schedules live in dispatch.next_fire_at: scheduling a dispatch computes its first fire time from the
+ * cron expression (or its custom time), and DispatchScheduler polls the due ones and fires them here, advancing
+ * next_fire_at in the same transaction as the execution. Nothing is held in memory, so schedules survive restarts.
+ */
 @Service
 @Transactional
 public class TaskScheduleServiceImpl implements TaskScheduleService {
 
-    @Autowired
-    private TaskScheduler taskScheduler;
+    private static final CronParser CRON_PARSER =
+            new CronParser(CronDefinitionBuilder.instanceDefinitionFor(CronType.SPRING53));
 
     @Autowired
     private DispatchRepository dispatchRepo;
 
-    // Map to track scheduled tasks by dispatch ID
-    private final Map<Long, Map<TaskType, ScheduledFuture<?>>> tasks = new ConcurrentHashMap<>();
-    // Centralized state management
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // A fire later than this is a misfire and follows the dispatch's misfire policy
+    @Value("${dispatch.scheduler.misfire-threshold-ms:60000}")
+    private long misfireThresholdMillis;
+
+    // Runs per misfire for CATCH_UP dispatches without their own limit
+    @Value("${dispatch.scheduler.default-catch-up-limit:10}")
+    private int defaultCatchUpLimit;
+
+    // Deadline of a fire's transaction; DispatchScheduler interrupts a fire still running after it
+    @Value("${dispatch.scheduler.fire-timeout-seconds:300}")
+    private int fireTimeoutSeconds;
+
+    // A failed fire is retried after the backoff, doubled per failure in a row up to the max
+    @Value("${dispatch.scheduler.failure-backoff-seconds:60}")
+    private long failureBackoffSeconds;
+
+    @Value("${dispatch.scheduler.max-failure-backoff-seconds:3600}")
+    private long maxFailureBackoffSeconds;
+
+    // Failures in a row after which the dispatch is set to invalid
+    @Value("${dispatch.scheduler.max-fire-failures:5}")
+    private int maxFireFailures;
+
     private static final Logger logger = LoggerFactory.getLogger(TaskScheduleServiceImpl.class);
 
     /**
-     * Schedule a dispatch task if it's active and within the defined period.
+     * Set the first fire time of a dispatch and mark it active: the next cron time after its start time (or now)
+     * for a regular dispatch, the custom time for a custom one. A custom time in the past fires on the next poll.
      *
      * @param dispatch the dispatch entity containing scheduling details.
-     * @param task     the task to be executed.
      */
-    public void scheduleDispatch(Dispatch dispatch, Runnable task) {
-
-        // 1. schedule a cron periodic task for this dispatch
-        setupCronTask(dispatch, task);
-        setupCancelTask(dispatch);
+    @Override
+    public void scheduleDispatch(Dispatch dispatch) {
+        OffsetDateTime now = OffsetDateTime.now();
+        dispatch.setRetryAt(null);
+
+        if ("regular".equals(dispatch.getType())) {
+            OffsetDateTime from = dispatch.getStartTime().isAfter(now) ? dispatch.getStartTime() : now;
+            OffsetDateTime next = nextFireTime(dispatch.getCronExpression(), from);
+            if (next == null || (dispatch.getEndTime() != null && next.isAfter(dispatch.getEndTime()))) {
+                logger.info("Dispatch ID {} has no cron time before its end time. Skipping scheduling.", dispatch.getId());
+                dispatch.setNextFireAt(null);
+                dispatch.setState(DispatchState.Inactive.getState());
+                dispatchRepo.save(dispatch);
+                return;
+            }
+            dispatch.setNextFireAt(next);
+        } else {
+            dispatch.setNextFireAt(dispatch.getCustomTime());
+        }
 
-        // set as is active since it has cron task scheduled.
         dispatch.setState(DispatchState.Active.getState());
-        logger.info("Set dispatch with ID: {} as active", dispatch.getId());
+        logger.info("Set dispatch with ID: {} as active, next fire at {}", dispatch.getId(), dispatch.getNextFireAt());
         dispatchRepo.save(dispatch);
     }
 
-    public void setupCronTask(Dispatch dispatch, Runnable task){
-        CronTrigger ct = new CronTrigger(dispatch.getCronExpression());
-        ScheduledFuture<?> cronFuture = taskScheduler.schedule(task, ct);
-
-        if (cronFuture != null) {
-            // track this cron runnable in tasks map
-            addTask(dispatch.getId(), TaskType.CRON, cronFuture);
-        } else {
-            throw new IllegalStateException("Failed to schedule cron periodic task for Dispatch ID: " + dispatch.getId());
+    /**
+     * Clear the fire time of a dispatch; its state is left to the caller.
+     *
+     * @return true if the dispatch was scheduled.
+     */
+    @Override
+    public boolean unscheduleDispatch(Long dispatchId) {
+        Dispatch dispatch = dispatchRepo.findById(dispatchId).orElse(null);
+        if (dispatch == null || dispatch.getNextFireAt() == null) {
+            return false;
         }
+        dispatch.setNextFireAt(null);
+        dispatch.setRetryAt(null);
+        dispatchRepo.save(dispatch);
+        logger.info("Unscheduled dispatch id {}", dispatchId);
+        return true;
     }
 
-    public void setupCancelTask(Dispatch dispatch){
-        Runnable cancelRunnable = ()->{
-            removeTask(dispatch.getId(), TaskType.CRON);
-            removeTask(dispatch.getId(), TaskType.CANCEL);
-
-            // set the dispatch is active to false since all tasks is canceled
-            Dispatch d = dispatchRepo.findById(dispatch.getId())
-                    .orElseThrow(() -> new EntityNotFoundException("Dispatch not found"));
-            d.setState(DispatchState.Inactive.getState());
-            d.setUpdatedAt(OffsetDateTime.now());
-            dispatchRepo.save(d);
-        };
-
-        // 2. schedule a cancel task at the end time with 30 seconds delay for this dispatch
-        ScheduledFuture<?> cancelFuture = taskScheduler.schedule(cancelRunnable, dispatch.getEndTime().plusSeconds(30).toInstant());
-
-        // track this cancel runnable in tasks map
-        addTask(dispatch.getId(), TaskType.CANCEL, cancelFuture);
+    @Override
+    @Transactional(readOnly = true)
+    public List<Long> findDueDispatchIds(int limit) {
+        return dispatchRepo.findDueIds(DispatchState.Active.getState(), OffsetDateTime.now(), PageRequest.of(0, limit));
     }
 
     /**
-     * Schedule a dispatch task if it's defined period is in the future.
+     * Advance next_fire_at past now and run the dispatch in one transaction holding the dispatch row lock, so the
+     * advance commits only together with the execution and each fire runs exactly once. A dispatch locked by another
+     * instance, unscheduled or already advanced since it was polled is left alone. A fire that fails, or whose
+     * instance dies before it commits, rolls back with its advance and stays due; a failure is then counted in a new
+     * transaction and the fire retried after a backoff, and after max-fire-failures in a row the dispatch becomes
+     * invalid. A misfired regular dispatch runs according to its misfire policy; a custom dispatch runs once and
+     * becomes inactive.
      *
-     * @param dispatch the dispatch entity containing scheduling details.
-     * @param task     the task to be executed.
+     * @param dispatchId the dispatch to fire.
+     * @param execution  runs the dispatch once (inserts its dispatched tasks).
      */
     @Override
-    public void scheduleFutureDispatch(Dispatch dispatch, Runnable task) {
-        if (dispatch.getStartTime().isBefore(OffsetDateTime.now())) {
-            throw new IllegalArgumentException("Dispatch start time must be in the future");
-        }
-
-        if (!isScheduled(dispatch.getId())) {
-            Runnable scheduleCronTaskAndCancelTask = ()->{
-                CronTrigger ct = new CronTrigger(dispatch.getCronExpression());
-                ScheduledFuture<?> cronFuture = taskScheduler.schedule(task, ct);
-
-                if (cronFuture != null) {
-                    addTask(dispatch.getId(), TaskType.CRON, cronFuture);
-                } else {
-                    throw new IllegalStateException("Failed to schedule cron periodic task for Dispatch ID: " + dispatch.getId());
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void fireDispatch(Long dispatchId, Consumer<Long> execution) {
+        TransactionTemplate fireTransaction = new TransactionTemplate(transactionManager);
+        fireTransaction.setTimeout(fireTimeoutSeconds);
+        try {
+            fireTransaction.executeWithoutResult(status -> {
+                int runs = claim(dispatchId);
+                for (int i = 0; i < runs; i++) {
+                    execution.accept(dispatchId);
                 }
+            });
+        } catch (RuntimeException e) {
+            // The fire rolled back with its advance; count the failure on its own
+            TransactionTemplate failureTransaction = new TransactionTemplate(transactionManager);
+            failureTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            failureTransaction.executeWithoutResult(status -> recordFailure(dispatchId, e));
+        }
+    }
 
+    /**
+     * Lock the dispatch if it is still due, advance its next_fire_at and clear its failure count and retry time; all
+     * only commit with the execution.
+     *
+     * @return the runs of this fire, 0 when the dispatch is not claimed.
+     */
+    private int claim(Long dispatchId) {
+        OffsetDateTime now = OffsetDateTime.now();
+        Dispatch dispatch = dispatchRepo.lockDue(dispatchId, DispatchState.Active.getState(), now).orElse(null);
+        if (dispatch == null) {
+            return 0;
+        }
 
-                ScheduledFuture<?> cancelFuture = taskScheduler.schedule(()->{
-                    removeTask(dispatch.getId(), TaskType.CRON);
-                    removeTask(dispatch.getId(), TaskType.CANCEL);
-                    // set the dispatch is active to false since all tasks is canceled
-                    Dispatch d = dispatchRepo.findById(dispatch.getId())
-                            .orElseThrow(() -> new EntityNotFoundException("Dispatch not found"));
-                    d.setState(DispatchState.Inactive.getState());
-                    d.setUpdatedAt(OffsetDateTime.now());
-                    dispatchRepo.save(d);
-                }, dispatch.getEndTime().plusSeconds(30).toInstant());
-
-                addTask(dispatch.getId(), TaskType.CANCEL, cancelFuture);
-                removeTask(dispatch.getId(), TaskType.FUTURE);
-                // set as is active since it has cron task scheduled.
-                dispatch.setState(DispatchState.Active.getState());
-                logger.info("Set dispatch with ID: {} as active", dispatch.getId());
+        int runs = 1;
+        OffsetDateTime next = null;
+        if ("regular".equals(dispatch.getType())) {
+            try {
+                runs = runsFor(dispatch, now);
+                next = nextFireTime(dispatch.getCronExpression(), now);
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid cron expression for Dispatch ID: {}, set dispatch to invalid", dispatchId, e);
+                dispatch.setNextFireAt(null);
+                dispatch.setState(DispatchState.Invalid.getState());
                 dispatchRepo.save(dispatch);
-            };
-
-            ScheduledFuture<?> futureTask = taskScheduler.schedule(scheduleCronTaskAndCancelTask, dispatch.getStartTime().toInstant());
-            addTask(dispatch.getId(), TaskType.FUTURE, futureTask);
+                return 0;
+            }
+            if (next != null && dispatch.getEndTime() != null && next.isAfter(dispatch.getEndTime())) {
+                next = null;
+            }
+        }
 
-        } else {
-            logger.warn("Dispatch ID {} is already scheduled for future execution.", dispatch.getId());
+        dispatch.setNextFireAt(next);
+        if (next == null) {
+            // Last run of the dispatch; executeDispatch may still mark it exhausted
+            dispatch.setState(DispatchState.Inactive.getState());
         }
+        dispatch.setFireFailures(0);
+        dispatch.setRetryAt(null);
+        dispatch.setUpdatedAt(now);
+        dispatchRepo.save(dispatch);
+        return runs;
     }
 
-    public void scheduleCustomDispatch(Dispatch dispatch, Runnable task) {
-        if (dispatch.getCustomTime().isBefore(OffsetDateTime.now())) {
-            task.run();
-
-            dispatch.setState(DispatchState.Inactive.getState());
-            dispatchRepo.save(dispatch);
+    /**
+     * Count a failed fire: retry it after the backoff, or make the dispatch invalid once it has failed
+     * max-fire-failures times in a row. next_fire_at still holds the missed fire time, so a retried misfire catches
+     * up the same runs.
+     */
+    private void recordFailure(Long dispatchId, RuntimeException cause) {
+        Dispatch dispatch = dispatchRepo.findById(dispatchId).orElse(null);
+        if (dispatch == null) {
             return;
         }
+        OffsetDateTime now = OffsetDateTime.now();
+        int failures = (dispatch.getFireFailures() != null ? dispatch.getFireFailures() : 0) + 1;
+        dispatch.setFireFailures(failures);
+        dispatch.setUpdatedAt(now);
+        if (failures >= maxFireFailures) {
+            logger.error("Error executing Dispatch ID: {}, failed {} times in a row, set dispatch to invalid",
+                    dispatchId, failures, cause);
+            dispatch.setNextFireAt(null);
+            dispatch.setRetryAt(null);
+            dispatch.setState(DispatchState.Invalid.getState());
+        } else if (dispatch.getState() == DispatchState.Active.getState()) {
+            // Paused or otherwise changed meanwhile is left as is
+            long backoffSeconds = Math.min(failureBackoffSeconds << Math.min(failures - 1, 20), maxFailureBackoffSeconds);
+            logger.warn("Error executing Dispatch ID: {} ({} of {} failures), retrying in {} s: {}",
+                    dispatchId, failures, maxFireFailures, backoffSeconds, cause.toString());
+            dispatch.setRetryAt(now.plusSeconds(backoffSeconds));
+        }
+        dispatchRepo.save(dispatch);
+    }
 
-        // custom time is in the future
-        ScheduledFuture<?> sf = taskScheduler.schedule(()->
-        {
-            // Insert rows to dispatched task table
-            task.run();
-
-            Dispatch d = dispatchRepo.findById(dispatch.getId())
-                    .orElseThrow(() -> new EntityNotFoundException("Dispatch not found"));
-
-            // Set dispatch as inactive as custom dispatch only execute once.
-            d.setState(DispatchState.Inactive.getState());
-
-            d.setUpdatedAt(OffsetDateTime.now());
-            dispatchRepo.save(d);
-
-            // Remove task from audit map since it is completed
-            removeTask(dispatch.getId(), TaskType.CUSTOM);
-        }, dispatch.getCustomTime().toInstant());
-
-        addTask(dispatch.getId(), TaskType.CUSTOM, sf);
+    private int runsFor(Dispatch dispatch, OffsetDateTime now) {
+        long lateMillis = Duration.between(dispatch.getNextFireAt(), now).toMillis();
+        if (lateMillis <= misfireThresholdMillis) {
+            return 1;
+        }
+        MisfirePolicy policy = dispatch.getMisfirePolicy() != null
+                ? dispatch.getMisfirePolicy() : MisfirePolicy.FIRE_ONCE;
+        logger.warn("Dispatch ID {} misfired by {} ms, applying {}", dispatch.getId(), lateMillis, policy);
+        switch (policy) {
+            case SKIP:
+                return 0;
+            case CATCH_UP:
+                int limit = dispatch.getMisfireCatchUpLimit() != null
+                        ? dispatch.getMisfireCatchUpLimit() : defaultCatchUpLimit;
+                int missed = 0;
+                OffsetDateTime fireTime = dispatch.getNextFireAt();
+                while (fireTime != null && !fireTime.isAfter(now) && missed < limit
+                        && (dispatch.getEndTime() == null || !fireTime.isAfter(dispatch.getEndTime()))) {
+                    missed++;
+                    fireTime = nextFireTime(dispatch.getCronExpression(), fireTime);
+                }
+                return missed;
+            default:
+                return 1;
+        }
+    }
 
-        // Set dispatch as active now that custom dispatch is scheduled
-        dispatch.setState(DispatchState.Active.getState());
-        logger.info("Set dispatch with ID: {} as active", dispatch.getId());
-        dispatchRepo.save(dispatch);
+    /**
+     * Deactivate active regular dispatches whose end time has passed, in one update.
+     *
+     * @return the number of dispatches deactivated.
+     */
+    @Override
+    public int deactivateExpiredDispatches() {
+        return dispatchRepo.deactivateExpired(DispatchState.Active.getState(), DispatchState.Inactive.getState(),
+                OffsetDateTime.now());
     }
 
     /**
-     * Check if any task is currently scheduled for a given dispatch ID.
+     * Check if a dispatch has a pending fire time.
      *
      * @param dispatchId the ID of the dispatch to check.
-     * @return true if any type of task is scheduled, false otherwise.
+     * @return true if the dispatch is scheduled, false otherwise.
      */
+    @Override
+    @Transactional(readOnly = true)
     public boolean isScheduled(Long dispatchId) {
-        Map<TaskType, ScheduledFuture<?>> typeMap = tasks.get(dispatchId);
-        return typeMap != null && !typeMap.isEmpty();
+        return dispatchRepo.existsByIdAndStatusAndNextFireAtIsNotNull(dispatchId, 1);
     }
 
-
     /**
-     * Retrieve the next scheduled execution time for a given dispatch ID and given type if exist and not cancelled.
+     * Retrieve the next fire time of a dispatch, CRON for a regular dispatch and CUSTOM for a custom one.
      *
      * @param dispatchId the ID of the dispatch to check.
      * @param type the Type of the task to check
      * @return the next execution time as a OffsetDateTime, or null if not scheduled.
      */
-
+    @Override
+    @Transactional(readOnly = true)
     public OffsetDateTime getNextExecutionTime(Long dispatchId, TaskType type) {
-        Map<TaskType, ScheduledFuture<?>> typeMap = tasks.get(dispatchId);
-        if (typeMap != null) {
-            ScheduledFuture<?> future = tasks.get(dispatchId).get(type);
-            if (future != null && !future.isCancelled()) {
-                long delay = future.getDelay(TimeUnit.MILLISECONDS);
-                if (delay > 0) {
-                    return OffsetDateTime.now(ZoneOffset.UTC).plusNanos(delay * 1_000_000);
-                }
-            }
-        }
-
-        return null; // Return null if no next execution time is available
+        return dispatchRepo.findById(dispatchId)
+                .filter(dispatch -> taskTypeOf(dispatch.getType()) == type)
+                .map(Dispatch::getNextFireAt)
+                .orElse(null);
     }
 
     /**
-     * Retrieve all scheduled dispatch's tasks with their next execution times.
+     * Retrieve all scheduled dispatches with their next fire times.
      *
      * @return A map where the key is the dispatch ID and the map of task type and their next execution time.
      */
+    @Override
+    @Transactional(readOnly = true)
     public Map<Long, Map<TaskType, OffsetDateTime>> getAllScheduledTasks() {
-        Map<Long, Map<TaskType, OffsetDateTime>> result = new ConcurrentHashMap<>();
-
-        tasks.forEach((dispatchId, typeMap) -> {
-            Map<TaskType, OffsetDateTime> taskExecutionTimes = new ConcurrentHashMap<>();
-
-            typeMap.forEach((taskType, future) -> {
-                if (future != null && !future.isCancelled()) {
-                    long delay = future.getDelay(TimeUnit.MILLISECONDS);
-                    OffsetDateTime nextExecutionTime = delay > 0
-                            ? OffsetDateTime.now(ZoneOffset.UTC).plusNanos(delay * 1_000_000)
-                            : null;
-                    taskExecutionTimes.put(taskType, nextExecutionTime);
-                }
-            });
-
-            if (!taskExecutionTimes.isEmpty()) {
-                result.put(dispatchId, taskExecutionTimes);
-            }
-        });
-
-        return result;
-    }
-
-    public void addTask(long dispatchId, TaskType type, ScheduledFuture<?> future) {
-        // Ensure the inner map exists
-        tasks.computeIfAbsent(dispatchId, id -> new ConcurrentHashMap<>())
-                .put(type, future);
-
-        ScheduledFuture<?> futureAdded = tasks.get(dispatchId).get(type);
-        if (futureAdded != null) {
-            logger.info("Scheduled task of type {} for dispatch id {}", type , dispatchId);
+        Map<Long, Map<TaskType, OffsetDateTime>> result = new HashMap<>();
+        for (Object[] row : dispatchRepo.findScheduled()) {
+            result.put((Long) row[0], Map.of(taskTypeOf((String) row[1]), (OffsetDateTime) row[2]));
         }
-
-
-    }
-
-    public ScheduledFuture<?> getTask(long dispatchId, TaskType type) {
-        Map<TaskType, ScheduledFuture<?>> typeMap = tasks.get(dispatchId);
-        return (typeMap != null) ? typeMap.get(type) : null;
+        return result;
     }
 
-    public boolean removeTask(long dispatchId, TaskType type) {
-        Map<TaskType, ScheduledFuture<?>> typeMap = tasks.get(dispatchId);
-        if (typeMap != null) {
-            ScheduledFuture<?> future = typeMap.remove(type);
-            if (future != null) {
-                future.cancel(true);
-                if (future.isCancelled()) {
-                    logger.info("Removed task of type {} for dispatch id {}", type , dispatchId);
-                }
-                return future.isCancelled();
-            }
-        }
-        return false;
+    private static TaskType taskTypeOf(String dispatchType) {
+        return "regular".equals(dispatchType) ? TaskType.CRON : TaskType.CUSTOM;
     }
 
-    public boolean removeAllTasks(long dispatchId) {
-        Map<TaskType, ScheduledFuture<?>> typeMap = tasks.remove(dispatchId);
-        if (typeMap != null) {
-            typeMap.values().forEach(future -> future.cancel(true));
-            logger.info("Removed all scheduled tasks for dispatch id {}", dispatchId);
-            return true;
-        }
-        return false;
+    /**
+     * First time after the given one matching a Spring cron expression, in the server's time zone like
+     * Spring's CronTrigger; null when there is none.
+     */
+    static OffsetDateTime nextFireTime(String cronExpression, OffsetDateTime after) {
+        ExecutionTime executionTime = ExecutionTime.forCron(CRON_PARSER.parse(cronExpression));
+        return executionTime.nextExecution(after.atZoneSameInstant(ZoneId.systemDefault()))
+                .map(ZonedDateTime::toOffsetDateTime)
+                .orElse(null);
     }
-}
\ No newline at end of file
+}
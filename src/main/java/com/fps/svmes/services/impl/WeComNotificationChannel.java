@@ -0,0 +1,142 @@
+package com.fps.svmes.services.impl;
+
+import com.fps.svmes.dto.dtos.notification.NotificationDTO;
+import com.fps.svmes.services.NotificationChannel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WeCom application messages in markdown, sent to a user's wecom_id. The access token is fetched with the corp
+ * secret and cached until shortly before it expires.
+ */
+@Slf4j
+@Service
+public class WeComNotificationChannel implements NotificationChannel {
+
+    public static final String NAME = "wecom";
+
+    // Token refreshed this long before WeCom expires it
+    private static final long TOKEN_MARGIN_MILLIS = 300_000L;
+    // invalid credential, invalid or expired access token
+    private static final List<Integer> TOKEN_ERRORS = List.of(40001, 40014, 42001);
+
+    private final RestTemplate restTemplate;
+
+    @Value("${notifications.wecom.base-url:https://qyapi.weixin.qq.com/cgi-bin}")
+    private String baseUrl;
+
+    @Value("${notifications.wecom.corp-id:}")
+    private String corpId;
+
+    @Value("${notifications.wecom.corp-secret:}")
+    private String corpSecret;
+
+    @Value("${notifications.wecom.agent-id:1000002}")
+    private int agentId;
+
+    // Markdown messages are limited to 2048 bytes
+    @Value("${notifications.wecom.max-batch-size:8}")
+    private int maxBatchSize;
+
+    @Value("${notifications.wecom.rate-per-second:10}")
+    private double ratePerSecond;
+
+    private String accessToken;
+    private long accessTokenExpiresAt;
+
+    @Autowired
+    public WeComNotificationChannel(RestTemplateBuilder restTemplateBuilder,
+                                    @Value("${notifications.wecom.timeout-ms:5000}") long timeoutMillis) {
+        this.restTemplate = restTemplateBuilder
+                .setConnectTimeout(Duration.ofMillis(timeoutMillis))
+                .setReadTimeout(Duration.ofMillis(timeoutMillis))
+                .build();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return !corpId.isBlank() && !corpSecret.isBlank();
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    @Override
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    @Override
+    public void send(String recipient, List<NotificationDTO> messages) {
+        StringBuilder content = new StringBuilder();
+        for (NotificationDTO message : messages) {
+            if (content.length() > 0) {
+                content.append("\n\n");
+            }
+            content.append("**").append(message.getSubject()).append("**");
+            for (String line : message.getContent().split("\n")) {
+                content.append("\n>").append(line);
+            }
+        }
+
+        Map<String, Object> payload = Map.of(
+                "touser", recipient,
+                "msgtype", "markdown",
+                "agentid", agentId,
+                "markdown", Map.of("content", content.toString()));
+        Map<?, ?> response = restTemplate.postForObject(baseUrl + "/message/send?access_token={token}",
+                payload, Map.class, getAccessToken());
+        int errcode = errcode(response);
+        if (errcode != 0) {
+            if (TOKEN_ERRORS.contains(errcode)) {
+                invalidateAccessToken();
+            }
+            throw new IllegalStateException("WeCom rejected message to " + recipient + ": " + errcode + " "
+                    + response.get("errmsg"));
+        }
+    }
+
+    private synchronized String getAccessToken() {
+        if (accessToken != null && System.currentTimeMillis() < accessTokenExpiresAt) {
+            return accessToken;
+        }
+        Map<?, ?> response = restTemplate.getForObject(baseUrl + "/gettoken?corpid={corpId}&corpsecret={secret}",
+                Map.class, corpId, corpSecret);
+        int errcode = errcode(response);
+        if (errcode != 0 || !(response.get("access_token") instanceof String token)) {
+            throw new IllegalStateException("Failed to get WeCom access token: " + errcode + " "
+                    + (response != null ? response.get("errmsg") : null));
+        }
+        long expiresIn = response.get("expires_in") instanceof Number n ? n.longValue() : 7200L;
+        accessToken = token;
+        accessTokenExpiresAt = System.currentTimeMillis() + expiresIn * 1000 - TOKEN_MARGIN_MILLIS;
+        log.info("Refreshed WeCom access token, valid for {} s", expiresIn);
+        return accessToken;
+    }
+
+    private synchronized void invalidateAccessToken() {
+        accessToken = null;
+    }
+
+    private static int errcode(Map<?, ?> response) {
+        if (response == null) {
+            return -1;
+        }
+        return response.get("errcode") instanceof Number n ? n.intValue() : 0;
+    }
+}
@@ -0,0 +1,69 @@
+package com.fps.svmes.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Named leases in quality_management.scheduler_lease, so a job that must run on one instance at a time (startup
+ * initialization, periodic cleanups, report mails) runs on whichever instance holds its lease. The holder renews it
+ * by acquiring it again; a lease not renewed expires, so a dead instance's jobs move to another within the lease
+ * duration. Expiry uses the database clock, so instances don't need synchronized clocks.
+ */
+@Slf4j
+@Component
+public class ClusterLease {
+
+    private static final String ACQUIRE_SQL =
+            "INSERT INTO quality_management.scheduler_lease (name, owner, expires_at) " +
+            "VALUES (?, ?, now() + ? * interval '1 millisecond') " +
+            "ON CONFLICT (name) DO UPDATE SET owner = EXCLUDED.owner, expires_at = EXCLUDED.expires_at " +
+            "WHERE scheduler_lease.owner = EXCLUDED.owner OR scheduler_lease.expires_at < now()";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String owner;
+
+    // Off for a single instance without the lease table: every lease is granted
+    @Value("${cluster.leases.enabled:true}")
+    private boolean enabled;
+
+    @Autowired
+    public ClusterLease(JdbcTemplate jdbcTemplate, @Value("${cluster.instance-id:}") String instanceId) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.owner = instanceId.isBlank() ? hostName() + ":" + UUID.randomUUID() : instanceId;
+    }
+
+    /**
+     * Take or renew the lease for the given duration. False when another live instance holds it, or when the lease
+     * table can't be reached (the job is skipped rather than run twice).
+     */
+    public boolean tryAcquire(String name, Duration duration) {
+        if (!enabled) {
+            return true;
+        }
+        try {
+            return jdbcTemplate.update(ACQUIRE_SQL, name, owner, duration.toMillis()) > 0;
+        } catch (Exception e) {
+            log.warn("Failed to acquire lease {}: {}", name, e.getMessage());
+            return false;
+        }
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.fps.svmes.utils;
+
+import com.fps.svmes.dto.dtos.alert.AlertRecordDTO;
+import com.fps.svmes.dto.dtos.alert.ExceededFieldInfoDTO;
+import com.fps.svmes.models.nosql.ControlLimitSetting;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Immutable, pre-processed view of a template's ControlLimitSetting: primitive bounds, hash sets of valid keys and
+ * value -> label maps. Built by ControlLimitEvaluatorCache, so a submission is checked in one pass over its fields
+ * without re-reading the setting or searching option lists.
+ */
+public class CompiledControlLimits {
+
+    public static final CompiledControlLimits EMPTY = new CompiledControlLimits(Collections.emptyList());
+
+    private static final DateTimeFormatter ALERT_CODE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS");
+
+    private final List<FieldLimit> fields;
+    private final Map<String, Integer> suppressionWindows;
+    private final List<NumericLimit> numericLimits;
+
+    private CompiledControlLimits(List<FieldLimit> fields) {
+        this.fields = fields;
+        Map<String, Integer> windows = new HashMap<>();
+        for (FieldLimit field : fields) {
+            if (field.suppressionWindowMinutes != null) {
+                windows.put(field.key, field.suppressionWindowMinutes);
+            }
+        }
+        this.suppressionWindows = windows;
+
+        List<NumericLimit> numeric = new ArrayList<>();
+        for (FieldLimit field : fields) {
+            if (!field.hasOptions && !Double.isNaN(field.lower) && !Double.isNaN(field.upper)
+                    && field.upper > field.lower) {
+                numeric.add(new NumericLimit(field.key, field.label, field.lower, field.upper));
+            }
+        }
+        this.numericLimits = Collections.unmodifiableList(numeric);
+    }
+
+    public static CompiledControlLimits compile(ControlLimitSetting setting) {
+        if (setting == null || setting.getControlLimits() == null || setting.getControlLimits().isEmpty()) {
+            return EMPTY;
+        }
+        List<FieldLimit> fields = new ArrayList<>();
+        setting.getControlLimits().forEach((fieldKey, entry) -> {
+            if (entry != null) {
+                fields.add(new FieldLimit(fieldKey, entry));
+            }
+        });
+        return new CompiledControlLimits(Collections.unmodifiableList(fields));
+    }
+
+    public boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    /**
+     * Suppression window configured on the field, or defaultMinutes when it has none.
+     */
+    public int suppressionWindowMinutes(String fieldKey, int defaultMinutes) {
+        return suppressionWindows.getOrDefault(fieldKey, defaultMinutes);
+    }
+
+    /**
+     * exceeded_info of the submission and the alerts it triggers, in one pass over the limited fields.
+     * Alerts are only built when submissionId is not null.
+     */
+    public Evaluation evaluate(Long templateId, Long userId, Map<String, Object> formData, String submissionId) {
+        Map<String, ExceededFieldInfoDTO> exceededInfo = new HashMap<>();
+        List<AlertRecordDTO> alerts = new ArrayList<>();
+        for (FieldLimit field : fields) {
+            Object value = formData.get(field.key);
+            if (value == null) {
+                continue;
+            }
+            List<String> selected = field.hasOptions ? selectedValues(value) : null;
+
+            ExceededFieldInfoDTO info = field.exceededInfo(value, selected);
+            if (info != null) {
+                exceededInfo.put(field.key, info);
+            }
+            if (submissionId != null) {
+                AlertRecordDTO alert = field.alert(templateId, userId, formData, submissionId, value, selected);
+                if (alert != null) {
+                    alerts.add(alert);
+                }
+            }
+        }
+        return new Evaluation(exceededInfo, alerts);
+    }
+
+    /**
+     * Fields with both numeric limits set, for the run rules (NelsonRuleMonitor).
+     */
+    public List<NumericLimit> numericLimits() {
+        return numericLimits;
+    }
+
+    private static List<String> selectedValues(Object value) {
+        if (value instanceof List<?> list) {
+            List<String> selected = new ArrayList<>(list.size());
+            for (Object item : list) {
+                selected.add(String.valueOf(item));
+            }
+            return selected;
+        }
+        return List.of(value.toString());
+    }
+
+    static Double parseDouble(Object value) {
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Getter
+    public static class Evaluation {
+        private final Map<String, ExceededFieldInfoDTO> exceededInfo;
+        private final List<AlertRecordDTO> alerts;
+
+        private Evaluation(Map<String, ExceededFieldInfoDTO> exceededInfo, List<AlertRecordDTO> alerts) {
+            this.exceededInfo = exceededInfo;
+            this.alerts = alerts;
+        }
+    }
+
+    @Getter
+    public static class NumericLimit {
+        private final String key;
+        private final String label;
+        private final double lower;
+        private final double upper;
+
+        private NumericLimit(String key, String label, double lower, double upper) {
+            this.key = key;
+            this.label = label;
+            this.lower = lower;
+            this.upper = upper;
+        }
+    }
+
+    private static class FieldLimit {
+        private final String key;
+        private final String label;
+        private final Integer suppressionWindowMinutes;
+
+        // Numeric limits; NaN stands for "not set"
+        private final boolean hasNumericLimits;
+        private final double upper;
+        private final double lower;
+        private final BigDecimal upperDecimal;
+        private final BigDecimal lowerDecimal;
+
+        // valid_keys was set (exceeded_info reports the field as "options"); alerts need at least one key
+        private final boolean hasOptions;
+        private final boolean checksOptions;
+        private final List<String> validKeys;
+        private final Set<String> validKeySet;
+        private final List<String> validLabels;
+        private final List<String> optionValues;
+        private final List<String> optionLabels;
+        private final Map<String, String> labelByValue;
+
+        private FieldLimit(String key, ControlLimitSetting.ControlLimitEntry entry) {
+            this.key = key;
+            this.label = entry.getLabel();
+            this.suppressionWindowMinutes = entry.getSuppressionWindowMinutes();
+
+            Double upperLimit = entry.getUpperControlLimit();
+            Double lowerLimit = entry.getLowerControlLimit();
+            this.hasNumericLimits = upperLimit != null || lowerLimit != null;
+            this.upper = upperLimit != null ? upperLimit : Double.NaN;
+            this.lower = lowerLimit != null ? lowerLimit : Double.NaN;
+            this.upperDecimal = upperLimit != null ? BigDecimal.valueOf(upperLimit) : null;
+            this.lowerDecimal = lowerLimit != null ? BigDecimal.valueOf(lowerLimit) : null;
+
+            List<String> optionValueList = new ArrayList<>();
+            List<String> optionLabelList = new ArrayList<>();
+            Map<String, String> labels = new HashMap<>();
+            if (entry.getOptionItems() != null) {
+                for (ControlLimitSetting.ControlLimitEntry.OptionItem item : entry.getOptionItems()) {
+                    optionValueList.add(item.getValue());
+                    optionLabelList.add(item.getLabel());
+                    // First item wins, like the linear search it replaces
+                    labels.putIfAbsent(item.getValue(), item.getLabel());
+                }
+            }
+            this.optionValues = Collections.unmodifiableList(optionValueList);
+            this.optionLabels = Collections.unmodifiableList(optionLabelList);
+            this.labelByValue = labels;
+
+            this.hasOptions = entry.getValidKeys() != null;
+            this.checksOptions = hasOptions && !entry.getValidKeys().isEmpty();
+            this.validKeys = hasOptions ? Collections.unmodifiableList(new ArrayList<>(entry.getValidKeys())) : null;
+            this.validKeySet = hasOptions ? new HashSet<>(entry.getValidKeys()) : Collections.emptySet();
+            this.validLabels = hasOptions ? labelsOf(validKeys) : null;
+        }
+
+        private List<String> labelsOf(List<String> values) {
+            List<String> labels = new ArrayList<>(values.size());
+            for (String value : values) {
+                labels.add(labelByValue.getOrDefault(value, value));
+            }
+            return labels;
+        }
+
+        private List<String> invalidOf(List<String> selected) {
+            List<String> invalid = new ArrayList<>();
+            for (String value : selected) {
+                if (!validKeySet.contains(value)) {
+                    invalid.add(value);
+                }
+            }
+            return invalid;
+        }
+
+        /**
+         * null when a numeric field's value isn't a number.
+         */
+        private ExceededFieldInfoDTO exceededInfo(Object value, List<String> selected) {
+            ExceededFieldInfoDTO info = new ExceededFieldInfoDTO();
+            info.setValue(value);
+            if (!hasOptions) {
+                Double number = parseDouble(value);
+                if (number == null) {
+                    return null;
+                }
+                info.setType("number");
+                info.setLowerLimit(lowerDecimal);
+                info.setUpperLimit(upperDecimal);
+                if (number > upper) {
+                    info.setResult("high");
+                } else if (number < lower) {
+                    info.setResult("low");
+                }
+                return info;
+            }
+
+            List<String> invalid = invalidOf(selected);
+            info.setType("options");
+            info.setValidOptions(validKeys);
+            info.setInvalidOptions(invalid);
+            info.setValidOptionLabels(validLabels);
+            info.setInvalidOptionLabels(labelsOf(invalid));
+            if (!invalid.isEmpty()) {
+                info.setResult("invalid");
+            }
+            return info;
+        }
+
+        /**
+         * null when the value is within limits (or a numeric limit's value isn't a number).
+         */
+        private AlertRecordDTO alert(Long templateId, Long userId, Map<String, Object> formData, String submissionId,
+                                     Object value, List<String> selected) {
+            BigDecimal numericValue = null;
+            boolean shouldAlert = false;
+            if (hasNumericLimits) {
+                Double number = parseDouble(value);
+                if (number == null) {
+                    return null;
+                }
+                // Comparisons with NaN are false, so an unset bound never fires
+                if (number > upper || number < lower) {
+                    shouldAlert = true;
+                    numericValue = BigDecimal.valueOf(number);
+                }
+            }
+            List<String> invalid = checksOptions ? invalidOf(selected) : Collections.emptyList();
+            if (!invalid.isEmpty()) {
+                shouldAlert = true;
+            }
+            if (!shouldAlert) {
+                return null;
+            }
+
+            AlertRecordDTO alert = newAlert(templateId, userId, submissionId, key, label);
+
+            if (numericValue != null) {
+                alert.setAlertType("number");
+                alert.setInspectionValue(numericValue);
+                alert.setUpperControlLimit(upperDecimal);
+                alert.setLowerControlLimit(lowerDecimal);
+            }
+
+            if (checksOptions) {
+                alert.setAlertType("options");
+                alert.setOptionItems(optionValues);
+                alert.setOptionLabels(optionLabels);
+                alert.setInvalidOptionItems(invalid);
+                alert.setInvalidOptionLabels(labelsOf(invalid));
+                alert.setInputOptionItems(selected);
+                alert.setInputOptionItemsLabels(labelsOf(selected));
+            }
+
+            return withRelatedIds(alert, formData) ? alert : null;
+        }
+    }
+
+    /**
+     * Open, unreviewed alert on a field of the submission, without the values that triggered it.
+     */
+    static AlertRecordDTO newAlert(Long templateId, Long userId, String submissionId, String key, String label) {
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        AlertRecordDTO alert = new AlertRecordDTO();
+        alert.setQcFormTemplateId(templateId);
+        alert.setInspectionItemKey(key);
+        alert.setInspectionItemLabel(label);
+        alert.setAlertTime(now);
+        alert.setCreatedAt(now);
+        alert.setCreatedBy(userId.intValue());
+        alert.setAlertStatus(1);
+        alert.setStatus(1);
+        alert.setRpn(50);
+        alert.setRiskLevelId(1);
+        alert.setAlertCode("AL" + now.format(ALERT_CODE_FORMATTER));
+        alert.setSubmissionId(submissionId);
+        return alert;
+    }
+
+    /**
+     * Copies the submission's related product/batch/inspector/reviewer ids; false when one isn't a number.
+     */
+    static boolean withRelatedIds(AlertRecordDTO alert, Map<String, Object> formData) {
+        try {
+            extractLongList(alert::setProductIds, formData.get("related_product_ids"));
+            extractLongList(alert::setBatchIds, formData.get("related_batch_ids"));
+            extractLongList(alert::setInspectorIds, formData.get("related_inspector_ids"));
+            extractLongList(alert::setReviewerIds, formData.get("related_reviewer_ids"));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static void extractLongList(Consumer<List<Long>> setter, Object valueObj) {
+        if (valueObj instanceof List<?> list && !list.isEmpty()) {
+            setter.accept(list.stream().map(Object::toString).map(Long::valueOf).toList());
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.fps.svmes.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fps.svmes.dto.dtos.reporting.OptionItemDTO;
+import com.fps.svmes.dto.dtos.reporting.WidgetDataDTO;
+import lombok.Getter;
+import org.bson.Document;
+
+import java.time.OffsetDateTime;
+import java.util.*;
+
+/**
+ * Immutable, pre-parsed view of a QcFormTemplate's form_template_json.
+ * Built once per template version by FormTemplateSchemaCache, so read paths don't re-parse the JSON per record.
+ */
+@Getter
+public class CompiledFormSchema {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Long templateId;
+    private final OffsetDateTime updatedAt;
+
+    // field name -> field label, in form order
+    private final Map<String, String> fieldLabels;
+
+    // field name -> option value -> option label
+    private final Map<String, Map<String, String>> optionLabelsByField;
+
+    // field label -> option value -> option label (submission logs resolve options by the already labeled key)
+    private final Map<String, Map<String, String>> optionLabelsByFieldLabel;
+
+    // field name -> label of the divider the field belongs to
+    private final Map<String, String> fieldDividers;
+
+    // field name -> widget type
+    private final Map<String, String> widgetTypes;
+
+    // widgets in reporting order, copied out by newWidgetDataList()
+    private final List<WidgetDataDTO> widgets;
+
+    private CompiledFormSchema(Long templateId, OffsetDateTime updatedAt, Map<String, String> fieldLabels,
+                               Map<String, Map<String, String>> optionLabelsByField,
+                               Map<String, Map<String, String>> optionLabelsByFieldLabel,
+                               Map<String, String> fieldDividers, Map<String, String> widgetTypes,
+                               List<WidgetDataDTO> widgets) {
+        this.templateId = templateId;
+        this.updatedAt = updatedAt;
+        this.fieldLabels = fieldLabels;
+        this.optionLabelsByField = optionLabelsByField;
+        this.optionLabelsByFieldLabel = optionLabelsByFieldLabel;
+        this.fieldDividers = fieldDividers;
+        this.widgetTypes = widgetTypes;
+        this.widgets = widgets;
+    }
+
+    public static CompiledFormSchema compile(Long templateId, OffsetDateTime updatedAt, String formTemplateJson) {
+        Map<String, String> fieldLabels = new LinkedHashMap<>();
+        Map<String, Map<String, String>> optionLabelsByField = new HashMap<>();
+        Map<String, Map<String, String>> optionLabelsByFieldLabel = new HashMap<>();
+        Map<String, String> fieldDividers = new HashMap<>();
+        Map<String, String> widgetTypes = new HashMap<>();
+
+        try {
+            Document formTemplate = Document.parse(formTemplateJson);
+            List<Document> widgetList = (List<Document>) formTemplate.get("widgetList");
+            if (widgetList != null) {
+                extractFields(widgetList, fieldLabels, optionLabelsByField, optionLabelsByFieldLabel, widgetTypes);
+                extractDividers(widgetList, fieldDividers);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Error parsing form template JSON", e);
+        }
+
+        return new CompiledFormSchema(
+                templateId,
+                updatedAt,
+                Collections.unmodifiableMap(fieldLabels),
+                freeze(optionLabelsByField),
+                freeze(optionLabelsByFieldLabel),
+                Collections.unmodifiableMap(fieldDividers),
+                Collections.unmodifiableMap(widgetTypes),
+                Collections.unmodifiableList(extractWidgetData(formTemplateJson))
+        );
+    }
+
+    /**
+     * Fresh, mutable widget list for the reporting counters (they accumulate into it).
+     */
+    public List<WidgetDataDTO> newWidgetDataList() {
+        List<WidgetDataDTO> copy = new ArrayList<>(widgets.size());
+        for (WidgetDataDTO widget : widgets) {
+            List<OptionItemDTO> options = new ArrayList<>(widget.getOptionItems().size());
+            for (OptionItemDTO item : widget.getOptionItems()) {
+                options.add(new OptionItemDTO(item.getLabel(), item.getValue(), item.getCount()));
+            }
+            copy.add(new WidgetDataDTO(widget.getName(), widget.getLabel(), widget.getType(), options, null, null));
+        }
+        return copy;
+    }
+
+    /**
+     * Widgets that carry options, walking grid columns, with their option items and zero counts.
+     */
+    public static List<WidgetDataDTO> extractWidgetData(String jsonInput) {
+        List<WidgetDataDTO> extractedData = new ArrayList<>();
+        try {
+            JsonNode rootNode = OBJECT_MAPPER.readTree(jsonInput);
+            JsonNode widgetList = rootNode.path("widgetList");
+
+            if (widgetList.isArray()) {
+                for (JsonNode widgetNode : widgetList) {
+                    extractWidgetRecursive(widgetNode, extractedData);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return extractedData;
+    }
+
+    private static void extractWidgetRecursive(JsonNode widgetNode, List<WidgetDataDTO> extractedData) {
+        String type = widgetNode.path("type").asText();
+
+        JsonNode options = widgetNode.path("options");
+        if (!options.isMissingNode()) {
+            String name = options.path("name").asText();
+            String label = options.path("label").asText();
+            JsonNode optionItems = options.path("optionItems");
+
+            List<OptionItemDTO> optionList = new ArrayList<>();
+            if (optionItems.isArray()) {
+                for (JsonNode item : optionItems) {
+                    optionList.add(new OptionItemDTO(
+                            item.path("label").asText(),
+                            item.path("value").asInt(),
+                            0
+                    ));
+                }
+            }
+
+            extractedData.add(new WidgetDataDTO(name, label, type, optionList, null, null));
+        }
+
+        JsonNode cols = widgetNode.path("cols");
+        if (cols.isArray()) {
+            for (JsonNode col : cols) {
+                JsonNode widgetList = col.path("widgetList");
+                if (widgetList.isArray()) {
+                    for (JsonNode nestedWidget : widgetList) {
+                        extractWidgetRecursive(nestedWidget, extractedData);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void extractFields(List<Document> widgetList,
+                                      Map<String, String> fieldLabels,
+                                      Map<String, Map<String, String>> optionLabelsByField,
+                                      Map<String, Map<String, String>> optionLabelsByFieldLabel,
+                                      Map<String, String> widgetTypes) {
+        for (Document widget : widgetList) {
+            Document options = (Document) widget.get("options");
+            if (options != null) {
+                String name = options.getString("name");
+                String label = options.getString("label");
+                if (name != null && label != null) {
+                    fieldLabels.put(name, label);
+                }
+                if (name != null && widget.getString("type") != null) {
+                    widgetTypes.put(name, widget.getString("type"));
+                }
+
+                List<Document> optionItems = (List<Document>) options.get("optionItems");
+                if (optionItems != null) {
+                    Map<String, String> valueToLabelMap = new HashMap<>();
+                    for (Document option : optionItems) {
+                        Object value = option.get("value");
+                        String optionLabel = option.getString("label");
+                        if (value != null && optionLabel != null) {
+                            valueToLabelMap.put(value.toString(), optionLabel);
+                        }
+                    }
+                    if (name != null) {
+                        optionLabelsByField.put(name, valueToLabelMap);
+                    }
+                    if (label != null) {
+                        optionLabelsByFieldLabel.put(label, valueToLabelMap);
+                    }
+                }
+            }
+
+            // Recursively process nested widgetList
+            List<Document> nestedWidgetList = (List<Document>) widget.get("widgetList");
+            if (nestedWidgetList != null) {
+                extractFields(nestedWidgetList, fieldLabels, optionLabelsByField, optionLabelsByFieldLabel, widgetTypes);
+            }
+
+            // Check for widget lists inside grid columns
+            List<Document> cols = (List<Document>) widget.get("cols");
+            if (cols != null) {
+                for (Document col : cols) {
+                    List<Document> colWidgetList = (List<Document>) col.get("widgetList");
+                    if (colWidgetList != null) {
+                        extractFields(colWidgetList, fieldLabels, optionLabelsByField, optionLabelsByFieldLabel, widgetTypes);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Top-level fields belong to the last divider above them; fields inside a grid belong to the grid's divider.
+     */
+    private static void extractDividers(List<Document> widgetList, Map<String, String> fieldDividers) {
+        String currentDivider = "uncategorized";
+        for (Document widget : widgetList) {
+            String type = widget.getString("type");
+            Document options = (Document) widget.get("options");
+
+            if ("divider".equals(type) && options != null) {
+                currentDivider = options.getString("label");
+            } else if ("grid".equals(type)) {
+                List<Document> cols = (List<Document>) widget.get("cols");
+                if (cols != null) {
+                    for (Document col : cols) {
+                        List<Document> colWidgetList = (List<Document>) col.get("widgetList");
+                        if (colWidgetList != null) {
+                            for (Document colWidget : colWidgetList) {
+                                Document colOptions = (Document) colWidget.get("options");
+                                if (colOptions != null && colOptions.containsKey("name")) {
+                                    fieldDividers.put(colOptions.getString("name"), currentDivider);
+                                }
+                            }
+                        }
+                    }
+                }
+            } else if (options != null && options.containsKey("name")) {
+                fieldDividers.put(options.getString("name"), currentDivider);
+            }
+        }
+    }
+
+    private static Map<String, Map<String, String>> freeze(Map<String, Map<String, String>> map) {
+        Map<String, Map<String, String>> frozen = new HashMap<>();
+        map.forEach((key, value) -> frozen.put(key, Collections.unmodifiableMap(value)));
+        return Collections.unmodifiableMap(frozen);
+    }
+}
@@ -0,0 +1,62 @@
+package com.fps.svmes.utils;
+
+import com.fps.svmes.models.nosql.ControlLimitSetting;
+import com.fps.svmes.repositories.mongoRepo.ControlLimitSettingRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled control limits keyed by template id. Evicted by RecipeServiceImpl and QcFormTemplateServiceImpl when a
+ * setting is written; entries also expire after a max age so that settings changed through another instance are
+ * picked up. Templates without a setting are cached as CompiledControlLimits.EMPTY.
+ */
+@Component
+public class ControlLimitEvaluatorCache {
+
+    private final ControlLimitSettingRepository controlLimitSettingRepository;
+
+    @Value("${control-limits.evaluator-cache.max-age-ms:300000}")
+    private long maxAgeMillis;
+
+    private final Map<Long, Entry> cache = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ControlLimitEvaluatorCache(ControlLimitSettingRepository controlLimitSettingRepository) {
+        this.controlLimitSettingRepository = controlLimitSettingRepository;
+    }
+
+    public CompiledControlLimits get(Long formTemplateId) {
+        if (formTemplateId == null) {
+            return CompiledControlLimits.EMPTY;
+        }
+        Entry entry = cache.get(formTemplateId);
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt < maxAgeMillis) {
+            return entry.limits;
+        }
+
+        ControlLimitSetting setting = controlLimitSettingRepository.findByQcFormTemplateId(formTemplateId).orElse(null);
+        CompiledControlLimits limits = CompiledControlLimits.compile(setting);
+        cache.put(formTemplateId, new Entry(limits, System.currentTimeMillis()));
+        return limits;
+    }
+
+    public void evict(Long formTemplateId) {
+        if (formTemplateId != null) {
+            cache.remove(formTemplateId);
+        }
+    }
+
+    private static class Entry {
+        private final CompiledControlLimits limits;
+        private final long loadedAt;
+
+        private Entry(CompiledControlLimits limits, long loadedAt) {
+            this.limits = limits;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
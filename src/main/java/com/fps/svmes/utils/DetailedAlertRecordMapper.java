@@ -0,0 +1,154 @@
+package com.fps.svmes.utils;
+
+import com.fps.svmes.dto.dtos.alert.*;
+import com.fps.svmes.dto.dtos.production.SuggestedBatchDTO;
+import com.fps.svmes.dto.dtos.production.SuggestedProductDTO;
+import com.fps.svmes.dto.dtos.qcForm.QcFormTemplateDTO;
+import com.fps.svmes.dto.dtos.user.UserDTO;
+import com.fps.svmes.models.sql.alert.AlertRecord;
+import com.fps.svmes.models.sql.qcForm.QcFormTemplate;
+import com.fps.svmes.repositories.jpaRepo.alert.AlertStatusRepository;
+import com.fps.svmes.repositories.jpaRepo.alert.RiskLevelRepository;
+import com.fps.svmes.repositories.jpaRepo.production.SuggestedBatchRepository;
+import com.fps.svmes.repositories.jpaRepo.production.SuggestedProductRepository;
+import com.fps.svmes.repositories.jpaRepo.qcForm.QcFormTemplateRepository;
+import com.fps.svmes.repositories.jpaRepo.user.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.modelmapper.ModelMapper;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Rows of the alert board (/alert-records/filter and the alert stream): alert records with their template,
+ * products, batches, users, status and risk level resolved with one lookup per table.
+ * Must run inside a transaction, the alert associations are lazy.
+ */
+@Component
+@RequiredArgsConstructor
+public class DetailedAlertRecordMapper {
+
+    private final ModelMapper modelMapper;
+    private final AlertStatusRepository alertStatusRepository;
+    private final RiskLevelRepository riskLevelRepository;
+    private final UserRepository userRepository;
+    private final SuggestedProductRepository suggestedProductRepository;
+    private final SuggestedBatchRepository suggestedBatchRepository;
+    private final QcFormTemplateRepository qcFormTemplateRepository;
+
+    public List<DetailedAlertRecordDTO> toDetailed(List<AlertRecord> alertList) {
+        Set<Long> templateIds = new HashSet<>();
+        Set<Long> productIds = new HashSet<>();
+        Set<Long> batchIds = new HashSet<>();
+        Set<Integer> userIds = new HashSet<>();
+        Set<Integer> statusIds = new HashSet<>();
+        Set<Integer> riskLevelIds = new HashSet<>();
+
+        for (AlertRecord alert : alertList) {
+            templateIds.add(alert.getQcFormTemplateId());
+            if (alert.getAlertStatus() != null) statusIds.add(alert.getAlertStatus());
+            if (alert.getRiskLevelId() != null) riskLevelIds.add(alert.getRiskLevelId());
+            alert.getAlertProducts().forEach(p -> productIds.add(p.getProductId()));
+            alert.getAlertBatches().forEach(b -> batchIds.add(b.getBatchId()));
+            alert.getAlertInspectors().forEach(i -> userIds.add(i.getInspectorId().intValue()));
+            alert.getAlertReviewers().forEach(r -> userIds.add(r.getReviewerId().intValue()));
+        }
+
+        Map<Long, QcFormTemplate> templateMap = qcFormTemplateRepository.findAllById(templateIds)
+                .stream().collect(Collectors.toMap(QcFormTemplate::getId, t -> t));
+
+        Map<Long, SuggestedProductDTO> productMap = suggestedProductRepository.findAllById(productIds)
+                .stream().collect(Collectors.toMap(p -> p.getId(), p -> modelMapper.map(p, SuggestedProductDTO.class)));
+
+        Map<Long, SuggestedBatchDTO> batchMap = suggestedBatchRepository.findAllById(batchIds)
+                .stream().collect(Collectors.toMap(b -> b.getId(), b -> modelMapper.map(b, SuggestedBatchDTO.class)));
+
+        Map<Integer, UserDTO> userMap = userRepository.findAllById(userIds)
+                .stream().collect(Collectors.toMap(u -> u.getId(), u -> modelMapper.map(u, UserDTO.class)));
+
+        Map<Integer, AlertStatusDTO> statusMap = alertStatusRepository.findAllById(statusIds)
+                .stream().collect(Collectors.toMap(s -> s.getId(), s -> modelMapper.map(s, AlertStatusDTO.class)));
+
+        Map<Integer, RiskLevelDTO> riskMap = riskLevelRepository.findAllById(riskLevelIds)
+                .stream().collect(Collectors.toMap(r -> r.getId(), r -> modelMapper.map(r, RiskLevelDTO.class)));
+
+        return alertList.stream().map(alert -> {
+            DetailedAlertRecordDTO dto = new DetailedAlertRecordDTO();
+
+            dto.setId(alert.getId());
+            dto.setAlertCode(alert.getAlertCode());
+            dto.setAlertTime(alert.getAlertTime());
+            dto.setInspectionValue(alert.getInspectionValue());
+            dto.setRpn(alert.getRpn());
+            dto.setCreatedAt(alert.getCreatedAt());
+            dto.setStatus(alert.getStatus());
+            dto.setUpperControlLimit(alert.getUpperControlLimit());
+            dto.setLowerControlLimit(alert.getLowerControlLimit());
+
+            dto.setAlertType(alert.getAlertType());
+            dto.setRule(alert.getRule());
+            dto.setOptionItems(alert.getOptionItems());
+            dto.setOptionLabels(alert.getOptionLabels());
+            dto.setInvalidOptionItems(alert.getInvalidOptionItems());
+            dto.setInvalidOptionItemsLabels(alert.getInvalidOptionLabels());
+            dto.setOccurrenceCount(alert.getOccurrenceCount());
+            dto.setLastSeenAt(alert.getLastSeenAt());
+            dto.setInputOptionItems(alert.getInputOptionItems());
+            dto.setInputOptionItemsLabels(alert.getInputOptionItemsLabels());
+            dto.setSubmissionId(alert.getSubmissionId());
+
+            if ("options".equals(alert.getAlertType()) && alert.getOptionLabels() != null) {
+                List<String> validLabels = new ArrayList<>(alert.getOptionLabels());
+                if (alert.getInvalidOptionLabels() != null) {
+                    validLabels.removeAll(alert.getInvalidOptionLabels());
+                }
+                dto.setControlRange(String.join(", ", validLabels));
+            } else if (("number".equals(alert.getAlertType()) || "rule".equals(alert.getAlertType())) &&
+                    alert.getLowerControlLimit() != null &&
+                    alert.getUpperControlLimit() != null) {
+                dto.setControlRange(alert.getLowerControlLimit() + " - " + alert.getUpperControlLimit());
+            }
+
+            QcFormTemplate template = templateMap.get(alert.getQcFormTemplateId());
+            if (template != null) {
+                QcFormTemplateDTO formDto = new QcFormTemplateDTO();
+                formDto.setId(template.getId());
+                formDto.setName(template.getName());
+                formDto.setFormTemplateJson(null);
+                dto.setQcFormTemplate(formDto);
+            }
+
+            InspectionItemDTO item = new InspectionItemDTO();
+            item.setKey(alert.getInspectionItemKey());
+            item.setLabel(alert.getInspectionItemLabel());
+            dto.setInspectionItem(item);
+
+            dto.setProducts(alert.getAlertProducts().stream()
+                    .map(p -> productMap.get(p.getProductId()))
+                    .filter(Objects::nonNull).toList());
+
+            dto.setBatches(alert.getAlertBatches().stream()
+                    .map(b -> batchMap.get(b.getBatchId()))
+                    .filter(Objects::nonNull).toList());
+
+            dto.setInspectors(alert.getAlertInspectors().stream()
+                    .map(i -> userMap.get(i.getInspectorId().intValue()))
+                    .filter(Objects::nonNull).toList());
+
+            dto.setReviewers(alert.getAlertReviewers().stream()
+                    .map(r -> userMap.get(r.getReviewerId().intValue()))
+                    .filter(Objects::nonNull).toList());
+
+            if (alert.getAlertStatus() != null) {
+                dto.setAlertStatus(statusMap.get(alert.getAlertStatus()));
+            }
+
+            if (alert.getRiskLevelId() != null) {
+                dto.setRiskLevel(riskMap.get(alert.getRiskLevelId()));
+            }
+
+            return dto;
+        }).toList();
+    }
+}
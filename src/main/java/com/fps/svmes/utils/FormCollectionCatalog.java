@@ -0,0 +1,151 @@
+package com.fps.svmes.utils;
+
+import com.mongodb.client.MongoClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory catalog of the monthly form data collections: template id -> sorted yyyyMM partitions.
+ * Loaded at startup, updated when a collection is created and refreshed periodically, so reporting and SPC
+ * lookups don't have to list every collection in the database.
+ */
+@Slf4j
+@Component
+public class FormCollectionCatalog {
+
+    private static final String PREFIX = "form_template_";
+    private static final Pattern COLLECTION_PATTERN = Pattern.compile("form_template_(\\d+)_(\\d{6})");
+
+    private final MongoClient mongoClient;
+
+    @Value("${spring.data.mongodb.database}")
+    private String mongoDatabaseName;
+
+    private volatile Map<Long, NavigableSet<Integer>> partitions = new ConcurrentHashMap<>();
+
+    // Collections registered since the last swap; merged into the next refresh so one created while the listing
+    // runs isn't lost. Guarded by this.
+    private final Set<String> registeredSinceSwap = new HashSet<>();
+
+    @Autowired
+    public FormCollectionCatalog(MongoClient mongoClient) {
+        this.mongoClient = mongoClient;
+    }
+
+    public static String collectionName(Long formTemplateId, int yearMonth) {
+        return PREFIX + formTemplateId + "_" + yearMonth;
+    }
+
+    /**
+     * Template id of a monthly form data collection name, or null for any other name.
+     */
+    public static Long templateIdOf(String collectionName) {
+        Matcher matcher = COLLECTION_PATTERN.matcher(collectionName);
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : null;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        refresh();
+    }
+
+    /**
+     * Rebuild the catalog from the database, picking up collections created or dropped by other instances. The new
+     * catalog is built aside and swapped in with one write, so lookups see either the old or the new one.
+     */
+    @Scheduled(fixedDelayString = "${reporting.collection-catalog.refresh-interval-ms:60000}",
+            initialDelayString = "${reporting.collection-catalog.refresh-interval-ms:60000}")
+    public void refresh() {
+        try {
+            Map<Long, NavigableSet<Integer>> loaded = new ConcurrentHashMap<>();
+            for (String name : mongoClient.getDatabase(mongoDatabaseName).listCollectionNames()) {
+                Matcher matcher = COLLECTION_PATTERN.matcher(name);
+                if (matcher.matches()) {
+                    loaded.computeIfAbsent(Long.parseLong(matcher.group(1)), k -> new ConcurrentSkipListSet<>())
+                            .add(Integer.parseInt(matcher.group(2)));
+                }
+            }
+            synchronized (this) {
+                for (String name : registeredSinceSwap) {
+                    add(loaded, name);
+                }
+                registeredSinceSwap.clear();
+                partitions = loaded;
+            }
+            log.debug("Form collection catalog refreshed: {} templates", loaded.size());
+        } catch (Exception e) {
+            log.warn("Failed to refresh form collection catalog: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Record a newly created collection. Names that aren't monthly form data collections are ignored.
+     */
+    public synchronized void register(String collectionName) {
+        if (add(partitions, collectionName)) {
+            registeredSinceSwap.add(collectionName);
+        }
+    }
+
+    private static boolean add(Map<Long, NavigableSet<Integer>> catalog, String collectionName) {
+        Matcher matcher = COLLECTION_PATTERN.matcher(collectionName);
+        if (!matcher.matches()) {
+            return false;
+        }
+        catalog.computeIfAbsent(Long.parseLong(matcher.group(1)), k -> new ConcurrentSkipListSet<>())
+                .add(Integer.parseInt(matcher.group(2)));
+        return true;
+    }
+
+    public boolean contains(String collectionName) {
+        Matcher matcher = COLLECTION_PATTERN.matcher(collectionName);
+        return matcher.matches()
+                && contains(Long.parseLong(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+    }
+
+    public boolean contains(Long formTemplateId, int yearMonth) {
+        NavigableSet<Integer> months = partitions.get(formTemplateId);
+        return months != null && months.contains(yearMonth);
+    }
+
+    /**
+     * Collection names of a template whose yyyyMM lies in [startYearMonth, endYearMonth], oldest first.
+     */
+    public List<String> getCollectionNames(Long formTemplateId, int startYearMonth, int endYearMonth) {
+        NavigableSet<Integer> months = partitions.get(formTemplateId);
+        if (months == null || startYearMonth > endYearMonth) {
+            return new ArrayList<>();
+        }
+        List<String> names = new ArrayList<>();
+        for (Integer yearMonth : months.subSet(startYearMonth, true, endYearMonth, true)) {
+            names.add(collectionName(formTemplateId, yearMonth));
+        }
+        return names;
+    }
+
+    /**
+     * All collection names of a template, oldest first.
+     */
+    public List<String> getCollectionNames(Long formTemplateId) {
+        NavigableSet<Integer> months = partitions.get(formTemplateId);
+        if (months == null) {
+            return new ArrayList<>();
+        }
+        List<String> names = new ArrayList<>();
+        for (Integer yearMonth : months) {
+            names.add(collectionName(formTemplateId, yearMonth));
+        }
+        return names;
+    }
+}
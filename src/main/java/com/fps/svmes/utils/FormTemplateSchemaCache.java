@@ -0,0 +1,85 @@
+package com.fps.svmes.utils;
+
+import com.fps.svmes.models.sql.qcForm.QcFormTemplate;
+import com.fps.svmes.repositories.jpaRepo.qcForm.QcFormTemplateRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled form template schemas keyed by template id, tagged with the template's updated_at.
+ * Evicted by QcFormTemplateServiceImpl on update/delete; entries also expire after a max age so that
+ * templates edited through another instance are picked up.
+ */
+@Component
+public class FormTemplateSchemaCache {
+
+    private final QcFormTemplateRepository qcFormTemplateRepository;
+
+    @Value("${form-template.schema-cache.max-age-ms:300000}")
+    private long maxAgeMillis;
+
+    private final Map<Long, Entry> cache = new ConcurrentHashMap<>();
+
+    @Autowired
+    public FormTemplateSchemaCache(QcFormTemplateRepository qcFormTemplateRepository) {
+        this.qcFormTemplateRepository = qcFormTemplateRepository;
+    }
+
+    /**
+     * Compiled schema of the template, or a RuntimeException when the template or its JSON doesn't exist.
+     */
+    public CompiledFormSchema get(Long formTemplateId) {
+        return find(formTemplateId)
+                .orElseThrow(() -> new RuntimeException("Form template JSON not found for formId: " + formTemplateId));
+    }
+
+    public Optional<CompiledFormSchema> find(Long formTemplateId) {
+        if (formTemplateId == null) {
+            return Optional.empty();
+        }
+        Entry entry = cache.get(formTemplateId);
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt < maxAgeMillis) {
+            return Optional.of(entry.schema);
+        }
+
+        Optional<QcFormTemplate> template = qcFormTemplateRepository.findById(formTemplateId);
+        if (template.isEmpty() || template.get().getFormTemplateJson() == null
+                || template.get().getFormTemplateJson().isEmpty()) {
+            cache.remove(formTemplateId);
+            return Optional.empty();
+        }
+
+        CompiledFormSchema schema;
+        if (entry != null && Objects.equals(entry.schema.getUpdatedAt(), template.get().getUpdatedAt())) {
+            // Unchanged since it was compiled, just renew the entry
+            schema = entry.schema;
+        } else {
+            schema = CompiledFormSchema.compile(formTemplateId, template.get().getUpdatedAt(),
+                    template.get().getFormTemplateJson());
+        }
+        cache.put(formTemplateId, new Entry(schema, System.currentTimeMillis()));
+        return Optional.of(schema);
+    }
+
+    public void evict(Long formTemplateId) {
+        if (formTemplateId != null) {
+            cache.remove(formTemplateId);
+        }
+    }
+
+    private static class Entry {
+        private final CompiledFormSchema schema;
+        private final long loadedAt;
+
+        private Entry(CompiledFormSchema schema, long loadedAt) {
+            this.schema = schema;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.fps.svmes.utils;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Backfills is_latest on every form data collection once at startup, in the background, so the first report
+ * over an old month doesn't pay for it. Readers still call ensureLatestMarkers themselves, this only warms it up.
+ */
+@Slf4j
+@Component
+public class LatestVersionBackfillJob {
+
+    private final MongoClient mongoClient;
+    private final MongoFormDataQueryUtils mongoFormDataQueryUtils;
+
+    @Value("${spring.data.mongodb.database}")
+    private String mongoDatabaseName;
+
+    @Value("${reporting.latest-backfill.enabled:true}")
+    private boolean enabled;
+
+    @Autowired
+    public LatestVersionBackfillJob(MongoClient mongoClient, MongoFormDataQueryUtils mongoFormDataQueryUtils) {
+        this.mongoClient = mongoClient;
+        this.mongoFormDataQueryUtils = mongoFormDataQueryUtils;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::run, "latest-version-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
+            List<String> names = new ArrayList<>();
+            for (String name : database.listCollectionNames()) {
+                if (FormCollectionCatalog.templateIdOf(name) != null) {
+                    names.add(name);
+                }
+            }
+            for (String name : names) {
+                mongoFormDataQueryUtils.ensureLatestMarkers(database.getCollection(name));
+            }
+            log.info("is_latest backfill checked {} form data collections", names.size());
+        } catch (Exception e) {
+            log.warn("is_latest backfill stopped: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.fps.svmes.utils;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-side filters for the monthly form_template_{id}_{yyyyMM} collections, so that
+ * only matching submissions leave Mongo instead of being filtered in Java.
+ */
+@Slf4j
+@Component
+public class MongoFormDataQueryUtils {
+
+    public static final String CREATED_AT_INDEX = "idx_created_at_id";
+    public static final String VERSION_GROUP_INDEX = "idx_version_group_id";
+    public static final String LATEST_INDEX = "idx_latest_created_at_id";
+
+    // true on the latest version of a submission, false on the versions it superseded
+    public static final String LATEST_FIELD = "is_latest";
+
+    private static final int BACKFILL_BATCH_SIZE = 500;
+
+    // Collections whose indexes were already ensured by this instance
+    private final Set<String> indexedCollections = ConcurrentHashMap.newKeySet();
+
+    // Collections in which every document is known to carry is_latest
+    private final Set<String> backfilledCollections = ConcurrentHashMap.newKeySet();
+    private final Map<String, Object> backfillLocks = new ConcurrentHashMap<>();
+
+    /**
+     * created_at in [start, end], both inclusive. Documents without a created_at date never match.
+     */
+    public static Bson createdAtBetween(Instant start, Instant end) {
+        return Filters.and(
+                Filters.gte("created_at", Date.from(start)),
+                Filters.lte("created_at", Date.from(end))
+        );
+    }
+
+    /**
+     * Only the latest version of each submission. Use after ensureLatestMarkers on the collection.
+     */
+    public static Bson isLatest() {
+        return Filters.eq(LATEST_FIELD, true);
+    }
+
+    /**
+     * Mark every other version of the group as superseded, once the new latest version has been inserted.
+     * Inserting first and demoting second means a concurrent reader may briefly see two versions, never none; if
+     * this step is lost, the submission outbox (and the backfill) repair the group with reconcileLatest.
+     */
+    public static void markSuperseded(MongoCollection<Document> collection, String versionGroupId, ObjectId latestId) {
+        collection.updateMany(
+                Filters.and(Filters.eq("version_group_id", versionGroupId), Filters.ne("_id", latestId),
+                        Filters.ne(LATEST_FIELD, false)),
+                Updates.set(LATEST_FIELD, false));
+    }
+
+    /**
+     * Make the highest version of the group (newest _id on a tie) its only latest version: promote it first,
+     * then demote the others, so the group is never without one. Idempotent.
+     */
+    public static void reconcileLatest(MongoCollection<Document> collection, String versionGroupId) {
+        Document newest = collection.find(Filters.eq("version_group_id", versionGroupId))
+                .sort(Sorts.descending("version", "_id"))
+                .projection(Projections.include("_id"))
+                .first();
+        if (newest == null) {
+            return;
+        }
+        ObjectId newestId = newest.getObjectId("_id");
+        collection.updateOne(Filters.and(Filters.eq("_id", newestId), Filters.ne(LATEST_FIELD, true)),
+                Updates.set(LATEST_FIELD, true));
+        markSuperseded(collection, versionGroupId, newestId);
+    }
+
+    /**
+     * Matches a single option value or an option list containing the value, whether it was stored
+     * as a number or as its string form.
+     */
+    public static Bson optionValueMatches(String fieldName, Integer optionValue) {
+        return Filters.or(
+                Filters.eq(fieldName, optionValue),
+                Filters.eq(fieldName, String.valueOf(optionValue))
+        );
+    }
+
+    /**
+     * Keyset condition for resuming after (createdAt, id) in created_at/_id order.
+     */
+    public static Bson after(Date createdAt, ObjectId id, boolean descending) {
+        if (descending) {
+            return Filters.or(
+                    Filters.lt("created_at", createdAt),
+                    Filters.and(Filters.eq("created_at", createdAt), Filters.lt("_id", id))
+            );
+        }
+        return Filters.or(
+                Filters.gt("created_at", createdAt),
+                Filters.and(Filters.eq("created_at", createdAt), Filters.gt("_id", id))
+        );
+    }
+
+    /**
+     * Aggregation expression turning the value at path into the list of option values it counts for:
+     * a scalar int counts as itself, list items count when they are numbers or strings that parse as ints.
+     * Same rules as optionValues.
+     */
+    public static Document optionValuesExpression(String path) {
+        Document listItemAsInt = new Document("$cond", Arrays.asList(
+                new Document("$in", Arrays.asList(new Document("$type", "$$item"), Arrays.asList("int", "long", "string"))),
+                new Document("$convert", new Document("input", "$$item").append("to", "int")
+                        .append("onError", null).append("onNull", null)),
+                null));
+        return new Document("$cond", Arrays.asList(
+                new Document("$isArray", path),
+                new Document("$map", new Document("input", path).append("as", "item").append("in", listItemAsInt)),
+                new Document("$cond", Arrays.asList(
+                        new Document("$eq", Arrays.asList(new Document("$type", path), "int")),
+                        Collections.singletonList(path),
+                        Collections.emptyList()))));
+    }
+
+    /**
+     * Option values a stored field value counts for, see optionValuesExpression.
+     */
+    public static List<Integer> optionValues(Object value) {
+        if (value instanceof Integer) {
+            return Collections.singletonList((Integer) value);
+        }
+        if (!(value instanceof List<?>)) {
+            return Collections.emptyList();
+        }
+        List<Integer> values = new ArrayList<>();
+        for (Object item : (List<?>) value) {
+            if (item instanceof Integer) {
+                values.add((Integer) item);
+            } else if (item instanceof Long) {
+                // $convert fails (and the item is skipped) for longs outside the int range
+                long number = (Long) item;
+                if (number == (int) number) {
+                    values.add((int) number);
+                }
+            } else if (item instanceof String) {
+                try {
+                    values.add(Integer.parseInt((String) item));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Ensure the (created_at, _id) and version_group_id indexes exist on a form data collection. createIndex is
+     * idempotent on the server, the local set only avoids repeating the round trip.
+     */
+    public void ensureIndexes(MongoCollection<Document> collection) {
+        String name = collection.getNamespace().getCollectionName();
+        if (indexedCollections.contains(name)) {
+            return;
+        }
+        try {
+            collection.createIndex(Indexes.ascending("created_at", "_id"), new IndexOptions().name(CREATED_AT_INDEX));
+            collection.createIndex(Indexes.ascending("version_group_id"),
+                    new IndexOptions().name(VERSION_GROUP_INDEX).sparse(true));
+            collection.createIndex(Indexes.ascending(LATEST_FIELD, "created_at", "_id"), new IndexOptions().name(LATEST_INDEX));
+            indexedCollections.add(name);
+        } catch (Exception e) {
+            log.warn("Failed to ensure indexes on collection {}: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Ensure the indexes, and that documents written before is_latest existed carry it, so that isLatest()
+     * returns exactly one version per submission. Runs the backfill at most once per collection and instance.
+     */
+    public void ensureLatestMarkers(MongoCollection<Document> collection) {
+        ensureIndexes(collection);
+        String name = collection.getNamespace().getCollectionName();
+        if (backfilledCollections.contains(name)) {
+            return;
+        }
+        synchronized (backfillLocks.computeIfAbsent(name, k -> new Object())) {
+            if (backfilledCollections.contains(name)) {
+                return;
+            }
+            try {
+                long updated = backfillLatestMarkers(collection);
+                if (updated > 0) {
+                    log.info("Backfilled is_latest on {} documents of {}", updated, name);
+                }
+                backfilledCollections.add(name);
+            } catch (Exception e) {
+                log.warn("Failed to backfill is_latest on collection {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Marks documents without is_latest, leaving versions demoted by a concurrent edit alone, then repairs groups
+     * left with more than one latest version by an edit that failed between its two writes.
+     */
+    private long backfillLatestMarkers(MongoCollection<Document> collection) {
+        long updated = 0;
+        if (collection.find(Filters.eq(LATEST_FIELD, null)).projection(Projections.include("_id")).first() != null) {
+            updated += backfillMissingMarkers(collection);
+        }
+
+        List<String> duplicated = new ArrayList<>();
+        for (Document group : collection.aggregate(Arrays.asList(
+                Aggregates.match(Filters.and(Filters.eq(LATEST_FIELD, true), Filters.ne("version_group_id", null))),
+                Aggregates.group("$version_group_id", Accumulators.sum("latest", 1)),
+                Aggregates.match(Filters.gt("latest", 1))))) {
+            if (group.get("_id") instanceof String groupId) {
+                duplicated.add(groupId);
+            }
+        }
+        for (String groupId : duplicated) {
+            reconcileLatest(collection, groupId);
+        }
+        if (!duplicated.isEmpty()) {
+            log.warn("Repaired {} version groups with several latest versions in {}", duplicated.size(),
+                    collection.getNamespace().getCollectionName());
+        }
+        return updated + duplicated.size();
+    }
+
+    private long backfillMissingMarkers(MongoCollection<Document> collection) {
+
+        // Unversioned submissions are their own latest version
+        long updated = collection.updateMany(
+                Filters.and(Filters.eq(LATEST_FIELD, null), Filters.eq("version_group_id", null)),
+                Updates.set(LATEST_FIELD, true)).getModifiedCount();
+
+        List<String> groupIds = collection.distinct("version_group_id",
+                Filters.and(Filters.eq(LATEST_FIELD, null), Filters.ne("version_group_id", null)), String.class)
+                .into(new ArrayList<>());
+
+        for (int from = 0; from < groupIds.size(); from += BACKFILL_BATCH_SIZE) {
+            List<String> batch = groupIds.subList(from, Math.min(from + BACKFILL_BATCH_SIZE, groupIds.size()));
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            for (Document group : collection.aggregate(Arrays.asList(
+                    Aggregates.match(Filters.in("version_group_id", batch)),
+                    Aggregates.group("$version_group_id", Accumulators.max("maxVersion", "$version"))))) {
+                Object groupId = group.get("_id");
+                Object maxVersion = group.get("maxVersion");
+                updates.add(new UpdateManyModel<>(
+                        Filters.and(Filters.eq("version_group_id", groupId), Filters.eq(LATEST_FIELD, null),
+                                Filters.eq("version", maxVersion)),
+                        Updates.set(LATEST_FIELD, true)));
+                updates.add(new UpdateManyModel<>(
+                        Filters.and(Filters.eq("version_group_id", groupId), Filters.eq(LATEST_FIELD, null),
+                                Filters.ne("version", maxVersion)),
+                        Updates.set(LATEST_FIELD, false)));
+            }
+            if (!updates.isEmpty()) {
+                updated += collection.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+            }
+        }
+        return updated;
+    }
+}
@@ -1,8 +1,6 @@
 package com.fps.svmes.utils;
 
-import com.fps.svmes.repositories.jpaRepo.qcForm.QcFormTemplateRepository;
 import com.fps.svmes.services.UserService;
-import com.mongodb.client.MongoCollection;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,107 +13,20 @@ import java.util.stream.Collectors;
 public class MongoFormTemplateUtils {
 
     @Autowired
-    private QcFormTemplateRepository qcFormTemplateRepository;
+    private FormTemplateSchemaCache formTemplateSchemaCache;
 
     @Autowired
     private UserService userService;
 
-    public HashMap<String, String> getFormTemplateKeyValueMapping(Long formId) {
-        String formTemplateJson = qcFormTemplateRepository.findFormTemplateJsonById(formId);
-        if (formTemplateJson == null || formTemplateJson.isEmpty()) {
-            throw new RuntimeException("Form template JSON not found for formId: " + formId);
-        }
-
-        HashMap<String, String> keyValueMap = new HashMap<>();
-        Document formTemplate = Document.parse(formTemplateJson);
-        List<Document> widgetList = (List<Document>) formTemplate.get("widgetList");
-        if (widgetList != null) {
-            extractKeyValuePairs(widgetList, keyValueMap);
-        }
-        return keyValueMap;
-    }
-
-    public HashMap<String, Object> getOptionItemsKeyValueMapping(Long formId) {
-        String formTemplateJson = qcFormTemplateRepository.findFormTemplateJsonById(formId);
-        if (formTemplateJson == null || formTemplateJson.isEmpty()) {
-            throw new RuntimeException("Form template JSON not found for formId: " + formId);
-        }
-
-        HashMap<String, Object> optionItemsKeyValueMap = new HashMap<>();
-        Document formTemplate = Document.parse(formTemplateJson);
-        List<Document> widgetList = (List<Document>) formTemplate.get("widgetList");
-        if (widgetList != null) {
-            extractOptionItems(widgetList, optionItemsKeyValueMap);
-        }
-        return optionItemsKeyValueMap;
+    public Map<String, String> getFormTemplateKeyValueMapping(Long formId) {
+        return formTemplateSchemaCache.get(formId).getFieldLabels();
     }
 
-    private void extractKeyValuePairs(List<Document> widgetList, HashMap<String, String> keyValueMap) {
-        for (Document widget : widgetList) {
-            Document options = (Document) widget.get("options");
-            if (options != null) {
-                String name = options.getString("name");
-                String label = options.getString("label");
-                if (name != null && label != null) {
-                    keyValueMap.put(name, label);
-                }
-            }
-
-            List<Document> nestedWidgetList = (List<Document>) widget.get("widgetList");
-            if (nestedWidgetList != null) {
-                extractKeyValuePairs(nestedWidgetList, keyValueMap);
-            }
-
-            List<Document> cols = (List<Document>) widget.get("cols");
-            if (cols != null) {
-                for (Document col : cols) {
-                    List<Document> colWidgetList = (List<Document>) col.get("widgetList");
-                    if (colWidgetList != null) {
-                        extractKeyValuePairs(colWidgetList, keyValueMap);
-                    }
-                }
-            }
-        }
-    }
-
-    private void extractOptionItems(List<Document> widgetList, HashMap<String, Object> optionItemsKeyValueMap) {
-        for (Document widget : widgetList) {
-            Document options = (Document) widget.get("options");
-            if (options != null) {
-                String name = options.getString("name");
-                List<Document> optionItems = (List<Document>) options.get("optionItems");
-
-                if (name != null && optionItems != null) {
-                    HashMap<String, String> valueToLabelMap = new HashMap<>();
-                    for (Document option : optionItems) {
-                        Object value = option.get("value");
-                        String label = option.getString("label");
-                        if (value != null && label != null) {
-                            valueToLabelMap.put(value.toString(), label);
-                        }
-                    }
-                    optionItemsKeyValueMap.put(name, valueToLabelMap);
-                }
-            }
-
-            List<Document> nestedWidgetList = (List<Document>) widget.get("widgetList");
-            if (nestedWidgetList != null) {
-                extractOptionItems(nestedWidgetList, optionItemsKeyValueMap);
-            }
-
-            List<Document> cols = (List<Document>) widget.get("cols");
-            if (cols != null) {
-                for (Document col : cols) {
-                    List<Document> colWidgetList = (List<Document>) col.get("widgetList");
-                    if (colWidgetList != null) {
-                        extractOptionItems(colWidgetList, optionItemsKeyValueMap);
-                    }
-                }
-            }
-        }
+    public Map<String, Map<String, String>> getOptionItemsKeyValueMapping(Long formId) {
+        return formTemplateSchemaCache.get(formId).getOptionLabelsByField();
     }
 
-    public Document formatRecord(Document document, HashMap<String, Object> optionItemsKeyValueMap, HashMap<String, String> keyValueMap) {
+    public Document formatRecord(Document document, Map<String, Map<String, String>> optionItemsKeyValueMap, Map<String, String> keyValueMap) {
         Document formatted = new Document();
 
         for (String key : document.keySet()) {
@@ -130,13 +41,13 @@ public class MongoFormTemplateUtils {
 
             if (optionItemsKeyValueMap.containsKey(key) && value instanceof List) {
                 List<?> valueList = (List<?>) value;
-                HashMap<String, String> labelMap = (HashMap<String, String>) optionItemsKeyValueMap.get(key);
+                Map<String, String> labelMap = optionItemsKeyValueMap.get(key);
                 List<String> resolvedLabels = valueList.stream()
                         .map(val -> val != null ? labelMap.getOrDefault(val.toString(), val.toString()) : null)
                         .collect(Collectors.toList());
                 formatted.put(displayKey, resolvedLabels);
             } else if (optionItemsKeyValueMap.containsKey(key)) {
-                HashMap<String, String> labelMap = (HashMap<String, String>) optionItemsKeyValueMap.get(key);
+                Map<String, String> labelMap = optionItemsKeyValueMap.get(key);
                 if (value != null) {
                     formatted.put(displayKey, labelMap.getOrDefault(value.toString(), value.toString()));
                 } else {
@@ -0,0 +1,356 @@
+package com.fps.svmes.utils;
+
+import com.fps.svmes.dto.dtos.alert.AlertRecordDTO;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.DoublePredicate;
+
+/**
+ * Western Electric / Nelson run rules 2-8 on each submission. The last WINDOW_SIZE values of every template field
+ * with both numeric limits are kept in memory (LRU over template fields) and rebuilt from the form collections on a
+ * miss or once older than max-age, so a submission costs a constant amount of work per field. Evaluating does not
+ * change a window: the submission's points are recorded only after its rule alerts are saved, so a failed save is
+ * evaluated again on the outbox retry. Centre line and sigma come from the configured limits, taken as +/-3 sigma.
+ * Rule 1 (a point beyond the limits) is already raised as a "number" alert.
+ */
+@Slf4j
+@Component
+public class NelsonRuleMonitor {
+
+    // Longest run any rule looks at (rule 7: 15 points within 1 sigma)
+    static final int WINDOW_SIZE = 15;
+
+    private final MongoTemplate mongoTemplate;
+    private final FormCollectionCatalog formCollectionCatalog;
+
+    @Value("${spc-rules.enabled:true}")
+    private boolean enabled;
+
+    // Months searched, newest first, when rebuilding a window
+    @Value("${spc-rules.rebuild-months:3}")
+    private int rebuildMonths;
+
+    // A window older than this is rebuilt, picking up submissions recorded by other instances
+    @Value("${spc-rules.window-cache.max-age-seconds:300}")
+    private long maxAgeSeconds;
+
+    private final Map<String, Window> windows;
+
+    @Autowired
+    public NelsonRuleMonitor(MongoTemplate mongoTemplate, FormCollectionCatalog formCollectionCatalog,
+                             @Value("${spc-rules.window-cache.max-entries:5000}") int maxEntries) {
+        this.mongoTemplate = mongoTemplate;
+        this.formCollectionCatalog = formCollectionCatalog;
+        this.windows = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Returns the rule alerts (not saved) the stored submission completes, without recording it in the windows.
+     * A submission already recorded raises nothing again.
+     */
+    public List<AlertRecordDTO> evaluate(Long templateId, Long userId, Document submission, CompiledControlLimits limits) {
+        List<AlertRecordDTO> alerts = new ArrayList<>();
+        if (!enabled || templateId == null || limits.numericLimits().isEmpty() || submission == null) {
+            return alerts;
+        }
+        Point point = Point.of(submission);
+        if (point == null) {
+            return alerts;
+        }
+
+        for (CompiledControlLimits.NumericLimit limit : limits.numericLimits()) {
+            Double value = valueOf(submission, limit);
+            if (value == null) {
+                continue;
+            }
+            try {
+                Window window = window(templateId, limit.getKey(), submission);
+                List<String> rules;
+                synchronized (window) {
+                    Window next = window.copy();
+                    if (!next.push(point.withValue(value))) {
+                        continue;
+                    }
+                    rules = next.violations((limit.getUpper() + limit.getLower()) / 2,
+                            (limit.getUpper() - limit.getLower()) / 6);
+                }
+                for (String rule : rules) {
+                    AlertRecordDTO alert = CompiledControlLimits.newAlert(templateId, userId,
+                            point.submissionId, limit.getKey(), limit.getLabel());
+                    alert.setAlertType("rule");
+                    alert.setRule(rule);
+                    alert.setInspectionValue(BigDecimal.valueOf(value));
+                    alert.setUpperControlLimit(BigDecimal.valueOf(limit.getUpper()));
+                    alert.setLowerControlLimit(BigDecimal.valueOf(limit.getLower()));
+                    if (CompiledControlLimits.withRelatedIds(alert, submission)) {
+                        alerts.add(alert);
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("Run rules skipped for template {} field {}: {}", templateId, limit.getKey(), e.getMessage());
+            }
+        }
+        return alerts;
+    }
+
+    /**
+     * Adds the submission to its fields' cached windows; call once its rule alerts are saved. Fields without a cached
+     * window are left alone, their rebuild reads the stored submission.
+     */
+    public void record(Long templateId, Document submission, CompiledControlLimits limits) {
+        if (!enabled || templateId == null || submission == null) {
+            return;
+        }
+        Point point = Point.of(submission);
+        if (point == null) {
+            return;
+        }
+        for (CompiledControlLimits.NumericLimit limit : limits.numericLimits()) {
+            Double value = valueOf(submission, limit);
+            Window window = value == null ? null : windows.get(templateId + ":" + limit.getKey());
+            if (window != null) {
+                synchronized (window) {
+                    window.push(point.withValue(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * The field's value, or null when it is missing or the limits leave no band to measure sigma by.
+     */
+    private static Double valueOf(Document submission, CompiledControlLimits.NumericLimit limit) {
+        if (!(limit.getUpper() > limit.getLower())) {
+            return null;
+        }
+        Object raw = submission.get(limit.getKey());
+        Double value = raw == null ? null : CompiledControlLimits.parseDouble(raw);
+        return value == null || value.isNaN() ? null : value;
+    }
+
+    private Window window(Long templateId, String field, Document submission) {
+        String key = templateId + ":" + field;
+        Window window = windows.get(key);
+        if (window == null || System.currentTimeMillis() - window.builtAt > maxAgeSeconds * 1000) {
+            window = rebuild(templateId, field, submission);
+            windows.put(key, window);
+        }
+        return window;
+    }
+
+    /**
+     * Latest versions with the field set that precede the submission, newest months first. Windows keep raw values,
+     * so they stay valid when the limits change.
+     */
+    private Window rebuild(Long templateId, String field, Document submission) {
+        Window window = new Window();
+        List<String> collections = formCollectionCatalog.getCollectionNames(templateId);
+        Collections.reverse(collections);
+        int remaining = WINDOW_SIZE;
+        for (String collectionName : collections.subList(0, Math.min(rebuildMonths, collections.size()))) {
+            List<Document> docs = mongoTemplate.getCollection(collectionName)
+                    .find(Filters.and(MongoFormDataQueryUtils.isLatest(),
+                            MongoFormDataQueryUtils.after(submission.getDate("created_at"),
+                                    submission.getObjectId("_id"), true),
+                            Filters.ne(field, null)))
+                    .projection(Projections.include(field, "created_at", "version_group_id"))
+                    .sort(Sorts.descending("created_at", "_id"))
+                    .limit(remaining)
+                    .into(new ArrayList<>());
+            for (Document doc : docs) {
+                Point point = Point.of(doc);
+                Double value = CompiledControlLimits.parseDouble(doc.get(field));
+                if (point != null && value != null && !value.isNaN()) {
+                    window.push(point.withValue(value));
+                    remaining--;
+                }
+            }
+            if (remaining <= 0) {
+                break;
+            }
+        }
+        return window;
+    }
+
+    private static final class Point {
+        private final long createdAt;
+        private final String submissionId;
+        private final String versionGroupId;
+        private final double value;
+
+        private Point(long createdAt, String submissionId, String versionGroupId, double value) {
+            this.createdAt = createdAt;
+            this.submissionId = submissionId;
+            this.versionGroupId = versionGroupId;
+            this.value = value;
+        }
+
+        private static Point of(Document doc) {
+            if (!(doc.get("created_at") instanceof Date createdAt) || !(doc.get("_id") instanceof ObjectId id)) {
+                return null;
+            }
+            Object group = doc.get("version_group_id");
+            return new Point(createdAt.getTime(), id.toHexString(), group != null ? group.toString() : id.toHexString(), 0);
+        }
+
+        private Point withValue(double value) {
+            return new Point(createdAt, submissionId, versionGroupId, value);
+        }
+
+        // Same created_at within one batch insert; ObjectIds of the batch are increasing
+        private boolean after(Point other) {
+            return createdAt != other.createdAt ? createdAt > other.createdAt
+                    : submissionId.compareTo(other.submissionId) > 0;
+        }
+    }
+
+    /**
+     * Up to WINDOW_SIZE points in (created_at, _id) order, one per submission version group.
+     */
+    static final class Window {
+        private final ArrayList<Point> points = new ArrayList<>(WINDOW_SIZE + 1);
+        private final long builtAt;
+
+        Window() {
+            this(System.currentTimeMillis());
+        }
+
+        private Window(long builtAt) {
+            this.builtAt = builtAt;
+        }
+
+        private Window copy() {
+            Window copy = new Window(builtAt);
+            copy.points.addAll(points);
+            return copy;
+        }
+
+        /**
+         * true when the point is new and is now the newest in the window, i.e. the rules should run.
+         */
+        private boolean push(Point point) {
+            for (int i = points.size() - 1; i >= 0; i--) {
+                Point existing = points.get(i);
+                if (existing.submissionId.equals(point.submissionId)) {
+                    return false;
+                }
+                // An edit replaces the version it supersedes
+                if (existing.versionGroupId.equals(point.versionGroupId)) {
+                    points.remove(i);
+                }
+            }
+            int at = points.size();
+            while (at > 0 && !point.after(points.get(at - 1))) {
+                at--;
+            }
+            if (at == 0 && points.size() >= WINDOW_SIZE) {
+                return false;
+            }
+            points.add(at, point);
+            if (points.size() > WINDOW_SIZE) {
+                points.remove(0);
+            }
+            return at == points.size() - 1;
+        }
+
+        private List<String> violations(double center, double sigma) {
+            int n = points.size();
+            double[] z = new double[n];
+            for (int i = 0; i < n; i++) {
+                z[i] = (points.get(i).value - center) / sigma;
+            }
+            return violations(z);
+        }
+
+        /**
+         * Rules 2-8 whose run ends at the last of the standardized values z (oldest first).
+         */
+        static List<String> violations(double[] z) {
+            List<String> rules = new ArrayList<>();
+            int n = z.length;
+            double last = z[n - 1];
+
+            // 2: nine points in a row on the same side of the centre line
+            if (n >= 9 && last != 0 && run(z, 9, v -> Math.signum(v) == Math.signum(last))) {
+                rules.add("NELSON_2");
+            }
+            // 3: six points in a row steadily increasing or decreasing
+            if (n >= 6 && (monotonic(z, 6, 1) || monotonic(z, 6, -1))) {
+                rules.add("NELSON_3");
+            }
+            // 4: fourteen points in a row alternating up and down
+            if (n >= 14 && alternating(z, 14)) {
+                rules.add("NELSON_4");
+            }
+            // 5: two of three beyond 2 sigma on the same side, the newest among them
+            if (n >= 3 && Math.abs(last) > 2 && count(z, 3, v -> v * Math.signum(last) > 2) >= 2) {
+                rules.add("NELSON_5");
+            }
+            // 6: four of five beyond 1 sigma on the same side, the newest among them
+            if (n >= 5 && Math.abs(last) > 1 && count(z, 5, v -> v * Math.signum(last) > 1) >= 4) {
+                rules.add("NELSON_6");
+            }
+            // 7: fifteen points in a row within 1 sigma
+            if (n >= 15 && run(z, 15, v -> Math.abs(v) < 1)) {
+                rules.add("NELSON_7");
+            }
+            // 8: eight points in a row beyond 1 sigma, on both sides
+            if (n >= 8 && run(z, 8, v -> Math.abs(v) > 1)
+                    && count(z, 8, v -> v > 1) > 0 && count(z, 8, v -> v < -1) > 0) {
+                rules.add("NELSON_8");
+            }
+            return rules;
+        }
+
+        private static boolean run(double[] z, int length, DoublePredicate test) {
+            return count(z, length, test) == length;
+        }
+
+        private static int count(double[] z, int length, DoublePredicate test) {
+            int count = 0;
+            for (int i = z.length - length; i < z.length; i++) {
+                if (test.test(z[i])) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static boolean monotonic(double[] z, int length, int direction) {
+            for (int i = z.length - length + 1; i < z.length; i++) {
+                if (Math.signum(z[i] - z[i - 1]) != direction) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean alternating(double[] z, int length) {
+            double previous = 0;
+            for (int i = z.length - length + 1; i < z.length; i++) {
+                double step = Math.signum(z[i] - z[i - 1]);
+                if (step == 0 || step == previous) {
+                    return false;
+                }
+                previous = step;
+            }
+            return true;
+        }
+    }
+}
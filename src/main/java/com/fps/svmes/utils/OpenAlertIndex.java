@@ -0,0 +1,109 @@
+package com.fps.svmes.utils;
+
+import com.fps.svmes.repositories.jpaRepo.alert.AlertRecordRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latest open alert per template field (and run rule) with the time it was last seen, so AlertRecordServiceImpl can
+ * tell whether a new alert repeats one inside its suppression window without querying the alert table. A miss reads
+ * the alert table under a transaction-scoped advisory lock on the field's key, so concurrent submissions on any
+ * instance agree on a single open alert per field: the second waits for the first to commit and then finds its
+ * alert. Entries may go stale (alert closed, or seen on another instance); the occurrence update only matches open
+ * alerts, so a stale hit falls back to the locked lookup.
+ */
+@Component
+public class OpenAlertIndex {
+
+    private final AlertRecordRepository alertRecordRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<String, OpenAlert> openAlerts;
+
+    @Autowired
+    public OpenAlertIndex(AlertRecordRepository alertRecordRepository, JdbcTemplate jdbcTemplate,
+                          @Value("${alerts.suppression.index-max-entries:10000}") int maxEntries) {
+        this.alertRecordRepository = alertRecordRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.openAlerts = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, OpenAlert> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Limit alerts and each run rule of a field are suppressed separately; rule is null for limit alerts.
+     */
+    public static String key(Long templateId, String inspectionItemKey, String rule) {
+        String key = templateId + ":" + inspectionItemKey;
+        return rule == null ? key : key + ":" + rule;
+    }
+
+    /**
+     * Id of the field's indexed open alert if it was last seen at or after sinceMillis, otherwise null.
+     */
+    public Long find(String key, long sinceMillis) {
+        OpenAlert open = openAlerts.get(key);
+        return open != null && open.lastSeenMillis >= sinceMillis ? open.alertId : null;
+    }
+
+    /**
+     * Lock the field's key until the surrounding transaction ends and return its open alert last seen at or after
+     * since from the alert table, or null. Must run inside a transaction; callers locking several keys take them in
+     * key order.
+     */
+    public Long lockAndFind(Long templateId, String inspectionItemKey, String rule, OffsetDateTime since) {
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock(hashtext(?))", rs -> null,
+                "alert:" + key(templateId, inspectionItemKey, rule));
+        List<Long> ids = alertRecordRepository.findOpenIdsSeenSince(templateId, inspectionItemKey, rule, since,
+                PageRequest.of(0, 1));
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    /**
+     * Index an open alert once the transaction that saved it has committed.
+     */
+    public void put(String key, Long alertId, long lastSeenMillis) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    index(key, new OpenAlert(alertId, lastSeenMillis));
+                }
+            });
+        } else {
+            index(key, new OpenAlert(alertId, lastSeenMillis));
+        }
+    }
+
+    private void index(String key, OpenAlert open) {
+        openAlerts.merge(key, open,
+                (current, candidate) -> candidate.lastSeenMillis >= current.lastSeenMillis ? candidate : current);
+    }
+
+    public void remove(String key) {
+        openAlerts.remove(key);
+    }
+
+    private static class OpenAlert {
+        private final Long alertId;
+        private final long lastSeenMillis;
+
+        private OpenAlert(Long alertId, long lastSeenMillis) {
+            this.alertId = alertId;
+            this.lastSeenMillis = lastSeenMillis;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.fps.svmes.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Bounded pool for querying the monthly form_template_{id}_{yyyyMM} collections in parallel.
+ * The pool size caps how many Mongo connections reporting and SPC can hold at once, and each call is further
+ * limited to perRequestLimit partitions in flight, so one long-range dashboard can't take the whole pool.
+ * Results always come back in partition order, so callers merge them exactly as the sequential loops did.
+ */
+@Slf4j
+@Component
+public class PartitionQueryExecutor implements DisposableBean {
+
+    private final ThreadPoolExecutor executor;
+    private final int perRequestLimit;
+    private final Timer taskTimer;
+    private final Counter cancelledCounter;
+
+    @Autowired
+    public PartitionQueryExecutor(MeterRegistry meterRegistry,
+                                  @Value("${reporting.partition-executor.pool-size:8}") int poolSize,
+                                  @Value("${reporting.partition-executor.queue-capacity:256}") int queueCapacity,
+                                  @Value("${reporting.partition-executor.per-request-limit:4}") int perRequestLimit) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "partition-query-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                // Saturated: the request runs its partitions itself instead of failing
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.perRequestLimit = Math.max(1, perRequestLimit);
+
+        new ExecutorServiceMetrics(executor, "reporting.partition", Tags.empty()).bindTo(meterRegistry);
+        this.taskTimer = Timer.builder("reporting.partition.query")
+                .description("Time spent querying a single monthly partition")
+                .register(meterRegistry);
+        this.cancelledCounter = Counter.builder("reporting.partition.cancelled")
+                .description("Partition fan-outs abandoned because the request was cancelled")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Apply task to every partition on the pool and return the results in partition order.
+     * When the calling thread is interrupted the queued and running partition queries are cancelled and a
+     * CancellationException is thrown. For Callable handlers that happens when spring.mvc.async.request-timeout
+     * expires (Spring cancels the handler's future) or the container reports an async error. A client that just
+     * goes away is not noticed until something is written, so the timeout is what bounds an abandoned request.
+     */
+    public <T, R> List<R> map(List<T> partitions, Function<T, R> task) {
+        if (partitions.size() <= 1) {
+            List<R> results = new ArrayList<>(partitions.size());
+            for (T partition : partitions) {
+                results.add(taskTimer.record(() -> task.apply(partition)));
+            }
+            return results;
+        }
+
+        Semaphore permits = new Semaphore(perRequestLimit);
+        List<Future<R>> futures = new ArrayList<>(partitions.size());
+        boolean completed = false;
+        try {
+            for (T partition : partitions) {
+                permits.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            return taskTimer.record(() -> task.apply(partition));
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            List<R> results = new ArrayList<>(futures.size());
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+            completed = true;
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelledCounter.increment();
+            log.info("Partition query cancelled after {} of {} partitions were submitted", futures.size(), partitions.size());
+            throw new CancellationException("Partition query cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Partition query failed: " + cause.getMessage(), cause);
+        } finally {
+            if (!completed) {
+                futures.forEach(future -> future.cancel(true));
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
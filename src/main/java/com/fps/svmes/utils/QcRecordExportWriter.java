@@ -0,0 +1,259 @@
+package com.fps.svmes.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.bson.Document;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Writes formatted QC records to an output stream one row at a time, so an export never holds more than
+ * the current row (NDJSON, CSV) or the POI row window (XLSX) in memory.
+ * The underlying stream is flushed but never closed, it belongs to the servlet container. A writer aborted after
+ * a failure never finishes its output as if it were complete.
+ */
+public abstract class QcRecordExportWriter implements Closeable {
+
+    public static final String FORMAT_NDJSON = "ndjson";
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_XLSX = "xlsx";
+
+    // created_at is stored as the UTC instant of the submitted local time
+    private static final DateTimeFormatter DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    protected final List<String> columns;
+    protected boolean aborted;
+
+    protected QcRecordExportWriter(List<String> columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * @param format  ndjson, csv or xlsx
+     * @param columns column order for csv/xlsx, ndjson writes every key of the record
+     */
+    public static QcRecordExportWriter create(String format, OutputStream outputStream, List<String> columns,
+                                              ObjectMapper objectMapper) throws IOException {
+        switch (normalizeFormat(format)) {
+            case FORMAT_NDJSON:
+                return new NdjsonWriter(outputStream, columns, objectMapper);
+            case FORMAT_CSV:
+                return new CsvWriter(outputStream, columns);
+            case FORMAT_XLSX:
+                return new XlsxWriter(outputStream, columns);
+            default:
+                throw new IllegalArgumentException("Unsupported export format: " + format);
+        }
+    }
+
+    public static String normalizeFormat(String format) {
+        return format == null ? FORMAT_NDJSON : format.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public static boolean isSupported(String format) {
+        String normalized = normalizeFormat(format);
+        return FORMAT_NDJSON.equals(normalized) || FORMAT_CSV.equals(normalized) || FORMAT_XLSX.equals(normalized);
+    }
+
+    public static String contentType(String format) {
+        switch (normalizeFormat(format)) {
+            case FORMAT_CSV:
+                return "text/csv; charset=UTF-8";
+            case FORMAT_XLSX:
+                return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+            default:
+                return "application/x-ndjson";
+        }
+    }
+
+    public abstract void write(Document record) throws IOException;
+
+    /**
+     * Push what has been written so far to the client.
+     */
+    public abstract void flush() throws IOException;
+
+    /**
+     * The export failed: end the output so it can't be mistaken for a complete file. NDJSON gets a final error
+     * line, CSV stops where it is, XLSX is never written (the workbook only reaches the client on close).
+     */
+    public void abort(Exception cause) throws IOException {
+        aborted = true;
+    }
+
+    protected static String cellText(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Date) {
+            return DATE_FORMATTER.format(((Date) value).toInstant());
+        }
+        if (value instanceof List) {
+            return ((List<?>) value).stream().map(QcRecordExportWriter::cellText).collect(Collectors.joining(", "));
+        }
+        if (value instanceof Document) {
+            return ((Document) value).toJson();
+        }
+        return value.toString();
+    }
+
+    private static class NdjsonWriter extends QcRecordExportWriter {
+        private final JsonGenerator generator;
+        private final ObjectMapper objectMapper;
+
+        private NdjsonWriter(OutputStream outputStream, List<String> columns, ObjectMapper objectMapper) throws IOException {
+            super(columns);
+            this.objectMapper = objectMapper;
+            this.generator = objectMapper.getFactory().createGenerator(outputStream);
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public void write(Document record) throws IOException {
+            objectMapper.writeValue(generator, record);
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        public void abort(Exception cause) throws IOException {
+            super.abort(cause);
+            generator.writeStartObject();
+            generator.writeStringField("error", "Export aborted: " + cause.getMessage());
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+
+    private static class CsvWriter extends QcRecordExportWriter {
+        private final Writer writer;
+
+        private CsvWriter(OutputStream outputStream, List<String> columns) throws IOException {
+            super(columns);
+            this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            // BOM so Excel opens the Chinese labels as UTF-8
+            writer.write('\uFEFF');
+            writeLine(columns);
+        }
+
+        @Override
+        public void write(Document record) throws IOException {
+            writeLine(columns.stream().map(column -> cellText(record.get(column))).collect(Collectors.toList()));
+        }
+
+        private void writeLine(List<String> values) throws IOException {
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(escape(values.get(i)));
+            }
+            writer.write("\r\n");
+        }
+
+        private static String escape(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.flush();
+        }
+    }
+
+    /**
+     * SXSSF keeps only the last ROW_WINDOW rows in memory and spills the rest to a temp file; the zip can only be
+     * produced once all rows are known, so the bytes reach the client on close.
+     */
+    private static class XlsxWriter extends QcRecordExportWriter {
+        private static final int ROW_WINDOW = 100;
+
+        private final OutputStream outputStream;
+        private final SXSSFWorkbook workbook;
+        private final SXSSFSheet sheet;
+        private int rowNum = 0;
+
+        private XlsxWriter(OutputStream outputStream, List<String> columns) {
+            super(columns);
+            this.outputStream = outputStream;
+            this.workbook = new SXSSFWorkbook(ROW_WINDOW);
+            this.workbook.setCompressTempFiles(true);
+            this.sheet = workbook.createSheet("QC Records");
+
+            CellStyle headerStyle = workbook.createCellStyle();
+            Font font = workbook.createFont();
+            font.setBold(true);
+            headerStyle.setFont(font);
+
+            Row headerRow = sheet.createRow(rowNum++);
+            for (int i = 0; i < columns.size(); i++) {
+                Cell cell = headerRow.createCell(i);
+                cell.setCellValue(columns.get(i));
+                cell.setCellStyle(headerStyle);
+            }
+        }
+
+        @Override
+        public void write(Document record) {
+            Row row = sheet.createRow(rowNum++);
+            for (int i = 0; i < columns.size(); i++) {
+                Object value = record.get(columns.get(i));
+                Cell cell = row.createCell(i);
+                if (value instanceof Number && !(value instanceof Long)) {
+                    cell.setCellValue(((Number) value).doubleValue());
+                } else {
+                    cell.setCellValue(cellText(value));
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Rows beyond the window are already on disk, nothing can be sent before the workbook is complete
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!aborted) {
+                    workbook.write(outputStream);
+                    outputStream.flush();
+                }
+            } finally {
+                workbook.dispose();
+                workbook.close();
+            }
+        }
+    }
+}
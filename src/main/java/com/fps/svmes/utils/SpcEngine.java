@@ -0,0 +1,431 @@
+package com.fps.svmes.utils;
+
+import com.fps.svmes.dto.dtos.spc.SPCChartDTO;
+import com.fps.svmes.dto.dtos.spc.SPCChartPointDTO;
+import com.fps.svmes.dto.dtos.spc.SPCSummaryDTO;
+import com.fps.svmes.dto.dtos.spc.TimeSeriesDTO;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SPC statistics over a time-ordered series of primitive (epoch millis, value) pairs. One pass accumulates the
+ * overall mean/variance (Welford), the moving ranges and the subgroups; limits and points are derived from the
+ * per-subgroup arrays afterwards, so the raw values are never boxed.
+ */
+public final class SpcEngine {
+
+    public static final String CHART_I_MR = "I-MR";
+    public static final String CHART_XBAR_R = "XBAR-R";
+
+    // Bias-correction constants d2 and d3 of the relative range for subgroup sizes 0..25
+    private static final double[] D2 = {Double.NaN, Double.NaN,
+            1.128, 1.693, 2.059, 2.326, 2.534, 2.704, 2.847, 2.970, 3.078,
+            3.173, 3.258, 3.336, 3.407, 3.472, 3.532, 3.588, 3.640, 3.689, 3.735,
+            3.778, 3.819, 3.858, 3.895, 3.931};
+    private static final double[] D3 = {Double.NaN, Double.NaN,
+            0.853, 0.888, 0.880, 0.864, 0.848, 0.833, 0.820, 0.808, 0.797,
+            0.787, 0.778, 0.770, 0.763, 0.756, 0.750, 0.744, 0.739, 0.734, 0.729,
+            0.724, 0.720, 0.716, 0.712, 0.708};
+    public static final int MAX_RANGE_SUBGROUP_SIZE = D2.length - 1;
+
+    private SpcEngine() {
+    }
+
+    public static SpcEngine.Result compute(Series series, Options options) {
+        int size = series.size;
+        long[] times = series.times;
+        double[] values = series.values;
+        boolean subgrouped = options.bucketMillis > 0 || options.subgroupSize > 1;
+
+        double mean = 0;
+        double m2 = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double movingRangeSum = 0;
+
+        Subgroups subgroups = subgrouped ? new Subgroups(Math.max(16, size / Math.max(1, options.subgroupSize))) : null;
+        int groupCount = 0;
+        double groupMean = 0;
+        double groupM2 = 0;
+        double groupMin = 0;
+        double groupMax = 0;
+        long groupStart = 0;
+        long groupKey = Long.MIN_VALUE;
+
+        for (int i = 0; i < size; i++) {
+            double x = values[i];
+            double delta = x - mean;
+            mean += delta / (i + 1);
+            m2 += delta * (x - mean);
+            if (x < min) min = x;
+            if (x > max) max = x;
+            if (i > 0) {
+                movingRangeSum += Math.abs(x - values[i - 1]);
+            }
+
+            if (subgrouped) {
+                long key = options.bucketMillis > 0 ? Math.floorDiv(times[i] - options.bucketOrigin, options.bucketMillis) : 0;
+                if (groupCount > 0 && options.bucketMillis > 0 && key != groupKey) {
+                    subgroups.add(groupStart, groupMean, groupMax - groupMin, groupCount, groupM2);
+                    groupCount = 0;
+                }
+                if (groupCount == 0) {
+                    groupKey = key;
+                    groupStart = times[i];
+                    groupMean = 0;
+                    groupM2 = 0;
+                    groupMin = x;
+                    groupMax = x;
+                }
+                groupCount++;
+                double groupDelta = x - groupMean;
+                groupMean += groupDelta / groupCount;
+                groupM2 += groupDelta * (x - groupMean);
+                if (x < groupMin) groupMin = x;
+                if (x > groupMax) groupMax = x;
+                if (options.bucketMillis <= 0 && groupCount == options.subgroupSize) {
+                    subgroups.add(groupStart, groupMean, groupMax - groupMin, groupCount, groupM2);
+                    groupCount = 0;
+                }
+            }
+        }
+        // A trailing time bucket is a subgroup; a trailing incomplete fixed-size subgroup is left out
+        if (subgrouped && groupCount > 0 && options.bucketMillis > 0) {
+            subgroups.add(groupStart, groupMean, groupMax - groupMin, groupCount, groupM2);
+        }
+
+        SPCSummaryDTO summary = new SPCSummaryDTO();
+        summary.setCount(size);
+        if (size == 0) {
+            return new Result(summary, null);
+        }
+        Double stdDev = size > 1 ? Math.sqrt(m2 / (size - 1)) : null;
+        Double sigmaMovingRange = size > 1 ? movingRangeSum / (size - 1) / D2[2] : null;
+        summary.setMean(mean);
+        summary.setMin(min);
+        summary.setMax(max);
+        summary.setStdDev(stdDev);
+        summary.setSigmaMovingRange(sigmaMovingRange);
+        if (subgrouped) {
+            summary.setSigmaPooled(subgroups.pooledSigma());
+        }
+        Double sigmaWithin = subgrouped ? summary.getSigmaPooled() : sigmaMovingRange;
+        summary.setCp(potential(options.lsl, options.usl, sigmaWithin));
+        summary.setCpk(performance(options.lsl, options.usl, mean, sigmaWithin));
+        summary.setPp(potential(options.lsl, options.usl, stdDev));
+        summary.setPpk(performance(options.lsl, options.usl, mean, stdDev));
+
+        SPCChartDTO chart = subgrouped
+                ? xbarRChart(subgroups, mean, options)
+                : individualsChart(series, mean, sigmaMovingRange, options);
+        return new Result(summary, chart);
+    }
+
+    private static SPCChartDTO individualsChart(Series series, double mean, Double sigma, Options options) {
+        SPCChartDTO chart = new SPCChartDTO();
+        chart.setType(CHART_I_MR);
+        chart.setSubgroupSize(1);
+        chart.setSubgroupCount(series.size);
+        chart.setCenterLine(mean);
+        if (sigma != null) {
+            double movingRangeMean = sigma * D2[2];
+            chart.setSigma(sigma);
+            chart.setLcl(mean - 3 * sigma);
+            chart.setUcl(mean + 3 * sigma);
+            chart.setRangeCenterLine(movingRangeMean);
+            chart.setRangeLcl(0.0);
+            chart.setRangeUcl(movingRangeMean + 3 * D3[2] * sigma);
+        }
+        if (options.includePoints) {
+            int[] indices = downsample(series.values, series.size, options.maxPoints);
+            List<SPCChartPointDTO> points = new ArrayList<>(indices.length);
+            for (int i : indices) {
+                SPCChartPointDTO point = new SPCChartPointDTO();
+                point.setTimestamp(new Timestamp(series.times[i]));
+                point.setValue(series.values[i]);
+                if (i > 0) {
+                    point.setRange(Math.abs(series.values[i] - series.values[i - 1]));
+                }
+                points.add(point);
+            }
+            chart.setPoints(points);
+        }
+        return chart;
+    }
+
+    private static SPCChartDTO xbarRChart(Subgroups subgroups, double mean, Options options) {
+        SPCChartDTO chart = new SPCChartDTO();
+        chart.setType(CHART_XBAR_R);
+        chart.setSubgroupCount(subgroups.size);
+        chart.setCenterLine(mean);
+        Double sigma = subgroups.rangeSigma();
+        chart.setSigma(sigma);
+
+        int commonSize = subgroups.commonSize();
+        if (commonSize > 0) {
+            chart.setSubgroupSize(commonSize);
+            if (sigma != null) {
+                chart.setLcl(mean - 3 * sigma / Math.sqrt(commonSize));
+                chart.setUcl(mean + 3 * sigma / Math.sqrt(commonSize));
+                if (commonSize >= 2 && commonSize <= MAX_RANGE_SUBGROUP_SIZE) {
+                    chart.setRangeCenterLine(D2[commonSize] * sigma);
+                    chart.setRangeLcl(Math.max(0, (D2[commonSize] - 3 * D3[commonSize]) * sigma));
+                    chart.setRangeUcl((D2[commonSize] + 3 * D3[commonSize]) * sigma);
+                }
+            }
+        }
+
+        if (options.includePoints) {
+            int[] indices = downsample(subgroups.means, subgroups.size, options.maxPoints);
+            List<SPCChartPointDTO> points = new ArrayList<>(indices.length);
+            for (int i : indices) {
+                int n = subgroups.counts[i];
+                SPCChartPointDTO point = new SPCChartPointDTO();
+                point.setTimestamp(new Timestamp(subgroups.starts[i]));
+                point.setValue(subgroups.means[i]);
+                point.setN(n);
+                if (n >= 2) {
+                    point.setRange(subgroups.ranges[i]);
+                }
+                if (commonSize == 0 && sigma != null) {
+                    point.setLcl(mean - 3 * sigma / Math.sqrt(n));
+                    point.setUcl(mean + 3 * sigma / Math.sqrt(n));
+                    if (n >= 2 && n <= MAX_RANGE_SUBGROUP_SIZE) {
+                        point.setRangeLcl(Math.max(0, (D2[n] - 3 * D3[n]) * sigma));
+                        point.setRangeUcl((D2[n] + 3 * D3[n]) * sigma);
+                    }
+                }
+                points.add(point);
+            }
+            chart.setPoints(points);
+        }
+        return chart;
+    }
+
+    private static Double potential(Double lsl, Double usl, Double sigma) {
+        if (lsl == null || usl == null || sigma == null || sigma <= 0) {
+            return null;
+        }
+        return (usl - lsl) / (6 * sigma);
+    }
+
+    private static Double performance(Double lsl, Double usl, double mean, Double sigma) {
+        if (sigma == null || sigma <= 0 || (lsl == null && usl == null)) {
+            return null;
+        }
+        double upper = usl != null ? (usl - mean) / (3 * sigma) : Double.POSITIVE_INFINITY;
+        double lower = lsl != null ? (mean - lsl) / (3 * sigma) : Double.POSITIVE_INFINITY;
+        return Math.min(upper, lower);
+    }
+
+    /**
+     * Indices to plot, in order: all of them when they fit, otherwise the first, the last and the min and max of
+     * each of maxPoints / 2 buckets, so excursions survive the downsampling.
+     */
+    public static int[] downsample(double[] values, int size, Integer maxPoints) {
+        if (maxPoints == null || size <= maxPoints || maxPoints < 2) {
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int buckets = Math.max(1, maxPoints / 2);
+        int[] picked = new int[buckets * 2 + 2];
+        int count = 0;
+        picked[count++] = 0;
+        for (int b = 0; b < buckets; b++) {
+            int from = (int) ((long) b * size / buckets);
+            int to = (int) ((long) (b + 1) * size / buckets);
+            if (from >= to) {
+                continue;
+            }
+            int minIndex = from;
+            int maxIndex = from;
+            for (int i = from + 1; i < to; i++) {
+                if (values[i] < values[minIndex]) minIndex = i;
+                if (values[i] > values[maxIndex]) maxIndex = i;
+            }
+            int first = Math.min(minIndex, maxIndex);
+            int second = Math.max(minIndex, maxIndex);
+            if (first != picked[count - 1]) picked[count++] = first;
+            if (second != picked[count - 1]) picked[count++] = second;
+        }
+        if (picked[count - 1] != size - 1) {
+            picked[count++] = size - 1;
+        }
+        return Arrays.copyOf(picked, count);
+    }
+
+    public static List<TimeSeriesDTO> toTimeSeries(Series series, Integer maxPoints) {
+        int[] indices = downsample(series.values, series.size, maxPoints);
+        List<TimeSeriesDTO> points = new ArrayList<>(indices.length);
+        for (int i : indices) {
+            points.add(new TimeSeriesDTO(new Timestamp(series.times[i]), series.values[i]));
+        }
+        return points;
+    }
+
+    public static class Options {
+        private final int subgroupSize;
+        private final long bucketMillis;
+        private final long bucketOrigin;
+        private final Double lsl;
+        private final Double usl;
+        private final Integer maxPoints;
+        private final boolean includePoints;
+
+        /**
+         * @param subgroupSize  points per subgroup, 1 for individuals; ignored when bucketMillis is set
+         * @param bucketMillis  subgroup by time bucket of this length, aligned to bucketOrigin; 0 to disable
+         * @param lsl           lower specification limit, may be null
+         * @param usl           upper specification limit, may be null
+         * @param maxPoints     downsampling target for chart points, null for all
+         */
+        public Options(int subgroupSize, long bucketMillis, long bucketOrigin, Double lsl, Double usl,
+                       Integer maxPoints, boolean includePoints) {
+            this.subgroupSize = Math.max(1, subgroupSize);
+            this.bucketMillis = Math.max(0, bucketMillis);
+            this.bucketOrigin = bucketOrigin;
+            this.lsl = lsl;
+            this.usl = usl;
+            this.maxPoints = maxPoints;
+            this.includePoints = includePoints;
+        }
+    }
+
+    public static class Result {
+        private final SPCSummaryDTO summary;
+        private final SPCChartDTO chart;
+
+        private Result(SPCSummaryDTO summary, SPCChartDTO chart) {
+            this.summary = summary;
+            this.chart = chart;
+        }
+
+        public SPCSummaryDTO getSummary() {
+            return summary;
+        }
+
+        public SPCChartDTO getChart() {
+            return chart;
+        }
+    }
+
+    /**
+     * Growable (epoch millis, value) arrays, expected in time order.
+     */
+    public static class Series {
+        private long[] times;
+        private double[] values;
+        private int size;
+
+        public Series() {
+            this(64);
+        }
+
+        public Series(int capacity) {
+            this.times = new long[Math.max(1, capacity)];
+            this.values = new double[Math.max(1, capacity)];
+        }
+
+        public void add(long time, double value) {
+            if (size == values.length) {
+                grow(size + 1);
+            }
+            times[size] = time;
+            values[size] = value;
+            size++;
+        }
+
+        public void addAll(Series other) {
+            if (size + other.size > values.length) {
+                grow(size + other.size);
+            }
+            System.arraycopy(other.times, 0, times, size, other.size);
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private void grow(int minCapacity) {
+            int capacity = Math.max(minCapacity, values.length * 2);
+            times = Arrays.copyOf(times, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static class Subgroups {
+        private long[] starts;
+        private double[] means;
+        private double[] ranges;
+        private int[] counts;
+        private int size;
+        private double pooledSumSquares;
+        private long pooledDegrees;
+        private double rangeSigmaSum;
+        private int rangeSigmaCount;
+
+        private Subgroups(int capacity) {
+            starts = new long[capacity];
+            means = new double[capacity];
+            ranges = new double[capacity];
+            counts = new int[capacity];
+        }
+
+        private void add(long start, double mean, double range, int count, double sumSquares) {
+            if (size == means.length) {
+                int capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                means = Arrays.copyOf(means, capacity);
+                ranges = Arrays.copyOf(ranges, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            starts[size] = start;
+            means[size] = mean;
+            ranges[size] = range;
+            counts[size] = count;
+            size++;
+
+            if (count >= 2) {
+                pooledSumSquares += sumSquares;
+                pooledDegrees += count - 1;
+                // R/d2 per subgroup; past the d2 table S/c4 (c4 ~ 4(n-1)/(4n-3)) estimates sigma instead
+                rangeSigmaSum += count <= MAX_RANGE_SUBGROUP_SIZE
+                        ? range / D2[count]
+                        : Math.sqrt(sumSquares / (count - 1)) * (4.0 * count - 3) / (4.0 * (count - 1));
+                rangeSigmaCount++;
+            }
+        }
+
+        private Double pooledSigma() {
+            return pooledDegrees > 0 ? Math.sqrt(pooledSumSquares / pooledDegrees) : null;
+        }
+
+        private Double rangeSigma() {
+            return rangeSigmaCount > 0 ? rangeSigmaSum / rangeSigmaCount : null;
+        }
+
+        /**
+         * Size shared by every subgroup, or 0 when they differ.
+         */
+        private int commonSize() {
+            if (size == 0) {
+                return 0;
+            }
+            int common = counts[0];
+            for (int i = 1; i < size; i++) {
+                if (counts[i] != common) {
+                    return 0;
+                }
+            }
+            return common;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.fps.svmes.utils;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Global directory of form submissions: submission _id -> (template id, monthly collection, created_at, version group).
+ * Lets a submission or version group be found with one indexed read instead of guessing or scanning partitions.
+ * Submissions saved before the directory existed are found by the callers' old lookup and registered then.
+ */
+@Slf4j
+@Component
+public class SubmissionDirectory {
+
+    public static final String COLLECTION = "form_submission_directory";
+    private static final String VERSION_GROUP_INDEX = "idx_version_group_id";
+
+    private final MongoClient mongoClient;
+
+    @Value("${spring.data.mongodb.database}")
+    private String mongoDatabaseName;
+
+    @Autowired
+    public SubmissionDirectory(MongoClient mongoClient) {
+        this.mongoClient = mongoClient;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        try {
+            getCollection().createIndex(Indexes.ascending("version_group_id"),
+                    new IndexOptions().name(VERSION_GROUP_INDEX).sparse(true));
+        } catch (Exception e) {
+            log.warn("Failed to ensure indexes on {}: {}", COLLECTION, e.getMessage());
+        }
+    }
+
+    /**
+     * Record where a stored submission lives. Idempotent, so it is also used to refresh an entry
+     * (e.g. when a parent first gets a version_group_id). Failures are logged, lookups fall back to scanning.
+     */
+    public void register(String collectionName, Document submission) {
+        try {
+            getCollection().replaceOne(Filters.eq("_id", submission.getObjectId("_id")),
+                    toEntry(collectionName, submission), new ReplaceOptions().upsert(true));
+        } catch (Exception e) {
+            log.warn("Failed to register submission {} in the directory: {}", submission.get("_id"), e.getMessage());
+        }
+    }
+
+    public void registerAll(String collectionName, List<Document> submissions) {
+        if (submissions.isEmpty()) {
+            return;
+        }
+        List<WriteModel<Document>> writes = new ArrayList<>(submissions.size());
+        for (Document submission : submissions) {
+            writes.add(new ReplaceOneModel<>(Filters.eq("_id", submission.getObjectId("_id")),
+                    toEntry(collectionName, submission), new ReplaceOptions().upsert(true)));
+        }
+        try {
+            getCollection().bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        } catch (Exception e) {
+            log.warn("Failed to register {} submissions of {} in the directory: {}",
+                    submissions.size(), collectionName, e.getMessage());
+        }
+    }
+
+    /**
+     * Collection holding the submission, if it is in the directory.
+     */
+    public Optional<String> findCollection(String submissionId) {
+        if (!ObjectId.isValid(submissionId)) {
+            return Optional.empty();
+        }
+        Document entry = getCollection().find(Filters.eq("_id", new ObjectId(submissionId)))
+                .projection(Projections.include("collection"))
+                .first();
+        return entry == null ? Optional.empty() : Optional.ofNullable(entry.getString("collection"));
+    }
+
+    /**
+     * Collections holding versions of the group. Edits are stored next to their parent, so this is normally one.
+     */
+    public List<String> findGroupCollections(String versionGroupId) {
+        return getCollection().distinct("collection", Filters.eq("version_group_id", versionGroupId), String.class)
+                .into(new ArrayList<>());
+    }
+
+    public void removeAll(Collection<String> submissionIds) {
+        List<ObjectId> ids = new ArrayList<>();
+        for (String submissionId : submissionIds) {
+            if (ObjectId.isValid(submissionId)) {
+                ids.add(new ObjectId(submissionId));
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            getCollection().deleteMany(Filters.in("_id", ids));
+        } catch (Exception e) {
+            log.warn("Failed to remove {} submissions from the directory: {}", ids.size(), e.getMessage());
+        }
+    }
+
+    private static Document toEntry(String collectionName, Document submission) {
+        Document entry = new Document("_id", submission.getObjectId("_id"))
+                .append("template_id", FormCollectionCatalog.templateIdOf(collectionName))
+                .append("collection", collectionName)
+                .append("created_at", submission.get("created_at"));
+        if (submission.get("version_group_id") != null) {
+            entry.append("version_group_id", submission.get("version_group_id"));
+        }
+        return entry;
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoClient.getDatabase(mongoDatabaseName).getCollection(COLLECTION);
+    }
+}
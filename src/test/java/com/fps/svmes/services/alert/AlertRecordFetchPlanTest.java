@@ -0,0 +1,127 @@
+package com.fps.svmes.services.alert;
+
+import com.fps.svmes.models.sql.alert.*;
+import com.fps.svmes.repositories.jpaRepo.alert.AlertRecordRepository;
+import com.fps.svmes.utils.DetailedAlertRecordMapper;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * SQL statements Hibernate prepares for one page of the detailed alert list (the page query, its count, one IN query
+ * per lazy association and one lookup per referenced table), measured against an in-memory database. The count must
+ * not grow with the number of rows on the page.
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:alerts;NON_KEYWORDS=USER",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.hbm2ddl.create_namespaces=true",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+public class AlertRecordFetchPlanTest {
+
+    private static final int ALERTS = 60;
+
+    @SpringBootConfiguration
+    @EntityScan("com.fps.svmes.models.sql")
+    @EnableJpaRepositories("com.fps.svmes.repositories.jpaRepo")
+    @Import(DetailedAlertRecordMapper.class)
+    static class Config {
+        @Bean
+        ModelMapper modelMapper() {
+            return new ModelMapper();
+        }
+    }
+
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private AlertRecordRepository alertRecordRepository;
+    @Autowired
+    private DetailedAlertRecordMapper detailedAlertRecordMapper;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < ALERTS; i++) {
+            AlertRecord alert = new AlertRecord();
+            alert.setAlertCode("ALERT-" + i);
+            alert.setQcFormTemplateId(1L + i % 3);
+            alert.setInspectionItemKey("field" + i % 5);
+            alert.setAlertStatus(1);
+            alert.setRiskLevelId(1);
+            alert.setAlertType("number");
+            alert.setCreationDetails(1, 1);
+            entityManager.persist(alert);
+
+            AlertProduct product = new AlertProduct();
+            product.setId(new AlertProductId(alert.getId(), 100L + i % 4));
+            product.setAlert(alert);
+            entityManager.persist(product);
+
+            AlertBatch batch = new AlertBatch();
+            batch.setId(new AlertBatchId(alert.getId(), 200L + i % 4));
+            batch.setAlert(alert);
+            entityManager.persist(batch);
+
+            AlertInspector inspector = new AlertInspector();
+            inspector.setId(new AlertInspectorId(alert.getId(), 300L + i % 4));
+            inspector.setAlert(alert);
+            entityManager.persist(inspector);
+
+            AlertReviewer reviewer = new AlertReviewer();
+            reviewer.setId(new AlertReviewerId(alert.getId(), 400L + i % 4));
+            reviewer.setAlert(alert);
+            entityManager.persist(reviewer);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    @DisplayName("A 50-row page prepares the same number of statements as a 10-row page")
+    void testStatementCountIsConstantPerPage() {
+        long tenRows = statementsForPage(10);
+        long fiftyRows = statementsForPage(50);
+
+        assertEquals(tenRows, fiftyRows);
+    }
+
+    private long statementsForPage(int size) {
+        entityManager.clear();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        List<AlertRecord> page = alertRecordRepository
+                .findAll(PageRequest.of(0, size, Sort.by(Sort.Direction.DESC, "createdAt")))
+                .getContent();
+        assertEquals(size, detailedAlertRecordMapper.toDetailed(page).size());
+
+        return statistics.getPrepareStatementCount();
+    }
+}
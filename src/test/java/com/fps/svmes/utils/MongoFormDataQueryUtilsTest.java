@@ -0,0 +1,154 @@
+package com.fps.svmes.utils;
+
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * optionValues (incremental rollups) must count a stored value exactly like optionValuesExpression (rebuilds and
+ * the raw dashboard counts). The expression is run through a small evaluator of the operators it uses; the
+ * pipelines drop the null items it yields with {@code $match: {vals: {$ne: null}}}, so those are dropped here too.
+ */
+public class MongoFormDataQueryUtilsTest {
+
+    private static final Object MISSING = new Object();
+
+    private static final List<Object> STORED_VALUES = Arrays.asList(
+            MISSING,
+            null,
+            3,
+            7L,
+            "3",
+            2.0,
+            true,
+            List.of(),
+            List.of(1, 2, 2),
+            List.of(1L, 4L, (long) Integer.MAX_VALUE + 1),
+            List.of("1", "-2", "x", "2.5", "", "99999999999"),
+            Arrays.asList(1, null, 2.0, true, "5"),
+            List.of(List.of(1), new Document("v", 1)),
+            new Document("v", 1)
+    );
+
+    @Test
+    @DisplayName("optionValues and optionValuesExpression agree on every kind of stored value")
+    void javaMatchesAggregation() {
+        Document expression = MongoFormDataQueryUtils.optionValuesExpression("$v");
+        for (Object stored : STORED_VALUES) {
+            Document root = stored == MISSING ? new Document() : new Document("v", stored);
+            List<Object> aggregated = new ArrayList<>((List<?>) evaluate(expression, root, Map.of()));
+            aggregated.removeIf(Objects::isNull);
+
+            Object javaInput = stored == MISSING ? null : stored;
+            assertEquals(aggregated, new ArrayList<>(MongoFormDataQueryUtils.optionValues(javaInput)),
+                    "stored value " + (stored == MISSING ? "<missing>" : stored));
+        }
+    }
+
+    @Test
+    @DisplayName("Scalar ints count as themselves, list items when they are ints or int strings")
+    void optionValues() {
+        assertEquals(List.of(3), MongoFormDataQueryUtils.optionValues(3));
+        assertEquals(List.of(1, 2, 5), MongoFormDataQueryUtils.optionValues(Arrays.asList(1, "2", "x", 5L, 4.0)));
+        assertEquals(List.of(), MongoFormDataQueryUtils.optionValues("3"));
+        assertEquals(List.of(), MongoFormDataQueryUtils.optionValues(null));
+    }
+
+    private static Object evaluate(Object expression, Document root, Map<String, Object> variables) {
+        if (expression instanceof String path && path.startsWith("$$")) {
+            return variables.getOrDefault(path.substring(2), MISSING);
+        }
+        if (expression instanceof String path && path.startsWith("$")) {
+            return root.containsKey(path.substring(1)) ? root.get(path.substring(1)) : MISSING;
+        }
+        if (expression instanceof List<?> list) {
+            List<Object> values = new ArrayList<>();
+            list.forEach(item -> values.add(evaluate(item, root, variables)));
+            return values;
+        }
+        if (!(expression instanceof Document operator)) {
+            return expression;
+        }
+        assertEquals(1, operator.size(), "one operator per expression: " + operator.toJson());
+        String name = operator.keySet().iterator().next();
+        Object argument = operator.get(name);
+        switch (name) {
+            case "$cond": {
+                List<?> branches = (List<?>) argument;
+                return Boolean.TRUE.equals(evaluate(branches.get(0), root, variables))
+                        ? evaluate(branches.get(1), root, variables)
+                        : evaluate(branches.get(2), root, variables);
+            }
+            case "$isArray":
+                return evaluate(argument, root, variables) instanceof List<?>;
+            case "$map": {
+                Document spec = (Document) argument;
+                Object input = evaluate(spec.get("input"), root, variables);
+                List<Object> mapped = new ArrayList<>();
+                for (Object item : (List<?>) input) {
+                    Map<String, Object> scope = new HashMap<>(variables);
+                    scope.put(spec.getString("as"), item);
+                    mapped.add(evaluate(spec.get("in"), root, scope));
+                }
+                return mapped;
+            }
+            case "$in": {
+                List<?> operands = (List<?>) evaluate(argument, root, variables);
+                return ((List<?>) operands.get(1)).contains(operands.get(0));
+            }
+            case "$eq": {
+                List<?> operands = (List<?>) evaluate(argument, root, variables);
+                return Objects.equals(operands.get(0), operands.get(1));
+            }
+            case "$type":
+                return typeOf(evaluate(argument, root, variables));
+            case "$convert": {
+                Document spec = (Document) argument;
+                assertEquals("int", spec.get("to"));
+                Object input = evaluate(spec.get("input"), root, variables);
+                if (input == null || input == MISSING) {
+                    return spec.get("onNull");
+                }
+                Integer converted = toInt(input);
+                return converted != null ? converted : spec.get("onError");
+            }
+            default:
+                return fail("operator not covered by the test evaluator: " + name);
+        }
+    }
+
+    private static String typeOf(Object value) {
+        if (value == MISSING) return "missing";
+        if (value == null) return "null";
+        if (value instanceof Integer) return "int";
+        if (value instanceof Long) return "long";
+        if (value instanceof Double) return "double";
+        if (value instanceof String) return "string";
+        if (value instanceof Boolean) return "bool";
+        if (value instanceof List<?>) return "array";
+        if (value instanceof Document) return "object";
+        return fail("unexpected stored type " + value.getClass());
+    }
+
+    // $convert to int: ints as is, longs within range, base-10 integer strings; anything else is an error
+    private static Integer toInt(Object value) {
+        if (value instanceof Integer number) {
+            return number;
+        }
+        if (value instanceof Long number) {
+            return number == number.intValue() ? number.intValue() : null;
+        }
+        if (value instanceof String text && text.matches("-?\\d+")) {
+            try {
+                return Integer.parseInt(text);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
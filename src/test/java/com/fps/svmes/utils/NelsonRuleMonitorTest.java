@@ -0,0 +1,93 @@
+package com.fps.svmes.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Nelson rules 2-8 on standardized values, oldest first; each run is built to trip exactly one rule.
+ */
+public class NelsonRuleMonitorTest {
+
+    private static List<String> violations(double... z) {
+        return NelsonRuleMonitor.Window.violations(z);
+    }
+
+    private static double[] repeat(double value, int times) {
+        double[] z = new double[times];
+        Arrays.fill(z, value);
+        return z;
+    }
+
+    private static double[] alternate(double value, int times) {
+        double[] z = new double[times];
+        for (int i = 0; i < times; i++) {
+            z[i] = i % 2 == 0 ? value : -value;
+        }
+        return z;
+    }
+
+    @Test
+    @DisplayName("Rule 2: nine points on the same side of the centre line")
+    void rule2() {
+        assertEquals(List.of("NELSON_2"), violations(repeat(0.5, 9)));
+        assertEquals(List.of("NELSON_2"), violations(repeat(-0.5, 9)));
+        assertEquals(List.of(), violations(repeat(0.5, 8)));
+    }
+
+    @Test
+    @DisplayName("Rule 3: six points steadily increasing or decreasing")
+    void rule3() {
+        assertEquals(List.of("NELSON_3"), violations(0.1, 0.2, 0.3, 0.4, 0.5, 0.6));
+        assertEquals(List.of("NELSON_3"), violations(0.6, 0.4, 0.2, 0, -0.2, -0.4));
+        assertEquals(List.of(), violations(0.1, 0.2, 0.3, 0.3, 0.5, 0.6));
+    }
+
+    @Test
+    @DisplayName("Rule 4: fourteen points alternating up and down")
+    void rule4() {
+        assertEquals(List.of("NELSON_4"), violations(alternate(0.5, 14)));
+        assertEquals(List.of(), violations(alternate(0.5, 13)));
+    }
+
+    @Test
+    @DisplayName("Rule 5: two of three beyond 2 sigma on one side, the newest among them")
+    void rule5() {
+        assertEquals(List.of("NELSON_5"), violations(2.5, 0.5, 2.5));
+        assertEquals(List.of("NELSON_5"), violations(-2.1, 0, -2.5));
+        assertEquals(List.of(), violations(2.5, 2.5, 0.5));
+        assertEquals(List.of(), violations(2.5, 0, -2.5));
+    }
+
+    @Test
+    @DisplayName("Rule 6: four of five beyond 1 sigma on one side, the newest among them")
+    void rule6() {
+        assertEquals(List.of("NELSON_6"), violations(1.5, 1.2, 0.5, 1.1, 1.3));
+        assertEquals(List.of(), violations(1.5, 1.2, 0.5, 0.5, 1.3));
+    }
+
+    @Test
+    @DisplayName("Rule 7: fifteen points within 1 sigma")
+    void rule7() {
+        assertEquals(List.of("NELSON_7"), violations(repeat(0, 15)));
+        assertEquals(List.of(), violations(repeat(0, 14)));
+    }
+
+    @Test
+    @DisplayName("Rule 8: eight points beyond 1 sigma on both sides")
+    void rule8() {
+        assertEquals(List.of("NELSON_8"), violations(alternate(1.5, 8)));
+        assertEquals(List.of(), violations(repeat(1.5, 8)).stream().filter("NELSON_8"::equals).toList());
+    }
+
+    @Test
+    @DisplayName("A point near the centre after an in-control run trips nothing")
+    void inControl() {
+        assertEquals(List.of(), violations(0.3, -0.8, 0.1, 1.2, -0.4));
+        assertEquals(List.of(), violations(0.0));
+    }
+}
@@ -0,0 +1,140 @@
+package com.fps.svmes.utils;
+
+import com.fps.svmes.dto.dtos.spc.SPCChartDTO;
+import com.fps.svmes.dto.dtos.spc.SPCSummaryDTO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Limits and capability indices against the textbook control chart constants (Montgomery, Appendix VI).
+ */
+public class SpcEngineTest {
+
+    private static final double TOLERANCE = 1e-3;
+
+    private static SpcEngine.Series series(double... values) {
+        SpcEngine.Series series = new SpcEngine.Series();
+        for (int i = 0; i < values.length; i++) {
+            series.add(1_000L * i, values[i]);
+        }
+        return series;
+    }
+
+    private static SpcEngine.Options individuals(Double lsl, Double usl) {
+        return new SpcEngine.Options(1, 0, 0, lsl, usl, null, false);
+    }
+
+    @Test
+    @DisplayName("I-MR limits are X̄ ± 2.660·MR̄ and MR UCL is 3.267·MR̄")
+    void individualsLimits() {
+        // Moving ranges 2, 1, 4, 2: MR̄ = 2.25, X̄ = 12.2
+        SPCChartDTO chart = SpcEngine.compute(series(10, 12, 11, 15, 13), individuals(null, null)).getChart();
+
+        assertEquals(SpcEngine.CHART_I_MR, chart.getType());
+        assertEquals(12.2, chart.getCenterLine(), TOLERANCE);
+        assertEquals(2.25 / 1.128, chart.getSigma(), TOLERANCE);
+        assertEquals(12.2 + 2.660 * 2.25, chart.getUcl(), 0.005);
+        assertEquals(12.2 - 2.660 * 2.25, chart.getLcl(), 0.005);
+        assertEquals(2.25, chart.getRangeCenterLine(), TOLERANCE);
+        assertEquals(3.267 * 2.25, chart.getRangeUcl(), 0.005);
+        assertEquals(0.0, chart.getRangeLcl());
+    }
+
+    @Test
+    @DisplayName("X̄-R limits for n = 5 use A2 = 0.577 and D4 = 2.114")
+    void xbarRLimits() {
+        // Subgroup means 3, 6, 7 and ranges 4, 8, 4: X̿ = R̄ = 16/3
+        SpcEngine.Series series = series(1, 2, 3, 4, 5, 2, 4, 6, 8, 10, 5, 6, 7, 8, 9);
+        SPCChartDTO chart = SpcEngine.compute(series, new SpcEngine.Options(5, 0, 0, null, null, null, false)).getChart();
+        double grandMean = 16.0 / 3;
+        double rangeMean = 16.0 / 3;
+
+        assertEquals(SpcEngine.CHART_XBAR_R, chart.getType());
+        assertEquals(5, chart.getSubgroupSize());
+        assertEquals(3, chart.getSubgroupCount());
+        assertEquals(grandMean, chart.getCenterLine(), TOLERANCE);
+        assertEquals(rangeMean / 2.326, chart.getSigma(), TOLERANCE);
+        assertEquals(grandMean + 0.577 * rangeMean, chart.getUcl(), 0.005);
+        assertEquals(grandMean - 0.577 * rangeMean, chart.getLcl(), 0.005);
+        assertEquals(rangeMean, chart.getRangeCenterLine(), TOLERANCE);
+        assertEquals(2.114 * rangeMean, chart.getRangeUcl(), 0.005);
+        assertEquals(0.0, chart.getRangeLcl());
+    }
+
+    @Test
+    @DisplayName("A trailing incomplete subgroup is left out of the X̄-R chart")
+    void incompleteSubgroupDropped() {
+        SpcEngine.Series series = series(1, 2, 3, 4, 5, 2, 4, 6, 8, 10, 5, 6);
+        SPCChartDTO chart = SpcEngine.compute(series, new SpcEngine.Options(5, 0, 0, null, null, null, false)).getChart();
+
+        assertEquals(2, chart.getSubgroupCount());
+        assertEquals(5, chart.getSubgroupSize());
+    }
+
+    @Test
+    @DisplayName("One-sided spec: Cp/Pp are undefined, Cpk/Ppk use the given limit only")
+    void oneSidedCapability() {
+        SPCSummaryDTO summary = SpcEngine.compute(series(10, 12, 11, 15, 13), individuals(null, 20.0)).getSummary();
+        double sigmaWithin = 2.25 / 1.128;
+        double stdDev = Math.sqrt(14.8 / 4);
+
+        assertNull(summary.getCp());
+        assertNull(summary.getPp());
+        assertEquals((20 - 12.2) / (3 * sigmaWithin), summary.getCpk(), TOLERANCE);
+        assertEquals((20 - 12.2) / (3 * stdDev), summary.getPpk(), TOLERANCE);
+
+        SPCSummaryDTO lower = SpcEngine.compute(series(10, 12, 11, 15, 13), individuals(5.0, null)).getSummary();
+        assertEquals((12.2 - 5) / (3 * sigmaWithin), lower.getCpk(), TOLERANCE);
+    }
+
+    @Test
+    @DisplayName("Two-sided spec: Cp = (USL - LSL) / 6σ and Cpk takes the nearer limit")
+    void twoSidedCapability() {
+        SPCSummaryDTO summary = SpcEngine.compute(series(10, 12, 11, 15, 13), individuals(4.0, 20.0)).getSummary();
+        double sigmaWithin = 2.25 / 1.128;
+
+        assertEquals(16 / (6 * sigmaWithin), summary.getCp(), TOLERANCE);
+        assertEquals((20 - 12.2) / (3 * sigmaWithin), summary.getCpk(), TOLERANCE);
+    }
+
+    @Test
+    @DisplayName("No points: only the count, no chart")
+    void emptySeries() {
+        SpcEngine.Result result = SpcEngine.compute(series(), individuals(0.0, 10.0));
+
+        assertEquals(0, result.getSummary().getCount());
+        assertNull(result.getSummary().getMean());
+        assertNull(result.getChart());
+    }
+
+    @Test
+    @DisplayName("One point: mean but no sigma, limits or capability")
+    void singlePoint() {
+        SpcEngine.Result result = SpcEngine.compute(series(7), individuals(0.0, 10.0));
+
+        assertEquals(7.0, result.getSummary().getMean());
+        assertNull(result.getSummary().getStdDev());
+        assertNull(result.getSummary().getSigmaMovingRange());
+        assertNull(result.getSummary().getCp());
+        assertNull(result.getSummary().getCpk());
+        assertEquals(7.0, result.getChart().getCenterLine());
+        assertNull(result.getChart().getUcl());
+        assertNull(result.getChart().getLcl());
+    }
+
+    @Test
+    @DisplayName("Constant values: sigma 0 gives collapsed limits and no capability indices")
+    void zeroSigma() {
+        SpcEngine.Result result = SpcEngine.compute(series(5, 5, 5, 5), individuals(0.0, 10.0));
+
+        assertEquals(0.0, result.getSummary().getStdDev());
+        assertNull(result.getSummary().getCp());
+        assertNull(result.getSummary().getCpk());
+        assertNull(result.getSummary().getPp());
+        assertNull(result.getSummary().getPpk());
+        assertEquals(5.0, result.getChart().getUcl());
+        assertEquals(5.0, result.getChart().getLcl());
+    }
+}